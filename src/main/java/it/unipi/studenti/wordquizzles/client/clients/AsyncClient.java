@@ -0,0 +1,574 @@
+package it.unipi.studenti.wordquizzles.client.clients;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import it.unipi.studenti.wordquizzles.shared.Configuration;
+import it.unipi.studenti.wordquizzles.shared.StaticUtilities;
+import it.unipi.studenti.wordquizzles.shared.wqp.RankingAdapter;
+import it.unipi.studenti.wordquizzles.shared.wqp.Round;
+import it.unipi.studenti.wordquizzles.shared.wqp.Statistics;
+import it.unipi.studenti.wordquizzles.shared.wqp.StatisticsAdapter;
+import it.unipi.studenti.wordquizzles.shared.wqp.StringListAdapter;
+import it.unipi.studenti.wordquizzles.shared.wqp.WQPException;
+import it.unipi.studenti.wordquizzles.shared.wqp.WQPResponse;
+
+/**
+ * AsyncClient è una connessione WQP non bloccante gestita da un AsyncTransport.
+ * Ogni comando restituisce un CompletableFuture del risultato tipizzato, che
+ * viene completato dal thread del trasporto all'arrivo della risposta
+ * corrispondente: le callback non devono quindi eseguire operazioni bloccanti.
+ * I messaggi non richiesti (parole della sfida, report) e gli inviti UDP
+ * vengono notificati ai listener registrati.
+ */
+public class AsyncClient implements AutoCloseable {
+
+    /**
+     * PendingRequest è una richiesta inviata al server in attesa di risposta.
+     */
+    private static class PendingRequest<T> {
+
+        // Identificativo della richiesta
+        private int id;
+
+        // Comando inviato al server
+        private String command;
+
+        // Funzione che converte i dati della risposta nel risultato
+        private Function<String, T> parser;
+
+        // Future da completare all'arrivo della risposta
+        private CompletableFuture<T> future;
+
+        private PendingRequest(int id, String command, Function<String, T> parser, CompletableFuture<T> future) {
+            this.id = id;
+            this.command = command;
+            this.parser = parser;
+            this.future = future;
+        }
+
+        /**
+         * Completa il future con la risposta del server.
+         *
+         * @param response Risposta del server.
+         */
+        private void complete(WQPResponse response) {
+            if (!response.isOk()) {
+                future.completeExceptionally(new WQPException(response.getData()));
+                return;
+            }
+            try {
+                future.complete(parser.apply(response.getData()));
+            } catch (RuntimeException e) {
+                future.completeExceptionally(new WQPException("Malformed response: " + response.getData()));
+            }
+        }
+    }
+
+    // Trasporto che gestisce la connessione
+    private AsyncTransport transport;
+
+    // Canale TCP con il server
+    private SocketChannel channel;
+
+    // Chiave del canale TCP nel selettore del trasporto
+    private SelectionKey key;
+
+    // Canale UDP su cui arrivano gli inviti
+    private DatagramChannel datagramChannel;
+
+    // Future completato quando la connessione è stabilita
+    private CompletableFuture<AsyncClient> connectFuture;
+
+    // Buffer da scrivere al server
+    private Queue<ByteBuffer> outgoing;
+
+    // Richieste in attesa di risposta per identificativo, in ordine di invio
+    private Map<Integer, PendingRequest<?>> pending;
+
+    // Identificativo della prossima richiesta (0 è riservato ai messaggi del server)
+    private int nextRequestId;
+
+    // Buffer che contiene l'intestazione del prossimo messaggio
+    private ByteBuffer headerBuffer;
+
+    // Identificativo della richiesta a cui risponde il messaggio in lettura
+    private int responseId;
+
+    // Buffer che contiene il messaggio in lettura, null se si sta leggendo l'intestazione
+    private ByteBuffer messageBuffer;
+
+    // Buffer che riceve i datagrammi
+    private ByteBuffer datagramBuffer;
+
+    // Indirizzi da cui sono arrivati gli inviti, per username dell'invitante
+    private ConcurrentMap<String, SocketAddress> invitations;
+
+    // Listener dei messaggi non richiesti
+    private volatile Consumer<WQPResponse> eventListener;
+
+    // Listener degli inviti
+    private volatile Consumer<String> invitationListener;
+
+    // Flag che indica se la connessione è chiusa
+    private volatile boolean closed;
+
+    /**
+     * Crea il client per un canale in fase di connessione.
+     *
+     * @param transport     Trasporto che gestisce la connessione.
+     * @param channel       Canale TCP non bloccante.
+     * @param connectFuture Future da completare a connessione stabilita.
+     */
+    AsyncClient(AsyncTransport transport, SocketChannel channel, CompletableFuture<AsyncClient> connectFuture) {
+        this.transport = transport;
+        this.channel = channel;
+        this.connectFuture = connectFuture;
+        outgoing = new ConcurrentLinkedQueue<>();
+        pending = new LinkedHashMap<>();
+        nextRequestId = 1;
+        headerBuffer = ByteBuffer.allocate(StaticUtilities.HEADER_LENGTH);
+        datagramBuffer = ByteBuffer.allocate(Configuration.USERNAME_MAX_LENGTH);
+        invitations = new ConcurrentHashMap<>();
+        closed = false;
+    }
+
+    /**
+     * Registra il listener dei messaggi inviati dal server senza una richiesta,
+     * come le parole e il report di una sfida.
+     *
+     * @param listener Listener invocato sul thread del trasporto.
+     */
+    public void setEventListener(Consumer<WQPResponse> listener) {
+        eventListener = listener;
+    }
+
+    /**
+     * Registra il listener degli inviti ricevuti via UDP.
+     *
+     * @param listener Listener invocato sul thread del trasporto con lo username dell'invitante.
+     */
+    public void setInvitationListener(Consumer<String> listener) {
+        invitationListener = listener;
+    }
+
+    /**
+     * Completa la connessione aprendo il canale UDP sullo stesso indirizzo locale.
+     *
+     * @param key Chiave del canale TCP registrato per la lettura.
+     * @throws IOException Se non è possibile aprire il canale UDP.
+     */
+    void connected(SelectionKey key) throws IOException {
+        this.key = key;
+        datagramChannel = DatagramChannel.open();
+        datagramChannel.configureBlocking(false);
+        datagramChannel.bind(channel.getLocalAddress());
+        datagramChannel.register(key.selector(), SelectionKey.OP_READ, this);
+        connectFuture.complete(this);
+    }
+
+    /**
+     * Gestisce un evento del selettore. Viene invocato solo dal thread del trasporto.
+     *
+     * @param readyKey Chiave pronta.
+     * @throws IOException Se non è possibile comunicare con il server.
+     */
+    void handle(SelectionKey readyKey) throws IOException {
+        if (!readyKey.isValid())
+            return;
+        if (readyKey.channel() == datagramChannel) {
+            receiveInvitation();
+            return;
+        }
+        if (readyKey.isConnectable()) {
+            channel.finishConnect();
+            readyKey.interestOps(SelectionKey.OP_READ);
+            connected(readyKey);
+            return;
+        }
+        if (readyKey.isReadable())
+            read();
+        if (readyKey.isValid() && readyKey.isWritable())
+            write();
+    }
+
+    /**
+     * Legge tutti i messaggi disponibili sul canale.
+     *
+     * @throws IOException Se non è possibile leggere dal canale.
+     */
+    private void read() throws IOException {
+        while (true) {
+            ByteBuffer buffer = (messageBuffer != null) ? messageBuffer : headerBuffer;
+            int bytesRead = channel.read(buffer);
+            if (bytesRead == -1)
+                throw new IOException("Connection closed by server");
+            if (buffer.hasRemaining())
+                return;
+            buffer.flip();
+            // Se ha appena letto l'intestazione alloca il buffer del messaggio
+            if (messageBuffer == null) {
+                messageBuffer = ByteBuffer.allocate(headerBuffer.getInt());
+                responseId = headerBuffer.getInt();
+                headerBuffer.clear();
+            }
+            // Altrimenti elabora il messaggio e torna a leggere l'intestazione
+            else {
+                String message = new String(messageBuffer.array(), StandardCharsets.UTF_8);
+                messageBuffer = null;
+                dispatch(responseId, WQPResponse.parse(message));
+            }
+        }
+    }
+
+    /**
+     * Associa la risposta alla richiesta in attesa, oppure la notifica come evento.
+     *
+     * @param responseId Identificativo della richiesta a cui risponde il messaggio.
+     * @param response   Risposta ricevuta dal server.
+     */
+    private void dispatch(int responseId, WQPResponse response) {
+        PendingRequest<?> request = null;
+        List<PendingRequest<?>> unanswered = new ArrayList<>();
+        synchronized (pending) {
+            // Le risposte possono arrivare in qualsiasi ordine: le associa per identificativo
+            if (responseId != 0)
+                request = pending.remove(responseId);
+            // Il report chiude la sfida: le parole inviate dopo la fine non ricevono altra risposta
+            else if (response.getCommand().equals("REPORT")) {
+                PendingRequest<?> word;
+                while ((word = removePending("WORD")) != null)
+                    unanswered.add(word);
+            }
+        }
+        for (PendingRequest<?> word : unanswered)
+            word.future.complete(null);
+        if (request != null)
+            request.complete(response);
+        else if (eventListener != null)
+            eventListener.accept(response);
+    }
+
+    /**
+     * Rimuove la richiesta più vecchia con il comando passato. Va invocato
+     * mantenendo la lock sulla coda delle richieste.
+     *
+     * @param command Comando della richiesta.
+     * @return Richiesta rimossa, oppure null.
+     */
+    private PendingRequest<?> removePending(String command) {
+        Iterator<PendingRequest<?>> iterator = pending.values().iterator();
+        while (iterator.hasNext()) {
+            PendingRequest<?> request = iterator.next();
+            if (request.command.equals(command)) {
+                iterator.remove();
+                return request;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Scrive i buffer accodati finché il canale li accetta.
+     *
+     * @throws IOException Se non è possibile scrivere sul canale.
+     */
+    private void write() throws IOException {
+        ByteBuffer buffer;
+        while ((buffer = outgoing.peek()) != null) {
+            channel.write(buffer);
+            if (buffer.hasRemaining())
+                return;
+            outgoing.poll();
+        }
+        key.interestOps(SelectionKey.OP_READ);
+    }
+
+    /**
+     * Riceve un invito e lo notifica al listener.
+     *
+     * @throws IOException Se non è possibile leggere dal canale.
+     */
+    private void receiveInvitation() throws IOException {
+        datagramBuffer.clear();
+        SocketAddress address = datagramChannel.receive(datagramBuffer);
+        if (address == null)
+            return;
+        datagramBuffer.flip();
+        String inviter = StandardCharsets.UTF_8.decode(datagramBuffer).toString();
+        invitations.put(inviter, address);
+        if (invitationListener != null)
+            invitationListener.accept(inviter);
+    }
+
+    /**
+     * Accetta l'invito ricevuto da un utente.
+     *
+     * @param inviter Username dell'utente che ha inviato l'invito.
+     */
+    public void acceptInvitation(String inviter) {
+        SocketAddress address = invitations.remove(inviter);
+        if (address == null)
+            return;
+        ByteBuffer buffer = ByteBuffer.wrap(inviter.getBytes(StandardCharsets.UTF_8));
+        transport.execute(() -> {
+            try {
+                datagramChannel.send(buffer, address);
+            } catch (IOException e) {
+                System.err.printf("[ASYNC] Unable to accept invitation: %s\n", e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Accoda una richiesta e ne restituisce il future.
+     *
+     * @param parser Funzione che converte i dati della risposta nel risultato.
+     * @param args   Comando e argomenti della richiesta.
+     * @return Future completato all'arrivo della risposta.
+     */
+    private <T> CompletableFuture<T> request(Function<String, T> parser, String... args) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        String message = StaticUtilities.concat("\n", args);
+        synchronized (pending) {
+            if (closed) {
+                future.completeExceptionally(new IOException("Connection closed"));
+                return future;
+            }
+            int id = nextRequestId;
+            // Salta lo 0 quando il contatore ricomincia
+            nextRequestId = (nextRequestId == Integer.MAX_VALUE) ? 1 : nextRequestId + 1;
+            // Richiesta e buffer vengono accodati insieme per mantenere lo stesso ordine
+            pending.put(id, new PendingRequest<>(id, args[0], parser, future));
+            outgoing.add(StaticUtilities.bufferizeString(id, message));
+        }
+        transport.execute(() -> {
+            if (key.isValid())
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        });
+        return future;
+    }
+
+    /**
+     * @param username Username dell'utente.
+     * @param password Password dell'utente.
+     * @return Future con lo username con cui è stato eseguito il login.
+     */
+    public CompletableFuture<String> login(String username, String password) {
+        return request(Function.identity(), "LOGIN", username, password);
+    }
+
+    /**
+     * @return Future con lo username con cui era stato eseguito il login.
+     */
+    public CompletableFuture<String> logout() {
+        return request(Function.identity(), "LOGOUT");
+    }
+
+    /**
+     * @param username Username dell'utente da aggiungere come amico.
+     * @return Future completato quando l'amicizia è stata registrata.
+     */
+    public CompletableFuture<Void> friend(String username) {
+        return request(data -> null, "FRIEND", username);
+    }
+
+    /**
+     * @return Future con la lista degli amici.
+     */
+    public CompletableFuture<List<String>> friendsList() {
+        return request(StringListAdapter::parse, "FRIENDSLIST");
+    }
+
+    /**
+     * @return Future con la classifica dell'utente e dei suoi amici.
+     */
+    public CompletableFuture<Map<String, Integer>> ranking() {
+        return request(RankingAdapter::parse, "RANKING");
+    }
+
+    /**
+     * @return Future con i punti dell'utente.
+     */
+    public CompletableFuture<Integer> points() {
+        return request(Integer::parseInt, "POINTS");
+    }
+
+    /**
+     * @param commands Comandi di sola lettura da eseguire (POINTS, FRIENDSLIST, RANKING, STATS).
+     * @return Future con le risposte ai singoli comandi, nello stesso ordine.
+     */
+    public CompletableFuture<List<WQPResponse>> multi(String... commands) {
+        String[] args = new String[commands.length + 1];
+        args[0] = "MULTI";
+        System.arraycopy(commands, 0, args, 1, commands.length);
+        return request(data -> {
+            List<String> responses = StringListAdapter.parse(data);
+            List<WQPResponse> parsed = new ArrayList<>(responses.size());
+            for (String response : responses)
+                parsed.add(WQPResponse.parse(response));
+            return parsed;
+        }, args);
+    }
+
+    /**
+     * @param count  Numero massimo di partite.
+     * @param offset Numero di partite recenti da saltare.
+     * @return Future con l'array JSON delle partite dell'utente, dalla più recente.
+     */
+    public CompletableFuture<String> history(int count, int offset) {
+        return request(Function.identity(), "HISTORY", Integer.toString(count), Integer.toString(offset));
+    }
+
+    /**
+     * @param username Username dell'utente, null per l'utente corrente.
+     * @return Future con le statistiche di gioco dell'utente.
+     */
+    public CompletableFuture<Statistics> stats(String username) {
+        if (username == null)
+            return request(StatisticsAdapter::parse, "STATS");
+        return request(StatisticsAdapter::parse, "STATS", username);
+    }
+
+    /**
+     * @param usernames Username degli utenti da sfidare, tutti nella stessa partita.
+     * @return Future con il flag che indica se la sfida è stata accettata da almeno un utente.
+     */
+    public CompletableFuture<Boolean> challenge(String... usernames) {
+        String[] args = new String[usernames.length + 1];
+        args[0] = "CHALLENGE";
+        System.arraycopy(usernames, 0, args, 1, usernames.length);
+        return request(data -> data.equals("ACCEPTED"), args);
+    }
+
+    /**
+     * Mette l'utente in coda per una partita con un avversario di punteggio
+     * simile. L'esito della ricerca arriva come messaggio MATCHMAKE senza
+     * richiesta: MATCHED con l'avversario, seguito dalla partita, oppure KO.
+     *
+     * @return Future con il flag che indica se l'utente è in coda.
+     */
+    public CompletableFuture<Boolean> matchmake() {
+        return request(data -> data.equals("QUEUED"), "MATCHMAKE");
+    }
+
+    /**
+     * @return Future completato quando l'utente è stato tolto dalla coda.
+     */
+    public CompletableFuture<String> cancelMatchmaking() {
+        return request(Function.identity(), "MATCHMAKE", "CANCEL");
+    }
+
+    /**
+     * Guarda la partita in corso di un utente. Gli eventi arrivano come
+     * messaggi SPECTATE senza richiesta: SCORE, WORD, ANSWER e infine END.
+     *
+     * @param username Username del giocatore da guardare.
+     * @return Future con lo username del giocatore.
+     */
+    public CompletableFuture<String> spectate(String username) {
+        return request(Function.identity(), "SPECTATE", username);
+    }
+
+    /**
+     * @param name   Nome del torneo.
+     * @param format Formato del torneo, ELIMINATION o SWISS.
+     * @param rounds Numero di turni di un torneo svizzero, 0 per sceglierlo in base agli iscritti.
+     * @return Future con il nome del torneo creato.
+     */
+    public CompletableFuture<String> createTournament(String name, String format, int rounds) {
+        return request(Function.identity(), "TOURNAMENT", "CREATE", name, format, Integer.toString(rounds));
+    }
+
+    /**
+     * @param name Nome del torneo.
+     * @return Future con il numero di iscritti.
+     */
+    public CompletableFuture<Integer> joinTournament(String name) {
+        return request(Integer::parseInt, "TOURNAMENT", "JOIN", name);
+    }
+
+    /**
+     * Avvia un torneo creato dall'utente. Gli incontri vengono annunciati con
+     * messaggi TOURNAMENT senza richiesta e giocati come normali sfide.
+     *
+     * @param name Nome del torneo.
+     * @return Future completato quando il torneo è avviato.
+     */
+    public CompletableFuture<String> startTournament(String name) {
+        return request(Function.identity(), "TOURNAMENT", "START", name);
+    }
+
+    /**
+     * @param name Nome del torneo.
+     * @return Future con lo stato del torneo in formato JSON.
+     */
+    public CompletableFuture<String> tournamentInfo(String name) {
+        return request(Function.identity(), "TOURNAMENT", "INFO", name);
+    }
+
+    /**
+     * @param word       Parola da tradurre.
+     * @param submission Traduzione proposta.
+     * @return Future con l'esito e la prossima parola, oppure null se la sfida è terminata prima della risposta.
+     */
+    public CompletableFuture<Round> submit(String word, String submission) {
+        return request(Round::parse, "WORD", word, submission);
+    }
+
+    /**
+     * @param prefetch Flag che indica se nelle prossime sfide ricevere tutte le parole all'inizio (messaggio WORDS).
+     * @return Future con la modalità impostata.
+     */
+    public CompletableFuture<String> prefetch(boolean prefetch) {
+        return request(Function.identity(), "PREFETCH", prefetch ? "ON" : "OFF");
+    }
+
+    /**
+     * Chiude la connessione fallendo tutte le richieste in attesa. È idempotente.
+     *
+     * @param cause Causa della chiusura.
+     */
+    void fail(IOException cause) {
+        List<PendingRequest<?>> failed;
+        synchronized (pending) {
+            if (closed)
+                return;
+            closed = true;
+            failed = new ArrayList<>(pending.values());
+            pending.clear();
+        }
+        try {
+            channel.close();
+            if (datagramChannel != null)
+                datagramChannel.close();
+        } catch (IOException e) {
+            // La connessione è già chiusa
+        }
+        connectFuture.completeExceptionally(cause);
+        for (PendingRequest<?> request : failed)
+            request.future.completeExceptionally(cause);
+    }
+
+    @Override
+    public void close() {
+        transport.execute(() -> fail(new IOException("Connection closed")));
+    }
+}
@@ -0,0 +1,143 @@
+package it.unipi.studenti.wordquizzles.client.clients;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * AsyncTransport gestisce con un unico thread e un unico selettore le
+ * connessioni di molti AsyncClient. Tutte le operazioni sui canali vengono
+ * eseguite dal thread del selettore, gli altri thread si limitano ad accodarle.
+ */
+public class AsyncTransport implements AutoCloseable {
+
+    // Selettore che gestisce tutte le connessioni
+    private Selector selector;
+
+    // Operazioni da eseguire sul thread del selettore
+    private Queue<Runnable> tasks;
+
+    // Thread che esegue il loop del selettore
+    private Thread thread;
+
+    // Flag che indica se il trasporto è attivo
+    private volatile boolean running;
+
+    /**
+     * Apre il selettore e avvia il thread che lo gestisce.
+     *
+     * @throws IOException Se non è possibile aprire il selettore.
+     */
+    public AsyncTransport() throws IOException {
+        selector = Selector.open();
+        tasks = new ConcurrentLinkedQueue<>();
+        running = true;
+        thread = new Thread(this::loop, "wqp-transport");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Apre una nuova connessione con il server senza bloccare il chiamante.
+     *
+     * @param address Indirizzo del server.
+     * @return Future completato con il client quando la connessione è stabilita.
+     */
+    public CompletableFuture<AsyncClient> connect(SocketAddress address) {
+        CompletableFuture<AsyncClient> future = new CompletableFuture<>();
+        execute(() -> {
+            try {
+                SocketChannel channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                AsyncClient client = new AsyncClient(this, channel, future);
+                // Se la connessione è immediata la completa subito
+                if (channel.connect(address))
+                    client.connected(channel.register(selector, SelectionKey.OP_READ, client));
+                else
+                    channel.register(selector, SelectionKey.OP_CONNECT, client);
+            } catch (IOException e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Accoda un'operazione da eseguire sul thread del selettore.
+     *
+     * @param task Operazione da eseguire.
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * @return Selettore su cui registrare i canali.
+     */
+    Selector getSelector() {
+        return selector;
+    }
+
+    /**
+     * Loop del selettore: esegue le operazioni accodate e gestisce gli eventi
+     * dei canali. Un errore su un canale termina solo la connessione a cui
+     * appartiene. Alla chiusura termina tutte le connessioni ancora aperte.
+     */
+    private void loop() {
+        try {
+            while (running) {
+                selector.select();
+                // Esegue le operazioni richieste dagli altri thread
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        System.err.printf("[ASYNC] Task failed: %s\n", e);
+                    }
+                }
+                // Gestisce gli eventi dei canali
+                Iterator<SelectionKey> keysIterator = selector.selectedKeys().iterator();
+                while (keysIterator.hasNext()) {
+                    SelectionKey key = keysIterator.next();
+                    keysIterator.remove();
+                    AsyncClient client = (AsyncClient) key.attachment();
+                    try {
+                        client.handle(key);
+                    } catch (IOException e) {
+                        client.fail(e);
+                    } catch (RuntimeException e) {
+                        // Un errore nella risposta o nel listener chiude solo la connessione che l'ha causato
+                        client.fail(new IOException("Connection failed", e));
+                    }
+                }
+            }
+            // Chiude tutte le connessioni ancora aperte
+            IOException closed = new IOException("Transport closed");
+            for (SelectionKey key : new ArrayList<>(selector.keys()))
+                ((AsyncClient) key.attachment()).fail(closed);
+            selector.close();
+        } catch (IOException e) {
+            System.err.printf("[ASYNC] Transport stopped: %s\n", e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -6,6 +6,7 @@ import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
 
+import it.unipi.studenti.wordquizzles.shared.Configuration;
 import it.unipi.studenti.wordquizzles.shared.StaticUtilities;
 
 /**
@@ -16,6 +17,9 @@ public class TCPClient implements Client {
     // Canale di comunicazione con il server
     private SocketChannel channel;
 
+    // Identificativo della prossima richiesta (0 è riservato ai messaggi del server)
+    private int nextRequestId;
+
     /**
      * Inizializza il client per connettersi all'indirizzo passato.
      * 
@@ -25,7 +29,9 @@ public class TCPClient implements Client {
     public TCPClient(SocketAddress address) throws IOException {
         channel = SocketChannel.open();
         channel.connect(address);
-        System.out.printf("[TCP] Connected to %s\n", address);
+        nextRequestId = 1;
+        if (Configuration.CLIENT_LOGGING)
+            System.out.printf("[TCP] Connected to %s\n", address);
     }
 
     /**
@@ -48,26 +54,30 @@ public class TCPClient implements Client {
 
     @Override
     public String receive() throws IOException {
-        // Buffer contenente la lunghezza
-        ByteBuffer lengthBuffer = receiveBuffer(Integer.BYTES);
-        // Lunghezza dei dati in arrivo
-        int length = lengthBuffer.getInt();
+        // Buffer contenente lunghezza e identificativo della richiesta
+        ByteBuffer headerBuffer = receiveBuffer(StaticUtilities.HEADER_LENGTH);
+        // Lunghezza dei dati in arrivo (il client è sincrono, l'identificativo non serve)
+        int length = headerBuffer.getInt();
         // Buffer contenente i dati
         ByteBuffer buffer = receiveBuffer(length);
         // Stringa estratta dal buffer
         String message = new String(buffer.array(), StandardCharsets.UTF_8);
-        System.out.printf("[TCP] Received string:\n%s\n", message);
+        if (Configuration.CLIENT_LOGGING)
+            System.out.printf("[TCP] Received string:\n%s\n", message);
         return message;
     }
 
     @Override
     public void send(String message) throws IOException {
-        // Buffer contenente lunghezza e messaggio
-        ByteBuffer buffer = StaticUtilities.bufferizeString(message);
+        // Buffer contenente intestazione e messaggio
+        ByteBuffer buffer = StaticUtilities.bufferizeString(nextRequestId, message);
+        // Salta lo 0 quando il contatore ricomincia
+        nextRequestId = (nextRequestId == Integer.MAX_VALUE) ? 1 : nextRequestId + 1;
         // Invia il buffer
         while (buffer.hasRemaining())
             channel.write(buffer);
-        System.out.printf("[TCP] Sent string: %s\n", message);
+        if (Configuration.CLIENT_LOGGING)
+            System.out.printf("[TCP] Sent string: %s\n", message);
     }
 
     /**
@@ -83,6 +93,7 @@ public class TCPClient implements Client {
     @Override
     public void close() throws IOException {
         channel.close();
-        System.out.println("[TCP] Client closed");
+        if (Configuration.CLIENT_LOGGING)
+            System.out.println("[TCP] Client closed");
     }
 }
\ No newline at end of file
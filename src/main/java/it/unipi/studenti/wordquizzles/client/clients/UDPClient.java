@@ -33,7 +33,8 @@ public class UDPClient implements Client {
         // Buffer della dimensione massima delle stringhe UDP.
         buffer = ByteBuffer.allocate(Configuration.USERNAME_MAX_LENGTH);
 
-        System.out.printf("[UDP] Binded to %s\n", address);
+        if (Configuration.CLIENT_LOGGING)
+            System.out.printf("[UDP] Binded to %s\n", address);
     }
 
     @Override
@@ -46,17 +47,22 @@ public class UDPClient implements Client {
 
     @Override
     public String receive() throws IOException {
+        // Svuota il buffer per riutilizzarlo ad ogni datagramma
+        buffer.clear();
         // Riceve un datagramma registrando la provenienza
         serverAddress = channel.receive(buffer);
-        // Elabora la stringa
-        String message = new String(buffer.array(), StandardCharsets.UTF_8);
-        System.out.printf("[UDP] Received string:\n%s\n", message);
+        buffer.flip();
+        // Elabora la stringa considerando solo i byte effettivamente ricevuti
+        String message = new String(buffer.array(), 0, buffer.limit(), StandardCharsets.UTF_8);
+        if (Configuration.CLIENT_LOGGING)
+            System.out.printf("[UDP] Received string:\n%s\n", message);
         return message;
     }
 
     @Override
     public void close() throws IOException {
         channel.close();
-        System.out.println("[UDP] Client closed");
+        if (Configuration.CLIENT_LOGGING)
+            System.out.println("[UDP] Client closed");
     }
 }
\ No newline at end of file
@@ -1,6 +1,8 @@
 package it.unipi.studenti.wordquizzles.client.drivers;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import it.unipi.studenti.wordquizzles.client.clients.TCPClient;
 import it.unipi.studenti.wordquizzles.shared.StaticUtilities;
@@ -10,6 +12,60 @@ import it.unipi.studenti.wordquizzles.shared.StaticUtilities;
  */
 public class TCPDriver implements AutoCloseable {
 
+    /**
+     * Batch raccoglie più richieste di sola lettura e le invia al server in un
+     * unico comando MULTI, ricevendo le risposte in un'unica risposta.
+     */
+    public class Batch {
+
+        // Comandi da inviare, nell'ordine in cui sono stati aggiunti
+        private List<String> commands;
+
+        private Batch() {
+            commands = new ArrayList<>();
+            commands.add("MULTI");
+        }
+
+        /**
+         * Aggiunge una richiesta di punti.
+         * 
+         * @return Il batch stesso.
+         */
+        public Batch points() {
+            commands.add("POINTS");
+            return this;
+        }
+
+        /**
+         * Aggiunge una richiesta della lista degli amici.
+         * 
+         * @return Il batch stesso.
+         */
+        public Batch friendsList() {
+            commands.add("FRIENDSLIST");
+            return this;
+        }
+
+        /**
+         * Aggiunge una richiesta di classifica.
+         * 
+         * @return Il batch stesso.
+         */
+        public Batch ranking() {
+            commands.add("RANKING");
+            return this;
+        }
+
+        /**
+         * Invia le richieste raccolte al server.
+         * 
+         * @throws IOException Se non è possibile scrivere sul socket.
+         */
+        public void send() throws IOException {
+            sendCommand(commands.toArray(new String[0]));
+        }
+    }
+
     // Client che scrive stringhe al server
     private TCPClient client;
 
@@ -35,6 +91,13 @@ public class TCPDriver implements AutoCloseable {
         client.send(message);
     }
 
+    /**
+     * @return Nuovo batch di richieste da inviare in un unico comando.
+     */
+    public Batch batch() {
+        return new Batch();
+    }
+
     /**
      * Invia una richiesta di sfida al server.
      * 
@@ -18,6 +18,7 @@ import it.unipi.studenti.wordquizzles.client.gui.components.BottomBox;
 import it.unipi.studenti.wordquizzles.client.gui.components.ChallengeHandler;
 import it.unipi.studenti.wordquizzles.client.gui.components.FriendsList;
 import it.unipi.studenti.wordquizzles.client.gui.components.RankingTable;
+import it.unipi.studenti.wordquizzles.shared.wqp.Round;
 
 /**
  * App è la finestra e il punto di ingresso principale dell'applicazione.
@@ -138,9 +139,11 @@ public class App extends JFrame {
         bottomBox.setUsername(username);
         // Richiede le informazioni dell'account
         try {
-            tcpDriver.pointsRequest();
-            tcpDriver.friendsListRequest();
-            tcpDriver.rankingRequest();
+            tcpDriver.batch()
+                .points()
+                .friendsList()
+                .ranking()
+                .send();
         } catch (IOException e) {
             JOptionPane.showMessageDialog(this, e.getMessage(), "Errore di setup", JOptionPane.ERROR_MESSAGE);
         }
@@ -199,12 +202,12 @@ public class App extends JFrame {
     }
 
     /**
-     * Imposta la parola da tradurre nella finestra e pulisce il campo di testo.
+     * Mostra l'esito della risposta precedente e la prossima parola da tradurre.
      * 
-     * @param word Parola da mostrare all'utente.
+     * @param round Esito e prossima parola inviati dal server.
      */
-    public void setWord(String word) {
-        challengeHandler.setWord(word);
+    public void setRound(Round round) {
+        challengeHandler.setRound(round);
     }
 
     /**
@@ -12,6 +12,7 @@ import javax.swing.JTextField;
 
 import it.unipi.studenti.wordquizzles.client.drivers.TCPDriver;
 import it.unipi.studenti.wordquizzles.shared.Configuration;
+import it.unipi.studenti.wordquizzles.shared.wqp.Round;
 
 /**
  * ChallengeHandler è il componente che mostra le parole arrivate dal server e
@@ -27,6 +28,9 @@ public class ChallengeHandler extends JPanel {
     // Driver che permette di scrivere sul socket le parole inviate.
     private TCPDriver driver;
 
+    // Etichetta contenente l'esito della risposta precedente
+    private JLabel verdictLabel;
+
     // Etichetta contenente la parola da tradurre
     private JLabel wordLabel;
 
@@ -48,7 +52,7 @@ public class ChallengeHandler extends JPanel {
      * @param driver Driver che permette di scrivere sul socket.
      */
     public ChallengeHandler(TCPDriver driver) {
-        super(new GridLayout(3, 1));
+        super(new GridLayout(4, 1));
         this.driver = driver;
         challenge = false;
 
@@ -56,6 +60,10 @@ public class ChallengeHandler extends JPanel {
         challengeTimer = new Timer(Configuration.TIMEOUT, e -> checkChallengeStarted());
         challengeTimer.setRepeats(false);
 
+        verdictLabel = new JLabel(" ");
+        verdictLabel.setHorizontalAlignment(JLabel.CENTER);
+        add(verdictLabel);
+
         wordLabel = new JLabel("In attesa della sfida");
         wordLabel.setVerticalAlignment(JLabel.CENTER);
         wordLabel.setHorizontalAlignment(JLabel.CENTER);
@@ -110,12 +118,34 @@ public class ChallengeHandler extends JPanel {
         }
     }
 
+    /**
+     * Mostra l'esito della risposta precedente e imposta la prossima parola.
+     * Se le parole sono esaurite disattiva i controlli in attesa del report.
+     * 
+     * @param round Esito e prossima parola inviati dal server.
+     */
+    public void setRound(Round round) {
+        if (round.getVerdict().equals(Round.CORRECT))
+            verdictLabel.setText("Risposta corretta");
+        else if (round.getVerdict().equals(Round.WRONG))
+            verdictLabel.setText("Risposta sbagliata");
+        else
+            verdictLabel.setText(" ");
+        if (round.getNextWord() != null)
+            setWord(round.getNextWord());
+        else {
+            submissionText.setEditable(false);
+            submitButton.setEnabled(false);
+            wordLabel.setText("In attesa del report");
+        }
+    }
+
     /**
      * Imposta la parola arrivata dal server.
      * 
      * @param word Parola arrivata dal server.
      */
-    public void setWord(String word) {
+    private void setWord(String word) {
         // Setta il flag a vero se non è già stato fatto
         challenge = true;
         // Imposta l'etichetta
@@ -137,10 +167,11 @@ public class ChallengeHandler extends JPanel {
         // Mostra il report
         JOptionPane.showMessageDialog(this, report, "Report", JOptionPane.INFORMATION_MESSAGE);
         try {
-            // Chiede di ricaricare la classifica
-            driver.rankingRequest();
-            // Chiede di riavere i punti
-            driver.pointsRequest();
+            // Chiede di ricaricare la classifica e di riavere i punti
+            driver.batch()
+                .ranking()
+                .points()
+                .send();
         } catch (IOException e) {
             JOptionPane.showMessageDialog(this, e.getMessage(), "Errore di invio", JOptionPane.ERROR_MESSAGE);
 
@@ -172,5 +203,6 @@ public class ChallengeHandler extends JPanel {
         submissionText.setEditable(false);
         submitButton.setEnabled(false);
         wordLabel.setText("In attesa della sfida");
+        verdictLabel.setText(" ");
     }
 }
\ No newline at end of file
@@ -1,19 +1,16 @@
 package it.unipi.studenti.wordquizzles.client.listeners;
 
 import java.io.IOException;
-import java.lang.reflect.Type;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.StringTokenizer;
 
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
-
 import it.unipi.studenti.wordquizzles.client.clients.TCPClient;
 import it.unipi.studenti.wordquizzles.client.gui.App;
+import it.unipi.studenti.wordquizzles.shared.wqp.RankingAdapter;
+import it.unipi.studenti.wordquizzles.shared.wqp.Round;
+import it.unipi.studenti.wordquizzles.shared.wqp.StringListAdapter;
 import it.unipi.studenti.wordquizzles.shared.wqp.WQPException;
 
 /**
@@ -28,15 +25,6 @@ public class TCPListener extends Thread {
     // Applicazione da notificare
     private App app;
 
-    // Oggetto che deserializza i JSON arrivati dal socket
-    private Gson gson;
-
-    // Tipo necessario a deserializzare liste di stringhe
-    private Type stringListType;
-
-    // Tipo necessario a deserializzare dizionari JSON Stringa - Intero
-    private Type stringIntegerMapType;
-
     /**
      * Inizializza il thread passandogli i parametri necessari.
      * 
@@ -46,9 +34,6 @@ public class TCPListener extends Thread {
     public TCPListener(TCPClient client, App app) {
         this.client = client;
         this.app = app;
-        gson = new Gson();
-        stringListType = new TypeToken<ArrayList<String>>(){}.getType();
-        stringIntegerMapType = new TypeToken<HashMap<String, Integer>>(){}.getType();
     }
 
     @Override
@@ -134,13 +119,13 @@ public class TCPListener extends Thread {
         // Se il comando è la lista degli amici imposta la lista nell'interfaccia
         else if (command.equals("FRIENDSLIST")) {
             String friendsString = data;
-            List<String> friends = gson.fromJson(friendsString, stringListType);
+            List<String> friends = StringListAdapter.parse(friendsString);
             app.setFriends(friends);
         }
         // Se il comando è la classifica imposta la classifica nell'applicazione
         else if (command.equals("RANKING")) {
             String rankingString = data;
-            Map<String, Integer> ranking = gson.fromJson(rankingString, stringIntegerMapType);
+            Map<String, Integer> ranking = RankingAdapter.parse(rankingString);
             app.setRanking(ranking);
         }
         // Se il comando è una richiesta di punti imposta i punti nella grafica
@@ -159,10 +144,22 @@ public class TCPListener extends Thread {
             else if (outcome.equals("ACCEPTED"))
                 app.setupChallenge();
         }
-        // Se è stata inviata una parola la mostra a video
+        // Se è stata inviata una parola la mostra a video insieme all'esito della precedente
         else if (command.equals("WORD")) {
-            String word = data;
-            app.setWord(word);
+            Round round = Round.parse(data);
+            app.setRound(round);
+        }
+        // Se il comando era un batch elabora ogni risposta come se fosse arrivata da sola
+        else if (command.equals("MULTI")) {
+            String responsesString = data;
+            List<String> responses = StringListAdapter.parse(responsesString);
+            for (String response : responses) {
+                try {
+                    parse(response);
+                } catch (WQPException e) {
+                    app.showError(e.getMessage());
+                }
+            }
         }
         // Se è stato inviato un report che termina la partita lo mostra e disabilita i controlli
         else if (command.equals("REPORT")) {
@@ -0,0 +1,357 @@
+package it.unipi.studenti.wordquizzles.client.load;
+
+import java.net.SocketAddress;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import it.unipi.studenti.wordquizzles.client.clients.AsyncClient;
+import it.unipi.studenti.wordquizzles.client.clients.AsyncTransport;
+import it.unipi.studenti.wordquizzles.shared.Configuration;
+import it.unipi.studenti.wordquizzles.shared.wqp.MatchWords;
+import it.unipi.studenti.wordquizzles.shared.wqp.Round;
+import it.unipi.studenti.wordquizzles.shared.wqp.WQPException;
+import it.unipi.studenti.wordquizzles.shared.wqp.WQPResponse;
+
+/**
+ * Bot è un utente simulato che esegue il login e invia comandi al server
+ * seguendo il mix configurato nel LoadGenerator. Il bot non ha un thread
+ * dedicato: reagisce alle risposte dell'AsyncClient e attende il tempo di
+ * riflessione sullo scheduler condiviso. Gli inviti ricevuti via UDP vengono
+ * accettati automaticamente quando il bot non ha richieste in corso.
+ */
+public class Bot {
+
+    // Generatore di carico a cui notificare le misure
+    private LoadGenerator generator;
+
+    // Username dell'utente simulato
+    private String username;
+
+    // Password dell'utente simulato
+    private String password;
+
+    // Generatore di numeri casuali del bot
+    private Random random;
+
+    // Scheduler condiviso su cui il bot attende tra un comando e l'altro
+    private ScheduledExecutorService scheduler;
+
+    // Latch decrementato quando il bot ha terminato
+    private CountDownLatch finished;
+
+    // Connessione con il server
+    private AsyncClient client;
+
+    // Username dell'ultimo utente che ha inviato un invito non ancora accettato
+    private String invitation;
+
+    // Istante di ricezione dell'invito in nanosecondi
+    private long invitationTime;
+
+    // Contatore dei passi: le callback di un passo superato vengono ignorate
+    private long step;
+
+    // Comando in corso, null se il bot non ha richieste in attesa
+    private String currentCommand;
+
+    // Flag che indica se il bot sta giocando una partita
+    private boolean inMatch;
+
+    // Istante di inizio della partita in nanosecondi
+    private long matchStart;
+
+    // Flag che indica se il bot deve continuare ad inviare comandi
+    private volatile boolean running;
+
+    /**
+     * Inizializza il bot.
+     *
+     * @param generator Generatore di carico a cui notificare le misure.
+     * @param username  Username dell'utente simulato.
+     * @param password  Password dell'utente simulato.
+     * @param seed      Seme del generatore casuale.
+     * @param scheduler Scheduler condiviso per i tempi di riflessione.
+     * @param finished  Latch da decrementare quando il bot termina.
+     */
+    public Bot(LoadGenerator generator, String username, String password, long seed,
+            ScheduledExecutorService scheduler, CountDownLatch finished) {
+        this.generator = generator;
+        this.username = username;
+        this.password = password;
+        this.scheduler = scheduler;
+        this.finished = finished;
+        random = new Random(seed);
+        invitation = null;
+        step = 0;
+        inMatch = false;
+        running = true;
+    }
+
+    /**
+     * @return Username dell'utente simulato.
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * Apre la connessione con il server sul trasporto passato.
+     *
+     * @param transport Trasporto che gestisce la connessione.
+     * @param address   Indirizzo del server.
+     * @return Future completato quando la connessione è stabilita.
+     */
+    public CompletableFuture<Void> connect(AsyncTransport transport, SocketAddress address) {
+        return transport.connect(address).thenAccept(connected -> {
+            client = connected;
+            client.setEventListener(this::onEvent);
+            client.setInvitationListener(this::onInvitation);
+        });
+    }
+
+    /**
+     * Esegue il login e avvia il loop dei comandi.
+     */
+    public void start() {
+        long start = System.nanoTime();
+        client.login(username, password)
+                // Se richiesto sceglie di ricevere tutte le parole all'inizio delle sfide
+                .thenCompose(result -> generator.isPrefetch() ? client.prefetch(true) : CompletableFuture.completedFuture(result))
+                .whenComplete((result, error) -> {
+            generator.record("LOGIN", System.nanoTime() - start, error == null);
+            if (error != null) {
+                generator.botFailed();
+                finish();
+            } else
+                scheduleNext();
+        });
+    }
+
+    /**
+     * Chiede al bot di terminare dopo il comando in corso.
+     */
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * Chiude la connessione, fallendo le eventuali richieste in corso.
+     */
+    public void close() {
+        if (client != null)
+            client.close();
+    }
+
+    /**
+     * Segnala che il bot ha terminato.
+     */
+    private void finish() {
+        finished.countDown();
+    }
+
+    /**
+     * Pianifica il prossimo passo dopo il tempo di riflessione.
+     */
+    private void scheduleNext() {
+        scheduler.schedule(this::next, generator.getThinkTime(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Esegue il prossimo passo: accetta un invito in attesa oppure invia un comando del mix.
+     */
+    private synchronized void next() {
+        step++;
+        // Se il test è terminato esegue il logout
+        if (!running) {
+            long start = System.nanoTime();
+            client.logout().whenComplete((result, error) -> {
+                generator.record("LOGOUT", System.nanoTime() - start, error == null);
+                finish();
+            });
+            return;
+        }
+        // Se è arrivato un invito recente lo accetta e attende la partita
+        if (invitation != null) {
+            String inviter = invitation;
+            long age = System.nanoTime() - invitationTime;
+            invitation = null;
+            // Un invito troppo vecchio è già stato considerato rifiutato dal server
+            if (TimeUnit.NANOSECONDS.toMillis(age) < Configuration.TIMEOUT / 2
+                    && random.nextDouble() < generator.getAcceptRate()) {
+                client.acceptInvitation(inviter);
+                generator.record("ACCEPT", age, true);
+                awaitMatch();
+                return;
+            }
+        }
+        execute(generator.pickCommand(random));
+    }
+
+    /**
+     * Invia un comando del mix e ne misura la latenza.
+     *
+     * @param command Comando da eseguire.
+     */
+    private void execute(String command) {
+        CompletableFuture<?> future;
+        if (command.equals("POINTS"))
+            future = client.points();
+        else if (command.equals("RANKING"))
+            future = client.ranking();
+        else if (command.equals("FRIENDSLIST"))
+            future = client.friendsList();
+        else if (command.equals("MULTI"))
+            future = client.multi("POINTS", "FRIENDSLIST", "RANKING");
+        else if (command.equals("HISTORY"))
+            future = client.history(Configuration.HISTORY_PAGE_SIZE, 0);
+        else if (command.equals("STATS"))
+            future = client.stats(generator.pickUsername(random, username));
+        else if (command.equals("FRIEND"))
+            future = client.friend(generator.pickUsername(random, username));
+        else if (command.equals("CHALLENGE"))
+            future = client.challenge(generator.pickUsername(random, username));
+        else if (command.equals("ROOM"))
+            future = client.challenge(generator.pickUsernames(random, username, generator.getRoomInvites()));
+        else if (command.equals("MATCHMAKE"))
+            future = client.matchmake();
+        else if (command.equals("SPECTATE"))
+            future = client.spectate(generator.pickUsername(random, username));
+        else
+            throw new IllegalArgumentException("Unknown command " + command);
+        currentCommand = command;
+        long currentStep = step;
+        long start = System.nanoTime();
+        future.whenComplete((result, error) -> completed(currentStep, command, start, result, error));
+    }
+
+    /**
+     * Gestisce la risposta ad un comando del mix.
+     *
+     * @param requestStep Passo in cui è stata inviata la richiesta.
+     * @param command     Comando eseguito.
+     * @param start       Istante di invio in nanosecondi.
+     * @param result      Risultato del comando.
+     * @param error       Eventuale errore.
+     */
+    private synchronized void completed(long requestStep, String command, long start, Object result,
+            Throwable error) {
+        // Se nel frattempo è iniziata una partita la risposta è fuori tempo
+        if (requestStep != step)
+            return;
+        currentCommand = null;
+        generator.record(command, System.nanoTime() - start, error == null);
+        // Un errore che non è una risposta KO indica la chiusura della connessione
+        if (error != null && !(error.getCause() instanceof WQPException) && !(error instanceof WQPException)) {
+            if (running)
+                generator.botFailed();
+            finish();
+            return;
+        }
+        if (Boolean.TRUE.equals(result))
+            awaitMatch();
+        else
+            scheduleNext();
+    }
+
+    /**
+     * Entra in partita e attende la prima parola. Se non arriva entro il timeout
+     * torna al loop dei comandi.
+     */
+    private void awaitMatch() {
+        inMatch = true;
+        matchStart = System.nanoTime();
+        long matchStep = step;
+        scheduler.schedule(() -> {
+            synchronized (this) {
+                // Se non è arrivata nessuna parola la partita non è mai iniziata
+                if (step == matchStep && inMatch) {
+                    inMatch = false;
+                    generator.requestLost("MATCH");
+                    scheduleNext();
+                }
+            }
+        }, Configuration.TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Gestisce i messaggi inviati dal server senza una richiesta.
+     *
+     * @param response Messaggio del server.
+     */
+    private synchronized void onEvent(WQPResponse response) {
+        boolean words = response.getCommand().equals("WORDS");
+        if ((words || response.getCommand().equals("WORD")) && response.isOk()) {
+            // Se era in corso una richiesta la sua risposta è stata scavalcata dalla partita
+            if (currentCommand != null) {
+                generator.requestLost(currentCommand);
+                currentCommand = null;
+            }
+            if (!inMatch) {
+                inMatch = true;
+                matchStart = System.nanoTime();
+            }
+            // Invalida il timeout di attesa della partita e le risposte in sospeso
+            step++;
+            // Con tutte le parole invia le risposte senza attendere gli esiti
+            if (words) {
+                for (String word : MatchWords.parse(response.getData()).getWords())
+                    send(word);
+            } else
+                submit(Round.parse(response.getData()).getNextWord());
+        } else if (response.getCommand().equals("MATCHMAKE") && inMatch) {
+            // Esito della coda: misura l'attesa dell'avversario, e senza avversario torna ai comandi
+            generator.record("PAIRING", System.nanoTime() - matchStart, response.isOk());
+            if (!response.isOk()) {
+                inMatch = false;
+                step++;
+                scheduleNext();
+            }
+        } else if (response.getCommand().equals("REPORT")) {
+            generator.record("MATCH", System.nanoTime() - matchStart, response.isOk());
+            inMatch = false;
+            step++;
+            scheduleNext();
+        }
+    }
+
+    /**
+     * Invia la traduzione di una parola e, alla risposta, quella della successiva.
+     *
+     * @param word Parola da tradurre.
+     */
+    private void submit(String word) {
+        send(word).whenComplete((round, error) -> {
+            if (error == null && round != null && round.getNextWord() != null)
+                synchronized (this) {
+                    submit(round.getNextWord());
+                }
+        });
+    }
+
+    /**
+     * Invia la traduzione di una parola registrando il tempo dell'esito.
+     *
+     * @param word Parola da tradurre.
+     * @return Future con l'esito e la prossima parola.
+     */
+    private CompletableFuture<Round> send(String word) {
+        // Con lo stub la traduzione coincide con la parola
+        String submission = (random.nextDouble() < generator.getAccuracy()) ? word : "x" + word;
+        long start = System.nanoTime();
+        return client.submit(word, submission).whenComplete((round, error) ->
+                generator.record("WORD", System.nanoTime() - start, error == null));
+    }
+
+    /**
+     * Registra un invito, che verrà accettato al prossimo passo.
+     *
+     * @param inviter Username dell'utente che ha inviato l'invito.
+     */
+    private synchronized void onInvitation(String inviter) {
+        invitation = inviter;
+        invitationTime = System.nanoTime();
+    }
+}
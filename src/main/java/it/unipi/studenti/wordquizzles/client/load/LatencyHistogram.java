@@ -0,0 +1,133 @@
+package it.unipi.studenti.wordquizzles.client.load;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LatencyHistogram è un istogramma concorrente a bucket log-lineari che
+ * raccoglie le latenze in microsecondi e ne calcola i percentili con una
+ * precisione di circa il 3%.
+ */
+public class LatencyHistogram {
+
+    // Numero di bucket lineari per ogni potenza di due
+    private static final int SUB_BUCKETS = 32;
+
+    // Numero totale di bucket (copre tutti i valori long positivi)
+    private static final int BUCKETS = (Long.SIZE - 5) * SUB_BUCKETS;
+
+    // Contatori dei campioni per bucket
+    private AtomicLongArray counts;
+
+    // Numero totale di campioni
+    private LongAdder total;
+
+    // Somma di tutti i campioni
+    private LongAdder sum;
+
+    // Massimo campione registrato
+    private LongAccumulator max;
+
+    /**
+     * Inizializza un istogramma vuoto.
+     */
+    public LatencyHistogram() {
+        counts = new AtomicLongArray(BUCKETS);
+        total = new LongAdder();
+        sum = new LongAdder();
+        max = new LongAccumulator(Math::max, 0);
+    }
+
+    /**
+     * Restituisce l'indice del bucket che contiene il valore.
+     *
+     * @param value Valore non negativo.
+     * @return Indice del bucket.
+     */
+    private static int index(long value) {
+        // I valori piccoli hanno un bucket ciascuno
+        if (value < 2 * SUB_BUCKETS)
+            return (int) value;
+        // Ordine di grandezza del valore
+        int magnitude = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        // Mantiene i sei bit più significativi
+        int shift = magnitude - 5;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * Restituisce il più piccolo valore contenuto nel bucket.
+     *
+     * @param index Indice del bucket.
+     * @return Limite inferiore del bucket.
+     */
+    private static long lowerBound(int index) {
+        if (index < 2 * SUB_BUCKETS)
+            return index;
+        int shift = index / SUB_BUCKETS - 1;
+        long mantissa = index % SUB_BUCKETS + SUB_BUCKETS;
+        return mantissa << shift;
+    }
+
+    /**
+     * Registra un campione.
+     *
+     * @param micros Latenza in microsecondi.
+     */
+    public void record(long micros) {
+        if (micros < 0)
+            micros = 0;
+        counts.incrementAndGet(index(micros));
+        total.increment();
+        sum.add(micros);
+        max.accumulate(micros);
+    }
+
+    /**
+     * @return Numero di campioni registrati.
+     */
+    public long getCount() {
+        return total.sum();
+    }
+
+    /**
+     * @return Media dei campioni in microsecondi.
+     */
+    public double getMean() {
+        long count = total.sum();
+        if (count == 0)
+            return 0;
+        return (double) sum.sum() / count;
+    }
+
+    /**
+     * @return Massimo campione in microsecondi.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Calcola il percentile richiesto.
+     *
+     * @param percentile Percentile compreso tra 0 e 100.
+     * @return Valore approssimato del percentile in microsecondi.
+     */
+    public long getPercentile(double percentile) {
+        long count = total.sum();
+        if (count == 0)
+            return 0;
+        // Numero di campioni che devono stare al di sotto del percentile
+        long target = (long) Math.ceil(count * percentile / 100.0);
+        if (target < 1)
+            target = 1;
+        long cumulative = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            cumulative += counts.get(i);
+            if (cumulative >= target)
+                return Math.min(lowerBound(i), max.get());
+        }
+        return max.get();
+    }
+}
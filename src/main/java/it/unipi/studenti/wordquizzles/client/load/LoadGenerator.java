@@ -0,0 +1,474 @@
+package it.unipi.studenti.wordquizzles.client.load;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import it.unipi.studenti.wordquizzles.client.clients.AsyncTransport;
+import it.unipi.studenti.wordquizzles.client.clients.RMIClient;
+import it.unipi.studenti.wordquizzles.server.MainClass;
+import it.unipi.studenti.wordquizzles.shared.Configuration;
+import it.unipi.studenti.wordquizzles.shared.wqp.WQPException;
+
+/**
+ * LoadGenerator è lo strumento senza interfaccia grafica che simula migliaia di
+ * client WQP. Registra gli utenti tramite RMI, ne esegue il login ed esegue un
+ * mix di comandi, riportando throughput e percentili di latenza per comando.
+ *
+ * Le opzioni si passano nella forma --nome=valore:
+ * --host, --users, --duration (secondi), --think (millisecondi), --accuracy,
+ * --mix (es. POINTS:40,RANKING:30,FRIEND:20,CHALLENGE:10; MULTI invia
+ * POINTS, FRIENDSLIST e RANKING in un unico comando; HISTORY legge le ultime
+ * partite; STATS legge le statistiche di un altro utente; ROOM sfida più
+ * utenti nella stessa partita; MATCHMAKE attende un avversario dalla coda
+ * automatica e misura l'attesa come PAIRING; SPECTATE guarda la partita di
+ * un altro utente, se ne sta giocando una), --room (utenti invitati da
+ * ROOM), --prefix,
+ * --password, --transports (numero di thread di rete dei bot), --accept
+ * (probabilità di accettare un invito), --prefetch (i bot ricevono tutte le
+ * parole della sfida all'inizio e inviano le risposte senza attendere gli
+ * esiti), --embedded (avvia server e stub di
+ * traduzione nella stessa JVM), --virtual (il server embedded usa i virtual
+ * thread).
+ */
+public class LoadGenerator {
+
+    /**
+     * CommandStats raccoglie le misure relative ad un singolo comando.
+     */
+    private static class CommandStats {
+
+        // Istogramma delle latenze
+        private LatencyHistogram histogram = new LatencyHistogram();
+
+        // Numero di risposte con esito positivo
+        private LongAdder ok = new LongAdder();
+
+        // Numero di risposte con esito negativo
+        private LongAdder ko = new LongAdder();
+
+        // Numero di richieste scavalcate da una partita
+        private LongAdder lost = new LongAdder();
+    }
+
+    // Misure raccolte per ogni comando
+    private ConcurrentMap<String, CommandStats> stats;
+
+    // Comandi del mix
+    private String[] commands;
+
+    // Pesi cumulativi dei comandi del mix
+    private int[] cumulativeWeights;
+
+    // Bot che partecipano al test
+    private List<Bot> bots;
+
+    // Numero di bot che hanno interrotto il test per un errore
+    private AtomicInteger failedBots;
+
+    // Tempo di riflessione tra un comando e l'altro in millisecondi
+    private long thinkTime;
+
+    // Probabilità di inviare la traduzione corretta
+    private double accuracy;
+
+    // Probabilità di accettare un invito ricevuto
+    private double acceptRate;
+
+    // Flag che indica se i bot ricevono tutte le parole della sfida all'inizio
+    private boolean prefetch;
+
+    // Utenti invitati insieme dal comando ROOM
+    private int roomInvites;
+
+    /**
+     * Inizializza il generatore.
+     *
+     * @param mix       Mix di comandi nella forma COMANDO:peso separati da virgole.
+     * @param thinkTime Tempo di riflessione tra un comando e l'altro.
+     * @param accuracy  Probabilità di inviare la traduzione corretta.
+     */
+    public LoadGenerator(String mix, long thinkTime, double accuracy) {
+        this.thinkTime = thinkTime;
+        this.accuracy = accuracy;
+        acceptRate = 1.0;
+        prefetch = false;
+        roomInvites = 3;
+        stats = new ConcurrentHashMap<>();
+        bots = new ArrayList<>();
+        failedBots = new AtomicInteger();
+        parseMix(mix);
+    }
+
+    /**
+     * Interpreta il mix di comandi.
+     *
+     * @param mix Mix nella forma COMANDO:peso separati da virgole.
+     */
+    private void parseMix(String mix) {
+        String[] entries = mix.split(",");
+        commands = new String[entries.length];
+        cumulativeWeights = new int[entries.length];
+        int total = 0;
+        for (int i = 0; i < entries.length; i++) {
+            String[] parts = entries[i].trim().split(":");
+            commands[i] = parts[0].toUpperCase();
+            total += (parts.length > 1) ? Integer.parseInt(parts[1]) : 1;
+            cumulativeWeights[i] = total;
+        }
+    }
+
+    /**
+     * Estrae un comando rispettando i pesi del mix.
+     *
+     * @param random Generatore casuale del chiamante.
+     * @return Comando da eseguire.
+     */
+    public String pickCommand(Random random) {
+        int value = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < commands.length; i++)
+            if (value < cumulativeWeights[i])
+                return commands[i];
+        return commands[commands.length - 1];
+    }
+
+    /**
+     * Estrae lo username di un bot diverso da quello passato.
+     *
+     * @param random  Generatore casuale del chiamante.
+     * @param exclude Username da escludere.
+     * @return Username di un altro bot.
+     */
+    public String pickUsername(Random random, String exclude) {
+        if (bots.size() < 2)
+            return exclude;
+        while (true) {
+            String username = bots.get(random.nextInt(bots.size())).getUsername();
+            if (!username.equals(exclude))
+                return username;
+        }
+    }
+
+    /**
+     * Estrae gli username di bot diversi tra loro e da quello passato.
+     *
+     * @param random  Generatore casuale del chiamante.
+     * @param exclude Username da escludere.
+     * @param count   Numero di username da estrarre, ridotto se non ci sono abbastanza bot.
+     * @return Username di altri bot.
+     */
+    public String[] pickUsernames(Random random, String exclude, int count) {
+        count = Math.max(1, Math.min(count, bots.size() - 1));
+        Set<String> picked = new LinkedHashSet<>();
+        while (picked.size() < count)
+            picked.add(pickUsername(random, exclude));
+        return picked.toArray(new String[0]);
+    }
+
+    /**
+     * @return Tempo di riflessione tra un comando e l'altro in millisecondi.
+     */
+    public long getThinkTime() {
+        return thinkTime;
+    }
+
+    /**
+     * @return Probabilità di inviare la traduzione corretta.
+     */
+    public double getAccuracy() {
+        return accuracy;
+    }
+
+    /**
+     * @return Probabilità di accettare un invito ricevuto.
+     */
+    public double getAcceptRate() {
+        return acceptRate;
+    }
+
+    /**
+     * Imposta la probabilità di accettare un invito. Con valori bassi gli inviti
+     * restano in attesa fino al timeout, occupando i thread del server.
+     *
+     * @param acceptRate Probabilità di accettare un invito ricevuto.
+     */
+    public void setAcceptRate(double acceptRate) {
+        this.acceptRate = acceptRate;
+    }
+
+    /**
+     * @return Utenti invitati insieme dal comando ROOM.
+     */
+    public int getRoomInvites() {
+        return roomInvites;
+    }
+
+    /**
+     * @param roomInvites Utenti invitati insieme dal comando ROOM.
+     */
+    public void setRoomInvites(int roomInvites) {
+        this.roomInvites = roomInvites;
+    }
+
+    /**
+     * @return Flag che indica se i bot ricevono tutte le parole della sfida all'inizio.
+     */
+    public boolean isPrefetch() {
+        return prefetch;
+    }
+
+    /**
+     * Sceglie se i bot chiedono con PREFETCH tutte le parole all'inizio della
+     * sfida, inviando le risposte senza attendere gli esiti.
+     *
+     * @param prefetch Flag che indica se i bot ricevono tutte le parole all'inizio.
+     */
+    public void setPrefetch(boolean prefetch) {
+        this.prefetch = prefetch;
+    }
+
+    /**
+     * Restituisce le misure del comando, creandole se necessario.
+     *
+     * @param command Comando di cui si vogliono le misure.
+     * @return Misure del comando.
+     */
+    private CommandStats statsOf(String command) {
+        return stats.computeIfAbsent(command, c -> new CommandStats());
+    }
+
+    /**
+     * Registra l'esito di un comando.
+     *
+     * @param command Comando eseguito.
+     * @param nanos   Latenza in nanosecondi.
+     * @param ok      Esito della risposta.
+     */
+    public void record(String command, long nanos, boolean ok) {
+        CommandStats commandStats = statsOf(command);
+        commandStats.histogram.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+        if (ok)
+            commandStats.ok.increment();
+        else
+            commandStats.ko.increment();
+    }
+
+    /**
+     * Registra una richiesta la cui risposta è stata scavalcata da una partita.
+     *
+     * @param command Comando la cui risposta è andata persa.
+     */
+    public void requestLost(String command) {
+        statsOf(command).lost.increment();
+    }
+
+    /**
+     * Registra un bot che ha interrotto il test per un errore.
+     */
+    public void botFailed() {
+        failedBots.incrementAndGet();
+    }
+
+    /**
+     * Registra in blocco gli utenti dei bot, ignorando quelli già registrati.
+     *
+     * @param hostName Nome dell'host del server.
+     * @param prefix   Prefisso degli username.
+     * @param users    Numero di utenti.
+     * @param password Password comune a tutti gli utenti.
+     * @throws RemoteException   Se non è possibile contattare il registry.
+     * @throws NotBoundException Se l'oggetto remoto non è registrato.
+     * @throws InterruptedException Se l'attesa della registrazione viene interrotta.
+     */
+    private void registerUsers(String hostName, String prefix, int users, String password)
+            throws RemoteException, NotBoundException, InterruptedException {
+        RMIClient client = new RMIClient(hostName);
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors()));
+        AtomicInteger registered = new AtomicInteger();
+        long start = System.nanoTime();
+        for (int i = 0; i < users; i++) {
+            String username = prefix + i;
+            pool.execute(() -> {
+                long requestStart = System.nanoTime();
+                try {
+                    client.registerUser(username, password);
+                    registered.incrementAndGet();
+                    record("REGISTER", System.nanoTime() - requestStart, true);
+                } catch (WQPException e) {
+                    // L'utente esiste già da un'esecuzione precedente
+                    record("REGISTER", System.nanoTime() - requestStart, false);
+                } catch (RemoteException e) {
+                    System.err.printf("[LOAD] Unable to register %s: %s\n", username, e.getMessage());
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.HOURS);
+        System.out.printf("[LOAD] Registered %d new users out of %d in %dms\n", registered.get(), users,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * Esegue il test di carico.
+     *
+     * @param hostName   Nome dell'host del server.
+     * @param prefix     Prefisso degli username.
+     * @param users      Numero di utenti simulati.
+     * @param password   Password comune a tutti gli utenti.
+     * @param duration   Durata del test in secondi.
+     * @param transports Numero di trasporti (e quindi di thread di rete) su cui distribuire i bot.
+     * @throws Exception Se non è possibile preparare il test.
+     */
+    public void run(String hostName, String prefix, int users, String password, long duration, int transports)
+            throws Exception {
+        registerUsers(hostName, prefix, users, password);
+        // Trasporti che gestiscono le connessioni dei bot
+        List<AsyncTransport> transportList = new ArrayList<>(transports);
+        for (int i = 0; i < transports; i++)
+            transportList.add(new AsyncTransport());
+        // Scheduler condiviso per i tempi di riflessione dei bot
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+        CountDownLatch finished = new CountDownLatch(users);
+        // Connette i bot
+        SocketAddress address = new InetSocketAddress(hostName, Configuration.WQP_PORT);
+        List<CompletableFuture<Void>> connections = new ArrayList<>(users);
+        for (int i = 0; i < users; i++) {
+            Bot bot = new Bot(this, prefix + i, password, i, scheduler, finished);
+            connections.add(bot.connect(transportList.get(i % transports), address));
+            bots.add(bot);
+        }
+        CompletableFuture.allOf(connections.toArray(new CompletableFuture<?>[0])).join();
+        System.out.printf("[LOAD] Connected %d bots on %d transports, running for %ds\n", users, transports,
+                duration);
+        // Avvia i bot
+        long start = System.nanoTime();
+        for (Bot bot : bots)
+            bot.start();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(duration));
+        // Chiede ai bot di terminare e di eseguire il logout
+        for (Bot bot : bots)
+            bot.stop();
+        finished.await(Configuration.TIMEOUT, TimeUnit.MILLISECONDS);
+        long elapsed = System.nanoTime() - start;
+        int stalled = (int) finished.getCount();
+        // Chiude le connessioni dei bot rimasti in attesa di una risposta
+        for (Bot bot : bots)
+            bot.close();
+        scheduler.shutdownNow();
+        for (AsyncTransport transport : transportList)
+            transport.close();
+        report(elapsed, stalled);
+    }
+
+    /**
+     * Stampa il report del test.
+     *
+     * @param elapsed Durata effettiva del test in nanosecondi.
+     * @param stalled Numero di bot che non hanno terminato entro il timeout.
+     */
+    private void report(long elapsed, int stalled) {
+        double seconds = elapsed / 1e9;
+        System.out.printf("[LOAD] Test finished in %.1fs, %d bots failed, %d stalled\n", seconds, failedBots.get(),
+                stalled);
+        System.out.printf("%-12s %9s %7s %7s %6s %10s %9s %9s %9s %9s %9s %9s\n", "COMMAND", "COUNT", "OK", "KO",
+                "LOST", "OPS/S", "MEAN", "P50", "P90", "P99", "P99.9", "MAX");
+        Map<String, CommandStats> sorted = new HashMap<>(stats);
+        sorted.keySet().stream().sorted().forEach(command -> {
+            CommandStats commandStats = sorted.get(command);
+            LatencyHistogram histogram = commandStats.histogram;
+            System.out.printf("%-12s %9d %7d %7d %6d %10.1f %7.2fms %7.2fms %7.2fms %7.2fms %7.2fms %7.2fms\n",
+                    command, histogram.getCount(), commandStats.ok.sum(), commandStats.ko.sum(),
+                    commandStats.lost.sum(), histogram.getCount() / seconds, histogram.getMean() / 1000.0,
+                    histogram.getPercentile(50) / 1000.0, histogram.getPercentile(90) / 1000.0,
+                    histogram.getPercentile(99) / 1000.0, histogram.getPercentile(99.9) / 1000.0,
+                    histogram.getMax() / 1000.0);
+        });
+        // Con --embedded thread e memoria comprendono anche il server
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        System.out.printf("[LOAD] JVM: %d peak threads, %d MB heap used of %d MB committed\n",
+                ManagementFactory.getThreadMXBean().getPeakThreadCount(), heap.getUsed() >> 20,
+                heap.getCommitted() >> 20);
+    }
+
+    /**
+     * Estrae le opzioni nella forma --nome=valore.
+     *
+     * @param args Argomenti della riga di comando.
+     * @return Mappa che associa ogni opzione al suo valore.
+     */
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--"))
+                continue;
+            int separator = arg.indexOf('=');
+            if (separator == -1)
+                options.put(arg.substring(2), "true");
+            else
+                options.put(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+        return options;
+    }
+
+    /**
+     * Avvia server e stub di traduzione nella JVM corrente.
+     *
+     * @throws IOException Se non è possibile avviare lo stub.
+     * @throws InterruptedException Se l'attesa dell'avvio viene interrotta.
+     */
+    private static void startEmbeddedServer() throws IOException, InterruptedException {
+        StubTranslationServer stub = new StubTranslationServer(0);
+        Configuration.BASE_URL = stub.getBaseUrl();
+        Thread server = new Thread(() -> MainClass.main(new String[0]), "embedded-server");
+        server.setDaemon(true);
+        server.start();
+        // Lascia al server il tempo di esporre RMI e il socket
+        Thread.sleep(1000);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        String hostName = options.getOrDefault("host", Configuration.SERVER_HOSTNAME);
+        int users = Integer.parseInt(options.getOrDefault("users", "100"));
+        long duration = Long.parseLong(options.getOrDefault("duration", "60"));
+        long thinkTime = Long.parseLong(options.getOrDefault("think", "100"));
+        double accuracy = Double.parseDouble(options.getOrDefault("accuracy", "0.8"));
+        String mix = options.getOrDefault("mix", "POINTS:40,RANKING:30,FRIEND:20,CHALLENGE:10");
+        String prefix = options.getOrDefault("prefix", "bot");
+        String password = options.getOrDefault("password", "password");
+        int transports = Integer.parseInt(options.getOrDefault("transports", "1"));
+        // I messaggi dei singoli client renderebbero il test illeggibile
+        Configuration.CLIENT_LOGGING = false;
+        if (options.containsKey("virtual"))
+            Configuration.VIRTUAL_THREADS = true;
+        if (options.containsKey("embedded"))
+            startEmbeddedServer();
+        LoadGenerator generator = new LoadGenerator(mix, thinkTime, accuracy);
+        generator.setAcceptRate(Double.parseDouble(options.getOrDefault("accept", "1.0")));
+        generator.setPrefetch(options.containsKey("prefetch"));
+        generator.setRoomInvites(Integer.parseInt(options.getOrDefault("room", "3")));
+        generator.run(hostName, prefix, users, password, duration, transports);
+        System.exit(0);
+    }
+}
@@ -0,0 +1,109 @@
+package it.unipi.studenti.wordquizzles.client.load;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.StringTokenizer;
+
+import it.unipi.studenti.wordquizzles.server.services.AcceptedAnswers;
+import it.unipi.studenti.wordquizzles.shared.Configuration;
+import it.unipi.studenti.wordquizzles.shared.StaticUtilities;
+import it.unipi.studenti.wordquizzles.shared.wqp.WQPException;
+import it.unipi.studenti.wordquizzles.shared.wqp.WQPRequest;
+
+/**
+ * ParserBenchmark misura tempo e memoria allocata per ogni richiesta WORD
+ * interpretata con la decodifica in String seguita da StringTokenizer e con
+ * WQPRequest, che decodifica la risposta dal buffer in un array riusato e la
+ * confronta con AcceptedAnswers come fa il server. La memoria allocata
+ * viene letta dai contatori per thread della JVM HotSpot.
+ *
+ * Argomenti opzionali: numero di iterazioni per misura (default 5000000).
+ */
+public class ParserBenchmark {
+
+    // Traduzione attesa per la parola della richiesta
+    private static final String TRANSLATION = "house";
+
+    // Traduzioni accettate per la parola della richiesta
+    private static final AcceptedAnswers ANSWERS = new AcceptedAnswers(Collections.singletonList(TRANSLATION));
+
+    // Array in cui viene decodificata la risposta, riusato come fa il server
+    private static final char[] SUBMISSION = new char[Configuration.MAX_ANSWER_CHARS];
+
+    // Valore accumulato dai parser, stampato per impedire che il JIT elimini il lavoro
+    private static long sink;
+
+    /**
+     * Interpreta la richiesta come faceva il server prima di WQPRequest.
+     *
+     * @param buffer Buffer contenente la richiesta.
+     */
+    private static void parseWithTokenizer(ByteBuffer buffer) {
+        String message = StaticUtilities.stringifyBuffer(buffer);
+        StringTokenizer tokenizer = new StringTokenizer(message);
+        String command = tokenizer.nextToken();
+        String word = tokenizer.nextToken();
+        String submission = tokenizer.nextToken();
+        if (command.equals("WORD") && submission.toLowerCase().equals(TRANSLATION))
+            sink += word.length();
+    }
+
+    /**
+     * Interpreta la richiesta con WQPRequest e verifica la risposta come il server.
+     *
+     * @param buffer Buffer contenente la richiesta.
+     * @throws WQPException Se la richiesta non è ben formata.
+     */
+    private static void parseWithRequest(ByteBuffer buffer) throws WQPException {
+        WQPRequest request = new WQPRequest(buffer);
+        String word = request.field(1);
+        if (request.command() != WQPRequest.Command.WORD)
+            return;
+        int length = request.decodeFields(2, SUBMISSION);
+        if (length != -1 && ANSWERS.matches(SUBMISSION, length))
+            sink += word.length();
+    }
+
+    /**
+     * Esegue una misura e ne stampa i risultati.
+     *
+     * @param name       Nome del parser.
+     * @param buffer     Buffer contenente la richiesta.
+     * @param iterations Numero di iterazioni.
+     * @param tokenizer  Flag che sceglie il parser basato su StringTokenizer.
+     * @throws WQPException Se la richiesta non è ben formata.
+     */
+    private static void measure(String name, ByteBuffer buffer, int iterations, boolean tokenizer)
+            throws WQPException {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            if (tokenizer)
+                parseWithTokenizer(buffer);
+            else
+                parseWithRequest(buffer);
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        System.out.printf("%-12s %10.1f ns/op %10.1f B/op\n", name, (double) elapsed / iterations,
+                (double) allocated / iterations);
+    }
+
+    public static void main(String[] args) throws WQPException {
+        int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 5000000;
+        byte[] message = "WORD\ncasa\nHouse".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.wrap(message);
+        // Il primo giro serve a far compilare al JIT entrambi i percorsi
+        for (int round = 0; round < 2; round++) {
+            System.out.println((round == 0) ? "[BENCH] Warm-up" : "[BENCH] Measurement");
+            measure("tokenizer", buffer, iterations, true);
+            measure("wqprequest", buffer, iterations, false);
+        }
+        System.out.printf("[BENCH] Checksum %d\n", sink);
+    }
+}
@@ -0,0 +1,129 @@
+package it.unipi.studenti.wordquizzles.client.load;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import org.mindrot.jbcrypt.BCrypt;
+
+import it.unipi.studenti.wordquizzles.server.services.User;
+import it.unipi.studenti.wordquizzles.server.services.UserAdapter;
+import it.unipi.studenti.wordquizzles.server.services.UsersLoader;
+import it.unipi.studenti.wordquizzles.shared.Configuration;
+
+/**
+ * PersistenceBenchmark misura salvataggio e caricamento del file degli
+ * account con la riflessione di Gson e output indentato (come faceva
+ * AccountService) e con UserAdapter e output compatto; il file compatto viene
+ * riletto anche con UsersLoader, come all'avvio del server. Gli utenti generati
+ * condividono lo stesso hash, calcolato una volta sola.
+ *
+ * Argomenti opzionali: numero di utenti (default 1000000) e cartella in cui
+ * scrivere i file temporanei.
+ */
+public class PersistenceBenchmark {
+
+    // Numero massimo di amici di un utente generato
+    private static final int MAX_FRIENDS = 8;
+
+    // Tipo della mappa degli utenti
+    private static final Type USERS_MAP_TYPE = new TypeToken<ConcurrentHashMap<String, User>>(){}.getType();
+
+    /**
+     * Genera gli utenti del benchmark.
+     *
+     * @param count Numero di utenti.
+     * @return Mappa degli utenti.
+     */
+    private static Map<String, User> generate(int count) {
+        Random random = new Random(42);
+        String passwordHash = BCrypt.hashpw("password", BCrypt.gensalt());
+        Map<String, User> users = new ConcurrentHashMap<>(count);
+        for (int i = 0; i < count; i++) {
+            int friendsCount = random.nextInt(MAX_FRIENDS + 1);
+            List<String> friends = new ArrayList<>(friendsCount);
+            for (int j = 0; j < friendsCount; j++)
+                friends.add("user" + random.nextInt(count));
+            String username = "user" + i;
+            users.put(username, new User(username, random.nextInt(10000), passwordHash, friends));
+        }
+        return users;
+    }
+
+    /**
+     * Salva e ricarica gli utenti con la configurazione passata, stampando i tempi.
+     *
+     * @param name  Nome della configurazione.
+     * @param gson  Oggetto che serializza la mappa.
+     * @param users Utenti da salvare.
+     * @param file  File temporaneo.
+     * @throws IOException Se non è possibile scrivere o leggere il file.
+     */
+    private static void measure(String name, Gson gson, Map<String, User> users, File file) throws IOException {
+        long start = System.nanoTime();
+        try (JsonWriter writer = gson.newJsonWriter(new BufferedWriter(new FileWriter(file)))) {
+            gson.toJson(users, USERS_MAP_TYPE, writer);
+        }
+        long saved = System.nanoTime();
+        Map<String, User> loaded;
+        try (JsonReader reader = new JsonReader(new BufferedReader(new FileReader(file)))) {
+            loaded = gson.fromJson(reader, USERS_MAP_TYPE);
+        }
+        long end = System.nanoTime();
+        System.out.printf("%-10s save %6d ms   load %6d ms   size %5d MB   users %d\n", name,
+                (saved - start) / 1000000, (end - saved) / 1000000, file.length() >> 20, loaded.size());
+    }
+
+    /**
+     * Ricarica con UsersLoader il file scritto dall'adapter, stampando il tempo.
+     *
+     * @param file File scritto in formato compatto.
+     * @throws IOException Se non è possibile leggere il file.
+     */
+    private static void measureLoader(File file) throws IOException {
+        int threads = Configuration.LOAD_THREADS;
+        long start = System.nanoTime();
+        Map<String, User> loaded = UsersLoader.load(file, threads, Configuration.LOAD_CHUNK_BYTES);
+        long end = System.nanoTime();
+        System.out.printf("%-10s load %6d ms   threads %d   users %d\n", "loader", (end - start) / 1000000, threads,
+                loaded.size());
+    }
+
+    public static void main(String[] args) throws IOException {
+        int count = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+        File directory = new File((args.length > 1) ? args[1] : System.getProperty("java.io.tmpdir"));
+        System.out.printf("[BENCH] Generating %d users\n", count);
+        Map<String, User> users = generate(count);
+        Gson reflective = new GsonBuilder().setPrettyPrinting().create();
+        Gson adapter = new GsonBuilder().registerTypeAdapter(User.class, new UserAdapter()).create();
+        File reflectiveFile = new File(directory, "users-reflective.json");
+        File adapterFile = new File(directory, "users-adapter.json");
+        try {
+            // Il primo giro serve a far compilare al JIT entrambi i percorsi
+            for (int round = 0; round < 2; round++) {
+                System.out.println((round == 0) ? "[BENCH] Warm-up" : "[BENCH] Measurement");
+                measure("reflective", reflective, users, reflectiveFile);
+                measure("adapter", adapter, users, adapterFile);
+                measureLoader(adapterFile);
+            }
+        } finally {
+            reflectiveFile.delete();
+            adapterFile.delete();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package it.unipi.studenti.wordquizzles.client.load;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * StubTranslationServer è un servizio HTTP locale che imita il servizio di
+ * traduzione remoto restituendo come traduzione la parola stessa. Permette di
+ * eseguire i test di carico senza dipendere dalla rete.
+ */
+public class StubTranslationServer implements AutoCloseable {
+
+    // Server HTTP che risponde alle richieste di traduzione
+    private HttpServer server;
+
+    /**
+     * Avvia il servizio sulla porta passata.
+     *
+     * @param portNumber Porta su cui ascoltare (0 per una porta qualsiasi).
+     * @throws IOException Se non è possibile aprire la porta.
+     */
+    public StubTranslationServer(int portNumber) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", portNumber), 0);
+        server.createContext("/get", this::handle);
+        // I thread che servono le richieste non devono impedire la chiusura della JVM
+        server.setExecutor(Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "stub-translation");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.start();
+        System.out.printf("[STUB] Translation service started on %s\n", server.getAddress());
+    }
+
+    /**
+     * Risponde ad una richiesta di traduzione con lo stesso formato del servizio
+     * remoto.
+     *
+     * @param exchange Scambio HTTP con il client.
+     * @throws IOException Se non è possibile scrivere la risposta.
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        // Parola da tradurre estratta dalla query
+        String word = extractWord(exchange.getRequestURI().getRawQuery());
+        // Oggetto JSON con la stessa struttura di quello remoto
+        JsonObject responseData = new JsonObject();
+        responseData.addProperty("translatedText", word);
+        JsonObject response = new JsonObject();
+        response.add("responseData", responseData);
+        byte[] body = response.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+        }
+    }
+
+    /**
+     * Estrae il parametro q dalla query string.
+     *
+     * @param query Query string grezza.
+     * @return Parola da tradurre, oppure la stringa vuota.
+     * @throws UnsupportedEncodingException Se la codifica non è supportata.
+     */
+    private static String extractWord(String query) throws UnsupportedEncodingException {
+        if (query == null)
+            return "";
+        for (String parameter : query.split("&"))
+            if (parameter.startsWith("q="))
+                return URLDecoder.decode(parameter.substring(2), "UTF-8").toLowerCase();
+        return "";
+    }
+
+    /**
+     * @return URL da usare come Configuration.BASE_URL per interrogare questo servizio.
+     */
+    public String getBaseUrl() {
+        return String.format("http://localhost:%d/get?langpair=it%%7Cen&q=", server.getAddress().getPort());
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        System.out.println("[STUB] Translation service stopped");
+    }
+
+    public static void main(String[] args) throws IOException {
+        // Porta su cui ascoltare
+        int portNumber = (args.length > 0) ? Integer.parseInt(args[0]) : 8082;
+        StubTranslationServer stub = new StubTranslationServer(portNumber);
+        System.out.printf("[STUB] Use %s as base URL\n", stub.getBaseUrl());
+    }
+}
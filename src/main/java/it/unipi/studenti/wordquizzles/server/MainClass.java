@@ -5,9 +5,11 @@ import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
-import java.util.concurrent.ExecutionException;
 
 import it.unipi.studenti.wordquizzles.server.rmi.RegistrationServiceImplementation;
+import it.unipi.studenti.wordquizzles.server.services.AccountService;
+import it.unipi.studenti.wordquizzles.server.services.HistoryService;
+import it.unipi.studenti.wordquizzles.server.tournament.TournamentService;
 import it.unipi.studenti.wordquizzles.server.wqp.SocketServer;
 import it.unipi.studenti.wordquizzles.shared.Configuration;
 import it.unipi.studenti.wordquizzles.shared.rmi.RegistrationService;
@@ -36,6 +38,16 @@ public class MainClass {
 
     public static void main(String[] args) {
 
+        // Gli account vengono caricati prima di esporre qualsiasi servizio
+        try {
+            AccountService.initialize();
+            HistoryService.initialize();
+            TournamentService.initialize();
+        } catch (IOException e) {
+            System.err.printf("Unable to load the accounts, the match history or the tournaments: %s\n", e.getMessage());
+            System.exit(1);
+        }
+
         try {
             registerRMIService(Configuration.RMI_PORT);
         } catch (RemoteException e) {
@@ -49,12 +61,6 @@ public class MainClass {
         } catch (IOException e) {
             System.err.println("Error in read/write operation");
             e.printStackTrace();
-        } catch (InterruptedException e) {
-            System.err.println("The server has stopped");
-            e.printStackTrace();
-        } catch (ExecutionException e) {
-            System.err.println("The server failed to serve a request");
-            e.printStackTrace();
         }
     }
 }
\ No newline at end of file
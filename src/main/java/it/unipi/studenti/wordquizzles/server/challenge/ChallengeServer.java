@@ -1,183 +1,457 @@
 package it.unipi.studenti.wordquizzles.server.challenge;
 
 import java.io.IOException;
-import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
-import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.NoSuchElementException;
-import java.util.StringTokenizer;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
+import it.unipi.studenti.wordquizzles.server.services.AcceptedAnswers;
 import it.unipi.studenti.wordquizzles.server.services.AccountService;
+import it.unipi.studenti.wordquizzles.server.services.HistoryService;
+import it.unipi.studenti.wordquizzles.server.services.MatchRecord;
+import it.unipi.studenti.wordquizzles.server.services.MatchResult;
 import it.unipi.studenti.wordquizzles.server.services.WordService;
+import it.unipi.studenti.wordquizzles.server.wqp.Connection;
+import it.unipi.studenti.wordquizzles.server.wqp.WriteInformations;
 import it.unipi.studenti.wordquizzles.shared.Configuration;
 import it.unipi.studenti.wordquizzles.shared.StaticUtilities;
+import it.unipi.studenti.wordquizzles.shared.wqp.MatchWords;
+import it.unipi.studenti.wordquizzles.shared.wqp.Round;
 import it.unipi.studenti.wordquizzles.shared.wqp.WQPException;
+import it.unipi.studenti.wordquizzles.shared.wqp.WQPRequest;
+import it.unipi.studenti.wordquizzles.shared.wqp.WQPRequest.Command;
 
 /**
- * ChallengeTask
+ * ChallengeServer è una partita tra due o più giocatori (al massimo
+ * ROOM_MAX_PLAYERS). Le stesse parole vengono inviate a tutti e ogni giocatore
+ * avanza per conto proprio; alla fine i risultati vengono ordinati per
+ * punteggio. La partita non ha un thread dedicato: le traduzioni vengono
+ * reperite sul thread pool delle partite, dopodiché le chiavi dei giocatori
+ * vengono registrate sul selettore di un MatchLoop insieme a quelle di molte
+ * altre partite.
  */
 public class ChallengeServer implements Runnable {
 
-    // Sistema di gestione degli account
-    private AccountService accountService;
+    /**
+     * ResultListener riceve l'esito di una partita quando viene chiusa, sul
+     * thread del MatchLoop: non deve bloccare.
+     */
+    @FunctionalInterface
+    public interface ResultListener {
+
+        /**
+         * @param points    Punti dei giocatori ancora connessi alla chiusura, per username.
+         * @param completed Flag che indica se la partita è stata giocata fino in fondo.
+         */
+        void finished(Map<String, Integer> points, boolean completed);
+    }
+
+    /**
+     * Spectator è un utente che assiste alla partita senza giocare. Resta sul
+     * selettore principale: la partita gli accoda gli eventi senza mai
+     * scrivere sul suo canale.
+     */
+    private static class Spectator {
+
+        // Connessione dello spettatore
+        private Connection connection;
+
+        // Flag che indica se sono stati scartati eventi da quando ha ricevuto l'ultimo
+        private boolean lagging;
+
+        private Spectator(Connection connection) {
+            this.connection = connection;
+            lagging = false;
+        }
+    }
 
-    // Chiave dell'utente sfidante
-    private SelectionKey userKey;
+    // Partite in corso per username dei giocatori, per SPECTATE
+    private static final ConcurrentHashMap<String, ChallengeServer> PLAYING = new ConcurrentHashMap<>();
 
-    // Chiave dell'utente sfidato
-    private SelectionKey friendKey;
+    // Sistema di gestione degli account
+    private AccountService accountService;
 
-    // Riferimento al selettore principale
-    private Selector mainSelector;
+    // Connessioni dei giocatori, dallo sfidante
+    private List<Connection> connections;
 
-    // Mappa che associa ad ogni utente la struttura dati per la partita
+    // Mappa che associa ad ogni chiave nel selettore della partita la struttura dati del giocatore
     private Map<SelectionKey, MatchInformations> info;
 
-    // Mappa che associa ad ogni parola la traduzione
-    private Map<String, String> translations;
+    // Mappa che associa ad ogni parola le traduzioni accettate
+    private Map<String, AcceptedAnswers> translations;
+
+    // Caratteri della risposta in verifica, riusati per non allocare a ogni risposta
+    private char[] submission;
 
     // Lista delle parole da tradurre (per semplicità di consultazione)
     private List<String> words;
 
-    // Flag che indica se c'è stata una disconnessione improvvisa
-    private boolean disconnected;
+    // Giocatori che stanno ancora rispondendo
+    private int playing;
+
+    // Giocatori che si sono disconnessi durante la partita
+    private int left;
+
+    // Flag che indica se la partita è stata chiusa
+    private boolean finished;
+
+    // Flag che indica se le connessioni sono state restituite al selettore principale
+    private boolean released;
+
+    // Flag che indica se l'esito è stato comunicato al destinatario
+    private boolean notified;
+
+    // Identificativo univoco della partita
+    private String matchId;
+
+    // Istante di inizio della partita in millisecondi dall'epoca
+    private long startTime;
+
+    // Istante di inizio della partita in nanosecondi, per misurare i tempi di risposta
+    private long startNanos;
+
+    // Istante di fine della partita in nanosecondi
+    private long deadline;
+
+    // Frame con la prima parola, codificato una volta e condiviso da tutti i giocatori
+    private ByteBuffer firstWordBuffer;
+
+    // Frame con tutte le parole, codificato una volta e condiviso dai giocatori che lo hanno chiesto
+    private ByteBuffer wordsBuffer;
+
+    // Destinatario dell'esito della partita, null se nessuno lo attende
+    private ResultListener listener;
+
+    // Esecutore delle operazioni sul thread del MatchLoop della partita
+    private Executor loop;
+
+    // Spettatori della partita, usati solo dal thread del MatchLoop
+    private List<Spectator> spectators;
 
     /**
      * Inizializza i dati
      * 
-     * @param userKey      Chiave dello sfidante.
-     * @param friendKey    Chiave dello sfidato.
-     * @param mainSelector Selettore su cui registrare di nuovo i
-     * @throws IOException Se non è possibile reperire le traduzioni.
-     */
-    public ChallengeServer(SelectionKey userKey, SelectionKey friendKey, Selector mainSelector) throws IOException {
-        this.userKey = userKey;
-        this.friendKey = friendKey;
-        this.mainSelector = mainSelector;
-        disconnected = false;
-        info = new HashMap<>(2);
-        translations = WordService.getWords();
-        words = new ArrayList<>(translations.keySet());
+     * @param connections Connessioni dei giocatori, dallo sfidante.
+     */
+    public ChallengeServer(List<Connection> connections) {
+        this(connections, null, null);
+    }
+
+    /**
+     * Inizializza i dati di una partita le cui traduzioni sono già state
+     * reperite, ad esempio una volta per tutte le partite di un turno.
+     * 
+     * @param connections  Connessioni dei giocatori, dallo sfidante.
+     * @param translations Mappa che associa ad ogni parola le traduzioni accettate, null per reperirle all'avvio.
+     * @param listener     Destinatario dell'esito della partita, null se nessuno lo attende.
+     */
+    public ChallengeServer(List<Connection> connections, Map<String, AcceptedAnswers> translations,
+            ResultListener listener) {
+        this.connections = connections;
+        this.translations = translations;
+        this.listener = listener;
+        if (translations != null)
+            words = new ArrayList<>(translations.keySet());
+        submission = new char[Configuration.MAX_ANSWER_CHARS];
+        finished = false;
+        released = false;
+        notified = false;
+        matchId = UUID.randomUUID().toString();
+        info = new LinkedHashMap<>(2 * connections.size());
+        spectators = new ArrayList<>();
         accountService = AccountService.getInstance();
     }
 
     /**
-     * Scrive i dati allegati alla chiave sul canale. Quando ha finito si mette in
+     * Aggiunge uno spettatore alla partita in corso di un utente.
+     * 
+     * @param username  Username del giocatore da guardare.
+     * @param spectator Connessione dello spettatore.
+     * @throws WQPException Se l'utente non sta giocando una partita.
+     */
+    public static void spectate(String username, Connection spectator) throws WQPException {
+        ChallengeServer room = PLAYING.get(username);
+        if (room == null)
+            throw new WQPException("User is not playing");
+        room.loop.execute(() -> room.addSpectator(spectator));
+    }
+
+    /**
+     * Aggiunge uno spettatore e gli invia i punteggi attuali. Va invocato sul
+     * thread del MatchLoop.
+     * 
+     * @param connection Connessione dello spettatore.
+     */
+    private void addSpectator(Connection connection) {
+        // La partita può essere terminata mentre la richiesta attendeva il thread
+        if (finished) {
+            connection.complete(new WriteInformations(spectatorEvent("END\nThe match is over"), null, false));
+            return;
+        }
+        if (spectators.size() >= Configuration.SPECTATORS_PER_MATCH) {
+            connection.complete(new WriteInformations(spectatorEvent("END\nToo many spectators"), null, false));
+            return;
+        }
+        spectators.add(new Spectator(connection));
+        connection.complete(new WriteInformations(scoreEvent(), null, false));
+    }
+
+    /**
+     * Reperisce le parole della partita e le loro traduzioni. Viene invocato dal
+     * thread pool delle partite, così che le richieste HTTP non blocchino né il
+     * selettore principale né quelli delle partite.
+     * 
+     * @return Flag che indica se le traduzioni sono state reperite.
+     */
+    private boolean loadWords() {
+        // Giocatori ancora connessi, di cui evitare le parole viste di recente
+        List<String> players = new ArrayList<>(connections.size());
+        for (Connection connection : connections) {
+            try {
+                players.add(accountService.getUsername(connection.getKey()));
+            } catch (WQPException e) {
+                // L'utente ha già eseguito il logout
+            }
+        }
+        try {
+            translations = WordService.getWords(players);
+        } catch (IOException e) {
+            System.err.println("[CHALLENGE] Challenge will not start - unable to retrieve translations");
+            return false;
+        }
+        words = new ArrayList<>(translations.keySet());
+        return true;
+    }
+
+    /**
+     * Reperisce le traduzioni e passa la partita ad un MatchLoop.
+     */
+    @Override
+    public void run() {
+        // Se non ci sono le traduzioni annulla la partita e restituisce le connessioni
+        if (translations == null && !loadWords()) {
+            cancel("Impossibile reperire le traduzioni, il match è stato cancellato");
+            return;
+        }
+        try {
+            MatchEngine.getInstance().start(this);
+        } catch (IOException e) {
+            System.err.printf("[CHALLENGE] Challenge will not start - unable to open match loops: %s\n", e.getMessage());
+            cancel("Impossibile avviare la partita, il match è stato cancellato");
+        }
+    }
+
+    /**
+     * Annulla una partita non ancora iniziata, inviando un report di errore e
+     * restituendo le connessioni al selettore principale.
+     * 
+     * @param message Messaggio da inviare ai giocatori.
+     */
+    private void cancel(String message) {
+        sendReport(report("KO", message));
+        for (Connection connection : connections)
+            connection.endChallenge();
+        // Nessuno ha giocato: i giocatori ancora connessi restano a zero punti
+        if (listener != null) {
+            Map<String, Integer> points = new HashMap<>();
+            for (Connection connection : connections) {
+                try {
+                    if (connection.getChannel().isOpen())
+                        points.put(accountService.getUsername(connection.getKey()), 0);
+                } catch (WQPException e) {
+                    // L'utente ha già eseguito il logout
+                }
+            }
+            listener.finished(points, false);
+        }
+    }
+
+    /**
+     * Registra i giocatori sul selettore e invia a tutti la prima parola, o
+     * tutte le parole. Va invocato sul thread del MatchLoop.
+     * 
+     * @param selector Selettore del MatchLoop.
+     * @param loop     Esecutore delle operazioni sul thread del MatchLoop.
+     * @return Flag che indica se la partita è iniziata.
+     */
+    boolean start(Selector selector, Executor loop) {
+        this.loop = loop;
+        try {
+            for (Connection connection : connections) {
+                String username = accountService.getUsername(connection.getKey());
+                // Ogni chiave ha come allegato la partita, che ritrova il giocatore nella mappa
+                SelectionKey key = connection.getChannel().register(selector, SelectionKey.OP_WRITE, this);
+                info.put(key, new MatchInformations(connection, username));
+            }
+        } catch (IOException | WQPException e) {
+            System.err.printf("[CHALLENGE] Challenge will not start: %s\n", e.getMessage());
+            for (SelectionKey key : info.keySet())
+                key.cancel();
+            finished = true;
+            cancel("Un utente si è disconnesso, il match è stato cancellato");
+            return false;
+        }
+        System.out.printf("[CHALLENGE] Registered %d clients in the challenge selector\n", info.size());
+        playing = info.size();
+        left = 0;
+        // Accoda le prime parole dopo eventuali risposte ancora da scrivere
+        startTime = System.currentTimeMillis();
+        startNanos = System.nanoTime();
+        deadline = startNanos + Configuration.CHALLENGE_TIME * 1000000;
+        for (MatchInformations userInfo : info.values())
+            userInfo.getConnection().enqueue(firstWord(userInfo));
+        // Da ora la partita può essere guardata
+        for (MatchInformations userInfo : info.values())
+            PLAYING.put(userInfo.getUsername(), this);
+        return true;
+    }
+
+    /**
+     * @return Istante di fine della partita in nanosecondi.
+     */
+    long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * @return Flag che indica se meno di due giocatori sono ancora connessi.
+     */
+    private boolean isCancelled() {
+        return info.size() - left < 2;
+    }
+
+    /**
+     * @return Flag che indica se la partita può essere chiusa prima della scadenza.
+     */
+    boolean isOver() {
+        return finished || playing == 0 || isCancelled();
+    }
+
+    /**
+     * Gestisce un evento su una chiave della partita. Un errore sulla
+     * connessione di un giocatore lo esclude dalla partita.
+     * 
+     * @param key Chiave pronta.
+     */
+    void handle(SelectionKey key) {
+        MatchInformations userInfo = info.get(key);
+        try {
+            if (key.isWritable())
+                writeKey(key, userInfo);
+            else if (key.isReadable())
+                readKey(key, userInfo);
+        } catch (IOException e) {
+            System.err.printf("[CHALLENGE] Closing connection after error: %s\n", e.getMessage());
+            leave(key, userInfo);
+        }
+    }
+
+    /**
+     * Scrive i frame accodati sulla connessione. Quando ha finito si mette in
      * attesa dei dati da leggere.
      * 
-     * @param key Chiave contenente il canale su cui scrivere e i dati da scrivere.
+     * @param key Chiave del giocatore nel selettore della partita.
+     * @param userInfo Informazioni sulla partita del giocatore.
      * @throws IOException Se non è possibile scrivere sul socket.
      */
-    private void writeKey(SelectionKey key) throws IOException {
-        // Socket su cui scrivere
-        SocketChannel channel = (SocketChannel) key.channel();
-        // Buffer da cui prendere i dati da scrivere
-        ByteBuffer buffer = (ByteBuffer) key.attachment();
-        // Scrive i dati sul canale
-        channel.write(buffer);
+    private void writeKey(SelectionKey key, MatchInformations userInfo) throws IOException {
+        // Connessione su cui scrivere
+        Connection connection = userInfo.getConnection();
+        // Scrive i frame accodati
+        connection.flush();
         // Se ci sono altri dati da scrivere esce
-        if (buffer.hasRemaining())
+        if (connection.hasPendingWrites())
             return;
-        System.out.printf("[CHALLENGE] Just wrote message %d bytes long to %s\n", buffer.capacity(), channel.getRemoteAddress());
-        // Buffer che contiene la dimensione del prossimo dato da leggere
-        buffer = ByteBuffer.allocate(Integer.BYTES);
         // Registra il canale per la prossima lettura
         key.interestOps(SelectionKey.OP_READ);
-        key.attach(buffer);
-        System.out.printf("[CHALLENGE] %s is back to read\n", channel.getRemoteAddress());
     }
 
     /**
-     * Legge prima la dimensione poi i dati dal canale. Quando ha finito li
-     * processa, prende il buffer da scrivere e si registra per la scrittura.
+     * Legge i frame disponibili sulla connessione, li processa e accoda le
+     * risposte da scrivere.
      * 
-     * @param key Chiave contenente il canale da cui leggere e il buffer su cui
-     *            salvare lunghezza e dati.
+     * @param key Chiave del giocatore nel selettore della partita.
+     * @param userInfo Informazioni sulla partita del giocatore.
      * @throws IOException Se non è possibile leggere dal buffer.
-     * @return Flag che indica se il client ha terminato.
-     */
-    private boolean readKey(SelectionKey key) throws IOException {
-        // Socket su cui scrivere
-        SocketChannel channel = (SocketChannel) key.channel();
-        // Buffer in cui inserire i dati letti
-        ByteBuffer buffer = (ByteBuffer) key.attachment();
-        // Legge i dati sul canale
-        int bytesRead = channel.read(buffer);
-        // Se ha letto -1 bytes il client ha chiuso quindi cancella la chiave
-        if (bytesRead == -1) {
-            StaticUtilities.removeKey(key);
-            // Rimuove la chiave dal selettore principale
-            if (key.channel() == userKey.channel())
-                userKey.cancel();
-            else
-                this.friendKey.cancel();
-            disconnected = true;
-            return true;
+     */
+    private void readKey(SelectionKey key, MatchInformations userInfo) throws IOException {
+        // Connessione da cui leggere
+        Connection connection = userInfo.getConnection();
+        boolean closed = connection.read((requestId, buffer) -> {
+            // Processa il buffer e accoda la risposta da scrivere
+            connection.enqueue(parse(buffer, requestId, key));
+        });
+        // Se il client ha chiuso la connessione lo esclude dalla partita
+        if (closed) {
+            leave(key, userInfo);
+            return;
         }
-        // Se c'è ancora spazio nel buffer esce
-        if (buffer.hasRemaining())
-            return false;
-        buffer.flip();
-        System.out.printf("[CHALLENGE] Just read %d bytes from %s\n", buffer.capacity(), channel.getRemoteAddress());
-        // Se il buffer contiene una lunghezza la estrae
-        if (buffer.capacity() == Integer.BYTES) {
-            int length = buffer.getInt();
-            buffer = ByteBuffer.allocate(length);
-            key.attach(buffer);
-            System.out.printf("[CHALLENGE] Waiting for a message %d bytes long from %s\n", length, channel.getRemoteAddress());
-        } else {
-            // Processa il buffer restituendo il prossimo buffer da scrivere
-            buffer = parse(buffer, key);
-            // Se il buffer è null l'utente ha terminato
-            if (buffer == null) {
-                key.cancel();
-                System.out.printf("[CHALLENGE] Client %s terminated the challenge\n", channel.getRemoteAddress());
-                return true;
-            }
-            key.attach(buffer);
-            key.interestOps(SelectionKey.OP_WRITE);
-            System.out.printf("[CHALLENGE] Client %s is back to write\n", channel.getRemoteAddress());
+        // Se il client ha inviato l'ultima parola lascia il selettore della partita
+        if (userInfo.isFinished()) {
+            // Prova a scrivere subito l'ultimo esito, il resto verrà scritto dal selettore principale
+            connection.flush();
+            key.cancel();
+            playing--;
+            System.out.printf("[CHALLENGE] %s terminated the challenge\n", userInfo.getUsername());
+            return;
         }
-        return false;
+        if (connection.hasPendingWrites())
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    /**
+     * Esclude dalla partita un giocatore che si è disconnesso.
+     * 
+     * @param key Chiave del giocatore nel selettore della partita.
+     * @param userInfo Informazioni sulla partita del giocatore.
+     */
+    private void leave(SelectionKey key, MatchInformations userInfo) {
+        key.cancel();
+        userInfo.getConnection().close();
+        left++;
+        if (!userInfo.isFinished())
+            playing--;
+        System.out.printf("[CHALLENGE] %s left the challenge\n", userInfo.getUsername());
     }
 
     /**
-     * Elabora il buffer inviato da un utente e restituisce l'eventuale successivo buffer da scrivere.
+     * Elabora il buffer inviato da un utente e restituisce il buffer da scrivere.
      * 
      * @param buffer Buffer inviato dal client.
+     * @param requestId Identificativo della richiesta.
      * @param key Chiave che identifica il client.
-     * @return Buffer da scrivere al client, oppure null in caso di ultima parola o richiesta di logout.
+     * @return Buffer da scrivere al client.
      */
-    private ByteBuffer parse(ByteBuffer buffer, SelectionKey key) {
-        // Stringa arrivata dal client
-        String message = StaticUtilities.stringifyBuffer(buffer);
-        // Tokenizer che analizza il messaggio
-        StringTokenizer tokenizer = new StringTokenizer(message);
+    private ByteBuffer parse(ByteBuffer buffer, int requestId, SelectionKey key) {
+        // Richiesta letta direttamente dal buffer
+        WQPRequest request = new WQPRequest(buffer);
         // Comando inviato dal client
-        String command = tokenizer.nextToken();
+        Command command = request.command();
         // Risultato dell'operazione richiesta dal client
         String outcome = null;
         // Dati contenuti nella risposta
         String response = null;
         try {
             // Se il comando è l'invio di una parola la estrae
-            if (command.equals("WORD")) {
-                String word = tokenizer.nextToken();
-                String submission = tokenizer.nextToken();
-                response = submit(word, submission, key);
-                // Se ho finito le parole restituisce null
-                if (response == null)
-                    return null;
+            if (command == Command.WORD) {
+                // Se manca la traduzione la richiesta non è ben formata
+                if (request.count() < 3)
+                    throw new WQPException("Malformed message");
+                // Esito della risposta e prossima parola nello stesso frame
+                response = submit(request.field(1), request, key).toString();
             }
             // Se il comando è di logout lo esegue
-            else if (command.equals("LOGOUT")) {
+            else if (command == Command.LOGOUT) {
                 // Chiave dell'utente nel selettore principale
                 SelectionKey mainKey = info.get(key).getKey();
                 response = StaticUtilities.logoutUser(mainKey);
@@ -186,166 +460,207 @@ public class ChallengeServer implements Runnable {
             else
                 throw new WQPException("Unable to execute command");
             outcome = "OK";
-        // Se la suddivisione del messaggio in token non è stata fatta nel modo corretto la risposta non è ben formata
-        } catch (NoSuchElementException e) {
-            outcome = "KO";
-            response = "Malformed message";
         } catch (WQPException e) {
             outcome = "KO";
             response = e.getMessage();
         }
         // Compone la risposta da inviare al client
-        message = StaticUtilities.concat("\n", command, outcome, response);
+        String message = StaticUtilities.concat("\n", request.commandName(0), outcome, response);
         // Buffer da inviare al client
-        buffer = StaticUtilities.bufferizeString(message);
+        buffer = StaticUtilities.bufferizeString(requestId, message);
         return buffer;
     }
 
     /**
-     * Inserisce una nuova parola nella lista delle sottomissioni dell'utente.
+     * Registra la risposta dell'utente alla parola corrente.
      * 
      * @param word Parola da tradurre.
-     * @param submission Traduzione inviata dall'utente.
+     * @param request Richiesta che contiene la traduzione inviata dall'utente.
      * @param key Chiave che rappresenta la connessione dell'utente.
-     * @return Prossima parola da inviare all'utente, oppure null se le parole sono esaurite.
+     * @return Esito della risposta e prossima parola da inviare all'utente (assente se le parole sono esaurite).
+     * @throws WQPException Se la richiesta non contiene la traduzione o la parola non è quella corrente.
      */
-    private String submit(String word, String submission, SelectionKey key) {
+    private Round submit(String word, WQPRequest request, SelectionKey key) throws WQPException {
         // Informazioni sulla partita dell'utente
         MatchInformations userInfo = info.get(key);
-        // Traduzione corretta
-        String translation = translations.get(word);
-        // Controlla che la parola sia corretta
-        boolean correct = submission.toLowerCase().equals(translation);
-        // Indice della prossima parola da sottomettere
-        int nextIndex = -1;
-        if (correct)
-            nextIndex = userInfo.correct();
-        else
-            nextIndex = userInfo.incorrect();
+        // Le risposte arrivano in ordine anche quando il client le invia senza attendere gli esiti
+        if (userInfo.isFinished())
+            throw new WQPException("No more words");
+        if (!word.equals(words.get(userInfo.getIndex())))
+            throw new WQPException("Unexpected word");
+        // Istante di ricezione della risposta
+        long now = System.nanoTime();
+        // Controlla che la risposta normalizzata sia una delle traduzioni accettate
+        int length = request.decodeFields(2, submission);
+        // Testo inviato, di tutte le parole della risposta: la verifica normalizza l'array sul posto
+        String answer = (length != -1) ? new String(submission, 0, length) : request.field(2);
+        boolean correct = length != -1 && translations.get(word).matches(submission, length);
+        // Registra la risposta e ottiene l'indice della prossima parola da sottomettere
+        int answered = userInfo.getIndex();
+        int nextIndex = userInfo.answer(answer, correct, now);
+        // Aggiorna la difficoltà della parola
+        WordService.recordAnswer(word, correct, userInfo.getThinkTime(answered));
+        // La prossima parola parte con questa risposta, se il client non le ha già ricevute tutte
+        if (nextIndex != -1 && !userInfo.getConnection().isPrefetch())
+            userInfo.sent(nextIndex, now);
+        // Esito della risposta
+        String verdict = correct ? Round.CORRECT : Round.WRONG;
+        if (!spectators.isEmpty()) {
+            publish(StaticUtilities.concat("\n", "ANSWER", userInfo.getUsername(), word, answer, verdict,
+                    Integer.toString(userInfo.getPoints())), false);
+            if (nextIndex != -1)
+                publish(StaticUtilities.concat("\n", "WORD", userInfo.getUsername(), words.get(nextIndex)), false);
+        }
         // Se l'indice è -1 ha esaurito le parole
         if (nextIndex == -1)
-            return null;
-        // Prossima parola da mandare all'utente
-        String nextWord = words.get(nextIndex);
-        return nextWord;
+            return new Round(verdict, null);
+        return new Round(verdict, words.get(nextIndex));
     }
 
-    @Override
-    public void run() {
-        // Socket dell'utente sfidante
-        SocketChannel challengerChannel = (SocketChannel) userKey.channel();
-        // Socket dell'utente sfidato
-        SocketChannel challengedChannel = (SocketChannel) friendKey.channel();
-        // Selettore specifico della partita
-        try (Selector selector = Selector.open()) {
-            // Username degli sfidanti
-            String userName = accountService.getUsername(userKey);
-            String friendName = accountService.getUsername(friendKey);
-            // Registra i due socket sul nuovo selettore
-            SelectionKey challengerKey = challengerChannel.register(selector, SelectionKey.OP_WRITE);
-            SelectionKey challengedKey = challengedChannel.register(selector, SelectionKey.OP_WRITE);
-            System.out.println("[CHALLENGE] Registered clients in the challenge selector");
-            // Crea le strutture dati per il client
-            MatchInformations challengerInfo = new MatchInformations(userKey, userName);
-            info.put(challengerKey, challengerInfo);
-            MatchInformations challengedInfo = new MatchInformations(friendKey, friendName);
-            info.put(challengedKey, challengedInfo);
-            // Prende i primi buffer degli utenti
-            ByteBuffer challengerBuffer = firstWord();
-            ByteBuffer challengedBuffer = firstWord();
-            // Allega i buffer alle chiavi
-            challengerKey.attach(challengerBuffer);
-            challengedKey.attach(challengedBuffer);
-            // Numero di client terminati
-            short terminated = (short) 0;
-            // Tempo rimasto per la sfida
-            long remainingTime = Configuration.CHALLENGE_TIME;
-            // Loop di gestione delle connessioni
-            while (!((remainingTime <= 0) || (terminated >= 2) || disconnected || Thread.interrupted())) {
-                // Timestamp prima della selezione degli eventi
-                long start = System.currentTimeMillis();
-                // Selezione degli eventi
-                selector.select(remainingTime);
-                // Timestamp dopo la selezione degli eventi
-                long end = System.currentTimeMillis();
-                // Aggiorna il tempo rimanente
-                remainingTime -= (end - start);
-                System.out.printf("[CHALLENGE] Remaining time: %dms\n", remainingTime);
-                // Iteratore sugli eventi correnti
-                Iterator<SelectionKey> keysIterator = selector.selectedKeys().iterator();
-                // Gestisce gli eventi
-                terminated += handleEvents(keysIterator);
-            }
-            // Report da inviare all'utente
-            String reportString;
-            // Se c'è stata una interruzione manda un report
-            if (disconnected)
-                reportString = report("KO", "Un utente si è disconnesso, il match è stato cancellato");
-            // Altrimenti assegna il bonus, registra i punti e costruisce il report dei punteggi
-            else {
-                assignBonus();
-                registerPoints(challengerKey);
-                registerPoints(challengedKey);
+    /**
+     * Chiude la partita: registra i punti se almeno due giocatori sono ancora
+     * connessi, invia i report e restituisce le connessioni al selettore
+     * principale. Va invocato sul thread del MatchLoop; le invocazioni
+     * successive alla prima non hanno effetto.
+     */
+    void finish() {
+        if (finished)
+            return;
+        finished = true;
+        for (SelectionKey key : info.keySet())
+            key.cancel();
+        // Report da inviare agli utenti
+        String reportString;
+        // Se sono rimasti meno di due giocatori annulla la partita
+        if (isCancelled())
+            reportString = report("KO", "Un utente si è disconnesso, il match è stato cancellato");
+        // Altrimenti assegna il bonus, registra i punti e costruisce il report dei punteggi
+        else {
+            assignBonus();
+            try {
+                registerPoints();
                 reportString = report();
+            } catch (WQPException e) {
+                System.err.printf("[CHALLENGE] Unable to register points of match %s: %s\n", matchId, e.getMessage());
+                reportString = report("KO", "Impossibile registrare i punti, il match è stato cancellato");
             }
-            // Invia i report
-            sendReport(reportString);
-        } catch (IOException | WQPException e) {
-            System.err.println("[CHALLENGE] Error handling the challenge, exiting");
         }
-        // Allega un buffer per la lettura
-        ByteBuffer userBuffer = ByteBuffer.allocate(Integer.BYTES);
-        userKey.attach(userBuffer);
-        ByteBuffer friendBuffer = ByteBuffer.allocate(Integer.BYTES);
-        friendKey.attach(friendBuffer);
-        // Registra le due chiavi per la prossima lettura sul socket principale
-        if (userKey.isValid())
-            userKey.interestOps(SelectionKey.OP_READ);
-        if (friendKey.isValid())
-            friendKey.interestOps(SelectionKey.OP_READ);
-        System.out.println("[CHALLENGE] Registered clients on the main selector");
-        // Risveglia il selettore principale
-        mainSelector.wakeup();
-        System.out.println("[CHALLENGE] Main selector waked up");
-    }
-
-    /**
-     * Registra i punti dell'utente passato.
+        // Accoda i report, anche agli spettatori che vengono staccati dalla partita
+        sendReport(reportString);
+        for (MatchInformations userInfo : info.values())
+            PLAYING.remove(userInfo.getUsername(), this);
+        publish(StaticUtilities.concat("\n", "END", reportString.substring(reportString.indexOf('\n') + 1)), true);
+        spectators.clear();
+        // Salva la partita nello storico senza attendere la scrittura e aggiorna le statistiche
+        recordHistory();
+        // Restituisce le connessioni al selettore principale, che scriverà i report
+        for (Connection connection : connections)
+            connection.endChallenge();
+        released = true;
+        System.out.printf("[CHALLENGE] Match %s finished, clients are back on the main selector\n", matchId);
+        if (listener != null)
+            notifyListener();
+    }
+
+    /**
+     * Chiude una partita in cui un errore imprevisto ha interrotto la gestione
+     * degli eventi o la chiusura: i punti non vengono registrati, le chiavi
+     * vengono cancellate e le connessioni non ancora restituite tornano al
+     * selettore principale con un report di errore. Va invocato sul thread del
+     * MatchLoop; non ha effetto sulle parti di finish già completate.
+     *
+     * @param cause Errore che ha interrotto la partita.
+     */
+    void abort(RuntimeException cause) {
+        System.err.printf("[CHALLENGE] Match %s aborted after error: %s\n", matchId, cause);
+        finished = true;
+        for (SelectionKey key : info.keySet())
+            key.cancel();
+        for (MatchInformations userInfo : info.values())
+            PLAYING.remove(userInfo.getUsername(), this);
+        spectators.clear();
+        if (!released) {
+            released = true;
+            try {
+                sendReport(report("KO", "Errore del server, il match è stato cancellato"));
+            } catch (RuntimeException e) {
+                System.err.printf("[CHALLENGE] Unable to send report of match %s: %s\n", matchId, e);
+            }
+            for (Connection connection : connections)
+                connection.endChallenge();
+        }
+        // Chi attende l'esito riceve una partita non completata, senza punti
+        if (listener != null && !notified) {
+            notified = true;
+            Map<String, Integer> points = new HashMap<>();
+            for (MatchInformations userInfo : info.values())
+                if (userInfo.getConnection().getChannel().isOpen())
+                    points.put(userInfo.getUsername(), 0);
+            try {
+                listener.finished(points, false);
+            } catch (RuntimeException e) {
+                System.err.printf("[CHALLENGE] Unable to notify result of match %s: %s\n", matchId, e);
+            }
+        }
+    }
+
+    /**
+     * Comunica l'esito della partita al destinatario, con i punti dei soli
+     * giocatori ancora connessi.
+     */
+    private void notifyListener() {
+        notified = true;
+        Map<String, Integer> points = new HashMap<>();
+        for (MatchInformations userInfo : info.values()) {
+            if (userInfo.getConnection().getChannel().isOpen())
+                points.put(userInfo.getUsername(), userInfo.getPoints());
+        }
+        listener.finished(points, !isCancelled());
+    }
+
+    /**
+     * Registra i punti di tutti i giocatori come un unico risultato della partita.
      * 
-     * @param key Chiave che identifica l'utente per il match.
-     * @throws WQPException Se non è possibile incrementare i punti.
+     * @throws WQPException Se non è possibile registrare i punti.
      */
-    private void registerPoints(SelectionKey key) throws WQPException {
-        // Dati dell'utente per la partita
-        MatchInformations userInfo = info.get(key);
-        // Punti dell'utente
-        int points = userInfo.getPoints();
-        // Chiave dell'utente nel selettore principale
-        SelectionKey mainKey = userInfo.getKey();
-        // Incrementa i punti dell'utente
-        accountService.incrementPoints(mainKey, points);
+    private void registerPoints() throws WQPException {
+        // Punti di ogni giocatore, identificato dallo username
+        Map<String, Integer> points = new HashMap<>();
+        for (MatchInformations userInfo : info.values())
+            points.put(userInfo.getUsername(), userInfo.getPoints());
+        accountService.commitMatch(new MatchResult(matchId, points));
+    }
+
+    /**
+     * Accoda la partita nello storico e aggiorna le statistiche dei giocatori.
+     */
+    private void recordHistory() {
+        List<MatchRecord.Player> players = new ArrayList<>(info.size());
+        for (MatchInformations userInfo : info.values())
+            players.add(userInfo.toPlayer(words, startNanos));
+        long duration = (System.nanoTime() - startNanos) / 1000000;
+        MatchRecord record = new MatchRecord(matchId, startTime, duration, !isCancelled(), words, players);
+        accountService.recordStatistics(record);
+        try {
+            HistoryService.getInstance().append(record);
+        } catch (IOException e) {
+            System.err.printf("[CHALLENGE] Unable to record match %s: %s\n", matchId, e.getMessage());
+        }
     }
 
     /**
-     * Invia un report ad ogni sfidante, saltando quelli disconnessi.
+     * Accoda un report per ogni giocatore, saltando quelli disconnessi.
      * 
      * @param reportString Stringa da inviare ai client.
      */
     private void sendReport(String reportString) {
-        // Buffer che contiene la stringa
-        ByteBuffer buffer = StaticUtilities.bufferizeString(reportString);
-        // Scorre i due sfidanti
-        for (SelectionKey key : info.keySet()) {
-            SocketChannel channel = (SocketChannel) key.channel();
-            SocketAddress address = null;
-            try {
-                address = channel.getRemoteAddress();
-                while (buffer.hasRemaining())
-                    channel.write(buffer);
-            } catch (IOException e) {
-                System.err.printf("[CHALLENGE] Failed sending report to %s\n", address);
-            }
-            buffer.flip();
+        // Buffer che contiene la stringa, codificato una volta per tutti i giocatori
+        ByteBuffer buffer = StaticUtilities.bufferizeString(reportString).asReadOnlyBuffer();
+        for (Connection connection : connections) {
+            if (!connection.getChannel().isOpen())
+                continue;
+            // Ogni connessione scrive da una propria vista del buffer
+            connection.enqueue(buffer.duplicate());
         }
     }
 
@@ -380,65 +695,116 @@ public class ChallengeServer implements Runnable {
     }
 
     /**
-     * Per ogni client genera un report e concatena la stringa.
+     * Genera il report di ogni giocatore, dal punteggio più alto, e concatena
+     * le stringhe. I giocatori con gli stessi punti condividono la posizione.
      * 
      * @return Report della partita.
      */
     private String report() {
+        // Giocatori in ordine di punteggio
+        List<MatchInformations> ranking = new ArrayList<>(info.values());
+        ranking.sort(Comparator.comparingInt(MatchInformations::getPoints).reversed());
         // Concatenatore di stringhe
         StringBuilder builder = new StringBuilder();
-        // Concatena i report di ogni utente
-        for (SelectionKey key : info.keySet()) {
-            // Informazioni dell'utente
-            MatchInformations userInfo = info.get(key);
-            // Genera il report per l'utente
-            String report = userInfo.toString();
-            // Concatena il report all'input
-            builder.append(report);
-            builder.append("\n");
+        int position = 0;
+        for (int i = 0; i < ranking.size(); i++) {
+            MatchInformations userInfo = ranking.get(i);
+            if (i == 0 || userInfo.getPoints() != ranking.get(i - 1).getPoints())
+                position = i + 1;
+            // Concatena il report dell'utente con la sua posizione
+            builder.append(position).append(". ").append(userInfo).append("\n");
         }
         return report("OK", builder.toString());
     }
 
     /**
-     * Restituisce il buffer che contiene il primo comando contenente la parola da
-     * inviare al server.
+     * Restituisce il buffer che apre la partita per un giocatore: la prima
+     * parola da tradurre, oppure tutte le parole con gli istanti di inizio e
+     * fine se il client lo ha chiesto con PREFETCH. Ogni frame viene codificato
+     * una sola volta e i giocatori ne ricevono una vista.
      * 
-     * @return Buffer contenente la prima parola.
+     * @param userInfo Informazioni sulla partita del giocatore, per registrare l'istante di invio.
+     * @return Buffer contenente la prima parola o tutte le parole.
      */
-    private ByteBuffer firstWord() {
-        String firstWordString = StaticUtilities.concat("\n", "WORD", "OK", words.get(0));
-        ByteBuffer buffer = StaticUtilities.bufferizeString(firstWordString);
-        return buffer;
+    private ByteBuffer firstWord(MatchInformations userInfo) {
+        if (userInfo.getConnection().isPrefetch()) {
+            userInfo.sentAll(startNanos);
+            if (wordsBuffer == null) {
+                MatchWords matchWords = new MatchWords(startTime, startTime + Configuration.CHALLENGE_TIME, words);
+                String wordsString = StaticUtilities.concat("\n", "WORDS", "OK", matchWords.toString());
+                wordsBuffer = StaticUtilities.bufferizeString(wordsString).asReadOnlyBuffer();
+            }
+            return wordsBuffer.duplicate();
+        }
+        userInfo.sent(0, startNanos);
+        if (firstWordBuffer == null) {
+            String firstWordString = StaticUtilities.concat("\n", "WORD", "OK", new Round(Round.START, words.get(0)).toString());
+            firstWordBuffer = StaticUtilities.bufferizeString(firstWordString).asReadOnlyBuffer();
+        }
+        return firstWordBuffer.duplicate();
     }
 
     /**
-     * Gestisce gli eventi selezionati.
+     * Accoda un evento a tutti gli spettatori. L'evento viene codificato una
+     * sola volta e ogni spettatore ne riceve una vista. Uno spettatore con
+     * troppi frame ancora da scrivere perde l'evento invece di rallentare la
+     * partita; quando torna a leggere riceve prima i punteggi aggiornati, che
+     * riassumono gli eventi persi. Le scritture vengono segnalate al selettore
+     * principale con un'unica operazione.
      * 
-     * @param keysIterator Iteratore sulle chiavi rappresentanti i client pronti.
-     * @throws IOException Se non è possibile comunicare con i client.
-     * @return Numero di client che hanno terminato.
-     */
-    private short handleEvents(Iterator<SelectionKey> keysIterator) throws IOException {
-        // Numero di client che hanno terminato in questa iterazione
-        short terminated = (short) 0;
-        while (keysIterator.hasNext()) {
-            SelectionKey key = keysIterator.next();
-            // Rimuove la chiave dal set
-            keysIterator.remove();
-            // Se la chiave non è valida esce
-            if (!key.isValid())
+     * @param data Dati dell'evento.
+     * @param last Flag che indica se l'evento è l'ultimo, che non viene mai scartato.
+     */
+    private void publish(String data, boolean last) {
+        if (spectators.isEmpty())
+            return;
+        ByteBuffer event = spectatorEvent(data);
+        // Punteggi da inviare agli spettatori rimasti indietro, codificati solo se servono
+        ByteBuffer scores = null;
+        List<Connection> notified = new ArrayList<>(spectators.size());
+        Iterator<Spectator> iterator = spectators.iterator();
+        while (iterator.hasNext()) {
+            Spectator spectator = iterator.next();
+            Connection connection = spectator.connection;
+            if (!connection.getChannel().isOpen()) {
+                iterator.remove();
                 continue;
-            if (key.isWritable())
-                writeKey(key);
-            else if (key.isReadable()) {
-                boolean clientTerminated = readKey(key);
-                // Se il client ha terminato aumenta il totale
-                if (clientTerminated)
-                    terminated++;
             }
+            if (!last && connection.getQueuedWrites() >= Configuration.SPECTATOR_MAX_QUEUED_EVENTS) {
+                spectator.lagging = true;
+                continue;
+            }
+            if (spectator.lagging) {
+                if (scores == null)
+                    scores = scoreEvent();
+                connection.enqueue(scores.duplicate());
+                spectator.lagging = false;
+            }
+            connection.enqueue(event.duplicate());
+            notified.add(connection);
         }
-        return terminated;
+        if (!notified.isEmpty())
+            notified.get(0).execute(() -> {
+                for (Connection connection : notified)
+                    connection.updateInterest();
+            });
+    }
+
+    /**
+     * @param data Dati dell'evento.
+     * @return Frame dell'evento SPECTATE in sola lettura, da duplicare per ogni spettatore.
+     */
+    private static ByteBuffer spectatorEvent(String data) {
+        return StaticUtilities.bufferizeString(StaticUtilities.concat("\n", "SPECTATE", "OK", data)).asReadOnlyBuffer();
+    }
+
+    /**
+     * @return Frame con i punteggi attuali dei giocatori, una riga ciascuno.
+     */
+    private ByteBuffer scoreEvent() {
+        StringBuilder builder = new StringBuilder("SCORE");
+        for (MatchInformations userInfo : info.values())
+            builder.append('\n').append(userInfo.getUsername()).append(' ').append(userInfo.getPoints());
+        return spectatorEvent(builder.toString());
     }
-    
-}
\ No newline at end of file
+}
@@ -0,0 +1,55 @@
+package it.unipi.studenti.wordquizzles.server.challenge;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import it.unipi.studenti.wordquizzles.shared.Configuration;
+
+/**
+ * MatchEngine distribuisce le partite su MATCH_LOOPS thread, ognuno con il
+ * proprio selettore. Una partita non occupa un thread per tutta la sua
+ * durata: i thread sono fissi e ognuno ne gioca migliaia contemporaneamente.
+ */
+public class MatchEngine {
+
+    // Thread su cui vengono giocate le partite
+    private MatchLoop[] loops;
+
+    // Indice del prossimo thread a cui assegnare una partita
+    private AtomicInteger next;
+
+    // Unica istanza di MatchEngine che può essere presente nel sistema
+    private static MatchEngine instance;
+
+    /**
+     * Crea e avvia i thread delle partite.
+     * @throws IOException Se non è possibile aprire i selettori.
+     */
+    private MatchEngine() throws IOException {
+        loops = new MatchLoop[Math.max(1, Configuration.MATCH_LOOPS)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new MatchLoop(i);
+            loops[i].start();
+        }
+        next = new AtomicInteger();
+    }
+
+    /**
+     * @return Unica possibile istanza di MatchEngine che può essere allocata nel sistema.
+     * @throws IOException Se non è possibile aprire i selettori.
+     */
+    public static synchronized MatchEngine getInstance() throws IOException {
+        if (instance == null)
+            instance = new MatchEngine();
+        return instance;
+    }
+
+    /**
+     * Avvia una partita con le parole già reperite, assegnandola ai thread a turno.
+     * @param room Partita da avviare.
+     */
+    public void start(ChallengeServer room) {
+        int index = Math.floorMod(next.getAndIncrement(), loops.length);
+        loops[index].start(room);
+    }
+}
@@ -1,7 +1,12 @@
 package it.unipi.studenti.wordquizzles.server.challenge;
 
 import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
+import it.unipi.studenti.wordquizzles.server.services.MatchRecord;
+import it.unipi.studenti.wordquizzles.server.wqp.Connection;
 import it.unipi.studenti.wordquizzles.shared.Configuration;
 
 /**
@@ -10,8 +15,8 @@ import it.unipi.studenti.wordquizzles.shared.Configuration;
  */
 public class MatchInformations {
 
-    // Chiave dell'utente nel selettore principale
-    private SelectionKey key;
+    // Connessione dell'utente
+    private Connection connection;
     
     // Indice della prossima parola da tradurre
     private int index;
@@ -28,19 +33,129 @@ public class MatchInformations {
     // Numero di parole non indovinate
     private int notGuessed;
 
+    // Istante di invio di ogni parola in nanosecondi
+    private long[] sentNanos;
+
+    // Tempo di risposta ad ogni parola in nanosecondi, dall'invio alla ricezione
+    private long[] responseNanos;
+
+    // Esito della risposta ad ogni parola
+    private boolean[] correctAnswers;
+
+    // Traduzione inviata per ogni parola, da salvare nello storico
+    private String[] submissions;
+
     /**
      * Istanzia la classe per un utente.
      * 
-     * @param key Chiave dell'utente nel selettore principale.
+     * @param connection Connessione dell'utente.
      * @param username Username dell'utente di cui si mantengono le informazioni.
      */
-    public MatchInformations(SelectionKey key, String username) {
-        this.key = key;
+    public MatchInformations(Connection connection, String username) {
+        this.connection = connection;
         this.username = username;
         index = 0;
         points = 0;
         guessed = 0;
         notGuessed = 0;
+        // Gli array vengono allocati una volta sola: registrare una risposta non alloca memoria
+        sentNanos = new long[Configuration.WORDS_PER_MATCH];
+        responseNanos = new long[Configuration.WORDS_PER_MATCH];
+        correctAnswers = new boolean[Configuration.WORDS_PER_MATCH];
+        submissions = new String[Configuration.WORDS_PER_MATCH];
+    }
+
+    /**
+     * Registra l'istante di invio di una parola.
+     * @param index Indice della parola.
+     * @param now   Istante di invio in nanosecondi.
+     */
+    public void sent(int index, long now) {
+        sentNanos[index] = now;
+    }
+
+    /**
+     * Registra l'istante di invio di tutte le parole, inviate insieme.
+     * @param now Istante di invio in nanosecondi.
+     */
+    public void sentAll(long now) {
+        Arrays.fill(sentNanos, now);
+    }
+
+    /**
+     * Registra la risposta alla parola corrente, assegnando i punti se è
+     * corretta. Dopodiché restituisce l'indice della prossima parola.
+     * @param submission Traduzione inviata dall'utente.
+     * @param correct    Flag che indica se la traduzione è corretta.
+     * @param now        Istante di ricezione in nanosecondi.
+     * @return Indice della prossima parola da inviare al client oppure -1.
+     */
+    public int answer(String submission, boolean correct, long now) {
+        submissions[index] = submission;
+        correctAnswers[index] = correct;
+        responseNanos[index] = now - sentNanos[index];
+        if (!correct)
+            return incorrect();
+        // Con il punteggio basato sulla velocità le risposte rapide valgono di più (anche con PREFETCH)
+        if (Configuration.SPEED_SCORING)
+            points += speedBonus(getThinkTime(index));
+        return correct();
+    }
+
+    /**
+     * Calcola i punti extra di una risposta corretta: SPEED_BONUS_POINTS per
+     * una risposta immediata, a scendere linearmente fino a zero per una
+     * risposta che arriva dopo SPEED_BONUS_WINDOW millisecondi.
+     * @param response Tempo dedicato alla parola in nanosecondi.
+     * @return Punti extra della risposta.
+     */
+    private static int speedBonus(long response) {
+        long window = Configuration.SPEED_BONUS_WINDOW * 1000000;
+        if (response >= window)
+            return 0;
+        return (int) (Configuration.SPEED_BONUS_POINTS * (window - Math.max(response, 0)) / window);
+    }
+
+    /**
+     * @param words      Parole della partita.
+     * @param startNanos Istante di inizio della partita in nanosecondi.
+     * @return Risultato dell'utente da salvare nello storico.
+     */
+    public MatchRecord.Player toPlayer(List<String> words, long startNanos) {
+        List<MatchRecord.Answer> answers = new ArrayList<>(index);
+        for (int i = 0; i < index; i++) {
+            // Nello storico l'istante della risposta è misurato dall'inizio della partita
+            long elapsed = (sentNanos[i] + responseNanos[i] - startNanos) / 1000000;
+            answers.add(new MatchRecord.Answer(words.get(i), submissions[i], correctAnswers[i], elapsed));
+        }
+        return new MatchRecord.Player(username, points, answers);
+    }
+
+    /**
+     * Calcola il tempo che l'utente ha dedicato a una parola: dall'invio, o
+     * dalla risposta alla parola precedente se le parole sono state inviate
+     * tutte insieme, fino alla risposta.
+     * @param i Indice di una parola a cui l'utente ha già risposto.
+     * @return Tempo dedicato alla parola in nanosecondi.
+     */
+    public long getThinkTime(int i) {
+        long answered = sentNanos[i] + responseNanos[i];
+        long from = sentNanos[i];
+        if (i > 0)
+            from = Math.max(from, sentNanos[i - 1] + responseNanos[i - 1]);
+        return answered - from;
+    }
+
+    /**
+     * @return Tempo medio di risposta in millisecondi, 0 se l'utente non ha risposto.
+     */
+    public long getAverageResponseTime() {
+        if (index == 0)
+            return 0;
+        long total = 0;
+        for (int i = 0; i < index; i++)
+            total += getThinkTime(i);
+        return total / index / 1000000;
     }
 
     /**
@@ -57,11 +172,25 @@ public class MatchInformations {
         return index;
     }
 
+    /**
+     * @return Indice della parola a cui l'utente deve rispondere.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return Flag che indica se l'utente ha risposto a tutte le parole.
+     */
+    public boolean isFinished() {
+        return index >= Configuration.WORDS_PER_MATCH;
+    }
+
     /**
      * Incrementa i punti e il numero di parole indovinate. Dopodiché restituisce l'indice della prossima parola.
      * @return Indice della prossima parola da inviare al client oppure -1.
      */
-    public int correct() {
+    private int correct() {
         // Incrementa i punti
         points += Configuration.CORRECT_ANSWER_POINTS;
         // Incrementa il numero di parole
@@ -73,7 +202,7 @@ public class MatchInformations {
      * Incrementa il numero di parole non indovinate. Dopodiché restituisce l'indice della prossima parola.
      * @return Indice della prossima parola da inviare al client oppure -1.
      */
-    public int incorrect() {
+    private int incorrect() {
         // Incrementa il numero di parole sbagliate
         notGuessed++;
         return increment();
@@ -93,11 +222,25 @@ public class MatchInformations {
         return points;
     }
 
+    /**
+     * @return Username dell'utente.
+     */
+    public String getUsername() {
+        return username;
+    }
+
     /**
      * @return Chiave che identifica l'utente nel selettore principale.
      */
     public SelectionKey getKey() {
-        return key;
+        return connection.getKey();
+    }
+
+    /**
+     * @return Connessione dell'utente.
+     */
+    public Connection getConnection() {
+        return connection;
     }
 
     /**
@@ -107,7 +250,7 @@ public class MatchInformations {
 	public String toString() {
         // Numero di parole sbagliate
         int missed = Configuration.WORDS_PER_MATCH - guessed - notGuessed;
-		return String.format("L'utente %s ha indovinato %d parole, sbagliato %d traduzioni e non risposto a %d. Ha ottenuto %d punti.", username, guessed, notGuessed, missed, points);
+		return String.format("L'utente %s ha indovinato %d parole, sbagliato %d traduzioni e non risposto a %d, con un tempo medio di risposta di %d ms. Ha ottenuto %d punti.", username, guessed, notGuessed, missed, getAverageResponseTime(), points);
 	}
 
 }
\ No newline at end of file
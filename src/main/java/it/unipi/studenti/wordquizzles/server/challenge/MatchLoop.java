@@ -0,0 +1,130 @@
+package it.unipi.studenti.wordquizzles.server.challenge;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * MatchLoop è il thread che gioca molte partite su un unico selettore. Le
+ * chiavi dei giocatori hanno come allegato la partita a cui appartengono, e
+ * le partite in corso sono ordinate per scadenza, così che il selettore
+ * attenda al più fino alla prossima partita da chiudere.
+ */
+class MatchLoop extends Thread {
+
+    // Selettore condiviso dalle partite del thread
+    private Selector selector;
+
+    // Operazioni da eseguire sul thread del selettore
+    private Queue<Runnable> tasks;
+
+    // Partite in corso (o già chiuse e non ancora scadute), dalla prima in scadenza
+    private PriorityQueue<ChallengeServer> rooms;
+
+    /**
+     * Crea il thread e il suo selettore.
+     *
+     * @param index Indice del thread, usato nel nome.
+     * @throws IOException Se non è possibile aprire il selettore.
+     */
+    MatchLoop(int index) throws IOException {
+        super("match-loop-" + index);
+        selector = Selector.open();
+        tasks = new ConcurrentLinkedQueue<>();
+        rooms = new PriorityQueue<>(Comparator.comparingLong(ChallengeServer::getDeadline));
+        setDaemon(true);
+    }
+
+    /**
+     * Accoda un'operazione da eseguire sul thread del selettore e lo risveglia.
+     *
+     * @param task Operazione da eseguire.
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Avvia una partita su questo thread.
+     *
+     * @param room Partita con le parole già reperite.
+     */
+    void start(ChallengeServer room) {
+        execute(() -> {
+            try {
+                if (room.start(selector, this::execute))
+                    rooms.add(room);
+            } catch (RuntimeException e) {
+                room.abort(e);
+            }
+        });
+    }
+
+    @Override
+    public void run() {
+        System.out.printf("[MATCH] %s started\n", getName());
+        while (!Thread.interrupted()) {
+            try {
+                // Attende fino alla prossima scadenza (0 indica un'attesa illimitata)
+                ChallengeServer first = rooms.peek();
+                if (first == null)
+                    selector.select();
+                else {
+                    long timeout = (first.getDeadline() - System.nanoTime() + 999999) / 1000000;
+                    if (timeout > 0)
+                        selector.select(timeout);
+                    else
+                        selector.selectNow();
+                }
+            } catch (IOException e) {
+                System.err.printf("[MATCH] Selection failed: %s\n", e.getMessage());
+                return;
+            }
+            // Le chiavi cancellate sono già state rimosse: le nuove partite possono registrarsi
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    System.err.printf("[MATCH] Task failed: %s\n", e);
+                }
+            }
+            // Gestisce gli eventi delle partite
+            Iterator<SelectionKey> keysIterator = selector.selectedKeys().iterator();
+            while (keysIterator.hasNext()) {
+                SelectionKey key = keysIterator.next();
+                keysIterator.remove();
+                if (!key.isValid())
+                    continue;
+                ChallengeServer room = (ChallengeServer) key.attachment();
+                // Un errore imprevisto chiude solo la partita che l'ha causato
+                try {
+                    room.handle(key);
+                    // Una partita terminata prima della scadenza viene chiusa subito e
+                    // lasciata nella coda, da cui uscirà alla scadenza senza altri effetti
+                    if (room.isOver())
+                        room.finish();
+                } catch (RuntimeException e) {
+                    room.abort(e);
+                }
+            }
+            // Chiude le partite scadute
+            long now = System.nanoTime();
+            while (!rooms.isEmpty() && rooms.peek().getDeadline() <= now) {
+                ChallengeServer room = rooms.poll();
+                try {
+                    room.finish();
+                } catch (RuntimeException e) {
+                    room.abort(e);
+                }
+            }
+        }
+        System.out.printf("[MATCH] %s stopped\n", getName());
+    }
+}
@@ -0,0 +1,361 @@
+package it.unipi.studenti.wordquizzles.server.challenge;
+
+import java.nio.channels.SelectionKey;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import it.unipi.studenti.wordquizzles.server.wqp.Connection;
+import it.unipi.studenti.wordquizzles.server.wqp.WriteInformations;
+import it.unipi.studenti.wordquizzles.shared.Configuration;
+import it.unipi.studenti.wordquizzles.shared.StaticUtilities;
+import it.unipi.studenti.wordquizzles.shared.wqp.WQPException;
+
+/**
+ * Matchmaker accoppia automaticamente i giocatori che hanno chiesto una
+ * partita con MATCHMAKE. I giocatori vengono accodati senza lock in code
+ * divise per fasce di punteggio; un unico thread svuota periodicamente le
+ * code nelle proprie liste d'attesa, accoppia i giocatori della stessa fascia
+ * e, per chi attende da più tempo, allarga la ricerca alle fasce vicine. Le
+ * coppie vengono avviate come una sfida accettata: il selettore principale,
+ * scritta la notifica al primo giocatore, sposta entrambi in una partita.
+ */
+public class Matchmaker extends Thread {
+
+    /**
+     * Ticket è la richiesta di un giocatore in attesa di un avversario.
+     */
+    private static class Ticket {
+
+        // Stati del ticket: in attesa, preso in carico dal matchmaker, accoppiato o ritirato
+        private static final int WAITING = 0;
+        private static final int CLAIMED = 1;
+        private static final int MATCHED = 2;
+        private static final int WITHDRAWN = 3;
+
+        // Stato corrente: chi lo porta fuori da WAITING è l'unico a gestire il ticket
+        private AtomicInteger state;
+
+        // Connessione del giocatore
+        private Connection connection;
+
+        // Username del giocatore
+        private String username;
+
+        // Fascia di punteggio del giocatore
+        private int bucket;
+
+        // Istante di accodamento in nanosecondi
+        private long enqueued;
+
+        private Ticket(Connection connection, String username, int bucket, long enqueued) {
+            this.connection = connection;
+            this.username = username;
+            this.bucket = bucket;
+            this.enqueued = enqueued;
+            state = new AtomicInteger(WAITING);
+        }
+
+        /**
+         * Ritira il ticket se è ancora in attesa. Se il matchmaker lo ha appena
+         * preso in carico attende che decida, così che il ritiro riesca solo se
+         * il giocatore non finisce in una partita.
+         *
+         * @return Flag che indica se il ticket è stato ritirato.
+         */
+        private boolean withdraw() {
+            while (true) {
+                int current = state.get();
+                if (current == WAITING && state.compareAndSet(WAITING, WITHDRAWN))
+                    return true;
+                if (current != CLAIMED && current != WAITING)
+                    return false;
+                // La presa in carico dura solo il tempo di provare l'avversario
+                Thread.yield();
+            }
+        }
+    }
+
+    // Code in cui i giocatori vengono inseriti, una per fascia di punteggio
+    private ConcurrentLinkedQueue<Ticket>[] incoming;
+
+    // Giocatori in attesa per fascia, usate solo dal thread del matchmaker
+    private ArrayDeque<Ticket>[] waiting;
+
+    // Ticket in attesa per chiave del giocatore; lo stato del ticket decide chi lo prende in carico
+    private ConcurrentHashMap<SelectionKey, Ticket> tickets;
+
+    // Numero di giocatori in coda
+    private AtomicInteger queued;
+
+    // Coppie formate dall'ultima stampa delle metriche
+    private long paired;
+
+    // Somma e massimo delle attese in nanosecondi dei giocatori accoppiati dall'ultima stampa
+    private long latencyTotal;
+    private long latencyMax;
+
+    // Giocatori rimossi per attesa scaduta dall'ultima stampa
+    private long expired;
+
+    // Istante dell'ultima stampa delle metriche in nanosecondi
+    private long lastReport;
+
+    // Unica istanza di Matchmaker che può essere presente nel sistema
+    private static Matchmaker instance;
+
+    /**
+     * Crea le code vuote.
+     */
+    @SuppressWarnings("unchecked")
+    private Matchmaker() {
+        super("matchmaker");
+        int buckets = Math.max(1, Configuration.MATCHMAKING_BUCKETS);
+        incoming = (ConcurrentLinkedQueue<Ticket>[]) new ConcurrentLinkedQueue<?>[buckets];
+        waiting = (ArrayDeque<Ticket>[]) new ArrayDeque<?>[buckets];
+        for (int i = 0; i < buckets; i++) {
+            incoming[i] = new ConcurrentLinkedQueue<>();
+            waiting[i] = new ArrayDeque<>();
+        }
+        tickets = new ConcurrentHashMap<>();
+        queued = new AtomicInteger();
+        lastReport = System.nanoTime();
+        setDaemon(true);
+    }
+
+    /**
+     * @return Unica possibile istanza di Matchmaker, avviata alla prima richiesta.
+     */
+    public static synchronized Matchmaker getInstance() {
+        if (instance == null) {
+            instance = new Matchmaker();
+            instance.start();
+        }
+        return instance;
+    }
+
+    /**
+     * Mette in coda un giocatore. La connessione viene prenotata fino alla fine
+     * della partita o all'annullamento della ricerca.
+     *
+     * @param connection Connessione del giocatore.
+     * @param username   Username del giocatore.
+     * @param points     Punteggio del giocatore.
+     * @throws WQPException Se il giocatore è già in coda o in una sfida.
+     */
+    public void enqueue(Connection connection, String username, int points) throws WQPException {
+        if (!connection.reserve())
+            throw new WQPException("You are already in a challenge");
+        int bucket = Math.min(Math.max(points, 0) / Configuration.MATCHMAKING_BUCKET_POINTS, incoming.length - 1);
+        Ticket ticket = new Ticket(connection, username, bucket, System.nanoTime());
+        tickets.put(connection.getKey(), ticket);
+        queued.incrementAndGet();
+        incoming[bucket].add(ticket);
+    }
+
+    /**
+     * Toglie un giocatore dalla coda e libera la sua connessione.
+     *
+     * @param connection Connessione del giocatore.
+     * @throws WQPException Se il giocatore non è in coda (o è appena stato accoppiato).
+     */
+    public void cancel(Connection connection) throws WQPException {
+        if (!withdraw(connection.getKey()))
+            throw new WQPException("You are not in the queue");
+    }
+
+    /**
+     * Toglie dalla coda un giocatore che ha eseguito il logout, se vi si trova.
+     * Non avvia il matchmaker se non è mai stato usato.
+     *
+     * @param key Chiave del giocatore.
+     */
+    public static void forget(SelectionKey key) {
+        Matchmaker matchmaker;
+        synchronized (Matchmaker.class) {
+            matchmaker = instance;
+        }
+        if (matchmaker != null)
+            matchmaker.withdraw(key);
+    }
+
+    /**
+     * Ritira il ticket in attesa di un giocatore e libera la sua connessione.
+     * Il ticket resta nelle liste e verrà scartato dal thread del matchmaker.
+     *
+     * @param key Chiave del giocatore.
+     * @return Flag che indica se il giocatore era in coda.
+     */
+    private boolean withdraw(SelectionKey key) {
+        Ticket ticket = tickets.get(key);
+        if (ticket == null || !ticket.withdraw())
+            return false;
+        tickets.remove(key, ticket);
+        queued.decrementAndGet();
+        ticket.connection.release();
+        return true;
+    }
+
+    @Override
+    public void run() {
+        System.out.printf("[MATCHMAKER] Started with %d buckets of %d points\n", incoming.length,
+                Configuration.MATCHMAKING_BUCKET_POINTS);
+        while (!Thread.interrupted()) {
+            try {
+                Thread.sleep(Configuration.MATCHMAKING_INTERVAL);
+            } catch (InterruptedException e) {
+                break;
+            }
+            long now = System.nanoTime();
+            // Un errore imprevisto salta solo il giro corrente: i ticket restano in attesa del prossimo
+            try {
+                // Sposta i nuovi giocatori nelle liste d'attesa
+                for (int bucket = 0; bucket < incoming.length; bucket++) {
+                    Ticket ticket;
+                    while ((ticket = incoming[bucket].poll()) != null)
+                        waiting[bucket].add(ticket);
+                }
+                // Scarta i giocatori annullati, disconnessi o in attesa da troppo tempo
+                for (ArrayDeque<Ticket> list : waiting)
+                    list.removeIf(ticket -> discard(ticket, now));
+                match(now);
+                if (now - lastReport >= TimeUnit.MILLISECONDS.toNanos(Configuration.POOL_MONITOR_INTERVAL))
+                    report(now);
+            } catch (RuntimeException e) {
+                System.err.printf("[MATCHMAKER] Round failed: %s\n", e);
+            }
+        }
+        System.out.println("[MATCHMAKER] Stopped");
+    }
+
+    /**
+     * Controlla se un ticket va tolto dalle liste d'attesa; se è scaduto
+     * notifica il giocatore e libera la sua connessione.
+     *
+     * @param ticket Ticket da controllare.
+     * @param now    Istante corrente in nanosecondi.
+     * @return Flag che indica se il ticket va tolto dalle liste.
+     */
+    private boolean discard(Ticket ticket, long now) {
+        SelectionKey key = ticket.connection.getKey();
+        // Il ticket è stato ritirato
+        if (ticket.state.get() != Ticket.WAITING)
+            return true;
+        boolean closed = !key.isValid() || !ticket.connection.getChannel().isOpen();
+        boolean late = now - ticket.enqueued >= TimeUnit.MILLISECONDS.toNanos(Configuration.MATCHMAKING_TIMEOUT);
+        if (!closed && !late)
+            return false;
+        // Se nel frattempo è stato ritirato non c'è altro da fare
+        if (!ticket.state.compareAndSet(Ticket.WAITING, Ticket.WITHDRAWN))
+            return true;
+        tickets.remove(key, ticket);
+        queued.decrementAndGet();
+        ticket.connection.release();
+        if (late && !closed) {
+            expired++;
+            ticket.connection.complete(new WriteInformations(
+                    StaticUtilities.bufferizeString(StaticUtilities.concat("\n", "MATCHMAKE", "KO", "No opponent found")),
+                    null, false));
+        }
+        return true;
+    }
+
+    /**
+     * Accoppia i giocatori in attesa: prima quelli della stessa fascia, poi
+     * l'eventuale giocatore rimasto solo con le fasce vicine, entro una
+     * distanza che cresce di una fascia ogni MATCHMAKING_WIDEN_INTERVAL di
+     * attesa.
+     *
+     * @param now Istante corrente in nanosecondi.
+     */
+    private void match(long now) {
+        long widen = TimeUnit.MILLISECONDS.toNanos(Configuration.MATCHMAKING_WIDEN_INTERVAL);
+        for (int bucket = 0; bucket < waiting.length; bucket++) {
+            ArrayDeque<Ticket> list = waiting[bucket];
+            while (list.size() >= 2)
+                pair(list, list, now);
+            if (list.isEmpty())
+                continue;
+            // Fasce vicine in cui può cercare il giocatore rimasto
+            long window = (now - list.peekFirst().enqueued) / widen;
+            for (int distance = 1; distance <= window && distance < waiting.length && !list.isEmpty(); distance++) {
+                if (bucket + distance < waiting.length && !waiting[bucket + distance].isEmpty())
+                    pair(list, waiting[bucket + distance], now);
+                else if (bucket - distance >= 0 && !waiting[bucket - distance].isEmpty())
+                    pair(list, waiting[bucket - distance], now);
+            }
+        }
+    }
+
+    /**
+     * Prende in carico il primo giocatore di ciascuna lista e avvia la loro
+     * partita. Se uno dei due ha appena annullato la ricerca l'altro torna in
+     * attesa, in testa alla sua lista: tra la presa in carico e il ritorno
+     * non viene eseguito altro, così che un ritiro concorrente attenda solo
+     * per un istante.
+     *
+     * @param first  Lista del primo giocatore.
+     * @param second Lista del secondo giocatore (anche la stessa).
+     * @param now    Istante corrente in nanosecondi.
+     */
+    private void pair(ArrayDeque<Ticket> first, ArrayDeque<Ticket> second, long now) {
+        Ticket challenger = first.pollFirst();
+        Ticket opponent = second.pollFirst();
+        if (!challenger.state.compareAndSet(Ticket.WAITING, Ticket.CLAIMED)) {
+            second.addFirst(opponent);
+            return;
+        }
+        if (!opponent.state.compareAndSet(Ticket.WAITING, Ticket.CLAIMED)) {
+            challenger.state.set(Ticket.WAITING);
+            first.addFirst(challenger);
+            return;
+        }
+        challenger.state.set(Ticket.MATCHED);
+        opponent.state.set(Ticket.MATCHED);
+        tickets.remove(challenger.connection.getKey(), challenger);
+        tickets.remove(opponent.connection.getKey(), opponent);
+        queued.addAndGet(-2);
+        // Metriche di attesa
+        for (Ticket ticket : new Ticket[] { challenger, opponent }) {
+            long latency = now - ticket.enqueued;
+            latencyTotal += latency;
+            latencyMax = Math.max(latencyMax, latency);
+        }
+        paired++;
+        // L'avversario riceve solo la notifica, lo sfidante anche la chiave con cui avviare la partita
+        opponent.connection.complete(new WriteInformations(StaticUtilities.bufferizeString(
+                StaticUtilities.concat("\n", "MATCHMAKE", "OK", "MATCHED", challenger.username)), null, false));
+        challenger.connection.complete(new WriteInformations(StaticUtilities.bufferizeString(
+                StaticUtilities.concat("\n", "MATCHMAKE", "OK", "MATCHED", opponent.username)),
+                Collections.singletonList(opponent.connection.getKey()), false));
+    }
+
+    /**
+     * Stampa le lunghezze delle code e le coppie formate dall'ultima stampa.
+     *
+     * @param now Istante corrente in nanosecondi.
+     */
+    private void report(long now) {
+        StringBuilder lengths = new StringBuilder();
+        for (int bucket = 0; bucket < waiting.length; bucket++) {
+            int length = waiting[bucket].size() + incoming[bucket].size();
+            if (length == 0)
+                continue;
+            if (lengths.length() > 0)
+                lengths.append(' ');
+            lengths.append(bucket * Configuration.MATCHMAKING_BUCKET_POINTS).append('+').append('=').append(length);
+        }
+        double seconds = (now - lastReport) / 1e9;
+        long mean = (paired > 0) ? TimeUnit.NANOSECONDS.toMillis(latencyTotal / (2 * paired)) : 0;
+        System.out.printf("[MATCHMAKER] queued=%d [%s] pairs=%d (%.1f/s) latency mean=%dms max=%dms expired=%d\n",
+                queued.get(), lengths, paired, paired / seconds, mean, TimeUnit.NANOSECONDS.toMillis(latencyMax), expired);
+        paired = 0;
+        latencyTotal = 0;
+        latencyMax = 0;
+        expired = 0;
+        lastReport = now;
+    }
+}
@@ -0,0 +1,172 @@
+package it.unipi.studenti.wordquizzles.server.services;
+
+import java.text.Normalizer;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * AcceptedAnswers è l'insieme delle traduzioni accettate per una parola,
+ * memorizzate normalizzate: minuscole indipendentemente dalla lingua di
+ * sistema, senza accenti e con gli spazi ridotti a uno solo. Le traduzioni
+ * sono concatenate in un unico array di caratteri e indicizzate da una
+ * tabella ad indirizzamento aperto, così che verificare una risposta
+ * richieda una sola passata di normalizzazione e un accesso alla tabella,
+ * senza creare oggetti.
+ */
+public class AcceptedAnswers {
+
+    // Primo carattere oltre la tabella delle lettere accentate
+    private static final char FOLD_LIMIT = '\u0250';
+
+    // Lettera base minuscola di ogni carattere fino a FOLD_LIMIT
+    private static final char[] FOLD = new char[FOLD_LIMIT];
+
+    static {
+        for (char c = 0; c < FOLD_LIMIT; c++) {
+            // Una lettera accentata si decompone nella lettera base seguita da segni diacritici
+            String decomposed = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD);
+            char base = decomposed.charAt(0);
+            for (int i = 1; i < decomposed.length(); i++)
+                if (Character.getType(decomposed.charAt(i)) != Character.NON_SPACING_MARK)
+                    base = c;
+            FOLD[c] = Character.toLowerCase(base);
+        }
+    }
+
+    // Traduzione principale, così come fornita dal servizio o dal dizionario
+    private String primary;
+
+    // Traduzioni normalizzate, concatenate
+    private char[] chars;
+
+    // Inizio di ogni traduzione in chars (più la fine dell'ultima)
+    private int[] offsets;
+
+    // Hash di ogni traduzione normalizzata
+    private int[] hashes;
+
+    // Tabella ad indirizzamento aperto: indice della traduzione più uno, 0 se libera
+    private int[] table;
+
+    /**
+     * Normalizza e indicizza le traduzioni di una parola.
+     * @param translations Traduzioni accettate, dalla principale.
+     */
+    public AcceptedAnswers(List<String> translations) {
+        primary = translations.isEmpty() ? null : translations.get(0);
+        Set<String> normalized = new LinkedHashSet<>();
+        for (String translation : translations) {
+            String answer = normalize(translation);
+            if (!answer.isEmpty())
+                normalized.add(answer);
+        }
+        int total = 0;
+        for (String answer : normalized)
+            total += answer.length();
+        chars = new char[total];
+        offsets = new int[normalized.size() + 1];
+        hashes = new int[normalized.size()];
+        // Tabella con almeno il doppio delle posizioni delle traduzioni
+        table = new int[Integer.highestOneBit(Math.max(1, normalized.size()) * 2) << 1];
+        int i = 0;
+        for (String answer : normalized) {
+            answer.getChars(0, answer.length(), chars, offsets[i]);
+            offsets[i + 1] = offsets[i] + answer.length();
+            hashes[i] = answer.hashCode();
+            int slot = hashes[i] & (table.length - 1);
+            while (table[slot] != 0)
+                slot = (slot + 1) & (table.length - 1);
+            table[slot] = i + 1;
+            i++;
+        }
+    }
+
+    /**
+     * @return Traduzione principale, null se la parola non ha traduzioni.
+     */
+    public String getPrimary() {
+        return primary;
+    }
+
+    /**
+     * @return Numero di traduzioni accettate distinte.
+     */
+    public int size() {
+        return hashes.length;
+    }
+
+    /**
+     * Verifica se una risposta è tra le traduzioni accettate. I caratteri
+     * vengono normalizzati sul posto.
+     * @param answer Caratteri della risposta.
+     * @param length Numero di caratteri validi.
+     * @return Flag che indica se la risposta normalizzata è una traduzione accettata.
+     */
+    public boolean matches(char[] answer, int length) {
+        length = normalize(answer, length);
+        int hash = 0;
+        for (int i = 0; i < length; i++)
+            hash = 31 * hash + answer[i];
+        for (int slot = hash & (table.length - 1); table[slot] != 0; slot = (slot + 1) & (table.length - 1)) {
+            int index = table[slot] - 1;
+            if (hashes[index] == hash && equals(index, answer, length))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param index  Indice di una traduzione.
+     * @param answer Risposta normalizzata.
+     * @param length Lunghezza della risposta.
+     * @return Flag che indica se la traduzione coincide con la risposta.
+     */
+    private boolean equals(int index, char[] answer, int length) {
+        int start = offsets[index];
+        if (offsets[index + 1] - start != length)
+            return false;
+        for (int i = 0; i < length; i++)
+            if (chars[start + i] != answer[i])
+                return false;
+        return true;
+    }
+
+    /**
+     * @param text Testo da normalizzare.
+     * @return Testo normalizzato come le traduzioni accettate.
+     */
+    public static String normalize(String text) {
+        char[] normalized = text.toCharArray();
+        return new String(normalized, 0, normalize(normalized, normalized.length));
+    }
+
+    /**
+     * Normalizza dei caratteri sul posto in una sola passata: toglie i segni
+     * diacritici, converte le lettere nella minuscola senza accento e riduce
+     * ogni sequenza di spazi bianchi ad uno spazio, eliminando quelli ai lati.
+     * @param text   Caratteri da normalizzare.
+     * @param length Numero di caratteri validi.
+     * @return Numero di caratteri dopo la normalizzazione.
+     */
+    static int normalize(char[] text, int length) {
+        int written = 0;
+        boolean space = false;
+        for (int i = 0; i < length; i++) {
+            char c = text[i];
+            if (Character.isWhitespace(c) || Character.isSpaceChar(c)) {
+                space = written > 0;
+                continue;
+            }
+            // I segni diacritici separati dalla lettera vengono scartati
+            if (Character.getType(c) == Character.NON_SPACING_MARK)
+                continue;
+            if (space) {
+                text[written++] = ' ';
+                space = false;
+            }
+            text[written++] = (c < FOLD_LIMIT) ? FOLD[c] : Character.toLowerCase(c);
+        }
+        return written;
+    }
+}
@@ -0,0 +1,106 @@
+package it.unipi.studenti.wordquizzles.server.services;
+
+import it.unipi.studenti.wordquizzles.shared.Configuration;
+
+/**
+ * AccountPersister è il thread che salva in background le partizioni degli
+ * account modificate e le statistiche di gioco. Le modifiche vengono accumulate e scritte insieme ogni
+ * PERSIST_INTERVAL millisecondi, oppure prima se le modifiche non salvate
+ * raggiungono PERSIST_MAX_PENDING_MUTATIONS: i thread delle richieste non
+ * attendono mai il disco, tranne chi invoca esplicitamente flush.
+ */
+class AccountPersister extends Thread {
+
+    // Partizioni da salvare
+    private AccountShard[] shards;
+
+    // Statistiche di gioco da salvare
+    private UserStatistics statistics;
+
+    // Modifiche registrate dall'inizio dell'ultimo salvataggio
+    private int pending;
+
+    // Salvataggi richiesti con flush
+    private long requestedPasses;
+
+    // Salvataggi completati
+    private long completedPasses;
+
+    // Flag che indica se il thread è terminato e non salverà più nulla
+    private boolean stopped;
+
+    /**
+     * Crea il thread di salvataggio.
+     * @param shards     Partizioni da salvare.
+     * @param statistics Statistiche di gioco da salvare.
+     */
+    AccountPersister(AccountShard[] shards, UserStatistics statistics) {
+        super("account-persister");
+        this.shards = shards;
+        this.statistics = statistics;
+        // Il salvataggio finale avviene tramite flush, non tenendo in vita la JVM
+        setDaemon(true);
+    }
+
+    /**
+     * Registra una modifica già segnata nella sua partizione, svegliando il
+     * thread se le modifiche non salvate hanno raggiunto il limite.
+     */
+    synchronized void mutated() {
+        pending++;
+        if (pending >= Configuration.PERSIST_MAX_PENDING_MUTATIONS)
+            notifyAll();
+    }
+
+    /**
+     * Attende che tutte le modifiche registrate prima della chiamata siano
+     * state scritte su disco. Se il thread di salvataggio è terminato ritorna
+     * subito, così che l'hook di chiusura non resti bloccato.
+     * @throws InterruptedException Se il thread viene interrotto durante l'attesa.
+     */
+    synchronized void flush() throws InterruptedException {
+        long ticket = ++requestedPasses;
+        notifyAll();
+        while (completedPasses < ticket && !stopped)
+            wait();
+        if (completedPasses < ticket)
+            System.err.println("[PERSISTER] Writer thread is not running, accounts not flushed");
+    }
+
+    @Override
+    public void run() {
+        System.out.println("[PERSISTER] Started");
+        try {
+            while (true) {
+                // Salvataggio che verrà soddisfatto dal prossimo giro
+                long target;
+                synchronized (this) {
+                    long deadline = System.currentTimeMillis() + Configuration.PERSIST_INTERVAL;
+                    long remaining = Configuration.PERSIST_INTERVAL;
+                    while (remaining > 0 && pending < Configuration.PERSIST_MAX_PENDING_MUTATIONS
+                            && requestedPasses <= completedPasses) {
+                        wait(remaining);
+                        remaining = deadline - System.currentTimeMillis();
+                    }
+                    target = requestedPasses;
+                    pending = 0;
+                }
+                // Le partizioni senza modifiche non vengono riscritte
+                for (AccountShard shard : shards)
+                    shard.persist();
+                statistics.persist();
+                synchronized (this) {
+                    completedPasses = Math.max(completedPasses, target);
+                    notifyAll();
+                }
+            }
+        } catch (InterruptedException e) {
+            System.out.println("[PERSISTER] Interrupted");
+        } finally {
+            synchronized (this) {
+                stopped = true;
+                notifyAll();
+            }
+        }
+    }
+}
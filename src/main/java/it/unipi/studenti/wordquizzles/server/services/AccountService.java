@@ -1,201 +1,238 @@
 package it.unipi.studenti.wordquizzles.server.services;
 
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.File;
 import java.io.IOException;
-import java.io.Writer;
-import java.lang.reflect.Type;
 import java.nio.channels.SelectionKey;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
-import com.google.gson.stream.JsonReader;
-
-import org.mindrot.jbcrypt.BCrypt;
+import java.util.TreeMap;
 
 import it.unipi.studenti.wordquizzles.server.BijectiveConcurrentMap;
 import it.unipi.studenti.wordquizzles.shared.Configuration;
+import it.unipi.studenti.wordquizzles.shared.wqp.Statistics;
 import it.unipi.studenti.wordquizzles.shared.wqp.WQPException;
 
 /**
  * AccountService è il singleton che si occupa di gestire le informazioni sugli
  * utenti della piattaforma e di identificare gli utenti attualmente attivi.
+ * Gli account sono divisi in ACCOUNT_SHARDS partizioni in base all'hash dello
+ * username: modifiche e salvataggi di partizioni diverse non si contendono
+ * lo stesso lock.
  */
 public class AccountService {
 
     /**
-     * User è la classe che mantiene le informazioni di un utente.
+     * Snapshot è una lettura composta da più operazioni che devono osservare lo
+     * stesso stato degli account.
      */
-    private class User {
-
-        // Nome dell'utente (non viene serializzato per evitare la ridondanza)
-        private String username;
-
-        // Punteggio dell'utente
-        private Integer points;
-
-        // Hash della password
-        private String passwordHash;
-
-        // Lista di username degli amici dell'utente
-        private List<String> friendsUsernames;
-
-        /**
-         * Crea un nuovo utente.
-         * @param username Nome dell'utente.
-         * @param password Password dell'utente.
-         */
-        public User(String username, String password) {
-            this.username = username;
-            points = 0;
-            friendsUsernames = Collections.synchronizedList(new ArrayList<>());
-            passwordHash = BCrypt.hashpw(password, BCrypt.gensalt());
-        }
-
-        /**
-         * @return Nome dell'utente corrente.
-         */
-        public String getUsername() {
-            return username;
-        }
-
-        /**
-         * @return Numero di punti dell'utente.
-         */
-        public int getPoints() {
-            int gotPoints = 0;
-            synchronized (points) {
-                gotPoints = points;
-            }
-            return gotPoints;
-        }
-
-        /**
-         * Incrementa i punti dell'utente di un certo incremento
-         * @param increment Numero di punti da aggiungere al totale dell'utente.
-         */
-        public void incrementPoints(int increment) {
-            synchronized (points) {
-                points += increment;
-            }
-        }
-
-        /**
-         * @return Lista di amici dell'utente.
-         */
-        public List<String> getFriendsUsernames() {
-            return friendsUsernames;
-        }
-
-        /**
-         * @param friendUsername Username dell'amico di cui si vuole verificare l'amicizia con l'utente corrente.
-         * @return Flag che indica se l'utente corrente e quello passato sono amici.
-         */
-        public boolean isFriend(String friendUsername) {
-            return friendsUsernames.contains(friendUsername);
-        }
-
-        /**
-         * Aggiunge un amico alla lista dell'utente.
-         * @param friendUsername Username dell'utente da aggiungere come amico.
-         */
-        public void addFriend(String friendUsername) {
-            friendsUsernames.add(friendUsername);
-        }
-
-        /**
-         * Confronta l'hash della password passata con quello memorizzato.
-         * @param password Password da verificare.
-         * @return Flag che indica se i due hash sono uguali.
-         */
-        public boolean checkPassword(String password) {
-            return BCrypt.checkpw(password, passwordHash);
-        }
+    @FunctionalInterface
+    public interface Snapshot<T> {
 
         /**
-         * Controlla che lo username dell'utente non sia quello passato.
-         * @param username Username da controllare.
-         * @return Flag che indica se lo username passato è uguale a quello dell'utente.
+         * @return Risultato della lettura.
+         * @throws WQPException Se la lettura non è andata a buon fine.
          */
-        public boolean is(String username) {
-            return this.username.equals(username);
-        }
+        T read() throws WQPException;
     }
 
-    // Mappa che associa username a utenti
-    private ConcurrentMap<String, User> users;
+    // Partizioni degli account, scelte in base all'hash dello username
+    private AccountShard[] shards;
 
     // Mappa che associa username a chiavi
     private BijectiveConcurrentMap<SelectionKey, String> loggedInUsers;
 
-    // Oggetto che serializza la mappa degli utenti
-    private Gson gson;
+    // Thread che salva in background le partizioni modificate
+    private AccountPersister persister;
 
-    // Tipo della mappa degli utenti
-    private Type usersMapType;
+    // Identificativi delle ultime partite registrate, per ignorare le registrazioni ripetute
+    private Map<String, Boolean> committedMatches;
+
+    // Statistiche di gioco degli utenti, aggiornate ad ogni partita conclusa
+    private UserStatistics statistics;
 
     // Unica istanza di AccountService che può essere presente nel sistema
     private static AccountService instance;
 
     /**
-     * Crea l'account service, se possibile deserializzando il file.
+     * Crea l'account service a partire dalle partizioni già caricate.
+     * @param shards     Partizioni degli account.
+     * @param statistics Statistiche di gioco già caricate.
      */
-    private AccountService() {
-        usersMapType = new TypeToken<ConcurrentHashMap<String, User>>(){}.getType();
-        gson = new GsonBuilder()
-            .setPrettyPrinting()
-            .create();
+    private AccountService(AccountShard[] shards, UserStatistics statistics) {
+        this.shards = shards;
+        this.statistics = statistics;
         loggedInUsers = new BijectiveConcurrentMap<>();
-        users = deserialize();
+        committedMatches = Collections.synchronizedMap(new LinkedHashMap<String, Boolean>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > Configuration.COMMITTED_MATCHES_REMEMBERED;
+            }
+        });
+        persister = new AccountPersister(shards, statistics);
+        persister.start();
+        // Alla chiusura della JVM le modifiche ancora in memoria vengono scritte
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                flush();
+            } catch (InterruptedException e) {
+                System.err.println("[ACCOUNTS] Interrupted while flushing accounts");
+            }
+        }, "account-flush"));
+    }
+
+    /**
+     * Attende che tutte le modifiche agli account fatte finora siano su disco.
+     * @throws InterruptedException Se il thread viene interrotto durante l'attesa.
+     */
+    public void flush() throws InterruptedException {
+        persister.flush();
+    }
+
+    /**
+     * Segna una partizione come modificata e lo comunica al thread di salvataggio.
+     * @param shard Partizione modificata.
+     */
+    private void mutated(AccountShard shard) {
+        shard.markDirty();
+        persister.mutated();
+    }
+
+    /**
+     * Carica i file degli account e crea l'unica istanza del servizio. Il
+     * server la invoca prima di accettare connessioni, così che nessuna
+     * richiesta paghi il costo del caricamento.
+     * @throws IOException Se un file esiste ma non può essere letto o non è ben formato.
+     */
+    public static synchronized void initialize() throws IOException {
+        if (instance == null)
+            instance = new AccountService(deserialize(), UserStatistics.load(new File(Configuration.STATS_FILENAME)));
     }
 
     /**
      * @return Unica possibile istanza di AccountService che può essere allocata nel sistema.
      */
     public static synchronized AccountService getInstance() {
-        if (instance == null)
-            instance = new AccountService();
+        if (instance == null) {
+            try {
+                initialize();
+            } catch (IOException e) {
+                System.err.printf("[ACCOUNTS] Unable to read file, falling back to the empty map: %s\n", e.getMessage());
+                instance = new AccountService(createShards(), new UserStatistics(new File(Configuration.STATS_FILENAME)));
+            }
+        }
         return instance;
     }
 
     /**
-     * Serializza tutta la struttura dati.
+     * @param index Indice della partizione.
+     * @return File in cui viene salvata la partizione, derivato da USERS_FILENAME.
      */
-    private synchronized void serialize() {
-        String json = gson.toJson(users);
-        try (Writer writer = new FileWriter(Configuration.USERS_FILENAME)) {
-            writer.write(json);
-            System.out.println("[ACCOUNTS] Successifully serialized file");
-        } catch (IOException e) {
-            System.err.printf("[ACCOUNTS] Unable to serialize file: %s\n", e.getMessage());
-        }
+    private static File shardFile(int index) {
+        String name = Configuration.USERS_FILENAME;
+        int dot = name.lastIndexOf('.');
+        if (dot <= name.lastIndexOf(File.separatorChar))
+            return new File(name + "-" + index);
+        return new File(name.substring(0, dot) + "-" + index + name.substring(dot));
     }
 
     /**
-     * Deserializza il JSON contenente le informazioni dal file di salvataggio.
-     * @return Mappa contenente le informazioni sugli account utente.
+     * @return Partizioni vuote, tante quante ACCOUNT_SHARDS.
      */
-    private ConcurrentHashMap<String, User> deserialize() {
-        ConcurrentHashMap<String, User> map;
-        try (JsonReader reader = new JsonReader(new FileReader(Configuration.USERS_FILENAME))) {
-            map = gson.fromJson(reader, usersMapType);
-        } catch (FileNotFoundException e) {
+    private static AccountShard[] createShards() {
+        AccountShard[] shards = new AccountShard[Math.max(1, Configuration.ACCOUNT_SHARDS)];
+        for (int i = 0; i < shards.length; i++)
+            shards[i] = new AccountShard(i, shardFile(i));
+        return shards;
+    }
+
+    /**
+     * Carica gli account con UsersLoader. Vengono letti il file unico delle
+     * versioni precedenti e i file di partizione presenti, anche se scritti
+     * con un numero diverso di partizioni: gli utenti che cambiano partizione
+     * vengono salvati subito, dopodiché il file unico viene rinominato e i
+     * file di partizione non più usati vengono cancellati.
+     * @return Partizioni caricate.
+     * @throws IOException Se un file non può essere letto o non è ben formato, oppure se la migrazione non può essere salvata.
+     */
+    private static AccountShard[] deserialize() throws IOException {
+        AccountShard[] shards = createShards();
+        // File unico delle versioni precedenti
+        File legacy = new File(Configuration.USERS_FILENAME);
+        // File di partizione presenti su disco, per indice
+        Map<Integer, File> shardFiles = new TreeMap<>();
+        int index = 0;
+        while (shardFile(index).exists() || index < shards.length) {
+            if (shardFile(index).exists())
+                shardFiles.put(index, shardFile(index));
+            index++;
+        }
+        if (!legacy.exists() && shardFiles.isEmpty()) {
             System.err.println("[ACCOUNTS] File not found, falling back to the empty map");
-            map = new ConcurrentHashMap<>();
-        } catch (IOException e) {
-            System.err.println("[ACCOUNTS] Unable to read file, falling back to the empty map");
-            map = new ConcurrentHashMap<>();
+            return shards;
+        }
+        // Il file unico viene letto per primo, così che i file di partizione (più recenti) prevalgano
+        if (legacy.exists())
+            distribute(shards, -1, UsersLoader.load(legacy, Configuration.LOAD_THREADS, Configuration.LOAD_CHUNK_BYTES));
+        for (Map.Entry<Integer, File> entry : shardFiles.entrySet())
+            distribute(shards, entry.getKey(), UsersLoader.load(entry.getValue(), Configuration.LOAD_THREADS, Configuration.LOAD_CHUNK_BYTES));
+        // Salva le partizioni che hanno ricevuto utenti da altri file
+        for (AccountShard shard : shards) {
+            if (!shard.persist())
+                throw new IOException("Unable to save migrated accounts");
+        }
+        if (legacy.exists() && !legacy.renameTo(new File(legacy.getPath() + ".migrated")))
+            throw new IOException("Unable to rename " + legacy.getPath());
+        for (Map.Entry<Integer, File> entry : shardFiles.entrySet()) {
+            if (entry.getKey() >= shards.length && !entry.getValue().delete())
+                System.err.printf("[ACCOUNTS] Unable to delete stale shard file %s\n", entry.getValue().getPath());
+        }
+        return shards;
+    }
+
+    /**
+     * Inserisce gli utenti caricati da un file nelle partizioni a cui appartengono.
+     * @param shards      Partizioni degli account.
+     * @param sourceIndex Indice della partizione del file, -1 per il file unico.
+     * @param users       Utenti caricati dal file.
+     */
+    private static void distribute(AccountShard[] shards, int sourceIndex, Map<String, User> users) {
+        for (Map.Entry<String, User> entry : users.entrySet()) {
+            AccountShard shard = shardOf(shards, entry.getKey());
+            shard.getUsers().put(entry.getKey(), entry.getValue());
+            // Sia la partizione di destinazione sia il file di provenienza vanno riscritti
+            if (shard.getIndex() != sourceIndex) {
+                shard.markDirty();
+                if (sourceIndex >= 0 && sourceIndex < shards.length)
+                    shards[sourceIndex].markDirty();
+            }
         }
-        return map;
+    }
+
+    /**
+     * @param shards   Partizioni degli account.
+     * @param username Username dell'utente.
+     * @return Partizione a cui appartiene l'utente.
+     */
+    private static AccountShard shardOf(AccountShard[] shards, String username) {
+        int hash = username.hashCode();
+        // Mescola i bit alti, come HashMap, prima di ridurre al numero di partizioni
+        hash ^= (hash >>> 16);
+        return shards[(hash & 0x7fffffff) % shards.length];
+    }
+
+    /**
+     * @param username Username dell'utente.
+     * @return Partizione a cui appartiene l'utente.
+     */
+    private AccountShard shardOf(String username) {
+        return shardOf(shards, username);
     }
 
     /**
@@ -211,13 +248,15 @@ public class AccountService {
             throw new WQPException("Username too long");
         // Struttura dati che rappresenta l'utente
         User user = new User(username, password);
+        // Partizione dell'utente
+        AccountShard shard = shardOf(username);
         // Prova ad inserire l'utente
-        User previousUser = users.putIfAbsent(username, user);
+        User previousUser = shard.getUsers().putIfAbsent(username, user);
         // Se l'utente esiste già lancia una eccezione
         if (previousUser != null)
             throw new WQPException("Username already registered");
-        // Salva i cambiamenti su file
-        serialize();
+        // Il salvataggio su file avviene in background
+        mutated(shard);
     }
 
     /**
@@ -227,7 +266,7 @@ public class AccountService {
      * @throws WQPException Se l'utente con lo username passato non è stato trovato.
      */
     private User getUser(String username) throws WQPException {
-        User user = users.get(username);
+        User user = shardOf(username).getUsers().get(username);
         if (user == null)
             throw new WQPException("User not found");
         return user;
@@ -278,6 +317,8 @@ public class AccountService {
         // Se lo username non è stato trovato esce
         if (username == null)
             throw new WQPException("User is not logged in");
+        // Le parole viste di recente verranno ricostruite dallo storico al prossimo login
+        WordService.forgetUser(username);
         return username;
     }
 
@@ -316,6 +357,15 @@ public class AccountService {
         return user.getPoints();
     }
 
+    /**
+     * @param username Username dell'utente.
+     * @return Punti dell'utente, anche se non è connesso.
+     * @throws WQPException Se l'utente non esiste.
+     */
+    public int getPoints(String username) throws WQPException {
+        return getUser(username).getPoints();
+    }
+
     /**
      * Incrementa i punti di un utente del parametro passato.
      * @param key Chiave che identifica l'utente.
@@ -325,9 +375,14 @@ public class AccountService {
     public void incrementPoints(SelectionKey key, int increment) throws WQPException {
         // Incrementa i punti degli utenti
         User user = getLoggedUser(key);
-        user.incrementPoints(increment);
-        // Salva i cambiamenti
-        serialize();
+        AccountShard shard = shardOf(user.getUsername());
+        shard.getLock().writeLock().lock();
+        try {
+            user.incrementPoints(increment);
+            mutated(shard);
+        } finally {
+            shard.getLock().writeLock().unlock();
+        }
     }
 
     /**
@@ -342,17 +397,112 @@ public class AccountService {
         // Se l'utente sta cercando di aggiungersi da solo esce
         if (user.is(friendUsername))
             throw new WQPException("You can't add yourself as a friend");
-        // Se l'amico è già nella lista esce
-        if (user.isFriend(friendUsername))
-            throw new WQPException("Users are already friends");
         // Struttura dati dell'utente amico
         User friendUser = getUser(friendUsername);
-        // Aggiunge l'associazione nell'utente loggato
-        user.addFriend(friendUsername);
-        // Aggiunge l'associazione nell'utente amico
-        friendUser.addFriend(user.getUsername());
-        // Salva i cambiamenti
-        serialize();
+        AccountShard[] locked = lockShards(Arrays.asList(user.getUsername(), friendUsername));
+        try {
+            // Se l'amico è già nella lista esce
+            if (user.isFriend(friendUsername))
+                throw new WQPException("Users are already friends");
+            // Aggiunge l'associazione nell'utente loggato
+            user.addFriend(friendUsername);
+            // Aggiunge l'associazione nell'utente amico
+            friendUser.addFriend(user.getUsername());
+            for (AccountShard shard : locked)
+                mutated(shard);
+        } finally {
+            unlockShards(locked);
+        }
+    }
+
+    /**
+     * Registra il risultato di una partita. I punti di tutti i giocatori
+     * vengono assegnati insieme, sotto i lock delle loro partizioni, e vengono
+     * salvati dal thread di salvataggio insieme a quelli delle altre partite.
+     * I giocatori sono identificati dallo username, così che ricevano i punti
+     * anche se si sono disconnessi dopo aver finito. Un risultato con un
+     * identificativo già registrato viene ignorato.
+     * @param result Risultato della partita.
+     * @return Flag che indica se il risultato è stato registrato ora.
+     * @throws WQPException Se uno dei giocatori non esiste.
+     */
+    public boolean commitMatch(MatchResult result) throws WQPException {
+        // Riserva l'identificativo, così che due registrazioni concorrenti non vengano applicate entrambe
+        if (committedMatches.putIfAbsent(result.getMatchId(), Boolean.TRUE) != null) {
+            System.out.printf("[ACCOUNTS] Match %s already committed\n", result.getMatchId());
+            return false;
+        }
+        try {
+            // Utenti coinvolti, cercati prima di bloccare le partizioni
+            Map<User, Integer> increments = new HashMap<>();
+            for (Map.Entry<String, Integer> entry : result.getPoints().entrySet())
+                increments.put(getUser(entry.getKey()), entry.getValue());
+            AccountShard[] locked = lockShards(result.getPoints().keySet());
+            try {
+                for (Map.Entry<User, Integer> entry : increments.entrySet())
+                    entry.getKey().incrementPoints(entry.getValue());
+                for (AccountShard shard : locked)
+                    mutated(shard);
+            } finally {
+                unlockShards(locked);
+            }
+        } catch (WQPException e) {
+            // Il risultato non è stato applicato: può essere registrato di nuovo
+            committedMatches.remove(result.getMatchId());
+            throw e;
+        }
+        System.out.printf("[ACCOUNTS] Committed match %s\n", result.getMatchId());
+        return true;
+    }
+
+    /**
+     * Aggiorna le statistiche dei giocatori con una partita appena registrata.
+     * Le partite interrotte non vengono contate.
+     * @param record Partita da contare.
+     */
+    public void recordStatistics(MatchRecord record) {
+        if (!record.isCompleted())
+            return;
+        statistics.record(record);
+        persister.mutated();
+    }
+
+    /**
+     * @param username Username dell'utente.
+     * @return Statistiche di gioco dell'utente.
+     * @throws WQPException Se l'utente non esiste.
+     */
+    public Statistics getStatistics(String username) throws WQPException {
+        // Verifica che l'utente esista
+        getUser(username);
+        return statistics.get(username);
+    }
+
+    /**
+     * Blocca in scrittura le partizioni degli utenti passati, in ordine di
+     * indice per evitare lo stallo tra operazioni che coinvolgono più partizioni.
+     * @param usernames Username degli utenti.
+     * @return Partizioni bloccate, in ordine di indice.
+     */
+    private AccountShard[] lockShards(Collection<String> usernames) {
+        TreeMap<Integer, AccountShard> sorted = new TreeMap<>();
+        for (String username : usernames) {
+            AccountShard shard = shardOf(username);
+            sorted.put(shard.getIndex(), shard);
+        }
+        AccountShard[] locked = sorted.values().toArray(new AccountShard[0]);
+        for (AccountShard shard : locked)
+            shard.getLock().writeLock().lock();
+        return locked;
+    }
+
+    /**
+     * Sblocca le partizioni bloccate con lockShards, in ordine inverso.
+     * @param locked Partizioni bloccate.
+     */
+    private void unlockShards(AccountShard[] locked) {
+        for (int i = locked.length - 1; i >= 0; i--)
+            locked[i].getLock().writeLock().unlock();
     }
 
     /**
@@ -398,4 +548,25 @@ public class AccountService {
         }
         return ranking;
     }
-}
\ No newline at end of file
+
+    /**
+     * Esegue una lettura composta senza che nessuna modifica agli utenti possa
+     * intervenire a metà: punti, amici e classifica restituiti sono coerenti tra
+     * loro.
+     * 
+     * @param snapshot Lettura da eseguire.
+     * @return Risultato della lettura.
+     * @throws WQPException Se la lettura non è andata a buon fine.
+     */
+    public <T> T snapshot(Snapshot<T> snapshot) throws WQPException {
+        // Gli amici possono stare in qualsiasi partizione: vengono bloccate tutte, in ordine di indice
+        for (AccountShard shard : shards)
+            shard.getLock().readLock().lock();
+        try {
+            return snapshot.read();
+        } finally {
+            for (int i = shards.length - 1; i >= 0; i--)
+                shards[i].getLock().readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package it.unipi.studenti.wordquizzles.server.services;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.google.gson.stream.JsonWriter;
+
+import it.unipi.studenti.wordquizzles.shared.Configuration;
+
+/**
+ * AccountShard è una partizione degli account, scelta in base all'hash dello
+ * username. Ogni partizione ha il proprio lock, tiene traccia delle modifiche
+ * non ancora salvate e le scrive sul proprio file, indipendentemente dalle
+ * altre partizioni. Ogni file è una fotografia coerente della sua partizione,
+ * ma un'operazione su più partizioni, come una partita tra utenti di
+ * partizioni diverse, non viene salvata atomicamente: dopo un crash può
+ * risultare applicata solo agli utenti delle partizioni già scritte.
+ */
+class AccountShard {
+
+    // Adapter condiviso (non ha stato)
+    private static final UserAdapter ADAPTER = new UserAdapter();
+
+    // Indice della partizione, che stabilisce l'ordine di acquisizione dei lock
+    private int index;
+
+    // File in cui viene salvata la partizione
+    private File file;
+
+    // Mappa che associa username a utenti
+    private ConcurrentHashMap<String, User> users;
+
+    // Lock che separa le letture composte (lettura) dalle modifiche degli utenti (scrittura)
+    private ReadWriteLock lock;
+
+    // Flag che indica se ci sono modifiche non ancora salvate
+    private AtomicBoolean dirty;
+
+    /**
+     * Crea una partizione vuota.
+     * @param index Indice della partizione.
+     * @param file  File in cui viene salvata la partizione.
+     */
+    AccountShard(int index, File file) {
+        this.index = index;
+        this.file = file;
+        users = new ConcurrentHashMap<>();
+        lock = new ReentrantReadWriteLock();
+        dirty = new AtomicBoolean(false);
+    }
+
+    /**
+     * @return Indice della partizione.
+     */
+    int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return Lock della partizione.
+     */
+    ReadWriteLock getLock() {
+        return lock;
+    }
+
+    /**
+     * @return Mappa che associa username a utenti.
+     */
+    Map<String, User> getUsers() {
+        return users;
+    }
+
+    /**
+     * Segnala che la partizione contiene modifiche da salvare.
+     */
+    void markDirty() {
+        dirty.set(true);
+    }
+
+    /**
+     * Scrive la partizione sul file se ci sono modifiche non salvate. Il
+     * contenuto viene scritto su un file temporaneo, forzato su disco e poi
+     * rinominato atomicamente, così che un crash durante la scrittura lasci
+     * intatto il salvataggio precedente. Le modifiche che arrivano durante la
+     * scrittura segnano di nuovo la partizione, così che non vadano perse.
+     * Gli utenti vengono serializzati in memoria sotto il lock in lettura,
+     * così che nessuna modifica venga salvata a metà; la scrittura sul disco
+     * avviene dopo averlo rilasciato.
+     * @return Flag che indica se la partizione è salvata sul file.
+     */
+    synchronized boolean persist() {
+        if (!dirty.getAndSet(false))
+            return true;
+        File temporary = new File(file.getPath() + ".tmp");
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            lock.readLock().lock();
+            try (JsonWriter writer = new JsonWriter(new OutputStreamWriter(bytes, StandardCharsets.UTF_8))) {
+                if (Configuration.USERS_PRETTY_PRINT)
+                    writer.setIndent("  ");
+                writer.beginObject();
+                for (Map.Entry<String, User> entry : users.entrySet()) {
+                    writer.name(entry.getKey());
+                    ADAPTER.write(writer, entry.getValue());
+                }
+                writer.endObject();
+                writer.flush();
+            } finally {
+                lock.readLock().unlock();
+            }
+            try (FileOutputStream stream = new FileOutputStream(temporary)) {
+                bytes.writeTo(stream);
+                stream.getFD().sync();
+            }
+            try {
+                Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            System.out.printf("[ACCOUNTS] Successifully serialized shard %d\n", index);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            // Anche un errore di serializzazione lascia le modifiche da salvare al prossimo giro
+            dirty.set(true);
+            System.err.printf("[ACCOUNTS] Unable to serialize shard %d: %s\n", index, e.getMessage());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package it.unipi.studenti.wordquizzles.server.services;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Dictionary è il dizionario bilingue offline prodotto da DictionaryCompiler,
+ * mappato in memoria in sola lettura. Il file contiene un'intestazione, un
+ * indice con la posizione di ogni voce e le voci ordinate per byte UTF-8
+ * della parola:
+ *
+ * <pre>
+ * [magic:int][count:int][offset:int]*(count+1)
+ * voce: [keyLength:u16][key][translations:u8]([length:u16][translation])*
+ * </pre>
+ *
+ * La ricerca è binaria sull'indice e confronta la parola direttamente con i
+ * byte mappati, senza copiarli; vengono decodificate solo le traduzioni
+ * della parola trovata. Le letture sono assolute, quindi il dizionario può essere
+ * consultato da più thread senza sincronizzazione.
+ */
+class Dictionary {
+
+    // Identificativo del formato ("WQD1")
+    static final int MAGIC = 0x57514431;
+
+    // Dimensione dell'intestazione in byte
+    static final int HEADER_BYTES = 8;
+
+    // Contenuto del file
+    private MappedByteBuffer buffer;
+
+    // Numero di voci
+    private int count;
+
+    /**
+     * Mappa il dizionario in memoria e ne controlla l'intestazione.
+     * @param file File prodotto da DictionaryCompiler.
+     * @throws IOException Se il file non può essere mappato o non è un dizionario.
+     */
+    Dictionary(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // La mappatura resta valida anche dopo la chiusura del canale
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC)
+            throw new IOException("Not a dictionary file");
+        count = buffer.getInt(4);
+        if (count < 0 || HEADER_BYTES + 4L * (count + 1) > buffer.capacity() || offset(count) > buffer.capacity())
+            throw new IOException("Truncated dictionary file");
+    }
+
+    /**
+     * @return Numero di parole del dizionario.
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * @param i Indice della voce (count per la fine dell'ultima).
+     * @return Posizione della voce nel file.
+     */
+    private int offset(int i) {
+        return buffer.getInt(HEADER_BYTES + 4 * i);
+    }
+
+    /**
+     * Confronta la parola di una voce con una chiave, byte per byte senza segno.
+     * @param position Posizione della voce.
+     * @param key      Chiave codificata in UTF-8.
+     * @return Valore negativo, zero o positivo se la parola della voce precede, è uguale o segue la chiave.
+     */
+    private int compare(int position, byte[] key) {
+        int length = buffer.getShort(position) & 0xFFFF;
+        int start = position + 2;
+        for (int i = 0; i < length && i < key.length; i++) {
+            int difference = (buffer.get(start + i) & 0xFF) - (key[i] & 0xFF);
+            if (difference != 0)
+                return difference;
+        }
+        return length - key.length;
+    }
+
+    /**
+     * @param word Parola da cercare.
+     * @return Posizione della voce della parola, -1 se non è nel dizionario.
+     */
+    private int find(String word) {
+        byte[] key = word.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int position = offset(middle);
+            int comparison = compare(position, key);
+            if (comparison < 0)
+                low = middle + 1;
+            else if (comparison > 0)
+                high = middle - 1;
+            else
+                return position;
+        }
+        return -1;
+    }
+
+    /**
+     * @param position Posizione di una stringa preceduta dalla lunghezza.
+     * @return Stringa decodificata.
+     */
+    private String decode(int position) {
+        int length = buffer.getShort(position) & 0xFFFF;
+        ByteBuffer view = buffer.duplicate();
+        view.position(position + 2).limit(position + 2 + length);
+        return StandardCharsets.UTF_8.decode(view).toString();
+    }
+
+    /**
+     * Cerca tutte le traduzioni di una parola.
+     * @param word Parola da tradurre.
+     * @return Traduzioni della parola, dalla principale, null se non è nel dizionario.
+     */
+    List<String> translations(String word) {
+        int position = find(word);
+        if (position == -1)
+            return null;
+        // Salta la parola e legge il numero di traduzioni
+        position += 2 + (buffer.getShort(position) & 0xFFFF);
+        int translationCount = buffer.get(position++) & 0xFF;
+        if (translationCount == 0)
+            return null;
+        List<String> translations = new ArrayList<>(translationCount);
+        for (int i = 0; i < translationCount; i++) {
+            translations.add(decode(position));
+            position += 2 + (buffer.getShort(position) & 0xFFFF);
+        }
+        return translations;
+    }
+}
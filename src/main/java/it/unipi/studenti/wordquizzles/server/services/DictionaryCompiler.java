@@ -0,0 +1,189 @@
+package it.unipi.studenti.wordquizzles.server.services;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * DictionaryCompiler compila il file delle parole e un file di traduzioni nel
+ * dizionario offline letto da Dictionary. Il file di traduzioni ha una riga
+ * per parola, con la parola e le sue traduzioni separate da tabulazioni (la
+ * prima è quella principale); le righe vuote o che iniziano con # vengono
+ * ignorate. Con --fetch le parole senza traduzione vengono tradotte dal
+ * servizio remoto, altrimenti restano fuori dal dizionario e il server le
+ * traduce a ogni partita.
+ *
+ * <pre>
+ * DictionaryCompiler words.txt translations.tsv words.dict [--fetch]
+ * </pre>
+ */
+public class DictionaryCompiler {
+
+    /**
+     * @param args File delle parole, file delle traduzioni, file da produrre e l'eventuale --fetch.
+     * @throws IOException Se non è possibile leggere i file o scrivere il dizionario.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: DictionaryCompiler <words> <translations> <output> [--fetch]");
+            System.exit(1);
+        }
+        boolean fetch = args.length > 3 && args[3].equals("--fetch");
+        Set<String> words = new LinkedHashSet<>(readLines(new File(args[0])));
+        Map<String, List<String>> translations = readTranslations(new File(args[1]));
+        // Le voci sono ordinate come le confronta Dictionary, per byte UTF-8 senza segno
+        TreeMap<byte[], List<String>> entries = new TreeMap<>(DictionaryCompiler::compareBytes);
+        int missing = 0;
+        for (String word : words) {
+            List<String> wordTranslations = translations.get(word);
+            if (wordTranslations == null && fetch) {
+                try {
+                    wordTranslations = WordService.translate(word);
+                } catch (IOException e) {
+                    System.err.printf("[DICTIONARY] Unable to translate %s: %s\n", word, e.getMessage());
+                }
+            }
+            if (wordTranslations == null) {
+                missing++;
+                continue;
+            }
+            entries.put(word.getBytes(StandardCharsets.UTF_8), wordTranslations);
+        }
+        write(new File(args[2]), entries);
+        System.out.printf("[DICTIONARY] Compiled %d words into %s, %d without translation\n", entries.size(), args[2],
+                missing);
+    }
+
+    /**
+     * @param file File di testo in UTF-8.
+     * @return Righe non vuote del file, senza spazi ai lati.
+     * @throws IOException Se non è possibile leggere il file.
+     */
+    private static List<String> readLines(File file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty())
+                    lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * @param file File delle traduzioni.
+     * @return Traduzioni di ogni parola, dalla principale.
+     * @throws IOException Se non è possibile leggere il file o una riga non ha traduzioni.
+     */
+    private static Map<String, List<String>> readTranslations(File file) throws IOException {
+        Map<String, List<String>> translations = new HashMap<>();
+        for (String line : readLines(file)) {
+            if (line.startsWith("#"))
+                continue;
+            String[] fields = line.split("\t");
+            List<String> wordTranslations = new ArrayList<>(fields.length - 1);
+            for (int i = 1; i < fields.length; i++)
+                if (!fields[i].trim().isEmpty())
+                    wordTranslations.add(fields[i].trim());
+            if (wordTranslations.isEmpty())
+                throw new IOException("No translation for " + fields[0]);
+            translations.put(fields[0].trim(), wordTranslations);
+        }
+        return translations;
+    }
+
+    /**
+     * Confronta due array di byte senza segno, in ordine lessicografico.
+     * @param first  Primo array.
+     * @param second Secondo array.
+     * @return Valore negativo, zero o positivo se il primo precede, è uguale o segue il secondo.
+     */
+    private static int compareBytes(byte[] first, byte[] second) {
+        for (int i = 0; i < first.length && i < second.length; i++) {
+            int difference = (first[i] & 0xFF) - (second[i] & 0xFF);
+            if (difference != 0)
+                return difference;
+        }
+        return first.length - second.length;
+    }
+
+    /**
+     * Scrive il dizionario su un file temporaneo e lo rinomina atomicamente,
+     * così che un server in esecuzione non mappi mai un file scritto a metà.
+     * @param file    File da produrre.
+     * @param entries Traduzioni per parola codificata, in ordine.
+     * @throws IOException Se non è possibile scrivere il file o una voce è troppo lunga.
+     */
+    private static void write(File file, TreeMap<byte[], List<String>> entries) throws IOException {
+        // Voci codificate, per calcolare l'indice prima di scriverle
+        List<byte[]> encoded = new ArrayList<>(entries.size());
+        for (Map.Entry<byte[], List<String>> entry : entries.entrySet()) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            writeString(out, entry.getKey());
+            List<String> wordTranslations = entry.getValue();
+            if (wordTranslations.size() > 0xFF)
+                throw new IOException("Too many translations for " + new String(entry.getKey(), StandardCharsets.UTF_8));
+            out.writeByte(wordTranslations.size());
+            for (String translation : wordTranslations)
+                writeString(out, translation.getBytes(StandardCharsets.UTF_8));
+            encoded.add(bytes.toByteArray());
+        }
+        File temporary = new File(file.getPath() + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(temporary);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+            out.writeInt(Dictionary.MAGIC);
+            out.writeInt(encoded.size());
+            long offset = Dictionary.HEADER_BYTES + 4L * (encoded.size() + 1);
+            for (byte[] entry : encoded) {
+                out.writeInt((int) offset);
+                offset += entry.length;
+            }
+            if (offset > Integer.MAX_VALUE)
+                throw new IOException("Dictionary too large");
+            out.writeInt((int) offset);
+            for (byte[] entry : encoded)
+                out.write(entry);
+            out.flush();
+            stream.getFD().sync();
+        }
+        try {
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * @param out   Stream su cui scrivere.
+     * @param bytes Stringa codificata in UTF-8.
+     * @throws IOException Se non è possibile scrivere o la stringa è troppo lunga.
+     */
+    private static void writeString(DataOutputStream out, byte[] bytes) throws IOException {
+        if (bytes.length > 0xFFFF)
+            throw new IOException("String too long for the dictionary");
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,495 @@
+package it.unipi.studenti.wordquizzles.server.services;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import it.unipi.studenti.wordquizzles.shared.Configuration;
+import it.unipi.studenti.wordquizzles.shared.wqp.WQPException;
+
+/**
+ * HistoryService è il singleton che mantiene lo storico delle partite. Le
+ * partite vengono scritte da un thread dedicato, una per riga, in segmenti
+ * a sola aggiunta: chi conclude una partita la accoda soltanto. Per ogni
+ * utente un indice in memoria mantiene posizione e lunghezza delle sue
+ * partite, così che HISTORY legga solo le righe richieste, in gran parte
+ * dalla coda dell'ultimo segmento. I segmenti più vecchi di
+ * HISTORY_RETAINED_SEGMENTS vengono compressi nella cartella di archivio e
+ * non sono più consultabili.
+ */
+public class HistoryService {
+
+    /**
+     * UserIndex è l'elenco delle partite di un utente, dalla più vecchia alla
+     * più recente. Una posizione contiene il numero del segmento nei bit alti e
+     * l'offset nel segmento nei 40 bit bassi.
+     */
+    private static class UserIndex {
+
+        // Posizioni delle partite
+        private long[] positions = new long[4];
+
+        // Lunghezze in byte delle partite
+        private int[] lengths = new int[4];
+
+        // Indice della prima partita ancora consultabile
+        private int start;
+
+        // Numero di partite registrate
+        private int size;
+
+        /**
+         * Aggiunge una partita in coda.
+         * @param position Posizione della partita.
+         * @param length   Lunghezza in byte della partita.
+         */
+        private synchronized void add(long position, int length) {
+            if (size == positions.length) {
+                // Recupera lo spazio delle partite archiviate prima di crescere
+                if (start > 0) {
+                    System.arraycopy(positions, start, positions, 0, size - start);
+                    System.arraycopy(lengths, start, lengths, 0, size - start);
+                    size -= start;
+                    start = 0;
+                }
+                if (size == positions.length) {
+                    positions = Arrays.copyOf(positions, 2 * positions.length);
+                    lengths = Arrays.copyOf(lengths, 2 * lengths.length);
+                }
+            }
+            positions[size] = position;
+            lengths[size] = length;
+            size++;
+        }
+
+        /**
+         * Scarta le partite dei segmenti archiviati.
+         * @param firstSegment Primo segmento ancora consultabile.
+         */
+        private synchronized void dropBefore(int firstSegment) {
+            while (start < size && segmentOf(positions[start]) < firstSegment)
+                start++;
+        }
+
+        /**
+         * Copia una pagina di partite, dalla più recente.
+         * @param count        Numero massimo di partite.
+         * @param offset       Numero di partite recenti da saltare.
+         * @param outPositions Array in cui copiare le posizioni.
+         * @param outLengths   Array in cui copiare le lunghezze.
+         * @return Numero di partite copiate.
+         */
+        private synchronized int page(int count, int offset, long[] outPositions, int[] outLengths) {
+            int copied = 0;
+            for (int i = size - 1 - offset; i >= start && copied < count; i--) {
+                outPositions[copied] = positions[i];
+                outLengths[copied] = lengths[i];
+                copied++;
+            }
+            return copied;
+        }
+    }
+
+    // Bit della posizione riservati all'offset nel segmento
+    private static final int OFFSET_BITS = 40;
+
+    // Nome dei file dei segmenti
+    private static final Pattern SEGMENT_NAME = Pattern.compile("segment-(\\d+)\\.log");
+
+    // Adapter condiviso (non ha stato)
+    private static final MatchRecordAdapter ADAPTER = new MatchRecordAdapter();
+
+    // Cartella che contiene i segmenti
+    private File directory;
+
+    // Indice delle partite di ogni utente
+    private ConcurrentHashMap<String, UserIndex> index;
+
+    // Partite in attesa di essere scritte
+    private BlockingQueue<MatchRecord> queue;
+
+    // Canali aperti in lettura sui segmenti consultabili
+    private ConcurrentHashMap<Integer, FileChannel> readers;
+
+    // Primo segmento ancora consultabile
+    private volatile int firstSegment;
+
+    // Segmento in cui vengono aggiunte le partite (usato solo dal thread di scrittura)
+    private int currentSegment;
+
+    // Canale in scrittura sul segmento corrente (usato solo dal thread di scrittura)
+    private FileChannel currentChannel;
+
+    // Partite accodate dall'avvio
+    private AtomicLong submitted;
+
+    // Partite scritte dall'avvio
+    private long written;
+
+    // Flag che indica se il thread di scrittura è terminato
+    private boolean stopped;
+
+    // Unica istanza del servizio presente nel sistema
+    private static HistoryService instance;
+
+    /**
+     * Crea il servizio ricostruendo l'indice dai segmenti presenti.
+     * @throws IOException Se non è possibile leggere i segmenti.
+     */
+    private HistoryService() throws IOException {
+        directory = new File(Configuration.HISTORY_DIRECTORY);
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Unable to create " + directory.getPath());
+        index = new ConcurrentHashMap<>();
+        queue = new ArrayBlockingQueue<>(Configuration.HISTORY_QUEUE_CAPACITY);
+        readers = new ConcurrentHashMap<>();
+        submitted = new AtomicLong();
+        written = 0;
+        stopped = false;
+        rebuild();
+        Thread writer = new Thread(this::writeLoop, "history-writer");
+        writer.setDaemon(true);
+        writer.start();
+        // Alla chiusura della JVM le partite ancora in coda vengono scritte
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                flush();
+            } catch (InterruptedException e) {
+                System.err.println("[HISTORY] Interrupted while flushing history");
+            }
+        }, "history-flush"));
+    }
+
+    /**
+     * Crea l'unica istanza del servizio. Il server la invoca prima di accettare
+     * connessioni, così che nessuna richiesta paghi la ricostruzione dell'indice.
+     * @throws IOException Se non è possibile leggere i segmenti.
+     */
+    public static synchronized void initialize() throws IOException {
+        if (instance == null)
+            instance = new HistoryService();
+    }
+
+    /**
+     * @return Unica istanza del servizio.
+     * @throws IOException Se il servizio non era inizializzato e non è possibile leggere i segmenti.
+     */
+    public static synchronized HistoryService getInstance() throws IOException {
+        initialize();
+        return instance;
+    }
+
+    /**
+     * @param position Posizione di una partita.
+     * @return Segmento che contiene la partita.
+     */
+    private static int segmentOf(long position) {
+        return (int) (position >>> OFFSET_BITS);
+    }
+
+    /**
+     * @param segment Numero del segmento.
+     * @return File del segmento.
+     */
+    private File segmentFile(int segment) {
+        return new File(directory, "segment-" + segment + ".log");
+    }
+
+    /**
+     * Ricostruisce l'indice leggendo sequenzialmente i segmenti presenti.
+     * Un'ultima riga incompleta, lasciata da un crash durante la scrittura,
+     * viene troncata.
+     * @throws IOException Se non è possibile leggere i segmenti.
+     */
+    private void rebuild() throws IOException {
+        long start = System.nanoTime();
+        TreeMap<Integer, File> segments = new TreeMap<>();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Matcher matcher = SEGMENT_NAME.matcher(file.getName());
+                if (matcher.matches())
+                    segments.put(Integer.parseInt(matcher.group(1)), file);
+            }
+        }
+        int records = 0;
+        for (Map.Entry<Integer, File> entry : segments.entrySet())
+            records += indexSegment(entry.getKey(), entry.getValue());
+        firstSegment = segments.isEmpty() ? 0 : segments.firstKey();
+        currentSegment = segments.isEmpty() ? 0 : segments.lastKey();
+        currentChannel = FileChannel.open(segmentFile(currentSegment).toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        archive();
+        System.out.printf("[HISTORY] Indexed %d matches for %d users from %d segments in %d ms\n", records,
+                index.size(), segments.size(), (System.nanoTime() - start) / 1000000);
+    }
+
+    /**
+     * Aggiunge all'indice le partite di un segmento.
+     * @param segment Numero del segmento.
+     * @param file    File del segmento.
+     * @return Numero di partite lette.
+     * @throws IOException Se non è possibile leggere il segmento.
+     */
+    private int indexSegment(int segment, File file) throws IOException {
+        int records = 0;
+        long offset = 0;
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        try (InputStream stream = new BufferedInputStream(new FileInputStream(file))) {
+            int b;
+            long lineStart = 0;
+            while ((b = stream.read()) != -1) {
+                offset++;
+                if (b != '\n') {
+                    line.write(b);
+                    continue;
+                }
+                String json = new String(line.toByteArray(), StandardCharsets.UTF_8);
+                line.reset();
+                try {
+                    MatchRecord record = ADAPTER.read(new JsonReader(new StringReader(json)));
+                    register(record, ((long) segment << OFFSET_BITS) | lineStart, (int) (offset - lineStart));
+                    records++;
+                } catch (IOException | IllegalStateException | NumberFormatException | JsonParseException e) {
+                    System.err.printf("[HISTORY] Skipping malformed match in %s at %d\n", file.getName(), lineStart);
+                }
+                lineStart = offset;
+            }
+            // Tronca la riga incompleta
+            if (line.size() > 0) {
+                try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                    channel.truncate(lineStart);
+                }
+                System.err.printf("[HISTORY] Truncated incomplete match in %s\n", file.getName());
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Aggiunge una partita all'indice di ogni giocatore.
+     * @param record   Partita.
+     * @param position Posizione della partita.
+     * @param length   Lunghezza in byte della partita.
+     */
+    private void register(MatchRecord record, long position, int length) {
+        for (MatchRecord.Player player : record.getPlayers())
+            index.computeIfAbsent(player.getUsername(), username -> new UserIndex()).add(position, length);
+    }
+
+    /**
+     * Accoda una partita da salvare nello storico senza attendere la scrittura.
+     * @param record Partita conclusa.
+     */
+    public void append(MatchRecord record) {
+        if (queue.offer(record))
+            submitted.incrementAndGet();
+        else
+            System.err.printf("[HISTORY] Queue full, dropping match %s\n", record.getMatchId());
+    }
+
+    /**
+     * Attende che tutte le partite accodate prima della chiamata siano state
+     * scritte. Se il thread di scrittura è terminato ritorna subito, così che
+     * l'hook di chiusura non resti bloccato.
+     * @throws InterruptedException Se il thread viene interrotto durante l'attesa.
+     */
+    public void flush() throws InterruptedException {
+        long target = submitted.get();
+        synchronized (this) {
+            while (written < target && !stopped)
+                wait();
+            if (written < target)
+                System.err.printf("[HISTORY] Writer is not running, %d matches not written\n", target - written);
+        }
+    }
+
+    /**
+     * Ciclo del thread di scrittura: preleva le partite in coda a gruppi e le
+     * aggiunge al segmento corrente con una sola scrittura per gruppo.
+     */
+    private void writeLoop() {
+        List<MatchRecord> batch = new ArrayList<>();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        // Inizio di ogni partita nel gruppo
+        List<Integer> starts = new ArrayList<>();
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch);
+                try {
+                    if (currentChannel.size() >= Configuration.HISTORY_SEGMENT_BYTES)
+                        roll();
+                    long base = currentChannel.size();
+                    for (MatchRecord record : batch) {
+                        starts.add(bytes.size());
+                        OutputStreamWriter writer = new OutputStreamWriter(bytes, StandardCharsets.UTF_8);
+                        ADAPTER.write(new JsonWriter(writer), record);
+                        writer.write('\n');
+                        writer.flush();
+                    }
+                    ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+                    while (buffer.hasRemaining())
+                        currentChannel.write(buffer);
+                    // Le partite diventano consultabili solo dopo essere state scritte
+                    for (int i = 0; i < batch.size(); i++) {
+                        int end = (i + 1 < batch.size()) ? starts.get(i + 1) : bytes.size();
+                        long position = ((long) currentSegment << OFFSET_BITS) | (base + starts.get(i));
+                        register(batch.get(i), position, end - starts.get(i));
+                    }
+                } catch (IOException | RuntimeException e) {
+                    // Anche un errore di serializzazione scarta solo il gruppo corrente
+                    System.err.printf("[HISTORY] Unable to write %d matches: %s\n", batch.size(), e.getMessage());
+                }
+                synchronized (this) {
+                    written += batch.size();
+                    notifyAll();
+                }
+                batch.clear();
+                starts.clear();
+                bytes.reset();
+            }
+        } catch (InterruptedException e) {
+            System.out.println("[HISTORY] Writer interrupted");
+        } finally {
+            synchronized (this) {
+                stopped = true;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Chiude il segmento corrente, ne apre uno nuovo e archivia quelli troppo vecchi.
+     * @throws IOException Se non è possibile creare il nuovo segmento.
+     */
+    private void roll() throws IOException {
+        currentChannel.force(false);
+        currentChannel.close();
+        currentSegment++;
+        currentChannel = FileChannel.open(segmentFile(currentSegment).toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        System.out.printf("[HISTORY] Started segment %d\n", currentSegment);
+        archive();
+    }
+
+    /**
+     * Comprime nella cartella di archivio i segmenti oltre HISTORY_RETAINED_SEGMENTS
+     * e li toglie dall'indice.
+     */
+    private void archive() {
+        int retained = Math.max(1, Configuration.HISTORY_RETAINED_SEGMENTS);
+        int newFirst = Math.max(firstSegment, currentSegment - retained + 1);
+        if (newFirst == firstSegment)
+            return;
+        // Le partite dei segmenti archiviati smettono di essere consultabili prima della compressione
+        int oldFirst = firstSegment;
+        firstSegment = newFirst;
+        for (UserIndex userIndex : index.values())
+            userIndex.dropBefore(newFirst);
+        File archiveDirectory = new File(directory, "archive");
+        for (int segment = oldFirst; segment < newFirst; segment++) {
+            File file = segmentFile(segment);
+            if (!file.exists())
+                continue;
+            FileChannel reader = readers.remove(segment);
+            try {
+                if (reader != null)
+                    reader.close();
+                if (!archiveDirectory.isDirectory() && !archiveDirectory.mkdirs())
+                    throw new IOException("Unable to create " + archiveDirectory.getPath());
+                try (OutputStream out = new GZIPOutputStream(
+                        new FileOutputStream(new File(archiveDirectory, file.getName() + ".gz")))) {
+                    Files.copy(file.toPath(), out);
+                }
+                Files.delete(file.toPath());
+                System.out.printf("[HISTORY] Archived segment %d\n", segment);
+            } catch (IOException e) {
+                System.err.printf("[HISTORY] Unable to archive segment %d: %s\n", segment, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Restituisce una pagina delle partite di un utente, dalla più recente.
+     * @param username Username dell'utente.
+     * @param count    Numero massimo di partite.
+     * @param offset   Numero di partite recenti da saltare.
+     * @return Partite in formato JSON, una per elemento.
+     * @throws WQPException Se i parametri non sono validi.
+     */
+    public List<String> getHistory(String username, int count, int offset) throws WQPException {
+        if (count <= 0 || count > Configuration.HISTORY_MAX_PAGE_SIZE || offset < 0)
+            throw new WQPException("Invalid page");
+        UserIndex userIndex = index.get(username);
+        List<String> page = new ArrayList<>();
+        if (userIndex == null)
+            return page;
+        long[] positions = new long[count];
+        int[] lengths = new int[count];
+        int found = userIndex.page(count, offset, positions, lengths);
+        for (int i = 0; i < found; i++) {
+            int segment = segmentOf(positions[i]);
+            long position = positions[i] & ((1L << OFFSET_BITS) - 1);
+            try {
+                FileChannel channel = readers.computeIfAbsent(segment, this::openReader);
+                if (channel == null)
+                    continue;
+                // La riga viene letta senza il ritorno a capo finale
+                ByteBuffer buffer = ByteBuffer.allocate(lengths[i] - 1);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, position + buffer.position()) < 0)
+                        throw new IOException("Unexpected end of segment");
+                }
+                page.add(new String(buffer.array(), StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                // Il segmento può essere stato archiviato durante la lettura
+                System.err.printf("[HISTORY] Unable to read match of %s: %s\n", username, e.getMessage());
+            }
+        }
+        return page;
+    }
+
+    /**
+     * @param segment Numero del segmento.
+     * @return Canale in lettura sul segmento, oppure null se il segmento non è più consultabile.
+     */
+    private FileChannel openReader(int segment) {
+        if (segment < firstSegment)
+            return null;
+        try {
+            return FileChannel.open(segmentFile(segment).toPath(), StandardOpenOption.READ);
+        } catch (IOException e) {
+            System.err.printf("[HISTORY] Unable to open segment %d: %s\n", segment, e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package it.unipi.studenti.wordquizzles.server.services;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * MatchRecord è la registrazione di una partita conclusa da salvare nello
+ * storico: parole proposte e, per ogni giocatore, risposte date, tempi e
+ * punti ottenuti.
+ */
+public class MatchRecord {
+
+    /**
+     * Answer è una risposta data da un giocatore durante la partita.
+     */
+    public static class Answer {
+
+        // Parola da tradurre
+        private String word;
+
+        // Traduzione inviata dal giocatore
+        private String answer;
+
+        // Flag che indica se la traduzione è corretta
+        private boolean correct;
+
+        // Millisecondi trascorsi dall'inizio della partita
+        private long elapsed;
+
+        /**
+         * Crea una risposta.
+         * @param word    Parola da tradurre.
+         * @param answer  Traduzione inviata dal giocatore.
+         * @param correct Flag che indica se la traduzione è corretta.
+         * @param elapsed Millisecondi trascorsi dall'inizio della partita.
+         */
+        public Answer(String word, String answer, boolean correct, long elapsed) {
+            this.word = word;
+            this.answer = answer;
+            this.correct = correct;
+            this.elapsed = elapsed;
+        }
+
+        /**
+         * @return Parola da tradurre.
+         */
+        public String getWord() {
+            return word;
+        }
+
+        /**
+         * @return Traduzione inviata dal giocatore.
+         */
+        public String getAnswer() {
+            return answer;
+        }
+
+        /**
+         * @return Flag che indica se la traduzione è corretta.
+         */
+        public boolean isCorrect() {
+            return correct;
+        }
+
+        /**
+         * @return Millisecondi trascorsi dall'inizio della partita.
+         */
+        public long getElapsed() {
+            return elapsed;
+        }
+    }
+
+    /**
+     * Player è il risultato di un giocatore della partita.
+     */
+    public static class Player {
+
+        // Username del giocatore
+        private String username;
+
+        // Punti ottenuti, bonus compreso
+        private int points;
+
+        // Risposte date, in ordine
+        private List<Answer> answers;
+
+        /**
+         * Crea il risultato di un giocatore.
+         * @param username Username del giocatore.
+         * @param points   Punti ottenuti, bonus compreso.
+         * @param answers  Risposte date, in ordine.
+         */
+        public Player(String username, int points, List<Answer> answers) {
+            this.username = username;
+            this.points = points;
+            this.answers = Collections.unmodifiableList(new ArrayList<>(answers));
+        }
+
+        /**
+         * @return Username del giocatore.
+         */
+        public String getUsername() {
+            return username;
+        }
+
+        /**
+         * @return Punti ottenuti, bonus compreso.
+         */
+        public int getPoints() {
+            return points;
+        }
+
+        /**
+         * @return Risposte date, in ordine.
+         */
+        public List<Answer> getAnswers() {
+            return answers;
+        }
+    }
+
+    // Identificativo univoco della partita
+    private String matchId;
+
+    // Istante di inizio della partita in millisecondi dall'epoca
+    private long startTime;
+
+    // Durata della partita in millisecondi
+    private long duration;
+
+    // Flag che indica se la partita è arrivata alla fine senza disconnessioni
+    private boolean completed;
+
+    // Parole proposte, in ordine
+    private List<String> words;
+
+    // Risultati dei giocatori
+    private List<Player> players;
+
+    /**
+     * Crea la registrazione di una partita.
+     * @param matchId   Identificativo univoco della partita.
+     * @param startTime Istante di inizio della partita in millisecondi dall'epoca.
+     * @param duration  Durata della partita in millisecondi.
+     * @param completed Flag che indica se la partita è arrivata alla fine senza disconnessioni.
+     * @param words     Parole proposte, in ordine.
+     * @param players   Risultati dei giocatori.
+     */
+    public MatchRecord(String matchId, long startTime, long duration, boolean completed, List<String> words,
+            List<Player> players) {
+        this.matchId = matchId;
+        this.startTime = startTime;
+        this.duration = duration;
+        this.completed = completed;
+        this.words = Collections.unmodifiableList(new ArrayList<>(words));
+        this.players = Collections.unmodifiableList(new ArrayList<>(players));
+    }
+
+    /**
+     * @return Identificativo univoco della partita.
+     */
+    public String getMatchId() {
+        return matchId;
+    }
+
+    /**
+     * @return Istante di inizio della partita in millisecondi dall'epoca.
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return Durata della partita in millisecondi.
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * @return Flag che indica se la partita è arrivata alla fine senza disconnessioni.
+     */
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    /**
+     * @return Parole proposte, in ordine.
+     */
+    public List<String> getWords() {
+        return words;
+    }
+
+    /**
+     * @return Risultati dei giocatori.
+     */
+    public List<Player> getPlayers() {
+        return players;
+    }
+}
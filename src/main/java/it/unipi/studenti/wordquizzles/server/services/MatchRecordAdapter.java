@@ -0,0 +1,166 @@
+package it.unipi.studenti.wordquizzles.server.services;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * MatchRecordAdapter serializza le partite dello storico leggendo e
+ * scrivendo direttamente i token JSON. Ogni partita occupa una riga dei
+ * segmenti dello storico e viene restituita così com'è dal comando HISTORY.
+ */
+public class MatchRecordAdapter extends TypeAdapter<MatchRecord> {
+
+    @Override
+    public void write(JsonWriter out, MatchRecord record) throws IOException {
+        if (record == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("id").value(record.getMatchId());
+        out.name("start").value(record.getStartTime());
+        out.name("duration").value(record.getDuration());
+        out.name("completed").value(record.isCompleted());
+        out.name("words").beginArray();
+        for (String word : record.getWords())
+            out.value(word);
+        out.endArray();
+        out.name("players").beginArray();
+        for (MatchRecord.Player player : record.getPlayers()) {
+            out.beginObject();
+            out.name("username").value(player.getUsername());
+            out.name("points").value(player.getPoints());
+            out.name("answers").beginArray();
+            for (MatchRecord.Answer answer : player.getAnswers()) {
+                out.beginObject();
+                out.name("word").value(answer.getWord());
+                out.name("answer").value(answer.getAnswer());
+                out.name("correct").value(answer.isCorrect());
+                out.name("elapsed").value(answer.getElapsed());
+                out.endObject();
+            }
+            out.endArray();
+            out.endObject();
+        }
+        out.endArray();
+        out.endObject();
+    }
+
+    @Override
+    public MatchRecord read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        String matchId = null;
+        long startTime = 0;
+        long duration = 0;
+        boolean completed = false;
+        List<String> words = new ArrayList<>();
+        List<MatchRecord.Player> players = new ArrayList<>();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "id":
+                    matchId = in.nextString();
+                    break;
+                case "start":
+                    startTime = in.nextLong();
+                    break;
+                case "duration":
+                    duration = in.nextLong();
+                    break;
+                case "completed":
+                    completed = in.nextBoolean();
+                    break;
+                case "words":
+                    in.beginArray();
+                    while (in.hasNext())
+                        words.add(in.nextString());
+                    in.endArray();
+                    break;
+                case "players":
+                    in.beginArray();
+                    while (in.hasNext())
+                        players.add(readPlayer(in));
+                    in.endArray();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return new MatchRecord(matchId, startTime, duration, completed, words, players);
+    }
+
+    /**
+     * @param in Reader posizionato all'inizio di un giocatore.
+     * @return Risultato del giocatore.
+     * @throws IOException Se il JSON non è ben formato.
+     */
+    private MatchRecord.Player readPlayer(JsonReader in) throws IOException {
+        String username = null;
+        int points = 0;
+        List<MatchRecord.Answer> answers = new ArrayList<>();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "username":
+                    username = in.nextString();
+                    break;
+                case "points":
+                    points = in.nextInt();
+                    break;
+                case "answers":
+                    in.beginArray();
+                    while (in.hasNext())
+                        answers.add(readAnswer(in));
+                    in.endArray();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return new MatchRecord.Player(username, points, answers);
+    }
+
+    /**
+     * @param in Reader posizionato all'inizio di una risposta.
+     * @return Risposta del giocatore.
+     * @throws IOException Se il JSON non è ben formato.
+     */
+    private MatchRecord.Answer readAnswer(JsonReader in) throws IOException {
+        String word = null;
+        String answer = null;
+        boolean correct = false;
+        long elapsed = 0;
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "word":
+                    word = in.nextString();
+                    break;
+                case "answer":
+                    answer = in.nextString();
+                    break;
+                case "correct":
+                    correct = in.nextBoolean();
+                    break;
+                case "elapsed":
+                    elapsed = in.nextLong();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return new MatchRecord.Answer(word, answer, correct, elapsed);
+    }
+}
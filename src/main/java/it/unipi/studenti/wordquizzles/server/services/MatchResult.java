@@ -0,0 +1,43 @@
+package it.unipi.studenti.wordquizzles.server.services;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * MatchResult è il risultato di una partita da registrare negli account:
+ * i punti guadagnati da ogni giocatore, identificati dallo username, e
+ * l'identificativo della partita, che rende la registrazione idempotente.
+ */
+public class MatchResult {
+
+    // Identificativo univoco della partita
+    private String matchId;
+
+    // Mappa che associa ad ogni giocatore i punti guadagnati
+    private Map<String, Integer> points;
+
+    /**
+     * Crea il risultato di una partita.
+     * @param matchId Identificativo univoco della partita.
+     * @param points  Mappa che associa ad ogni giocatore i punti guadagnati.
+     */
+    public MatchResult(String matchId, Map<String, Integer> points) {
+        this.matchId = matchId;
+        this.points = Collections.unmodifiableMap(new LinkedHashMap<>(points));
+    }
+
+    /**
+     * @return Identificativo univoco della partita.
+     */
+    public String getMatchId() {
+        return matchId;
+    }
+
+    /**
+     * @return Mappa che associa ad ogni giocatore i punti guadagnati.
+     */
+    public Map<String, Integer> getPoints() {
+        return points;
+    }
+}
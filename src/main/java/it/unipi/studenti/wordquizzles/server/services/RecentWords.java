@@ -0,0 +1,63 @@
+package it.unipi.studenti.wordquizzles.server.services;
+
+import java.util.Arrays;
+
+import it.unipi.studenti.wordquizzles.shared.Configuration;
+
+/**
+ * RecentWords ricorda le parole viste di recente da un utente con due bitset
+ * indicizzati come le parole del file: quando quello corrente contiene
+ * RECENT_WORDS_WINDOW parole diventa il precedente e si riparte da uno vuoto.
+ * Una parola è recente se è in uno dei due, quindi vengono ricordate tra
+ * RECENT_WORDS_WINDOW e il doppio delle ultime parole, con due bit per parola
+ * del dizionario.
+ */
+class RecentWords {
+
+    // Parole viste nella generazione corrente
+    private long[] current;
+
+    // Parole viste nella generazione precedente
+    private long[] previous;
+
+    // Parole distinte nella generazione corrente
+    private int count;
+
+    /**
+     * Crea un insieme vuoto.
+     * @param words Numero di parole del dizionario.
+     */
+    RecentWords(int words) {
+        current = new long[(words + 63) >>> 6];
+        previous = new long[current.length];
+        count = 0;
+    }
+
+    /**
+     * @param id Indice della parola.
+     * @return Flag che indica se l'utente ha visto la parola di recente.
+     */
+    synchronized boolean contains(int id) {
+        long mask = 1L << id;
+        return ((current[id >>> 6] | previous[id >>> 6]) & mask) != 0;
+    }
+
+    /**
+     * Registra una parola vista dall'utente.
+     * @param id Indice della parola.
+     */
+    synchronized void add(int id) {
+        long mask = 1L << id;
+        if ((current[id >>> 6] & mask) != 0)
+            return;
+        current[id >>> 6] |= mask;
+        if (++count < Configuration.RECENT_WORDS_WINDOW)
+            return;
+        // La generazione precedente viene dimenticata e il suo array riusato
+        long[] oldest = previous;
+        previous = current;
+        current = oldest;
+        Arrays.fill(current, 0);
+        count = 0;
+    }
+}
@@ -0,0 +1,118 @@
+package it.unipi.studenti.wordquizzles.server.services;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.mindrot.jbcrypt.BCrypt;
+
+/**
+ * User è la classe che mantiene le informazioni di un utente.
+ */
+public class User {
+
+    // Nome dell'utente
+    private String username;
+
+    // Punteggio dell'utente
+    private int points;
+
+    // Hash della password
+    private String passwordHash;
+
+    // Lista di username degli amici dell'utente
+    private List<String> friendsUsernames;
+
+    /**
+     * Crea un nuovo utente.
+     * @param username Nome dell'utente.
+     * @param password Password dell'utente.
+     */
+    public User(String username, String password) {
+        this(username, 0, BCrypt.hashpw(password, BCrypt.gensalt()), new ArrayList<>());
+    }
+
+    /**
+     * Ricostruisce un utente salvato, senza ricalcolare l'hash della password.
+     * @param username         Nome dell'utente.
+     * @param points           Punteggio dell'utente.
+     * @param passwordHash     Hash della password.
+     * @param friendsUsernames Lista di username degli amici.
+     */
+    public User(String username, int points, String passwordHash, List<String> friendsUsernames) {
+        this.username = username;
+        this.points = points;
+        this.passwordHash = passwordHash;
+        this.friendsUsernames = Collections.synchronizedList(friendsUsernames);
+    }
+
+    /**
+     * @return Nome dell'utente corrente.
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * @return Numero di punti dell'utente.
+     */
+    public synchronized int getPoints() {
+        return points;
+    }
+
+    /**
+     * Incrementa i punti dell'utente di un certo incremento
+     * @param increment Numero di punti da aggiungere al totale dell'utente.
+     */
+    public synchronized void incrementPoints(int increment) {
+        points += increment;
+    }
+
+    /**
+     * @return Hash della password dell'utente.
+     */
+    public String getPasswordHash() {
+        return passwordHash;
+    }
+
+    /**
+     * @return Lista di amici dell'utente.
+     */
+    public List<String> getFriendsUsernames() {
+        return friendsUsernames;
+    }
+
+    /**
+     * @param friendUsername Username dell'amico di cui si vuole verificare l'amicizia con l'utente corrente.
+     * @return Flag che indica se l'utente corrente e quello passato sono amici.
+     */
+    public boolean isFriend(String friendUsername) {
+        return friendsUsernames.contains(friendUsername);
+    }
+
+    /**
+     * Aggiunge un amico alla lista dell'utente.
+     * @param friendUsername Username dell'utente da aggiungere come amico.
+     */
+    public void addFriend(String friendUsername) {
+        friendsUsernames.add(friendUsername);
+    }
+
+    /**
+     * Confronta l'hash della password passata con quello memorizzato.
+     * @param password Password da verificare.
+     * @return Flag che indica se i due hash sono uguali.
+     */
+    public boolean checkPassword(String password) {
+        return BCrypt.checkpw(password, passwordHash);
+    }
+
+    /**
+     * Controlla che lo username dell'utente non sia quello passato.
+     * @param username Username da controllare.
+     * @return Flag che indica se lo username passato è uguale a quello dell'utente.
+     */
+    public boolean is(String username) {
+        return this.username.equals(username);
+    }
+}
@@ -0,0 +1,76 @@
+package it.unipi.studenti.wordquizzles.server.services;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * UserAdapter serializza un utente leggendo e scrivendo direttamente i token
+ * JSON. Il formato è lo stesso prodotto dalla riflessione di Gson, così che i
+ * file salvati in precedenza restino leggibili; i campi sconosciuti vengono
+ * ignorati.
+ */
+public class UserAdapter extends TypeAdapter<User> {
+
+    @Override
+    public void write(JsonWriter out, User user) throws IOException {
+        if (user == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("username").value(user.getUsername());
+        out.name("points").value(user.getPoints());
+        out.name("passwordHash").value(user.getPasswordHash());
+        out.name("friendsUsernames").beginArray();
+        // La lista sincronizzata va bloccata durante l'iterazione
+        List<String> friends = user.getFriendsUsernames();
+        synchronized (friends) {
+            for (String friend : friends)
+                out.value(friend);
+        }
+        out.endArray();
+        out.endObject();
+    }
+
+    @Override
+    public User read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        String username = null;
+        int points = 0;
+        String passwordHash = null;
+        List<String> friends = new ArrayList<>();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "username":
+                    username = in.nextString();
+                    break;
+                case "points":
+                    points = in.nextInt();
+                    break;
+                case "passwordHash":
+                    passwordHash = in.nextString();
+                    break;
+                case "friendsUsernames":
+                    in.beginArray();
+                    while (in.hasNext())
+                        friends.add(in.nextString());
+                    in.endArray();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return new User(username, points, passwordHash, friends);
+    }
+}
@@ -0,0 +1,246 @@
+package it.unipi.studenti.wordquizzles.server.services;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import it.unipi.studenti.wordquizzles.shared.wqp.Statistics;
+
+/**
+ * UserStatistics mantiene le statistiche di gioco aggiornate ad ogni partita
+ * conclusa, senza mai riesaminare lo storico. Ogni utente riceve un indice
+ * denso al suo primo match: i contatori sono memorizzati in array primitivi,
+ * uno piatto con INT_FIELDS interi per utente e uno con i tempi di risposta,
+ * così che la lettura delle statistiche di un utente costi O(1). Le
+ * statistiche vengono salvate dal thread di salvataggio degli account in un
+ * file binario compatto.
+ */
+class UserStatistics {
+
+    // Posizioni dei contatori interi di un utente nell'array piatto
+    private static final int MATCHES = 0;
+    private static final int WINS = 1;
+    private static final int DRAWS = 2;
+    private static final int ANSWERS = 3;
+    private static final int CORRECT = 4;
+    private static final int STREAK = 5;
+    private static final int BEST_STREAK = 6;
+
+    // Numero di contatori interi per utente
+    private static final int INT_FIELDS = 7;
+
+    // Versione del formato del file
+    private static final int FORMAT_VERSION = 1;
+
+    // File in cui vengono salvate le statistiche
+    private File file;
+
+    // Indice denso di ogni utente
+    private ConcurrentHashMap<String, Integer> ids;
+
+    // Username di ogni indice, per il salvataggio
+    private String[] usernames;
+
+    // Contatori interi, INT_FIELDS per utente
+    private int[] counters;
+
+    // Somma dei tempi di risposta in millisecondi di ogni utente
+    private long[] answerTimes;
+
+    // Numero di utenti con statistiche
+    private int size;
+
+    // Lock che separa le letture dagli aggiornamenti
+    private ReadWriteLock lock;
+
+    // Flag che indica se ci sono aggiornamenti non ancora salvati
+    private AtomicBoolean dirty;
+
+    /**
+     * Crea statistiche vuote.
+     * @param file File in cui vengono salvate le statistiche.
+     */
+    UserStatistics(File file) {
+        this.file = file;
+        ids = new ConcurrentHashMap<>();
+        usernames = new String[16];
+        counters = new int[16 * INT_FIELDS];
+        answerTimes = new long[16];
+        size = 0;
+        lock = new ReentrantReadWriteLock();
+        dirty = new AtomicBoolean(false);
+    }
+
+    /**
+     * Carica le statistiche dal file, se esiste.
+     * @param file File in cui sono salvate le statistiche.
+     * @return Statistiche caricate.
+     * @throws IOException Se il file esiste ma non può essere letto o non è ben formato.
+     */
+    static UserStatistics load(File file) throws IOException {
+        UserStatistics statistics = new UserStatistics(file);
+        if (!file.exists())
+            return statistics;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FORMAT_VERSION)
+                throw new IOException("Unknown statistics format");
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                int id = statistics.idOf(in.readUTF());
+                for (int field = 0; field < INT_FIELDS; field++)
+                    statistics.counters[id * INT_FIELDS + field] = in.readInt();
+                statistics.answerTimes[id] = in.readLong();
+            }
+        } catch (EOFException e) {
+            throw new IOException("Truncated statistics file");
+        }
+        System.out.printf("[STATS] Loaded statistics of %d users\n", statistics.size);
+        return statistics;
+    }
+
+    /**
+     * Restituisce l'indice di un utente, assegnandone uno nuovo se necessario.
+     * Va invocato tenendo il lock in scrittura (o durante il caricamento).
+     * @param username Username dell'utente.
+     * @return Indice dell'utente.
+     */
+    private int idOf(String username) {
+        Integer id = ids.get(username);
+        if (id != null)
+            return id;
+        if (size == usernames.length) {
+            usernames = Arrays.copyOf(usernames, 2 * size);
+            counters = Arrays.copyOf(counters, 2 * size * INT_FIELDS);
+            answerTimes = Arrays.copyOf(answerTimes, 2 * size);
+        }
+        usernames[size] = username;
+        ids.put(username, size);
+        return size++;
+    }
+
+    /**
+     * Aggiorna le statistiche dei giocatori di una partita conclusa. Vince chi
+     * ha il punteggio più alto se è l'unico ad averlo, altrimenti i primi
+     * pareggiano; un pareggio o una sconfitta interrompono la serie.
+     * @param record Partita conclusa.
+     */
+    void record(MatchRecord record) {
+        List<MatchRecord.Player> players = record.getPlayers();
+        int max = Integer.MIN_VALUE;
+        int leaders = 0;
+        for (MatchRecord.Player player : players) {
+            if (player.getPoints() > max) {
+                max = player.getPoints();
+                leaders = 1;
+            } else if (player.getPoints() == max)
+                leaders++;
+        }
+        lock.writeLock().lock();
+        try {
+            for (MatchRecord.Player player : players) {
+                int base = idOf(player.getUsername()) * INT_FIELDS;
+                counters[base + MATCHES]++;
+                if (player.getPoints() == max && leaders == 1) {
+                    counters[base + WINS]++;
+                    counters[base + STREAK]++;
+                    counters[base + BEST_STREAK] = Math.max(counters[base + BEST_STREAK], counters[base + STREAK]);
+                } else {
+                    if (player.getPoints() == max)
+                        counters[base + DRAWS]++;
+                    counters[base + STREAK] = 0;
+                }
+                // Il tempo di una risposta va dalla risposta precedente (o dall'inizio) a questa
+                long previous = 0;
+                for (MatchRecord.Answer answer : player.getAnswers()) {
+                    counters[base + ANSWERS]++;
+                    if (answer.isCorrect())
+                        counters[base + CORRECT]++;
+                    answerTimes[base / INT_FIELDS] += answer.getElapsed() - previous;
+                    previous = answer.getElapsed();
+                }
+            }
+            dirty.set(true);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param username Username dell'utente.
+     * @return Statistiche dell'utente, a zero se non ha ancora concluso partite.
+     */
+    Statistics get(String username) {
+        lock.readLock().lock();
+        try {
+            Integer id = ids.get(username);
+            if (id == null)
+                return new Statistics(username, 0, 0, 0, 0, 0, 0, 0, 0);
+            int base = id * INT_FIELDS;
+            return new Statistics(username, counters[base + MATCHES], counters[base + WINS], counters[base + DRAWS],
+                    counters[base + ANSWERS], counters[base + CORRECT], answerTimes[id], counters[base + STREAK],
+                    counters[base + BEST_STREAK]);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Scrive le statistiche sul file se ci sono aggiornamenti non salvati, con
+     * la stessa sequenza file temporaneo e rinomina atomica delle partizioni.
+     * @return Flag che indica se le statistiche sono salvate sul file.
+     */
+    synchronized boolean persist() {
+        if (!dirty.getAndSet(false))
+            return true;
+        File temporary = new File(file.getPath() + ".tmp");
+        try {
+            try (FileOutputStream stream = new FileOutputStream(temporary);
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+                // La copia avviene sotto il lock in lettura, la scrittura no
+                lock.readLock().lock();
+                try {
+                    out.writeInt(FORMAT_VERSION);
+                    out.writeInt(size);
+                    for (int id = 0; id < size; id++) {
+                        out.writeUTF(usernames[id]);
+                        for (int field = 0; field < INT_FIELDS; field++)
+                            out.writeInt(counters[id * INT_FIELDS + field]);
+                        out.writeLong(answerTimes[id]);
+                    }
+                } finally {
+                    lock.readLock().unlock();
+                }
+                out.flush();
+                stream.getFD().sync();
+            }
+            try {
+                Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            System.out.println("[STATS] Successifully serialized statistics");
+            return true;
+        } catch (IOException | RuntimeException e) {
+            // Anche un errore di serializzazione lascia le modifiche da salvare al prossimo giro
+            dirty.set(true);
+            System.err.printf("[STATS] Unable to serialize statistics: %s\n", e.getMessage());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package it.unipi.studenti.wordquizzles.server.services;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * UsersLoader carica il file degli account all'avvio del server. Il file
+ * viene letto in memoria e scandito una volta sola per trovare i confini
+ * delle coppie username - utente al primo livello dell'oggetto JSON: i
+ * blocchi di coppie così ottenuti vengono interpretati in parallelo con
+ * JsonReader e UserAdapter, inserendo gli utenti direttamente nella mappa
+ * senza costruire l'albero JSON.
+ */
+public class UsersLoader {
+
+    // Adapter condiviso (non ha stato)
+    private static final UserAdapter ADAPTER = new UserAdapter();
+
+    // Byte che aprono e chiudono l'oggetto in cui vengono racchiusi i blocchi
+    private static final byte[] OPEN = { '{' };
+    private static final byte[] CLOSE = { '}' };
+
+    private UsersLoader() {
+    }
+
+    /**
+     * Carica gli utenti contenuti nel file.
+     *
+     * @param file          File da caricare.
+     * @param threads       Numero massimo di thread che interpretano il file.
+     * @param minChunkBytes Dimensione minima di un blocco interpretato da un thread.
+     * @return Mappa che associa gli username agli utenti.
+     * @throws IOException Se il file non può essere letto o non è ben formato.
+     */
+    public static ConcurrentHashMap<String, User> load(File file, int threads, int minChunkBytes)
+            throws IOException {
+        long start = System.nanoTime();
+        byte[] data = Files.readAllBytes(file.toPath());
+        // Coppie di offset [inizio, fine) dei blocchi
+        List<int[]> chunks = new ArrayList<>();
+        int entries = split(data, Math.max(minChunkBytes, data.length / Math.max(threads, 1)), chunks);
+        ConcurrentHashMap<String, User> users = new ConcurrentHashMap<>(Math.max(16, entries * 4 / 3));
+        int workers = Math.min(threads, chunks.size());
+        if (workers <= 1) {
+            for (int[] chunk : chunks)
+                parse(data, chunk, users);
+        } else {
+            ExecutorService executor = Executors.newFixedThreadPool(workers);
+            try {
+                List<Future<Void>> futures = new ArrayList<>(chunks.size());
+                for (int[] chunk : chunks) {
+                    Callable<Void> task = () -> {
+                        parse(data, chunk, users);
+                        return null;
+                    };
+                    futures.add(executor.submit(task));
+                }
+                for (Future<Void> future : futures)
+                    future.get();
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause().getMessage(), e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while loading accounts");
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+        long elapsed = Math.max(1, (System.nanoTime() - start) / 1000000);
+        System.out.printf("[ACCOUNTS] Loaded %d users (%.1f MB) in %d ms with %d threads: %.0f users/s, %.1f MB/s\n",
+                users.size(), data.length / 1048576.0, elapsed, Math.max(workers, 1),
+                users.size() * 1000.0 / elapsed, data.length / 1048.576 / elapsed);
+        return users;
+    }
+
+    /**
+     * Scandisce il file e ne divide le coppie di primo livello in blocchi,
+     * tenendo conto di stringhe e sequenze di escape.
+     *
+     * @param data      Contenuto del file.
+     * @param chunkSize Dimensione oltre la quale il blocco corrente viene chiuso.
+     * @param chunks    Lista in cui aggiungere i blocchi trovati.
+     * @return Stima del numero di coppie, per dimensionare la mappa.
+     * @throws IOException Se il contenuto non è un oggetto JSON.
+     */
+    private static int split(byte[] data, int chunkSize, List<int[]> chunks) throws IOException {
+        int depth = 0;
+        boolean inString = false;
+        boolean escaped = false;
+        int chunkStart = -1;
+        int separators = 0;
+        for (int i = 0; i < data.length; i++) {
+            byte b = data[i];
+            if (inString) {
+                if (escaped)
+                    escaped = false;
+                else if (b == '\\')
+                    escaped = true;
+                else if (b == '"')
+                    inString = false;
+                continue;
+            }
+            switch (b) {
+                case '"':
+                    inString = true;
+                    break;
+                case '{':
+                case '[':
+                    if (depth == 0 && b != '{')
+                        throw new IOException("Malformed accounts file");
+                    depth++;
+                    if (depth == 1)
+                        chunkStart = i + 1;
+                    break;
+                case '}':
+                case ']':
+                    depth--;
+                    if (depth == 0) {
+                        chunks.add(new int[] { chunkStart, i });
+                        return separators + 1;
+                    }
+                    break;
+                case ',':
+                    if (depth == 1) {
+                        separators++;
+                        if (i - chunkStart >= chunkSize) {
+                            chunks.add(new int[] { chunkStart, i });
+                            chunkStart = i + 1;
+                        }
+                    }
+                    break;
+                default:
+                    // Fuori dalle stringhe sono ammessi solo spazi, numeri e letterali
+                    if (depth == 0 && (b & 0xFF) > ' ')
+                        throw new IOException("Malformed accounts file");
+            }
+        }
+        // Un file vuoto non contiene utenti, un oggetto non chiuso è troncato
+        if (depth != 0)
+            throw new IOException("Truncated accounts file");
+        return 0;
+    }
+
+    /**
+     * Interpreta un blocco di coppie username - utente racchiudendolo tra
+     * parentesi graffe, senza copiarlo.
+     *
+     * @param data  Contenuto del file.
+     * @param chunk Offset [inizio, fine) del blocco.
+     * @param users Mappa in cui inserire gli utenti.
+     * @throws IOException Se il blocco non è ben formato.
+     */
+    private static void parse(byte[] data, int[] chunk, ConcurrentHashMap<String, User> users) throws IOException {
+        SequenceInputStream stream = new SequenceInputStream(new ByteArrayInputStream(OPEN),
+                new SequenceInputStream(new ByteArrayInputStream(data, chunk[0], chunk[1] - chunk[0]),
+                        new ByteArrayInputStream(CLOSE)));
+        try (JsonReader reader = new JsonReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String username = reader.nextName();
+                User user = ADAPTER.read(reader);
+                if (user != null)
+                    users.put(username, user);
+            }
+            reader.endObject();
+        } catch (IllegalStateException | NumberFormatException | JsonParseException e) {
+            throw new IOException("Malformed accounts file: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package it.unipi.studenti.wordquizzles.server.services;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntPredicate;
+
+import it.unipi.studenti.wordquizzles.shared.Configuration;
+
+/**
+ * WordDifficulty mantiene per ogni parola il numero di risposte, quelle
+ * corrette e la somma dei tempi di risposta, in un unico array atomico
+ * indicizzato dalla posizione della parola nel file: le partite lo aggiornano
+ * senza lock. Periodicamente le parole vengono ordinate per difficoltà e
+ * divise in DIFFICULTY_BANDS fasce della stessa dimensione; le parole di una
+ * partita vengono estratte in parti uguali da ogni fascia, in O(k) sulla
+ * fotografia delle fasce più recente. Le statistiche vengono salvate in un
+ * file binario accanto al file delle parole.
+ */
+class WordDifficulty {
+
+    // Posizioni dei contatori di una parola nell'array piatto
+    private static final int ANSWERS = 0;
+    private static final int CORRECT = 1;
+    private static final int LATENCY = 2;
+
+    // Numero di contatori per parola
+    private static final int FIELDS = 3;
+
+    // Versione del formato del file
+    private static final int FORMAT_VERSION = 1;
+
+    // Estrazioni scartate per parola prima di accettare una parola da evitare
+    private static final int AVOID_ATTEMPTS = 8;
+
+    // File in cui vengono salvate le statistiche
+    private File file;
+
+    // Parole, nell'ordine del file
+    private String[] words;
+
+    // Indice di ogni parola (non viene modificata dopo la costruzione)
+    private Map<String, Integer> ids;
+
+    // Contatori, FIELDS per parola
+    private AtomicLongArray counters;
+
+    // Indici delle parole di ogni fascia, dalla più facile; sostituite in blocco ad ogni ricostruzione
+    private volatile int[][] bands;
+
+    // Flag che indica se ci sono risposte non ancora salvate
+    private AtomicBoolean dirty;
+
+    /**
+     * Crea statistiche vuote per le parole date.
+     * @param words Parole, nell'ordine del file.
+     * @param file  File in cui vengono salvate le statistiche.
+     */
+    WordDifficulty(List<String> words, File file) {
+        this.file = file;
+        this.words = words.toArray(new String[0]);
+        ids = new HashMap<>(2 * this.words.length);
+        for (int i = 0; i < this.words.length; i++)
+            ids.putIfAbsent(this.words[i], i);
+        counters = new AtomicLongArray(this.words.length * FIELDS);
+        dirty = new AtomicBoolean(false);
+        rebuild();
+    }
+
+    /**
+     * Carica le statistiche dal file, se esiste. Le parole non più presenti
+     * nel file delle parole vengono ignorate.
+     * @throws IOException Se il file esiste ma non può essere letto o non è ben formato.
+     */
+    void load() throws IOException {
+        if (!file.exists())
+            return;
+        int loaded = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FORMAT_VERSION)
+                throw new IOException("Unknown word statistics format");
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Integer id = ids.get(in.readUTF());
+                long answers = in.readLong();
+                long correct = in.readLong();
+                long latency = in.readLong();
+                if (id == null)
+                    continue;
+                counters.set(id * FIELDS + ANSWERS, answers);
+                counters.set(id * FIELDS + CORRECT, correct);
+                counters.set(id * FIELDS + LATENCY, latency);
+                loaded++;
+            }
+        } catch (EOFException e) {
+            throw new IOException("Truncated word statistics file");
+        }
+        rebuild();
+        System.out.printf("[WORDS] Loaded statistics of %d words\n", loaded);
+    }
+
+    /**
+     * @return Numero di parole del dizionario.
+     */
+    int size() {
+        return words.length;
+    }
+
+    /**
+     * @param word Parola del dizionario.
+     * @return Indice della parola, -1 se non è nel dizionario.
+     */
+    int idOf(String word) {
+        Integer id = ids.get(word);
+        return (id == null) ? -1 : id;
+    }
+
+    /**
+     * Registra una risposta. Può essere invocato da più thread senza sincronizzazione.
+     * @param word    Parola a cui si riferisce la risposta.
+     * @param correct Flag che indica se la risposta è corretta.
+     * @param millis  Tempo impiegato sulla parola in millisecondi.
+     */
+    void record(String word, boolean correct, long millis) {
+        Integer id = ids.get(word);
+        if (id == null)
+            return;
+        int base = id * FIELDS;
+        counters.incrementAndGet(base + ANSWERS);
+        if (correct)
+            counters.incrementAndGet(base + CORRECT);
+        counters.addAndGet(base + LATENCY, Math.max(millis, 0));
+        dirty.set(true);
+    }
+
+    /**
+     * Calcola la difficoltà di una parola tra 0 e 1: la frequenza di errore,
+     * con un errore e una risposta corretta fittizi così che una parola mai
+     * vista valga 0.5, pesata insieme al tempo medio di risposta rispetto a
+     * DIFFICULTY_LATENCY_CEILING.
+     * @param id Indice della parola.
+     * @return Difficoltà della parola.
+     */
+    private double difficulty(int id) {
+        int base = id * FIELDS;
+        long answers = counters.get(base + ANSWERS);
+        long correct = counters.get(base + CORRECT);
+        double errorRate = (answers - correct + 1.0) / (answers + 2.0);
+        double latency = (answers == 0) ? 0.5
+                : Math.min(1.0, counters.get(base + LATENCY) / (double) answers / Configuration.DIFFICULTY_LATENCY_CEILING);
+        double weight = Configuration.DIFFICULTY_LATENCY_WEIGHT;
+        return (1 - weight) * errorRate + weight * latency;
+    }
+
+    /**
+     * Ordina le parole per difficoltà e pubblica le nuove fasce. Le estrazioni
+     * in corso continuano ad usare le fasce precedenti.
+     */
+    void rebuild() {
+        int count = words.length;
+        double[] scores = new double[count];
+        List<Integer> order = new ArrayList<>(count);
+        for (int id = 0; id < count; id++) {
+            scores[id] = difficulty(id);
+            order.add(id);
+        }
+        order.sort(Comparator.comparingDouble(id -> scores[id]));
+        int bandCount = Math.max(1, Math.min(Configuration.DIFFICULTY_BANDS, count));
+        int[][] rebuilt = new int[bandCount][];
+        for (int band = 0; band < bandCount; band++) {
+            int from = band * count / bandCount;
+            int to = (band + 1) * count / bandCount;
+            rebuilt[band] = new int[to - from];
+            for (int i = from; i < to; i++)
+                rebuilt[band][i - from] = order.get(i);
+        }
+        bands = rebuilt;
+    }
+
+    /**
+     * Estrae parole distinte, in parti uguali da ogni fascia; le parole in
+     * più vanno a fasce scelte a caso. Il costo è lineare nel numero di parole
+     * estratte e non dipende dalla dimensione del dizionario. Le parole da
+     * evitare vengono scartate per un numero limitato di estrazioni, dopo le
+     * quali sono accettate anche loro.
+     * @param k     Numero di parole da estrarre.
+     * @param avoid Parole da evitare se possibile, per indice.
+     * @return Parole estratte, in ordine casuale.
+     */
+    List<String> sample(int k, IntPredicate avoid) {
+        int[][] current = bands;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int[] chosen = new int[Math.min(k, words.length)];
+        int size = 0;
+        int first = random.nextInt(current.length);
+        int carry = 0;
+        int attempts = AVOID_ATTEMPTS * k;
+        for (int b = 0; b < current.length; b++) {
+            int[] band = current[(first + b) % current.length];
+            // Quota della fascia più le parole che le fasce precedenti non avevano
+            int quota = k / current.length + ((b < k % current.length) ? 1 : 0) + carry;
+            int taken = Math.min(quota, band.length);
+            // Con poche parole da estrarre rispetto alla fascia i rifiuti sono rari
+            for (int picked = 0; picked < taken;) {
+                int id = band[(taken == band.length) ? picked : random.nextInt(band.length)];
+                if (contains(chosen, size, id))
+                    continue;
+                if (taken < band.length && attempts > 0 && avoid.test(id)) {
+                    attempts--;
+                    continue;
+                }
+                chosen[size++] = id;
+                picked++;
+            }
+            carry = quota - taken;
+        }
+        // Se le ultime fasce non bastavano completa con le parole non ancora estratte
+        for (int id = 0; carry > 0 && id < words.length; id++) {
+            if (!contains(chosen, size, id)) {
+                chosen[size++] = id;
+                carry--;
+            }
+        }
+        List<String> sample = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+            sample.add(words[chosen[i]]);
+        Collections.shuffle(sample, random);
+        return sample;
+    }
+
+    /**
+     * @param array Array in cui cercare.
+     * @param size  Numero di elementi validi.
+     * @param value Valore da cercare.
+     * @return Flag che indica se il valore è tra i primi size elementi.
+     */
+    private static boolean contains(int[] array, int size, int value) {
+        for (int i = 0; i < size; i++)
+            if (array[i] == value)
+                return true;
+        return false;
+    }
+
+    /**
+     * Scrive le statistiche sul file se ci sono risposte non salvate, con la
+     * stessa sequenza file temporaneo e rinomina atomica degli account.
+     * @return Flag che indica se le statistiche sono salvate sul file.
+     */
+    synchronized boolean persist() {
+        if (!dirty.getAndSet(false))
+            return true;
+        File temporary = new File(file.getPath() + ".tmp");
+        try {
+            try (FileOutputStream stream = new FileOutputStream(temporary);
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(words.length);
+                for (int id = 0; id < words.length; id++) {
+                    out.writeUTF(words[id]);
+                    for (int field = 0; field < FIELDS; field++)
+                        out.writeLong(counters.get(id * FIELDS + field));
+                }
+                out.flush();
+                stream.getFD().sync();
+            }
+            try {
+                Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            return true;
+        } catch (IOException e) {
+            dirty.set(true);
+            System.err.printf("[WORDS] Unable to serialize word statistics: %s\n", e.getMessage());
+            return false;
+        }
+    }
+}
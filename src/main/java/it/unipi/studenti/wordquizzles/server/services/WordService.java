@@ -1,6 +1,7 @@
 package it.unipi.studenti.wordquizzles.server.services;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
@@ -10,24 +11,50 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
 import com.google.gson.JsonParser;
 import com.google.gson.stream.JsonReader;
 
 import it.unipi.studenti.wordquizzles.shared.Configuration;
+import it.unipi.studenti.wordquizzles.shared.wqp.WQPException;
 
 /**
  * WordService è il singleton che si occupa di reperire le parole dal servizio
- * REST remoto.
+ * REST remoto. Le parole di ogni partita vengono scelte in base alla loro
+ * difficoltà, misurata dalle risposte delle partite precedenti, evitando
+ * quando possibile quelle che i giocatori hanno visto di recente. Se è
+ * presente il dizionario offline le traduzioni vengono lette da quello e il
+ * servizio remoto viene interrogato solo per le parole che non contiene.
  */
 public class WordService {
 
+    // Adapter con cui vengono lette le partite dello storico (non ha stato)
+    private static final MatchRecordAdapter ADAPTER = new MatchRecordAdapter();
+
     // Lista delle parole disponibili
     private List<String> words;
 
+    // Statistiche delle risposte e fasce di difficoltà delle parole
+    private WordDifficulty difficulty;
+
+    // Dizionario offline mappato in memoria, null se il file non è presente
+    private Dictionary dictionary;
+
+    // Thread che ricalcola le fasce e salva le statistiche
+    private ScheduledExecutorService scheduler;
+
+    // Parole viste di recente dagli utenti online
+    private ConcurrentHashMap<String, RecentWords> recent;
+
     // Unica istanza del servizio presente nel sistema
-    private static WordService wordService;
+    private static volatile WordService wordService;
 
     /**
      * Istanzia il servizio leggendo le parole dal file.
@@ -35,7 +62,7 @@ public class WordService {
      * @throws IOException Se non è possibile leggere le parole dal file.
      */
     private WordService() throws IOException {
-        words = Collections.synchronizedList(new ArrayList<>());
+        words = new ArrayList<>();
         try (BufferedReader reader = new BufferedReader(new FileReader(Configuration.WORDS_FILENAME))) {
             String word = reader.readLine();
             while (word != null) {
@@ -44,52 +71,180 @@ public class WordService {
             }
             System.out.printf("[WORDS] Successifully read from file the available words: %s\n", words);
         }
+        File dictionaryFile = new File(Configuration.DICTIONARY_FILENAME);
+        if (dictionaryFile.exists()) {
+            dictionary = new Dictionary(dictionaryFile);
+            System.out.printf("[WORDS] Mapped offline dictionary with %d words\n", dictionary.size());
+        }
+        difficulty = new WordDifficulty(words, new File(Configuration.WORDS_FILENAME + Configuration.WORD_STATS_SUFFIX));
+        difficulty.load();
+        recent = new ConcurrentHashMap<>();
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "word-difficulty");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            difficulty.rebuild();
+            difficulty.persist();
+        }, Configuration.DIFFICULTY_REBUILD_INTERVAL, Configuration.DIFFICULTY_REBUILD_INTERVAL, TimeUnit.MILLISECONDS);
+        // Alla chiusura della JVM le statistiche non ancora salvate vengono scritte
+        Runtime.getRuntime().addShutdownHook(new Thread(difficulty::persist, "word-stats-flush"));
     }
 
     /**
-     * Traduce una parola interrogando il servizio remoto.
+     * @return Unica istanza del servizio, creata alla prima invocazione.
+     * @throws IOException Se non è possibile leggere le parole o le statistiche dal file.
+     */
+    private static synchronized WordService getService() throws IOException {
+        if (wordService == null)
+            wordService = new WordService();
+        return wordService;
+    }
+
+    /**
+     * Traduce una parola interrogando il servizio remoto. Oltre alla
+     * traduzione principale restituisce le traduzioni alternative fornite dal
+     * servizio con affidabilità almeno TRANSLATION_MIN_MATCH.
      * 
      * @param word Parola da tradurre.
-     * @return Traduzione della parola.
+     * @return Traduzioni della parola, dalla principale.
      * @throws IOException Se non è possibile leggere dall'URL.
      */
-    private static String translate(String word) throws IOException {
+    static List<String> translate(String word) throws IOException {
         // URL della risorsa desiderata
         URL url = new URL(Configuration.BASE_URL + word);
-        // Parola da tradurre
-        String translation;
+        // Traduzioni della parola
+        List<String> translations = new ArrayList<>();
         // Legge dall'URL ed elabora il JSON
         try (JsonReader reader = new JsonReader(new BufferedReader(new InputStreamReader(url.openStream())))) {
             JsonObject jsonObject = JsonParser.parseReader(reader).getAsJsonObject();
             // Prende il campo desiderato
-            translation = jsonObject.get("responseData").getAsJsonObject().get("translatedText").getAsString();
+            translations.add(jsonObject.get("responseData").getAsJsonObject().get("translatedText").getAsString());
+            // Il servizio locale di test non restituisce alternative
+            JsonElement matches = jsonObject.get("matches");
+            if (matches != null && matches.isJsonArray()) {
+                for (JsonElement element : matches.getAsJsonArray()) {
+                    JsonObject match = element.getAsJsonObject();
+                    JsonElement translation = match.get("translation");
+                    JsonElement quality = match.get("match");
+                    if (translation != null && quality != null && quality.isJsonPrimitive()
+                            && quality.getAsDouble() >= Configuration.TRANSLATION_MIN_MATCH
+                            && !translations.contains(translation.getAsString()))
+                        translations.add(translation.getAsString());
+                }
+            }
+        } catch (IllegalStateException | UnsupportedOperationException | NumberFormatException e) {
+            throw new IOException("Malformed translation response");
         }
-        System.out.printf("[WORDS] %s translated into %s\n", word, translation);
-        return translation;
+        System.out.printf("[WORDS] %s translated into %s\n", word, translations);
+        return translations;
     }
 
     /**
-     * Estrae casualmente un numero prefissato di parole dal file, richiede al
-     * servizio remoto le traduzioni e le restituisce all'utente.
+     * Estrae un numero prefissato di parole dal file, in parti uguali da ogni
+     * fascia di difficoltà, richiede al servizio remoto le traduzioni e le
+     * restituisce all'utente. Più partite possono estrarre le parole
+     * contemporaneamente.
      * 
-     * @return Mappa che associa ad ogni parola la traduzione.
+     * @return Mappa che associa ad ogni parola le traduzioni accettate.
      * @throws IOException Se non è possibile leggere le parole o le traduzioni.
      */
-    public static synchronized Map<String, String> getWords() throws IOException {
-        // Se questa è la prima invocazione del metodo inizializza la classe
-        if (wordService == null)
-            wordService = new WordService();
-        // Randomizza l'array di parole per estrarre le parole necessarie al match in ordine casuale
-        Collections.shuffle(wordService.words);
+    public static Map<String, AcceptedAnswers> getWords() throws IOException {
+        return getWords(Collections.emptyList());
+    }
+
+    /**
+     * Estrae le parole di una partita come getWords(), evitando se possibile
+     * quelle che i giocatori hanno visto di recente, e le registra come viste.
+     * 
+     * @param players Username dei giocatori della partita.
+     * @return Mappa che associa ad ogni parola le traduzioni accettate.
+     * @throws IOException Se non è possibile leggere le parole o le traduzioni.
+     */
+    public static Map<String, AcceptedAnswers> getWords(List<String> players) throws IOException {
+        WordService service = getService();
+        RecentWords[] seen = new RecentWords[players.size()];
+        for (int i = 0; i < seen.length; i++)
+            seen[i] = service.getRecentWords(players.get(i));
         // Estrae il sottoinsieme necessario al match
-        List<String> matchWords = wordService.words.subList(0, Configuration.WORDS_PER_MATCH);
+        List<String> matchWords = service.difficulty.sample(Configuration.WORDS_PER_MATCH, id -> {
+            for (RecentWords recentWords : seen)
+                if (recentWords.contains(id))
+                    return true;
+            return false;
+        });
+        for (String word : matchWords) {
+            int id = service.difficulty.idOf(word);
+            for (RecentWords recentWords : seen)
+                recentWords.add(id);
+        }
         // Mappa delle traduzioni
-        Map<String, String> translations = new HashMap<>(Configuration.WORDS_PER_MATCH);
-        // Per ogni parola scarica la traduzione
+        Map<String, AcceptedAnswers> translations = new HashMap<>(Configuration.WORDS_PER_MATCH);
+        // Per ogni parola cerca le traduzioni nel dizionario, altrimenti le scarica
         for (String word : matchWords) {
-            String translation = translate(word);
-            translations.put(word, translation);
+            List<String> wordTranslations = (service.dictionary != null) ? service.dictionary.translations(word) : null;
+            if (wordTranslations == null)
+                wordTranslations = translate(word);
+            translations.put(word, new AcceptedAnswers(wordTranslations));
         }
         return translations;
     }
+
+    /**
+     * Restituisce le parole viste di recente da un utente. La prima volta
+     * dopo il login vengono ricostruite dalle sue ultime partite nello storico.
+     * 
+     * @param username Username dell'utente.
+     * @return Parole viste di recente dall'utente.
+     */
+    private RecentWords getRecentWords(String username) {
+        RecentWords recentWords = recent.get(username);
+        if (recentWords != null)
+            return recentWords;
+        recentWords = new RecentWords(difficulty.size());
+        try {
+            int count = Math.min(Configuration.RECENT_WORDS_HISTORY_MATCHES, Configuration.HISTORY_MAX_PAGE_SIZE);
+            List<String> matches = HistoryService.getInstance().getHistory(username, count, 0);
+            // Le partite sono dalla più recente: vengono aggiunte dalla più vecchia
+            for (int i = matches.size() - 1; i >= 0; i--) {
+                MatchRecord record = ADAPTER.fromJson(matches.get(i));
+                for (String word : record.getWords()) {
+                    int id = difficulty.idOf(word);
+                    if (id != -1)
+                        recentWords.add(id);
+                }
+            }
+        } catch (IOException | WQPException | JsonParseException e) {
+            System.err.printf("[WORDS] Unable to rebuild recent words of %s: %s\n", username, e.getMessage());
+        }
+        RecentWords previous = recent.putIfAbsent(username, recentWords);
+        return (previous != null) ? previous : recentWords;
+    }
+
+    /**
+     * Dimentica le parole viste di recente da un utente che è andato offline.
+     * 
+     * @param username Username dell'utente.
+     */
+    public static void forgetUser(String username) {
+        WordService service = wordService;
+        if (service != null)
+            service.recent.remove(username);
+    }
+
+    /**
+     * Registra la risposta di un utente a una parola. Viene invocato dalle
+     * partite senza sincronizzazione; se il servizio non è ancora stato
+     * inizializzato la risposta viene ignorata.
+     * 
+     * @param word      Parola a cui si riferisce la risposta.
+     * @param correct   Flag che indica se la traduzione è corretta.
+     * @param thinkTime Tempo dedicato dall'utente alla parola in nanosecondi.
+     */
+    public static void recordAnswer(String word, boolean correct, long thinkTime) {
+        WordService service = wordService;
+        if (service != null)
+            service.difficulty.record(word, correct, TimeUnit.NANOSECONDS.toMillis(thinkTime));
+    }
 }
\ No newline at end of file
@@ -0,0 +1,526 @@
+package it.unipi.studenti.wordquizzles.server.tournament;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import it.unipi.studenti.wordquizzles.shared.wqp.WQPException;
+
+/**
+ * Tournament è lo stato di un torneo: iscritti, formato e turni giocati. Un
+ * torneo a eliminazione diretta prosegue finché resta un solo giocatore; un
+ * torneo svizzero dura un numero fisso di turni in cui si affrontano
+ * giocatori con lo stesso punteggio di torneo. I metodi che modificano lo
+ * stato sono sincronizzati sul torneo, perché gli esiti arrivano dai thread
+ * delle partite mentre le iscrizioni arrivano dai thread dei comandi.
+ */
+public class Tournament {
+
+    /**
+     * Formato del torneo.
+     */
+    public enum Format {
+        ELIMINATION, SWISS
+    }
+
+    /**
+     * Fase del torneo.
+     */
+    public enum Status {
+        REGISTERING, RUNNING, FINISHED
+    }
+
+    /**
+     * Pairing è un incontro di un turno: due giocatori, oppure uno solo che
+     * passa il turno senza giocare.
+     */
+    public static class Pairing {
+
+        // Giocatori dell'incontro, uno solo per un turno di riposo
+        private List<String> players;
+
+        // Flag che indica se l'incontro ha un esito
+        private boolean resolved;
+
+        // Vincitore dell'incontro, null in caso di pareggio o se nessuno si è presentato
+        private String winner;
+
+        // Flag che indica se l'incontro è finito in pareggio (torneo svizzero)
+        private boolean draw;
+
+        /**
+         * Crea un incontro.
+         * @param players  Giocatori dell'incontro, uno solo per un turno di riposo.
+         * @param resolved Flag che indica se l'incontro ha un esito.
+         * @param winner   Vincitore dell'incontro, null se non c'è.
+         * @param draw     Flag che indica se l'incontro è finito in pareggio.
+         */
+        Pairing(List<String> players, boolean resolved, String winner, boolean draw) {
+            this.players = players;
+            this.resolved = resolved;
+            this.winner = winner;
+            this.draw = draw;
+        }
+
+        /**
+         * @return Giocatori dell'incontro, uno solo per un turno di riposo.
+         */
+        public List<String> getPlayers() {
+            return players;
+        }
+
+        /**
+         * @return Flag che indica se l'incontro è un turno di riposo.
+         */
+        public boolean isBye() {
+            return players.size() == 1;
+        }
+
+        /**
+         * @return Flag che indica se l'incontro ha un esito.
+         */
+        public boolean isResolved() {
+            return resolved;
+        }
+
+        /**
+         * @return Vincitore dell'incontro, null in caso di pareggio o se nessuno si è presentato.
+         */
+        public String getWinner() {
+            return winner;
+        }
+
+        /**
+         * @return Flag che indica se l'incontro è finito in pareggio.
+         */
+        public boolean isDraw() {
+            return draw;
+        }
+    }
+
+    // Punti di torneo per una vittoria o un turno di riposo (torneo svizzero)
+    static final int WIN_SCORE = 2;
+
+    // Punti di torneo per un pareggio (torneo svizzero)
+    static final int DRAW_SCORE = 1;
+
+    // Nome del torneo, usato anche come nome del file
+    private String name;
+
+    // Username di chi ha creato il torneo e può avviarlo
+    private String creator;
+
+    // Formato del torneo
+    private Format format;
+
+    // Numero di turni di un torneo svizzero, 0 per l'eliminazione diretta
+    private int totalRounds;
+
+    // Fase del torneo
+    private Status status;
+
+    // Iscritti, in ordine di iscrizione e dall'avvio in ordine di testa di serie
+    private List<String> players;
+
+    // Turni giocati o in corso, dal primo
+    private List<List<Pairing>> rounds;
+
+    // Vincitore del torneo, null finché non è concluso (o se nessuno è rimasto)
+    private String champion;
+
+    /**
+     * Crea un torneo nello stato dato, usato anche nel caricamento dal file.
+     * @param name        Nome del torneo.
+     * @param creator     Username di chi ha creato il torneo.
+     * @param format      Formato del torneo.
+     * @param totalRounds Numero di turni di un torneo svizzero, 0 per l'eliminazione diretta.
+     * @param status      Fase del torneo.
+     * @param players     Iscritti, in ordine di iscrizione o di testa di serie.
+     * @param rounds      Turni giocati o in corso.
+     * @param champion    Vincitore del torneo, null se non c'è.
+     */
+    Tournament(String name, String creator, Format format, int totalRounds, Status status, List<String> players,
+            List<List<Pairing>> rounds, String champion) {
+        this.name = name;
+        this.creator = creator;
+        this.format = format;
+        this.totalRounds = totalRounds;
+        this.status = status;
+        this.players = players;
+        this.rounds = rounds;
+        this.champion = champion;
+    }
+
+    /**
+     * @return Nome del torneo.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return Username di chi ha creato il torneo.
+     */
+    public String getCreator() {
+        return creator;
+    }
+
+    /**
+     * @return Formato del torneo.
+     */
+    public Format getFormat() {
+        return format;
+    }
+
+    /**
+     * @return Numero di turni di un torneo svizzero, 0 per l'eliminazione diretta.
+     */
+    public int getTotalRounds() {
+        return totalRounds;
+    }
+
+    /**
+     * @return Fase del torneo.
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return Iscritti, in ordine di iscrizione e dall'avvio in ordine di testa di serie.
+     */
+    public List<String> getPlayers() {
+        return players;
+    }
+
+    /**
+     * @return Turni giocati o in corso, dal primo.
+     */
+    public List<List<Pairing>> getRounds() {
+        return rounds;
+    }
+
+    /**
+     * @return Vincitore del torneo, null se non è concluso o nessuno è rimasto.
+     */
+    public String getChampion() {
+        return champion;
+    }
+
+    /**
+     * Iscrive un giocatore.
+     * @param username   Username del giocatore.
+     * @param maxPlayers Numero massimo di iscritti.
+     * @return Numero di iscritti.
+     * @throws WQPException Se le iscrizioni sono chiuse, il torneo è pieno o il giocatore è già iscritto.
+     */
+    synchronized int join(String username, int maxPlayers) throws WQPException {
+        if (status != Status.REGISTERING)
+            throw new WQPException("Registrations are closed");
+        if (players.contains(username))
+            throw new WQPException("Already registered");
+        if (players.size() >= maxPlayers)
+            throw new WQPException("Tournament is full");
+        players.add(username);
+        return players.size();
+    }
+
+    /**
+     * Chiude le iscrizioni e prepara il primo turno. Gli iscritti sono
+     * ordinati per punteggio: nell'eliminazione diretta vengono disposti nel
+     * tabellone così che i più forti si incontrino il più tardi possibile,
+     * nello svizzero la metà più forte affronta quella più debole.
+     * @param username Username di chi avvia il torneo.
+     * @param points   Punteggio di ogni iscritto.
+     * @throws WQPException Se l'utente non è il creatore, il torneo è già avviato o ci sono meno di due iscritti.
+     */
+    synchronized void start(String username, Map<String, Integer> points) throws WQPException {
+        if (!username.equals(creator))
+            throw new WQPException("Only the creator can start the tournament");
+        if (status != Status.REGISTERING)
+            throw new WQPException("Tournament already started");
+        if (players.size() < 2)
+            throw new WQPException("Not enough players");
+        if (format == Format.SWISS && totalRounds == 0)
+            totalRounds = 32 - Integer.numberOfLeadingZeros(players.size() - 1);
+        players.sort(Comparator.comparingInt((String player) -> points.getOrDefault(player, 0)).reversed());
+        status = Status.RUNNING;
+        if (format == Format.SWISS) {
+            rounds.add(pairHalves());
+            return;
+        }
+        // Tabellone completo alla potenza di due: le teste di serie mancanti sono turni di riposo dei più forti
+        int size = Integer.highestOneBit(players.size() - 1) << 1;
+        List<Pairing> round = new ArrayList<>(size / 2);
+        int[] order = bracket(size);
+        for (int i = 0; i < size; i += 2) {
+            int seed = order[i];
+            int opponent = order[i + 1];
+            if (opponent >= players.size())
+                round.add(bye(players.get(seed)));
+            else
+                round.add(new Pairing(new ArrayList<>(Arrays.asList(players.get(seed), players.get(opponent))), false,
+                        null, false));
+        }
+        rounds.add(round);
+    }
+
+    /**
+     * Prepara il primo turno svizzero: il primo della metà più forte affronta
+     * il primo di quella più debole, e così via. Se gli iscritti sono dispari
+     * riposa l'ultimo, così che ci sia un solo turno di riposo.
+     * @return Incontri del turno.
+     */
+    private List<Pairing> pairHalves() {
+        List<String> field = new ArrayList<>(players);
+        List<Pairing> round = new ArrayList<>((field.size() + 1) / 2);
+        if (field.size() % 2 == 1)
+            round.add(bye(field.remove(field.size() - 1)));
+        int half = field.size() / 2;
+        for (int i = 0; i < half; i++)
+            round.add(new Pairing(new ArrayList<>(Arrays.asList(field.get(i), field.get(half + i))), false, null,
+                    false));
+        return round;
+    }
+
+    /**
+     * Costruisce l'ordine standard del tabellone: ogni testa di serie del
+     * tabellone di metà dimensione viene affiancata alla sua complementare
+     * (1-8, 4-5, 2-7, 3-6 per otto giocatori), così che le due teste di serie
+     * più alte possano incontrarsi solo in finale.
+     * @param size Dimensione del tabellone, potenza di due.
+     * @return Teste di serie, a partire da 0, nell'ordine del tabellone.
+     */
+    private static int[] bracket(int size) {
+        int[] order = { 0 };
+        while (order.length < size) {
+            int[] doubled = new int[2 * order.length];
+            for (int i = 0; i < order.length; i++) {
+                doubled[2 * i] = order[i];
+                doubled[2 * i + 1] = doubled.length - 1 - order[i];
+            }
+            order = doubled;
+        }
+        return order;
+    }
+
+    /**
+     * @return Incontri del turno in corso, vuota se il torneo non è in corso.
+     */
+    synchronized List<Pairing> currentRound() {
+        if (status != Status.RUNNING || rounds.isEmpty())
+            return Collections.emptyList();
+        return new ArrayList<>(rounds.get(rounds.size() - 1));
+    }
+
+    /**
+     * @return Numero del turno in corso, dal primo.
+     */
+    synchronized int getRoundNumber() {
+        return rounds.size();
+    }
+
+    /**
+     * Registra l'esito di un incontro del turno in corso. Un giocatore assente
+     * perde; tra i presenti vince chi ha più punti. A parità vince la testa di
+     * serie nell'eliminazione diretta, mentre nel torneo svizzero è un pareggio.
+     * @param pairing Incontro del turno in corso.
+     * @param points  Punti dei giocatori presenti, per username.
+     * @return Flag che indica se tutti gli incontri del turno hanno un esito.
+     */
+    synchronized boolean resolve(Pairing pairing, Map<String, Integer> points) {
+        if (pairing.resolved)
+            return isRoundOver();
+        String winner = null;
+        int max = Integer.MIN_VALUE;
+        boolean tie = false;
+        for (String player : pairing.players) {
+            Integer score = points.get(player);
+            if (score == null)
+                continue;
+            if (score > max) {
+                max = score;
+                winner = player;
+                tie = false;
+            } else if (score == max)
+                tie = true;
+        }
+        if (tie && format == Format.SWISS) {
+            winner = null;
+            pairing.draw = true;
+        }
+        pairing.resolved = true;
+        pairing.winner = winner;
+        return isRoundOver();
+    }
+
+    /**
+     * @return Flag che indica se tutti gli incontri del turno in corso hanno un esito.
+     */
+    private boolean isRoundOver() {
+        for (Pairing pairing : rounds.get(rounds.size() - 1))
+            if (!pairing.resolved)
+                return false;
+        return true;
+    }
+
+    /**
+     * Prepara il turno successivo a quello concluso, oppure conclude il torneo.
+     * @return Flag che indica se è stato preparato un nuovo turno.
+     */
+    synchronized boolean advance() {
+        if (status != Status.RUNNING || !isRoundOver())
+            return false;
+        if (format == Format.ELIMINATION) {
+            // Passano i vincitori, nell'ordine del tabellone
+            List<String> alive = new ArrayList<>();
+            for (Pairing pairing : rounds.get(rounds.size() - 1))
+                if (pairing.winner != null)
+                    alive.add(pairing.winner);
+            if (alive.size() <= 1) {
+                finish(alive.isEmpty() ? null : alive.get(0));
+                return false;
+            }
+            rounds.add(pairAdjacent(alive));
+            return true;
+        }
+        Map<String, Integer> scores = getScores();
+        if (rounds.size() >= totalRounds) {
+            String best = null;
+            for (String player : standings(scores))
+                if (best == null || scores.get(player) > scores.get(best))
+                    best = player;
+            finish(best);
+            return false;
+        }
+        rounds.add(pairSwiss(scores));
+        return true;
+    }
+
+    /**
+     * Conclude il torneo.
+     * @param winner Vincitore, null se non c'è.
+     */
+    private void finish(String winner) {
+        status = Status.FINISHED;
+        champion = winner;
+        System.out.printf("[TOURNAMENT] %s finished, winner: %s\n", name, winner);
+    }
+
+    /**
+     * Accoppia i giocatori a due a due nell'ordine dato; se sono dispari
+     * (perché in un incontro non si è presentato nessuno) riposa la testa di
+     * serie più alta.
+     * @param order Giocatori in ordine di tabellone.
+     * @return Incontri del turno.
+     */
+    private List<Pairing> pairAdjacent(List<String> order) {
+        List<Pairing> round = new ArrayList<>((order.size() + 1) / 2);
+        List<String> paired = new ArrayList<>(order);
+        String resting = null;
+        if (paired.size() % 2 == 1) {
+            // Gli iscritti sono ordinati per testa di serie dall'avvio del torneo
+            resting = Collections.min(paired, Comparator.comparingInt(players::indexOf));
+            paired.remove(resting);
+        }
+        for (int i = 0; i + 1 < paired.size(); i += 2)
+            round.add(new Pairing(new ArrayList<>(paired.subList(i, i + 2)), false, null, false));
+        // Il turno di riposo resta nella posizione del giocatore nel tabellone
+        if (resting != null)
+            round.add(order.indexOf(resting) / 2, bye(resting));
+        return round;
+    }
+
+    /**
+     * @param player Giocatore che riposa.
+     * @return Turno di riposo, vinto dal giocatore.
+     */
+    private static Pairing bye(String player) {
+        return new Pairing(Collections.singletonList(player), true, player, false);
+    }
+
+    /**
+     * @return Punti di torneo di ogni iscritto, per il torneo svizzero.
+     */
+    synchronized Map<String, Integer> getScores() {
+        Map<String, Integer> scores = new HashMap<>();
+        for (String player : players)
+            scores.put(player, 0);
+        for (List<Pairing> round : rounds)
+            for (Pairing pairing : round) {
+                if (!pairing.resolved)
+                    continue;
+                if (pairing.winner != null)
+                    scores.merge(pairing.winner, WIN_SCORE, Integer::sum);
+                else if (pairing.draw)
+                    for (String player : pairing.players)
+                        scores.merge(player, DRAW_SCORE, Integer::sum);
+            }
+        return scores;
+    }
+
+    /**
+     * @param scores Punti di torneo di ogni iscritto.
+     * @return Iscritti dal punteggio di torneo più alto, a parità nell'ordine di testa di serie.
+     */
+    private List<String> standings(Map<String, Integer> scores) {
+        List<String> standings = new ArrayList<>(players);
+        standings.sort(Comparator.comparingInt((String player) -> scores.get(player)).reversed());
+        return standings;
+    }
+
+    /**
+     * Prepara un turno svizzero: ogni giocatore, dal primo in classifica,
+     * affronta il primo che lo segue e che non ha ancora incontrato (o il primo
+     * libero se li ha incontrati tutti). Se i giocatori sono dispari riposa
+     * l'ultimo in classifica che non ha ancora riposato.
+     * @param scores Punti di torneo di ogni iscritto.
+     * @return Incontri del turno.
+     */
+    private List<Pairing> pairSwiss(Map<String, Integer> scores) {
+        List<String> standings = standings(scores);
+        // Avversari già incontrati e giocatori che hanno già riposato
+        Map<String, Set<String>> met = new HashMap<>();
+        Set<String> rested = new HashSet<>();
+        for (List<Pairing> round : rounds)
+            for (Pairing pairing : round) {
+                if (pairing.isBye()) {
+                    rested.add(pairing.players.get(0));
+                    continue;
+                }
+                met.computeIfAbsent(pairing.players.get(0), player -> new HashSet<>()).add(pairing.players.get(1));
+                met.computeIfAbsent(pairing.players.get(1), player -> new HashSet<>()).add(pairing.players.get(0));
+            }
+        List<Pairing> round = new ArrayList<>((standings.size() + 1) / 2);
+        if (standings.size() % 2 == 1) {
+            int resting = standings.size() - 1;
+            for (int i = standings.size() - 1; i >= 0; i--)
+                if (!rested.contains(standings.get(i))) {
+                    resting = i;
+                    break;
+                }
+            round.add(bye(standings.remove(resting)));
+        }
+        while (!standings.isEmpty()) {
+            String player = standings.remove(0);
+            Set<String> opponents = met.getOrDefault(player, Collections.emptySet());
+            int chosen = 0;
+            for (int i = 0; i < standings.size(); i++)
+                if (!opponents.contains(standings.get(i))) {
+                    chosen = i;
+                    break;
+                }
+            List<String> pair = new ArrayList<>(2);
+            pair.add(player);
+            pair.add(standings.remove(chosen));
+            round.add(new Pairing(pair, false, null, false));
+        }
+        return round;
+    }
+}
@@ -0,0 +1,175 @@
+package it.unipi.studenti.wordquizzles.server.tournament;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * TournamentAdapter serializza un torneo leggendo e scrivendo direttamente i
+ * token JSON. Lo stesso formato viene usato per il file del torneo e per la
+ * risposta a TOURNAMENT INFO.
+ */
+public class TournamentAdapter extends TypeAdapter<Tournament> {
+
+    // Adapter condiviso (non ha stato)
+    public static final TournamentAdapter INSTANCE = new TournamentAdapter();
+
+    @Override
+    public void write(JsonWriter out, Tournament tournament) throws IOException {
+        if (tournament == null) {
+            out.nullValue();
+            return;
+        }
+        // Gli esiti arrivano dai thread delle partite mentre il torneo viene scritto
+        synchronized (tournament) {
+            out.beginObject();
+            out.name("name").value(tournament.getName());
+            out.name("creator").value(tournament.getCreator());
+            out.name("format").value(tournament.getFormat().name());
+            out.name("totalRounds").value(tournament.getTotalRounds());
+            out.name("status").value(tournament.getStatus().name());
+            out.name("players").beginArray();
+            for (String player : tournament.getPlayers())
+                out.value(player);
+            out.endArray();
+            out.name("rounds").beginArray();
+            for (List<Tournament.Pairing> round : tournament.getRounds()) {
+                out.beginArray();
+                for (Tournament.Pairing pairing : round) {
+                    out.beginObject();
+                    out.name("players").beginArray();
+                    for (String player : pairing.getPlayers())
+                        out.value(player);
+                    out.endArray();
+                    out.name("resolved").value(pairing.isResolved());
+                    if (pairing.getWinner() != null)
+                        out.name("winner").value(pairing.getWinner());
+                    if (pairing.isDraw())
+                        out.name("draw").value(true);
+                    out.endObject();
+                }
+                out.endArray();
+            }
+            out.endArray();
+            if (tournament.getChampion() != null)
+                out.name("champion").value(tournament.getChampion());
+            out.endObject();
+        }
+    }
+
+    @Override
+    public Tournament read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        String name = null;
+        String creator = null;
+        Tournament.Format format = Tournament.Format.ELIMINATION;
+        int totalRounds = 0;
+        Tournament.Status status = Tournament.Status.REGISTERING;
+        List<String> players = new ArrayList<>();
+        List<List<Tournament.Pairing>> rounds = new ArrayList<>();
+        String champion = null;
+        try {
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "name":
+                        name = in.nextString();
+                        break;
+                    case "creator":
+                        creator = in.nextString();
+                        break;
+                    case "format":
+                        format = Tournament.Format.valueOf(in.nextString());
+                        break;
+                    case "totalRounds":
+                        totalRounds = in.nextInt();
+                        break;
+                    case "status":
+                        status = Tournament.Status.valueOf(in.nextString());
+                        break;
+                    case "players":
+                        players = readStrings(in);
+                        break;
+                    case "rounds":
+                        in.beginArray();
+                        while (in.hasNext())
+                            rounds.add(readRound(in));
+                        in.endArray();
+                        break;
+                    case "champion":
+                        champion = in.nextString();
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Unknown tournament format or status");
+        }
+        if (name == null || creator == null)
+            throw new IOException("Malformed tournament");
+        return new Tournament(name, creator, format, totalRounds, status, players, rounds, champion);
+    }
+
+    /**
+     * @param in Reader posizionato su un array di stringhe.
+     * @return Stringhe dell'array.
+     * @throws IOException Se l'array non è ben formato.
+     */
+    private static List<String> readStrings(JsonReader in) throws IOException {
+        List<String> strings = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext())
+            strings.add(in.nextString());
+        in.endArray();
+        return strings;
+    }
+
+    /**
+     * @param in Reader posizionato su un turno.
+     * @return Incontri del turno.
+     * @throws IOException Se il turno non è ben formato.
+     */
+    private static List<Tournament.Pairing> readRound(JsonReader in) throws IOException {
+        List<Tournament.Pairing> round = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            List<String> players = new ArrayList<>(2);
+            boolean resolved = false;
+            String winner = null;
+            boolean draw = false;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "players":
+                        players = readStrings(in);
+                        break;
+                    case "resolved":
+                        resolved = in.nextBoolean();
+                        break;
+                    case "winner":
+                        winner = in.nextString();
+                        break;
+                    case "draw":
+                        draw = in.nextBoolean();
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            round.add(new Tournament.Pairing(players, resolved, winner, draw));
+        }
+        in.endArray();
+        return round;
+    }
+}
@@ -0,0 +1,430 @@
+package it.unipi.studenti.wordquizzles.server.tournament;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import it.unipi.studenti.wordquizzles.server.challenge.ChallengeServer;
+import it.unipi.studenti.wordquizzles.server.services.AcceptedAnswers;
+import it.unipi.studenti.wordquizzles.server.services.AccountService;
+import it.unipi.studenti.wordquizzles.server.services.WordService;
+import it.unipi.studenti.wordquizzles.server.wqp.Connection;
+import it.unipi.studenti.wordquizzles.server.wqp.WriteInformations;
+import it.unipi.studenti.wordquizzles.shared.Configuration;
+import it.unipi.studenti.wordquizzles.shared.StaticUtilities;
+import it.unipi.studenti.wordquizzles.shared.wqp.WQPException;
+
+/**
+ * TournamentService è il singleton che gestisce i tornei: iscrizioni, avvio
+ * dei turni e salvataggio del tabellone. Un unico thread prepara i turni: le
+ * traduzioni vengono reperite una sola volta per turno e condivise da tutte
+ * le partite, che vengono avviate insieme sui MatchLoop già esistenti, così
+ * che l'inizio di un turno con centinaia di giocatori non produca né una
+ * raffica di richieste al servizio di traduzione né la creazione di thread.
+ * Ogni torneo viene salvato in un proprio file con la stessa sequenza file
+ * temporaneo e rinomina atomica degli account; al riavvio i tornei in corso
+ * rigiocano gli incontri del turno rimasti senza esito.
+ */
+public class TournamentService {
+
+    // Cartella in cui vengono salvati i tornei
+    private File directory;
+
+    // Tornei per nome
+    private ConcurrentHashMap<String, Tournament> tournaments;
+
+    // Tornei con modifiche non ancora salvate
+    private Set<Tournament> dirty;
+
+    // Thread che prepara i turni e salva i tornei
+    private ScheduledExecutorService scheduler;
+
+    // Gestore degli account
+    private AccountService accountService;
+
+    // Unica istanza del servizio presente nel sistema
+    private static TournamentService instance;
+
+    /**
+     * Crea il servizio caricando i tornei salvati e riprendendo quelli in corso.
+     * @throws IOException Se non è possibile leggere la cartella o un torneo.
+     */
+    private TournamentService() throws IOException {
+        directory = new File(Configuration.TOURNAMENTS_DIRECTORY);
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Unable to create " + directory.getPath());
+        tournaments = new ConcurrentHashMap<>();
+        dirty = ConcurrentHashMap.newKeySet();
+        accountService = AccountService.getInstance();
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "tournament-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        load();
+        scheduler.scheduleWithFixedDelay(this::persistAll, Configuration.PERSIST_INTERVAL,
+                Configuration.PERSIST_INTERVAL, TimeUnit.MILLISECONDS);
+        for (Tournament tournament : tournaments.values())
+            if (tournament.getStatus() == Tournament.Status.RUNNING)
+                scheduleRound(tournament);
+        // Alla chiusura della JVM i tornei modificati vengono scritti
+        Runtime.getRuntime().addShutdownHook(new Thread(this::persistAll, "tournament-flush"));
+    }
+
+    /**
+     * Crea l'unica istanza del servizio. Il server la invoca prima di accettare
+     * connessioni, così che i tornei in corso riprendano subito.
+     * @throws IOException Se non è possibile leggere i tornei salvati.
+     */
+    public static synchronized void initialize() throws IOException {
+        if (instance == null)
+            instance = new TournamentService();
+    }
+
+    /**
+     * @return Unica istanza del servizio.
+     * @throws IOException Se il servizio non era inizializzato e non è possibile leggere i tornei.
+     */
+    public static synchronized TournamentService getInstance() throws IOException {
+        initialize();
+        return instance;
+    }
+
+    /**
+     * Carica i tornei salvati nella cartella.
+     * @throws IOException Se un file non può essere letto o non è ben formato.
+     */
+    private void load() throws IOException {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(".json"));
+        if (files == null)
+            throw new IOException("Unable to list " + directory.getPath());
+        for (File file : files) {
+            try (JsonReader reader = new JsonReader(new BufferedReader(
+                    new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)))) {
+                Tournament tournament = TournamentAdapter.INSTANCE.read(reader);
+                tournaments.put(tournament.getName(), tournament);
+            } catch (IllegalStateException e) {
+                throw new IOException("Malformed tournament file " + file.getName());
+            }
+        }
+        System.out.printf("[TOURNAMENT] Loaded %d tournaments\n", tournaments.size());
+    }
+
+    /**
+     * Crea un torneo aperto alle iscrizioni, a cui il creatore è già iscritto.
+     * @param name     Nome del torneo.
+     * @param creator  Username del creatore.
+     * @param format   Formato del torneo.
+     * @param rounds   Numero di turni di un torneo svizzero, 0 per sceglierlo in base agli iscritti.
+     * @throws WQPException Se il nome non è valido o è già usato.
+     */
+    public void create(String name, String creator, Tournament.Format format, int rounds) throws WQPException {
+        // Il nome diventa il nome del file
+        if (!name.matches("[A-Za-z0-9_-]{1,32}"))
+            throw new WQPException("Invalid tournament name");
+        if (rounds < 0)
+            throw new WQPException("Invalid number of rounds");
+        List<String> players = new ArrayList<>();
+        players.add(creator);
+        Tournament tournament = new Tournament(name, creator, format, (format == Tournament.Format.SWISS) ? rounds : 0,
+                Tournament.Status.REGISTERING, players, new ArrayList<>(), null);
+        if (tournaments.putIfAbsent(name, tournament) != null)
+            throw new WQPException("Tournament already exists");
+        dirty.add(tournament);
+        System.out.printf("[TOURNAMENT] %s created by %s (%s)\n", name, creator, format);
+    }
+
+    /**
+     * @param name Nome del torneo.
+     * @return Torneo con il nome dato.
+     * @throws WQPException Se il torneo non esiste.
+     */
+    public Tournament get(String name) throws WQPException {
+        Tournament tournament = tournaments.get(name);
+        if (tournament == null)
+            throw new WQPException("Tournament not found");
+        return tournament;
+    }
+
+    /**
+     * Iscrive un utente ad un torneo.
+     * @param name     Nome del torneo.
+     * @param username Username dell'utente.
+     * @return Numero di iscritti.
+     * @throws WQPException Se il torneo non esiste o non accetta l'iscrizione.
+     */
+    public int join(String name, String username) throws WQPException {
+        Tournament tournament = get(name);
+        int players = tournament.join(username, Configuration.TOURNAMENT_MAX_PLAYERS);
+        dirty.add(tournament);
+        return players;
+    }
+
+    /**
+     * Chiude le iscrizioni e avvia il primo turno.
+     * @param name     Nome del torneo.
+     * @param username Username di chi avvia il torneo.
+     * @throws WQPException Se il torneo non esiste o non può essere avviato dall'utente.
+     */
+    public void start(String name, String username) throws WQPException {
+        Tournament tournament = get(name);
+        // Punteggi degli iscritti per le teste di serie
+        Map<String, Integer> points = new HashMap<>();
+        for (String player : tournament.getPlayers()) {
+            try {
+                points.put(player, accountService.getPoints(player));
+            } catch (WQPException e) {
+                // Un utente rimosso parte dall'ultima testa di serie
+            }
+        }
+        tournament.start(username, points);
+        dirty.add(tournament);
+        System.out.printf("[TOURNAMENT] %s started with %d players\n", name, tournament.getPlayers().size());
+        scheduleRound(tournament);
+    }
+
+    /**
+     * Chiede al thread dei tornei di giocare gli incontri senza esito del turno in corso.
+     * @param tournament Torneo da far avanzare.
+     */
+    private void scheduleRound(Tournament tournament) {
+        scheduler.execute(() -> playRound(tournament));
+    }
+
+    /**
+     * Avvia le partite del turno in corso. Chi non è connesso o è impegnato in
+     * un'altra partita perde l'incontro; se mancano entrambi l'incontro resta
+     * senza vincitore. Le partite vengono avviate con un'unica operazione sul
+     * selettore principale.
+     * @param tournament Torneo di cui giocare il turno.
+     */
+    private void playRound(Tournament tournament) {
+        int round = tournament.getRoundNumber();
+        List<Tournament.Pairing> pairings = new ArrayList<>();
+        List<List<Connection>> rooms = new ArrayList<>();
+        for (Tournament.Pairing pairing : tournament.currentRound()) {
+            if (pairing.isResolved()) {
+                if (pairing.isBye())
+                    notify(pairing.getWinner(), tournament.getName(), "ROUND " + round, "BYE");
+                continue;
+            }
+            List<Connection> connections = reserve(pairing.getPlayers());
+            if (connections.size() < 2) {
+                // Vince chi si è presentato
+                Map<String, Integer> present = new HashMap<>();
+                for (Connection connection : connections) {
+                    connection.release();
+                    present.put(usernameOf(connection), 0);
+                }
+                tournament.resolve(pairing, present);
+                for (String player : present.keySet())
+                    notify(player, tournament.getName(), "ROUND " + round, "FORFEIT");
+                continue;
+            }
+            pairings.add(pairing);
+            rooms.add(connections);
+        }
+        dirty.add(tournament);
+        // Senza partite da giocare tutti gli incontri hanno un esito, anche quelli
+        // risolti prima di un riavvio del server senza che il turno fosse avanzato
+        if (rooms.isEmpty()) {
+            scheduler.schedule(() -> advance(tournament), Configuration.TOURNAMENT_ROUND_DELAY, TimeUnit.MILLISECONDS);
+            return;
+        }
+        // Un'unica lista di parole, con le traduzioni, per tutte le partite del turno
+        Map<String, AcceptedAnswers> translations;
+        try {
+            translations = WordService.getWords();
+        } catch (IOException e) {
+            System.err.printf("[TOURNAMENT] Unable to retrieve translations for %s, retrying: %s\n",
+                    tournament.getName(), e.getMessage());
+            for (List<Connection> connections : rooms)
+                for (Connection connection : connections)
+                    connection.release();
+            scheduler.schedule(() -> playRound(tournament), Configuration.TOURNAMENT_ROUND_DELAY, TimeUnit.MILLISECONDS);
+            return;
+        }
+        List<ChallengeServer> servers = new ArrayList<>(rooms.size());
+        for (int i = 0; i < rooms.size(); i++) {
+            Tournament.Pairing pairing = pairings.get(i);
+            servers.add(new ChallengeServer(rooms.get(i), translations,
+                    (points, completed) -> matchFinished(tournament, pairing, points)));
+        }
+        // Annuncia gli avversari e sposta tutte le connessioni nelle partite
+        rooms.get(0).get(0).execute(() -> {
+            for (int i = 0; i < rooms.size(); i++) {
+                List<Connection> connections = rooms.get(i);
+                for (int j = 0; j < connections.size(); j++) {
+                    String opponent = usernameOf(connections.get(1 - j));
+                    connections.get(j).enqueue(event(tournament.getName(), "ROUND " + round, opponent));
+                    connections.get(j).startChallenge();
+                }
+                // Le traduzioni sono già pronte: la partita passa subito ad un MatchLoop
+                servers.get(i).run();
+            }
+        });
+        System.out.printf("[TOURNAMENT] %s round %d: started %d matches\n", tournament.getName(), round, servers.size());
+    }
+
+    /**
+     * Registra l'esito di una partita del torneo. Va invocato sul thread del
+     * MatchLoop: il turno successivo viene preparato dal thread dei tornei.
+     * @param tournament Torneo a cui appartiene la partita.
+     * @param pairing    Incontro giocato.
+     * @param points     Punti dei giocatori ancora connessi.
+     */
+    private void matchFinished(Tournament tournament, Tournament.Pairing pairing, Map<String, Integer> points) {
+        boolean roundOver = tournament.resolve(pairing, points);
+        dirty.add(tournament);
+        // L'attesa lascia ai giocatori il tempo di leggere il report e tornare al selettore principale
+        if (roundOver)
+            scheduler.schedule(() -> advance(tournament), Configuration.TOURNAMENT_ROUND_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Prepara e gioca il turno successivo, oppure annuncia il vincitore.
+     * @param tournament Torneo da far avanzare.
+     */
+    private void advance(Tournament tournament) {
+        boolean next = tournament.advance();
+        dirty.add(tournament);
+        if (next) {
+            playRound(tournament);
+            return;
+        }
+        if (tournament.getStatus() != Tournament.Status.FINISHED)
+            return;
+        String champion = (tournament.getChampion() != null) ? tournament.getChampion() : "";
+        for (String player : tournament.getPlayers())
+            notify(player, tournament.getName(), "FINISHED", champion);
+    }
+
+    /**
+     * Prenota le connessioni dei giocatori connessi e non impegnati.
+     * @param players Username dei giocatori.
+     * @return Connessioni prenotate.
+     */
+    private List<Connection> reserve(List<String> players) {
+        List<Connection> connections = new ArrayList<>(players.size());
+        for (String player : players) {
+            try {
+                Connection connection = (Connection) accountService.getSelectionKey(player).attachment();
+                if (connection.reserve())
+                    connections.add(connection);
+            } catch (WQPException e) {
+                // Il giocatore non è connesso
+            }
+        }
+        return connections;
+    }
+
+    /**
+     * @param connection Connessione di un giocatore.
+     * @return Username del giocatore, stringa vuota se ha eseguito il logout.
+     */
+    private String usernameOf(Connection connection) {
+        try {
+            return accountService.getUsername(connection.getKey());
+        } catch (WQPException e) {
+            return "";
+        }
+    }
+
+    /**
+     * @param lines Righe dei dati dell'evento.
+     * @return Frame dell'evento TOURNAMENT.
+     */
+    private static ByteBuffer event(String... lines) {
+        String data = String.join("\n", lines);
+        return StaticUtilities.bufferizeString(StaticUtilities.concat("\n", "TOURNAMENT", "OK", data));
+    }
+
+    /**
+     * Invia un evento TOURNAMENT ad un giocatore, se è connesso.
+     * @param username Username del giocatore.
+     * @param lines    Righe dei dati dell'evento.
+     */
+    private void notify(String username, String... lines) {
+        try {
+            SelectionKey key = accountService.getSelectionKey(username);
+            ((Connection) key.attachment()).complete(new WriteInformations(event(lines), null, false));
+        } catch (WQPException e) {
+            // Il giocatore non è connesso
+        }
+    }
+
+    /**
+     * Scrive i tornei modificati.
+     */
+    private void persistAll() {
+        for (Tournament tournament : new ArrayList<>(dirty)) {
+            dirty.remove(tournament);
+            if (!persist(tournament))
+                dirty.add(tournament);
+        }
+    }
+
+    /**
+     * Scrive un torneo sul suo file, passando da un file temporaneo forzato su
+     * disco e rinominato atomicamente.
+     * @param tournament Torneo da salvare.
+     * @return Flag che indica se il torneo è salvato sul file.
+     */
+    private synchronized boolean persist(Tournament tournament) {
+        File file = new File(directory, tournament.getName() + ".json");
+        File temporary = new File(directory, tournament.getName() + ".json.tmp");
+        try {
+            try (FileOutputStream stream = new FileOutputStream(temporary);
+                    JsonWriter writer = new JsonWriter(new BufferedWriter(
+                            new OutputStreamWriter(stream, StandardCharsets.UTF_8)))) {
+                TournamentAdapter.INSTANCE.write(writer, tournament);
+                writer.flush();
+                stream.getFD().sync();
+            }
+            try {
+                Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            // Anche un errore imprevisto lascia il torneo da salvare, senza cancellare il salvataggio periodico
+            System.err.printf("[TOURNAMENT] Unable to serialize %s: %s\n", tournament.getName(), e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * @return Nomi dei tornei, in ordine alfabetico.
+     */
+    public List<String> getNames() {
+        List<String> names = new ArrayList<>(tournaments.keySet());
+        Collections.sort(names);
+        return names;
+    }
+}
@@ -0,0 +1,53 @@
+package it.unipi.studenti.wordquizzles.server.wqp;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import it.unipi.studenti.wordquizzles.shared.Configuration;
+
+/**
+ * BufferPool mantiene i buffer di dimensione fissa in cui vengono scritte le
+ * risposte, così che le risposte comuni non allochino un nuovo buffer ogni
+ * volta. Un buffer torna nel pool solo dopo essere stato scritto sul canale.
+ */
+public class BufferPool {
+
+    // Buffer liberi
+    private static final Queue<ByteBuffer> FREE = new ConcurrentLinkedQueue<>();
+
+    // Numero di buffer liberi (la dimensione della coda ha costo lineare)
+    private static final AtomicInteger FREE_COUNT = new AtomicInteger();
+
+    private BufferPool() {
+    }
+
+    /**
+     * @return Buffer vuoto di dimensione RESPONSE_BUFFER_SIZE.
+     */
+    public static ByteBuffer acquire() {
+        ByteBuffer buffer = FREE.poll();
+        if (buffer == null)
+            return ByteBuffer.allocate(Configuration.RESPONSE_BUFFER_SIZE);
+        FREE_COUNT.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Restituisce un buffer al pool. I buffer di dimensione diversa e quelli
+     * oltre la capacità del pool vengono lasciati al garbage collector.
+     *
+     * @param buffer Buffer non più in uso.
+     */
+    public static void release(ByteBuffer buffer) {
+        if (buffer.capacity() != Configuration.RESPONSE_BUFFER_SIZE)
+            return;
+        if (FREE_COUNT.incrementAndGet() > Configuration.RESPONSE_POOL_SIZE) {
+            FREE_COUNT.decrementAndGet();
+            return;
+        }
+        FREE.add(buffer);
+    }
+}
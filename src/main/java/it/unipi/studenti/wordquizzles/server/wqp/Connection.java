@@ -0,0 +1,321 @@
+package it.unipi.studenti.wordquizzles.server.wqp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import it.unipi.studenti.wordquizzles.server.challenge.Matchmaker;
+import it.unipi.studenti.wordquizzles.server.services.AccountService;
+import it.unipi.studenti.wordquizzles.shared.Configuration;
+import it.unipi.studenti.wordquizzles.shared.StaticUtilities;
+import it.unipi.studenti.wordquizzles.shared.wqp.WQPException;
+
+/**
+ * Connection mantiene lo stato di una connessione WQP: lettura dei frame,
+ * coda delle risposte da scrivere e numero di richieste in corso. È allegata
+ * alla chiave del client nel selettore principale e viene usata anche dal
+ * ChallengeServer durante una sfida, così che nessun frame venga perso o
+ * interrotto a metà nel passaggio tra i due selettori.
+ */
+public class Connection {
+
+    /**
+     * FrameHandler elabora un frame completo letto dalla connessione.
+     */
+    @FunctionalInterface
+    public interface FrameHandler {
+
+        /**
+         * @param requestId Identificativo della richiesta.
+         * @param payload   Buffer contenente il messaggio.
+         * @throws IOException Se non è possibile elaborare il frame.
+         */
+        void handle(int requestId, ByteBuffer payload) throws IOException;
+    }
+
+    // Chiave del client nel selettore principale
+    private SelectionKey key;
+
+    // Socket del client
+    private SocketChannel channel;
+
+    // Esecutore delle operazioni sul thread del selettore principale
+    private Executor loop;
+
+    // Buffer che contiene l'intestazione del frame in lettura
+    private ByteBuffer headerBuffer;
+
+    // Buffer che contiene il messaggio in lettura, null se si sta leggendo l'intestazione
+    private ByteBuffer payloadBuffer;
+
+    // Identificativo della richiesta in lettura
+    private int requestId;
+
+    // Risposte da scrivere al client in ordine di completamento
+    private Queue<WriteInformations> outgoing;
+
+    // Numero di frame accodati e non ancora scritti (la dimensione della coda costa O(n))
+    private AtomicInteger queued;
+
+    // Numero di richieste lette e non ancora completamente scritte
+    private AtomicInteger inFlight;
+
+    // Flag che indica se il client è impegnato in una sfida o in un invito
+    private AtomicBoolean busy;
+
+    // Flag che indica se la connessione è gestita dal selettore di una sfida
+    private volatile boolean inChallenge;
+
+    // Flag che indica se il client riceve tutte le parole della sfida all'inizio
+    private volatile boolean prefetch;
+
+    /**
+     * Crea lo stato della connessione.
+     *
+     * @param key  Chiave del client nel selettore principale.
+     * @param loop Esecutore delle operazioni sul thread del selettore principale.
+     */
+    public Connection(SelectionKey key, Executor loop) {
+        this.key = key;
+        this.loop = loop;
+        channel = (SocketChannel) key.channel();
+        headerBuffer = ByteBuffer.allocate(StaticUtilities.HEADER_LENGTH);
+        payloadBuffer = null;
+        outgoing = new ConcurrentLinkedQueue<>();
+        queued = new AtomicInteger();
+        inFlight = new AtomicInteger();
+        busy = new AtomicBoolean();
+        inChallenge = false;
+        prefetch = false;
+    }
+
+    /**
+     * @return Chiave del client nel selettore principale.
+     */
+    public SelectionKey getKey() {
+        return key;
+    }
+
+    /**
+     * @return Socket del client.
+     */
+    public SocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * @return Flag che indica se il client riceve tutte le parole della sfida all'inizio.
+     */
+    public boolean isPrefetch() {
+        return prefetch;
+    }
+
+    /**
+     * @param prefetch Flag che indica se il client riceve tutte le parole della sfida all'inizio.
+     */
+    public void setPrefetch(boolean prefetch) {
+        this.prefetch = prefetch;
+    }
+
+    /**
+     * Legge i frame disponibili sul canale passandoli al gestore. Si ferma
+     * quando la connessione raggiunge il limite di richieste in corso, anche
+     * se il client ha inviato altri frame: verranno letti quando il selettore
+     * tornerà ad essere interessato alla lettura.
+     *
+     * @param handler Gestore dei frame completi.
+     * @return Flag che indica se il client ha chiuso la connessione.
+     * @throws IOException Se non è possibile leggere dal canale o l'intestazione non è valida.
+     */
+    public boolean read(FrameHandler handler) throws IOException {
+        while (canRead()) {
+            ByteBuffer buffer = (payloadBuffer != null) ? payloadBuffer : headerBuffer;
+            int bytesRead = channel.read(buffer);
+            if (bytesRead == -1)
+                return true;
+            // Se ha altro da leggere esce (tornerà quando potrà leggere di nuovo)
+            if (buffer.hasRemaining())
+                return false;
+            buffer.flip();
+            // Se ha appena letto l'intestazione alloca il buffer del messaggio
+            if (payloadBuffer == null) {
+                int size = headerBuffer.getInt();
+                requestId = headerBuffer.getInt();
+                headerBuffer.clear();
+                if (size < 0 || size > Configuration.MAX_FRAME_BYTES)
+                    throw new IOException("Invalid frame size " + size);
+                payloadBuffer = ByteBuffer.allocate(size);
+            }
+            // Altrimenti passa il messaggio al gestore e torna a leggere l'intestazione
+            else {
+                ByteBuffer payload = payloadBuffer;
+                payloadBuffer = null;
+                handler.handle(requestId, payload);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Registra una nuova richiesta in corso.
+     */
+    public void requestStarted() {
+        inFlight.incrementAndGet();
+    }
+
+    /**
+     * @return Flag che indica se la connessione può accettare altre richieste.
+     */
+    public boolean canRead() {
+        return inFlight.get() < Configuration.MAX_IN_FLIGHT_REQUESTS;
+    }
+
+    /**
+     * Accoda una risposta calcolata da un thread qualsiasi e chiede al selettore
+     * principale di scriverla.
+     *
+     * @param informations Risposta da scrivere.
+     */
+    public void complete(WriteInformations informations) {
+        queued.incrementAndGet();
+        outgoing.add(informations);
+        loop.execute(this::updateInterest);
+    }
+
+    /**
+     * Accoda un frame da scrivere senza notificare il selettore principale. Va
+     * usato dal selettore che gestisce attualmente la connessione.
+     *
+     * @param buffer Frame da scrivere.
+     */
+    public void enqueue(ByteBuffer buffer) {
+        queued.incrementAndGet();
+        outgoing.add(new WriteInformations(buffer, null, false));
+    }
+
+    /**
+     * @return Numero di frame accodati e non ancora scritti.
+     */
+    public int getQueuedWrites() {
+        return queued.get();
+    }
+
+    /**
+     * @return Flag che indica se ci sono frame da scrivere.
+     */
+    public boolean hasPendingWrites() {
+        return !outgoing.isEmpty();
+    }
+
+    /**
+     * Scrive i frame accodati finché il canale li accetta. Si ferma dopo una
+     * risposta di sfida accettata, perché il canale passa alla sfida.
+     *
+     * @return Risposta di sfida appena scritta, oppure null.
+     * @throws IOException Se non è possibile scrivere sul canale.
+     */
+    public WriteInformations flush() throws IOException {
+        WriteInformations informations;
+        while ((informations = outgoing.peek()) != null) {
+            ByteBuffer buffer = informations.getBuffer();
+            channel.write(buffer);
+            // Se non ha ancora finito esce (rientrerà per scrivere ancora)
+            if (buffer.hasRemaining())
+                return null;
+            outgoing.poll();
+            queued.decrementAndGet();
+            if (informations.isPooled())
+                BufferPool.release(buffer);
+            if (informations.isTracked())
+                inFlight.decrementAndGet();
+            if (informations.getFriendKeys() != null)
+                return informations;
+        }
+        return null;
+    }
+
+    /**
+     * Aggiorna gli eventi di interesse della chiave principale in base allo
+     * stato della connessione. Va invocato sul thread del selettore principale.
+     */
+    public void updateInterest() {
+        // Durante una sfida il canale è gestito da un altro selettore
+        if (inChallenge || !key.isValid())
+            return;
+        int ops = 0;
+        if (canRead())
+            ops |= SelectionKey.OP_READ;
+        if (hasPendingWrites())
+            ops |= SelectionKey.OP_WRITE;
+        key.interestOps(ops);
+    }
+
+    /**
+     * Prenota la connessione per un invito o una sfida.
+     *
+     * @return Flag che indica se la prenotazione è riuscita.
+     */
+    public boolean reserve() {
+        return busy.compareAndSet(false, true);
+    }
+
+    /**
+     * Libera la prenotazione della connessione.
+     */
+    public void release() {
+        busy.set(false);
+    }
+
+    /**
+     * Esegue un'operazione sul thread del selettore principale.
+     *
+     * @param task Operazione da eseguire.
+     */
+    public void execute(Runnable task) {
+        loop.execute(task);
+    }
+
+    /**
+     * Passa la connessione al selettore di una sfida. Va invocato sul thread del
+     * selettore principale.
+     */
+    public void startChallenge() {
+        inChallenge = true;
+        key.interestOps(0);
+    }
+
+    /**
+     * Restituisce la connessione al selettore principale alla fine della sfida.
+     */
+    public void endChallenge() {
+        loop.execute(() -> {
+            inChallenge = false;
+            release();
+            updateInterest();
+        });
+    }
+
+    /**
+     * Chiude la connessione, toglie l'utente dalla coda delle partite
+     * automatiche ed esegue il logout dell'utente eventualmente loggato.
+     */
+    public void close() {
+        Matchmaker.forget(key);
+        try {
+            AccountService.getInstance().logout(key);
+        } catch (WQPException e) {
+            // L'utente non era loggato
+        }
+        try {
+            StaticUtilities.removeKey(key);
+        } catch (IOException e) {
+            System.err.printf("[SERVER] Unable to close connection: %s\n", e.getMessage());
+        }
+    }
+}
@@ -1,16 +1,26 @@
 package it.unipi.studenti.wordquizzles.server.wqp;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
-import java.util.NoSuchElementException;
-import java.util.StringTokenizer;
+import java.util.Set;
 import java.util.concurrent.Callable;
 
-import com.google.gson.Gson;
-
+import it.unipi.studenti.wordquizzles.server.tournament.Tournament;
+import it.unipi.studenti.wordquizzles.server.tournament.TournamentAdapter;
+import it.unipi.studenti.wordquizzles.shared.wqp.RankingAdapter;
+import it.unipi.studenti.wordquizzles.shared.wqp.Statistics;
+import it.unipi.studenti.wordquizzles.shared.wqp.StatisticsAdapter;
+import it.unipi.studenti.wordquizzles.shared.wqp.StringListAdapter;
 import it.unipi.studenti.wordquizzles.shared.wqp.WQPException;
+import it.unipi.studenti.wordquizzles.shared.wqp.WQPRequest;
+import it.unipi.studenti.wordquizzles.shared.wqp.WQPRequest.Command;
+import it.unipi.studenti.wordquizzles.shared.Configuration;
 import it.unipi.studenti.wordquizzles.shared.StaticUtilities;
 
 /**
@@ -18,86 +28,318 @@ import it.unipi.studenti.wordquizzles.shared.StaticUtilities;
  */
 public class DispatcherTask implements Callable<WriteInformations> {
 
+    /**
+     * JsonStringWriter scrive il contenuto di una stringa JSON applicando
+     * l'escape ai caratteri, così che una risposta possa essere annidata in un
+     * array JSON senza costruire prima la stringa.
+     */
+    private static class JsonStringWriter extends Writer {
+
+        // Writer su cui scrivere i caratteri con l'escape
+        private ResponseWriter out;
+
+        private JsonStringWriter(ResponseWriter out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int c) {
+            switch (c) {
+                case '"':
+                    out.write("\\\"");
+                    break;
+                case '\\':
+                    out.write("\\\\");
+                    break;
+                case '\n':
+                    out.write("\\n");
+                    break;
+                case '\r':
+                    out.write("\\r");
+                    break;
+                case '\t':
+                    out.write("\\t");
+                    break;
+                default:
+                    if (c < 0x20)
+                        out.write(String.format("\\u%04x", c));
+                    else
+                        out.write(c);
+            }
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length) {
+            for (int i = offset; i < offset + length; i++)
+                write(chars[i]);
+        }
+
+        @Override
+        public void write(String string, int offset, int length) {
+            for (int i = offset; i < offset + length; i++)
+                write(string.charAt(i));
+        }
+
+        @Override
+        public void write(String string) {
+            write(string, 0, string.length());
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    // Comandi che possono essere raggruppati in una richiesta MULTI (sola lettura)
+    private static final Set<Command> BATCH_COMMANDS = EnumSet.of(Command.POINTS, Command.FRIENDSLIST, Command.RANKING,
+            Command.STATS);
+
     // Oggetto che esegue le operazioni per il client
     private WorkerTask task;
 
-    // Oggetto che serializza i dati in JSON
-    private Gson gson;
-
     // Buffer contenente i dati letti dal client
     private ByteBuffer buffer;
 
-    // Eventuale chiave dell'amico sfidato
-    private SelectionKey friendKey;
+    // Identificativo della richiesta, riportato nella risposta
+    private int requestId;
+
+    // Chiavi degli amici che hanno accettato la sfida, null se la richiesta non avvia una partita
+    private List<SelectionKey> friendKeys;
 
     /**
      * Crea un nuovo dispatcher.
      * @param buffer Buffer contenente i dati letti dal client
+     * @param requestId Identificativo della richiesta
      * @param key Chiave del client
      */
-    public DispatcherTask(ByteBuffer buffer, SelectionKey key) {
+    public DispatcherTask(ByteBuffer buffer, int requestId, SelectionKey key) {
         this.buffer = buffer;
+        this.requestId = requestId;
         this.task = new WorkerTask(key);
-        this.gson = new Gson();
-        friendKey = null;
+        friendKeys = null;
     }
     
     /**
-     * Legge la stringa, interpreta il comando ed esegue l'azione associata.
+     * Interpreta il comando, esegue l'azione associata e scrive i dati della risposta.
      * @param command       Comando invocato dal client.
-     * @param request       Stringa contenente la richiesta da parte del client.
-     * @param tokenizer     Tokenizer che divide la stringa in parole.
-     * @return              Stringa restituita dopo l'elaborazione da parte del server.
+     * @param request       Richiesta inviata dal client.
+     * @param index         Indice del campo che contiene il comando.
+     * @param out           Writer su cui scrivere i dati della risposta.
      * @throws WQPException Se l'elaborazione non è andata a buon fine.
      */
-    private String routeRequest(String command, String request, StringTokenizer tokenizer) throws WQPException {
-        // Stringa da scrivere al client sul socket
-        String response = "";
+    private void routeRequest(Command command, WQPRequest request, int index, Writer out) throws WQPException {
         try {
             // Interpreta il comando
-            if (command.equals("LOGIN")) {
-                // Username dell'utente
-                String username = tokenizer.nextToken();
-                // Password dell'utente
-                String password = tokenizer.nextToken();
-                task.doLogin(username, password);
-                response = username;
-            }
-            else if (command.equals("LOGOUT")) {
-                // Comunica al server di rimuovere la chiave associata a questo username
-                response = task.doLogout();
-            }
-            else if (command.equals("FRIEND")) {
-                // Username dell'utente da aggiungere come amico
-                String friendUsername = tokenizer.nextToken();
-                task.doFriendRequest(friendUsername);
+            switch (command) {
+                case LOGIN: {
+                    // Username dell'utente
+                    String username = request.field(index + 1);
+                    // Password dell'utente
+                    String password = request.field(index + 2);
+                    task.doLogin(username, password);
+                    out.write(username);
+                    break;
+                }
+                case LOGOUT:
+                    // Comunica al server di rimuovere la chiave associata a questo username
+                    out.write(task.doLogout());
+                    break;
+                case FRIEND: {
+                    // Username dell'utente da aggiungere come amico
+                    String friendUsername = request.field(index + 1);
+                    task.doFriendRequest(friendUsername);
+                    break;
+                }
+                case FRIENDSLIST: {
+                    List<String> list = task.doFriendsList();
+                    StringListAdapter.INSTANCE.toJson(out, list);
+                    break;
+                }
+                case RANKING: {
+                    Map<String, Integer> rank = task.doRankingRequest();
+                    RankingAdapter.INSTANCE.toJson(out, rank);
+                    break;
+                }
+                case POINTS: {
+                    int points = task.doPoints();
+                    out.write(Integer.toString(points));
+                    break;
+                }
+                case CHALLENGE: {
+                    // Username degli utenti da sfidare, almeno uno
+                    List<String> friendUsernames = new ArrayList<>(request.count() - index - 1);
+                    friendUsernames.add(request.field(index + 1));
+                    for (int i = index + 2; i < request.count(); i++)
+                        friendUsernames.add(request.field(i));
+                    // Chiavi degli sfidati che hanno accettato la sfida
+                    List<SelectionKey> accepted = task.doChallengeRequest(friendUsernames);
+                    if (!accepted.isEmpty())
+                        friendKeys = accepted;
+                    out.write(!accepted.isEmpty() ? "ACCEPTED" : "REFUSED");
+                    break;
+                }
+                case HISTORY: {
+                    // Numero di partite e partite recenti da saltare, opzionali
+                    int count = Configuration.HISTORY_PAGE_SIZE;
+                    int offset = 0;
+                    try {
+                        if (request.count() > index + 1)
+                            count = Integer.parseInt(request.field(index + 1));
+                        if (request.count() > index + 2)
+                            offset = Integer.parseInt(request.field(index + 2));
+                    } catch (NumberFormatException e) {
+                        throw new WQPException("Invalid page");
+                    }
+                    // Ogni partita è già un oggetto JSON: l'array viene composto senza deserializzarle
+                    List<String> matches = task.doHistory(count, offset);
+                    out.write('[');
+                    for (int i = 0; i < matches.size(); i++) {
+                        if (i > 0)
+                            out.write(',');
+                        out.write(matches.get(i));
+                    }
+                    out.write(']');
+                    break;
+                }
+                case STATS: {
+                    // Username dell'utente di cui leggere le statistiche, se assente l'utente stesso
+                    // (in una MULTI il campo successivo è il prossimo sottocomando)
+                    String username = (index == 0 && request.count() > 1) ? request.field(1) : null;
+                    Statistics statistics = task.doStats(username);
+                    StatisticsAdapter.INSTANCE.toJson(out, statistics);
+                    break;
+                }
+                case PREFETCH: {
+                    // Modalità scelta dal client: ON per ricevere tutte le parole all'inizio, OFF per una alla volta
+                    String mode = request.field(index + 1);
+                    if (!mode.equals("ON") && !mode.equals("OFF"))
+                        throw new WQPException("Invalid mode");
+                    task.doPrefetch(mode.equals("ON"));
+                    out.write(mode);
+                    break;
+                }
+                case MATCHMAKE: {
+                    // Senza argomenti mette l'utente in coda, con CANCEL lo toglie
+                    boolean cancel = request.count() > index + 1 && request.field(index + 1).equals("CANCEL");
+                    task.doMatchmake(cancel);
+                    out.write(cancel ? "CANCELLED" : "QUEUED");
+                    break;
+                }
+                case TOURNAMENT: {
+                    // Operazione sul torneo e nome del torneo
+                    String action = request.field(index + 1);
+                    switch (action) {
+                        case "CREATE": {
+                            // Formato e, per il torneo svizzero, numero di turni opzionale
+                            Tournament.Format format;
+                            int rounds = 0;
+                            try {
+                                format = Tournament.Format.valueOf(request.field(index + 3));
+                                if (request.count() > index + 4)
+                                    rounds = Integer.parseInt(request.field(index + 4));
+                            } catch (IllegalArgumentException e) {
+                                throw new WQPException("Invalid format");
+                            }
+                            task.doCreateTournament(request.field(index + 2), format, rounds);
+                            out.write(request.field(index + 2));
+                            break;
+                        }
+                        case "JOIN":
+                            out.write(Integer.toString(task.doJoinTournament(request.field(index + 2))));
+                            break;
+                        case "START":
+                            task.doStartTournament(request.field(index + 2));
+                            out.write("STARTED");
+                            break;
+                        case "INFO":
+                            TournamentAdapter.INSTANCE.toJson(out, task.doTournamentInfo(request.field(index + 2)));
+                            break;
+                        case "LIST":
+                            StringListAdapter.INSTANCE.toJson(out, task.doTournamentList());
+                            break;
+                        default:
+                            throw new WQPException("Invalid tournament operation");
+                    }
+                    break;
+                }
+                case SPECTATE: {
+                    // Username del giocatore di cui guardare la partita
+                    String username = request.field(index + 1);
+                    task.doSpectate(username);
+                    out.write(username);
+                    break;
+                }
+                case MULTI:
+                    // Esegue tutti i sottocomandi sullo stesso stato degli account
+                    task.doSnapshot(() -> routeBatch(request, (ResponseWriter) out));
+                    break;
+                default:
+                    throw new WQPException("Command not recognized");
             }
-            else if (command.equals("FRIENDSLIST")) {
-                List<String> list = task.doFriendsList();
-                response = gson.toJson(list);
-            }
-            else if (command.equals("RANKING")) {
-                Map<String, Integer> rank = task.doRankingRequest();
-                response = gson.toJson(rank);
-            }
-            else if (command.equals("POINTS")) {
-                int points = task.doPoints();
-                response = String.format("%d", points);
-            }
-            else if (command.equals("CHALLENGE")) {
-                // Username dell'utente da sfidare
-                String friendUsername = tokenizer.nextToken();
-                // Chiave dello sfidato se questo ha accettato o meno la sfida
-                friendKey = task.doChallengeRequest(friendUsername);
-                response = (friendKey != null) ? "ACCEPTED" : "REFUSED";
-            }
-            else
-                throw new WQPException("Command not recognized");
-        // Se l'estrazione di un token non va a buon fine lancia una eccezione
-        } catch (NoSuchElementException e) {
+        // Il ResponseWriter scrive in memoria, ma l'interfaccia Writer prevede l'eccezione
+        } catch (IOException e) {
+            throw new WQPException("Unable to write response");
+        }
+    }
+
+    /**
+     * Esegue i sottocomandi di una richiesta MULTI e scrive l'array JSON delle
+     * risposte, una per sottocomando, nello stesso formato di una risposta singola.
+     * @param request       Richiesta inviata dal client.
+     * @param out           Writer su cui scrivere l'array.
+     * @return              Sempre null.
+     * @throws WQPException Se la richiesta è vuota o contiene troppi comandi.
+     */
+    private Void routeBatch(WQPRequest request, ResponseWriter out) throws WQPException {
+        if (request.count() < 2)
             throw new WQPException("Malformed request");
+        if (request.count() - 1 > Configuration.MULTI_MAX_COMMANDS)
+            throw new WQPException("Too many commands");
+        // Writer che applica l'escape alle risposte annidate
+        JsonStringWriter escaped = new JsonStringWriter(out);
+        out.write('[');
+        // I sottocomandi di sola lettura non hanno argomenti: uno per campo
+        for (int index = 1; index < request.count(); index++) {
+            if (index > 1)
+                out.write(',');
+            out.write('"');
+            // Sottocomando da eseguire
+            Command subCommand = request.command(index);
+            escaped.write(request.commandName(index));
+            escaped.write('\n');
+            // Un errore annulla i dati del sottocomando ma non interrompe gli altri
+            int mark = out.mark();
+            try {
+                if (!BATCH_COMMANDS.contains(subCommand))
+                    throw new WQPException("Command not allowed in MULTI");
+                escaped.write("OK\n");
+                routeRequest(subCommand, request, index, escaped);
+            } catch (WQPException e) {
+                out.reset(mark);
+                escaped.write("KO\n");
+                escaped.write(e.getMessage());
+            }
+            escaped.write('\n');
+            out.write('"');
         }
-        return response;
+        out.write(']');
+        return null;
+    }
+
+    /**
+     * Costruisce la risposta di errore per una richiesta che non verrà eseguita.
+     * @param reason Motivo del rifiuto.
+     * @return       Dati da scrivere al client.
+     */
+    public WriteInformations reject(String reason) {
+        // Comando inviato dal client
+        String command = new WQPRequest(buffer).commandName(0);
+        String response = StaticUtilities.concat("\n", command, "KO", reason);
+        return new WriteInformations(StaticUtilities.bufferizeString(requestId, response), null);
     }
 
     /**
@@ -105,33 +347,38 @@ public class DispatcherTask implements Callable<WriteInformations> {
      */
     @Override
     public WriteInformations call() {
-        // Stringa inviata dal client
-        String request = StaticUtilities.stringifyBuffer(buffer);
-        System.out.printf("[DISPATCHER] Received:\n%s\n", request);
-        // Tokenizer sulla stringa
-        StringTokenizer tokenizer = new StringTokenizer(request);
+        // Richiesta letta direttamente dal buffer
+        WQPRequest request = new WQPRequest(buffer);
         // Comando inviato dal client
-        String command = tokenizer.nextToken();
-        // Esito dell'operazione
-        String outcome;
-        // Messaggio ricevuto
-        String message;
+        Command command = request.command();
+        System.out.printf("[DISPATCHER] Received %s request %d\n", command, requestId);
+        // Risposta scritta direttamente nel buffer da inviare
+        ResponseWriter out = new ResponseWriter(requestId);
+        out.write(request.commandName(0));
+        out.write('\n');
+        // Posizione da cui riscrivere la risposta in caso di errore
+        int mark = out.mark();
         try {
-            // Legge la richiesta ed esegue il metodo necessario
-            message = routeRequest(command, request, tokenizer);
-            // Costruisce la risposta
-            outcome = "OK";
+            // Esegue il metodo necessario scrivendo esito e dati
+            out.write("OK\n");
+            routeRequest(command, request, 0, out);
         } catch (WQPException e) {
             // In caso di eccezione costruisce la risposta usando i parametri dell'eccezione
-            message = e.getMessage();
-            outcome = "KO";
+            out.reset(mark);
+            out.write("KO\n");
+            out.write(e.getMessage());
+        } catch (RuntimeException e) {
+            // Un errore imprevisto risponde con un errore, riusando il buffer già acquisito
+            System.err.printf("[DISPATCHER] %s request %d failed: %s\n", command, requestId, e);
+            out.reset(mark);
+            out.write("KO\n");
+            out.write("Internal server error");
         }
-        // Costruisce la risposta da inviare al client
-        String response = StaticUtilities.concat("\n", command, outcome, message);
-        System.out.printf("[DISPATCHER] Sending response:\n%s\n", response);
-        // Buffer che contiene la stringa e la dimensione
-        ByteBuffer buffer = StaticUtilities.bufferizeString(response);
+        out.write('\n');
+        // Buffer che contiene intestazione e risposta
+        ByteBuffer buffer = out.finish();
+        System.out.printf("[DISPATCHER] Sending %s response %d (%d bytes)\n", command, requestId, buffer.remaining());
         // Restituisce tutte le informazioni necessarie al server
-        return new WriteInformations(buffer, friendKey);
+        return new WriteInformations(buffer, friendKeys, true, true);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,139 @@
+package it.unipi.studenti.wordquizzles.server.wqp;
+
+import java.io.Writer;
+import java.nio.ByteBuffer;
+
+import it.unipi.studenti.wordquizzles.shared.StaticUtilities;
+
+/**
+ * ResponseWriter scrive una risposta WQP codificandola in UTF-8 direttamente
+ * in un buffer del BufferPool. Lo spazio dell'intestazione viene riservato
+ * all'inizio e compilato da finish, quando la lunghezza è nota: i dati
+ * serializzati in JSON non passano da stringhe intermedie.
+ */
+public class ResponseWriter extends Writer {
+
+    // Buffer in cui viene scritta la risposta
+    private ByteBuffer buffer;
+
+    // Identificativo della richiesta a cui si risponde
+    private int requestId;
+
+    // Carattere alto di una coppia surrogata in attesa del carattere basso
+    private char highSurrogate;
+
+    /**
+     * Prepara la scrittura di una risposta.
+     *
+     * @param requestId Identificativo della richiesta a cui si risponde.
+     */
+    public ResponseWriter(int requestId) {
+        this.requestId = requestId;
+        buffer = BufferPool.acquire();
+        buffer.position(StaticUtilities.HEADER_LENGTH);
+    }
+
+    /**
+     * @return Posizione corrente, da passare a reset per annullare quanto scritto dopo.
+     */
+    public int mark() {
+        return buffer.position();
+    }
+
+    /**
+     * Annulla quanto scritto dopo la posizione passata.
+     *
+     * @param mark Posizione restituita da mark.
+     */
+    public void reset(int mark) {
+        buffer.position(mark);
+        highSurrogate = 0;
+    }
+
+    /**
+     * Garantisce lo spazio per altri byte, sostituendo il buffer con uno più
+     * grande se necessario.
+     *
+     * @param bytes Numero di byte da scrivere.
+     */
+    private void ensure(int bytes) {
+        if (buffer.remaining() >= bytes)
+            return;
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(2 * buffer.capacity(), buffer.position() + bytes));
+        buffer.flip();
+        larger.put(buffer);
+        BufferPool.release(buffer);
+        buffer = larger;
+    }
+
+    @Override
+    public void write(int c) {
+        char ch = (char) c;
+        // Un carattere fuori dal BMP arriva come coppia surrogata
+        if (Character.isHighSurrogate(ch)) {
+            highSurrogate = ch;
+            return;
+        }
+        if (Character.isLowSurrogate(ch) && highSurrogate != 0) {
+            int codePoint = Character.toCodePoint(highSurrogate, ch);
+            highSurrogate = 0;
+            ensure(4);
+            buffer.put((byte) (0xF0 | (codePoint >> 18)));
+            buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+            buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+            buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+            return;
+        }
+        highSurrogate = 0;
+        if (ch < 0x80) {
+            ensure(1);
+            buffer.put((byte) ch);
+        } else if (ch < 0x800) {
+            ensure(2);
+            buffer.put((byte) (0xC0 | (ch >> 6)));
+            buffer.put((byte) (0x80 | (ch & 0x3F)));
+        } else {
+            ensure(3);
+            buffer.put((byte) (0xE0 | (ch >> 12)));
+            buffer.put((byte) (0x80 | ((ch >> 6) & 0x3F)));
+            buffer.put((byte) (0x80 | (ch & 0x3F)));
+        }
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) {
+        for (int i = offset; i < offset + length; i++)
+            write(chars[i]);
+    }
+
+    @Override
+    public void write(String string, int offset, int length) {
+        for (int i = offset; i < offset + length; i++)
+            write(string.charAt(i));
+    }
+
+    @Override
+    public void write(String string) {
+        write(string, 0, string.length());
+    }
+
+    /**
+     * Compila l'intestazione e restituisce il frame pronto per la scrittura.
+     *
+     * @return Buffer contenente intestazione e risposta.
+     */
+    public ByteBuffer finish() {
+        buffer.flip();
+        buffer.putInt(0, buffer.limit() - StaticUtilities.HEADER_LENGTH);
+        buffer.putInt(Integer.BYTES, requestId);
+        return buffer;
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+}
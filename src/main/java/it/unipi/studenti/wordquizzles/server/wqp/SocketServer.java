@@ -7,13 +7,18 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.concurrent.ExecutionException;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import it.unipi.studenti.wordquizzles.server.challenge.ChallengeServer;
+import it.unipi.studenti.wordquizzles.shared.Configuration;
 import it.unipi.studenti.wordquizzles.shared.StaticUtilities;
 
 /**
@@ -28,8 +33,17 @@ public class SocketServer implements AutoCloseable {
     // Server socket su cui accettare connessioni
     private ServerSocketChannel channel;
 
-    // Thread pool a cui vengono assegnati i task
-    private ThreadPoolExecutor threadPool;
+    // Thread pool a cui vengono assegnati i comandi
+    private WorkerPool dispatchPool;
+
+    // Thread pool a cui vengono assegnate le partite
+    private WorkerPool matchPool;
+
+    // Thread che stampa periodicamente lo stato dei thread pool
+    private ScheduledExecutorService monitor;
+
+    // Operazioni da eseguire sul thread del selettore
+    private Queue<Runnable> tasks;
 
     /**
      * Istanzia il selettore
@@ -38,8 +52,30 @@ public class SocketServer implements AutoCloseable {
      * @throws IOException
      */
     public SocketServer(int portNumber) throws IOException {
-        // Thread pool che esegue le computazioni
-        threadPool = (ThreadPoolExecutor) Executors.newCachedThreadPool();
+        // Thread pool limitati: i comandi brevi non competono con le partite da 90 secondi
+        if (Configuration.VIRTUAL_THREADS) {
+            // Con i virtual thread le operazioni bloccanti (BCrypt, HTTP, inviti) non occupano thread di piattaforma
+            dispatchPool = WorkerPool.virtual("dispatch", Configuration.VIRTUAL_DISPATCH_MAX_TASKS);
+            matchPool = WorkerPool.virtual("match", Configuration.MATCH_MAX_THREADS);
+            if (dispatchPool == null || matchPool == null)
+                System.err.println("[SERVER] Virtual threads are not supported by this JVM, using platform threads");
+            else
+                System.out.println("[SERVER] Running commands and matches on virtual threads");
+        }
+        if (dispatchPool == null || matchPool == null) {
+            dispatchPool = new WorkerPool("dispatch", Configuration.DISPATCH_CORE_THREADS,
+                    Configuration.DISPATCH_MAX_THREADS, Configuration.DISPATCH_QUEUE_CAPACITY);
+            matchPool = new WorkerPool("match", Configuration.MATCH_CORE_THREADS,
+                    Configuration.MATCH_MAX_THREADS, Configuration.MATCH_QUEUE_CAPACITY);
+        }
+        monitor = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "pool-monitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        monitor.scheduleAtFixedRate(this::reportPools, Configuration.POOL_MONITOR_INTERVAL,
+                Configuration.POOL_MONITOR_INTERVAL, TimeUnit.MILLISECONDS);
+        tasks = new ConcurrentLinkedQueue<>();
         // Selettore che legge le connessioni
         selector = Selector.open();
         // Server socket su cui accettare le connessioni
@@ -51,187 +87,196 @@ public class SocketServer implements AutoCloseable {
     }
 
     /**
-     * Passa la computazione al thread pool e restituisce un attachment che dovrà
-     * essere scritto
+     * Accoda un'operazione da eseguire sul thread del selettore e lo risveglia.
+     * 
+     * @param task Operazione da eseguire.
+     */
+    private void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Stampa lo stato dei thread pool, segnalando quelli vicini alla saturazione.
+     */
+    private void reportPools() {
+        for (WorkerPool pool : new WorkerPool[] { dispatchPool, matchPool }) {
+            if (pool.isSaturated())
+                System.err.printf("[POOL] Saturated %s\n", pool.status());
+            else
+                System.out.printf("[POOL] %s\n", pool.status());
+        }
+    }
+
+    /**
+     * Passa la computazione al thread pool, che al termine accoda la risposta
+     * sulla connessione. Se il pool è saturo risponde subito con un errore; se
+     * la computazione fallisce risponde comunque con un errore, così che la
+     * richiesta non resti in corso.
      * 
-     * @param buffer Buffer contenente.
-     * @param key    Chiave che identifica il client.
-     * @return Future che rappresenta i dati da scrivere e le operazioni da eseguire
-     *         prossimamente
+     * @param buffer     Buffer contenente la richiesta.
+     * @param requestId  Identificativo della richiesta.
+     * @param connection Connessione che identifica il client.
      */
-    private Future<WriteInformations> elaborateRequest(ByteBuffer buffer, SelectionKey key) {
-        Future<WriteInformations> future = threadPool.submit(new DispatcherTask(buffer, key));
-        return future;
+    private void elaborateRequest(ByteBuffer buffer, int requestId, Connection connection) {
+        DispatcherTask task = new DispatcherTask(buffer, requestId, connection.getKey());
+        try {
+            dispatchPool.execute(() -> {
+                WriteInformations response;
+                try {
+                    response = task.call();
+                } catch (RuntimeException e) {
+                    System.err.printf("[SERVER] Request %d failed: %s\n", requestId, e);
+                    response = task.reject("Internal server error");
+                }
+                connection.complete(response);
+            });
+        } catch (RejectedExecutionException e) {
+            connection.complete(task.reject("Server busy, retry later"));
+        }
     }
 
     /**
-     * Alloca il buffer per leggere un intero e lo allega alla chiave per la lettura
+     * Accetta il client e allega alla chiave lo stato della connessione.
      * 
      * @param key Chiave del client appena connesso
      * @throws IOException Se non riesce ad accettare il nuovo client
      */
     private void registerClient(SelectionKey key) throws IOException {
-        // Buffer atto a contenere la dimensione del messaggio
-        ByteBuffer lengthBuffer = ByteBuffer.allocate(Integer.BYTES);
         // Socket del server
         ServerSocketChannel serverChannel = (ServerSocketChannel) key.channel();
         // Socket del client appena connesso
         SocketChannel clientChannel = serverChannel.accept();
+        if (clientChannel == null)
+            return;
         // Configura il client come non bloccante
         clientChannel.configureBlocking(false);
         // Registra il canale per la lettura
         SelectionKey readKey = clientChannel.register(selector, SelectionKey.OP_READ);
-        // Allega il buffer alla chiave
-        readKey.attach(lengthBuffer);
+        // Allega lo stato della connessione alla chiave
+        readKey.attach(new Connection(readKey, this::execute));
 
         System.out.printf("[SERVER] %s just connected to server\n", clientChannel.getRemoteAddress());
     }
 
     /**
-     * Legge il messaggio dell'utente
+     * Legge i messaggi dell'utente e li passa al thread pool. Se la connessione
+     * raggiunge il limite di richieste in corso smette di leggere finché non
+     * vengono scritte delle risposte.
      * 
      * @param key Chiave relativa al client
-     * @throws IOException
+     * @throws IOException Se non è possibile leggere dal canale.
      */
     private void readMessage(SelectionKey key) throws IOException {
-        // Socket del client
-        SocketChannel client = (SocketChannel) key.channel();
-        // Buffer associato al client
-        ByteBuffer buffer = (ByteBuffer) key.attachment();
-        // Legge i dati
-        int bytesRead = client.read(buffer);
-        System.out.printf("[SERVER] Read %d bytes from %s\n", bytesRead, client.getRemoteAddress());
+        // Stato della connessione
+        Connection connection = (Connection) key.attachment();
+        boolean closed = connection.read((requestId, buffer) -> {
+            System.out.printf("[SERVER] Just read request %d from %s\n", requestId, connection.getChannel().getRemoteAddress());
+            connection.requestStarted();
+            elaborateRequest(buffer, requestId, connection);
+        });
         // Se ha letto -1 significa che la connessione è stata chiusa
-        if (bytesRead == -1) {
-            StaticUtilities.removeKey(key);
-            return;
-        }
-        // Se ha altro da leggere esce (tornerà quando potrà leggere di nuovo)
-        if (buffer.hasRemaining()) {
-            System.out.println("[SERVER] Read not finished");
+        if (closed) {
+            connection.close();
             return;
         }
-        // Mette il buffer in modalità di lettura
-        buffer.flip();
-        // Se ha appena letto la dimensione rialloca l'array e lo allega
-        if (buffer.array().length == Integer.BYTES) {
-            // Lunghezza del messaggio
-            int size = buffer.getInt();
-            System.out.printf("[SERVER] Waiting for a message %d bytes long\n", size);
-            // Buffer che deve contenere il messaggio
-            buffer = ByteBuffer.allocate(size);
-            key.attach(buffer);
-        }
-        // Altrimenti legge il messaggio e registra il canale per la scrittura
-        else {
-            Future<WriteInformations> writeBuffer = elaborateRequest(buffer, key);
-            key.interestOps(SelectionKey.OP_WRITE);
-            key.attach(writeBuffer);
-            System.out.printf("[SERVER] Just read message from %s\n", client.getRemoteAddress());
-        }
+        connection.updateInterest();
     }
 
     /**
-     * Attende che il messaggio sia pronto e poi lo scrive a blocchi
+     * Scrive le risposte pronte a blocchi.
      * 
      * @param key Chiave che rappresenta il client pronto per la scrittura
-     * @throws IOException          Se c'è un problema a scrivere il messaggio
-     * @throws ExecutionException
-     * @throws InterruptedException
+     * @throws IOException Se c'è un problema a scrivere il messaggio
      */
-    private void writeMessage(SelectionKey key) throws IOException, InterruptedException, ExecutionException {
-        // Oggetto che rappresenta i dati da scrivere (non è possibile evitare l'unchecked warning)
-        @SuppressWarnings("unchecked")
-        Future<WriteInformations> future = (Future<WriteInformations>) key.attachment();
-        // Se i dati non sono ancora stati elaborati non fa niente
-        if (!future.isDone())
-            return;
-        // Client a cui scrivere
-        SocketChannel client = (SocketChannel) key.channel();
-        // Informazioni contenute nel client
-        WriteInformations informations = future.get();
-        // Buffer contenente la risposta da inviare al client
-        ByteBuffer response = informations.getBuffer();
-        // Scrive sul canale
-        client.write(response);
-        // Se non ha ancora finito esce (rientrerà nella funzione per scrivere ancora)
-        if (response.hasRemaining())
-            return;
-        System.out.printf("[SERVER] Just sent message to %s\n", client.getRemoteAddress());
-        // Eventuale chiave dello sfidante
-        SelectionKey friendKey = informations.getFriendKey();
-        boolean successifullyRegistered = false;
-        // Se la chiave è non nulla registra i due client per la sfida
-        if (friendKey != null)
-            successifullyRegistered = registerChallenge(key, friendKey);
-        // Se la registrazione ha avuto successo ha terminato
-        if (successifullyRegistered)
+    private void writeMessage(SelectionKey key) throws IOException {
+        // Stato della connessione
+        Connection connection = (Connection) key.attachment();
+        // Scrive le risposte finché il canale le accetta
+        WriteInformations challenge = connection.flush();
+        // Se è stata scritta una sfida accettata registra i due client per la sfida
+        if (challenge != null) {
+            System.out.printf("[SERVER] Just sent challenge acceptance to %s\n", connection.getChannel().getRemoteAddress());
+            registerChallenge(key, challenge.getFriendKeys());
             return;
-        // Altrimenti registra di nuovo il client per la lettura
-        key.interestOps(SelectionKey.OP_READ);
-        // Buffer necessario a leggere la dimensione del messaggio
-        ByteBuffer lengthBuffer = ByteBuffer.allocate(Integer.BYTES);
-        // Usa il buffer per la lettura
-        key.attach(lengthBuffer);
+        }
+        connection.updateInterest();
     }
 
     /**
-     * Registra i due client per una sfida.
-     * 
-     * @param key       Chiave dell'utente sfidante.
-     * @param friendKey Chiave dell'utente sfidato.
+     * Registra i client per una sfida.
      * 
-     * @return Flag che indica se la registrazione è andata a buon fine.
+     * @param key        Chiave dell'utente sfidante.
+     * @param friendKeys Chiavi degli utenti sfidati che hanno accettato.
      */
-    private boolean registerChallenge(SelectionKey key, SelectionKey friendKey) {
-        // Istanzia una nuova challenge
-        ChallengeServer challengeServer;
+    private void registerChallenge(SelectionKey key, List<SelectionKey> friendKeys) {
+        // Connessioni dei giocatori, dallo sfidante
+        List<Connection> connections = new ArrayList<>(friendKeys.size() + 1);
+        connections.add((Connection) key.attachment());
+        for (SelectionKey friendKey : friendKeys)
+            connections.add((Connection) friendKey.attachment());
+        // Istanzia una nuova challenge: le traduzioni vengono reperite dal thread pool delle partite
+        ChallengeServer challengeServer = new ChallengeServer(connections);
+        // Deregistra le chiavi dal selettore principale
+        for (Connection connection : connections)
+            connection.startChallenge();
+        System.out.println("[SERVER] Deregistered keys from the main selector");
+        // Invia la challenge al threadpool per la preparazione
         try {
-            challengeServer = new ChallengeServer(key, friendKey, selector);
-            // Deregistra le chiavi dal selettore principale
-            key.interestOps(0);
-            friendKey.interestOps(0);
-            System.out.println("[SERVER] Deregistered keys from the main selector");
-            // Invia la challenge al threadpool per l'esecuzione
-            threadPool.execute(challengeServer);
-        } catch (IOException e) {
-            System.err.println("[SERVER] Challenge will not start - unable to retrieve translations");
-            return false;
+            matchPool.execute(challengeServer);
+        } catch (RejectedExecutionException e) {
+            // Annulla la partita: i client hanno già ricevuto l'accettazione e attendono un report
+            System.err.println("[SERVER] Challenge will not start - match pool is full");
+            ByteBuffer report = StaticUtilities.bufferizeString(
+                    StaticUtilities.concat("\n", "REPORT", "KO", "Server busy, the challenge was cancelled"));
+            for (Connection connection : connections) {
+                connection.enqueue(report.duplicate());
+                connection.endChallenge();
+            }
         }
-        return true;
     }
 
     /**
      * Entra in un loop in cui accetta le connessioni, legge e scrive i dati.
      * 
-     * @throws IOException          Se c'è un errore nella lettura di una chiave.
-     * @throws ExecutionException   Se non è possibile eseguire il thread della
-     *                              partita.
-     * @throws InterruptedException Se il thread principale viene interrotto.
+     * @throws IOException Se c'è un errore nella selezione delle chiavi.
      */
-    public void start() throws IOException, InterruptedException, ExecutionException {
+    public void start() throws IOException {
         System.out.printf("[SERVER] TCP Server started on local address %s\n", channel.getLocalAddress());
         while (!Thread.interrupted()) {
             // Seleziona le chiavi attive
             selector.select();
+            // Esegue le operazioni richieste dagli altri thread
+            Runnable task;
+            while ((task = tasks.poll()) != null)
+                task.run();
             // Iteratore sulle chiavi
             Iterator<SelectionKey> keysIterator = selector.selectedKeys().iterator();
             while (keysIterator.hasNext()) {
                 // Chiave corrente che viene rimossa dal selected set
                 SelectionKey key = keysIterator.next();
                 keysIterator.remove();
-                // Se la chiave non è valida esce
+                // Se la chiave non è valida passa alla successiva
                 if (!key.isValid())
-                    return;
-                // Quando il client si connette lo registra per la lettura
-                if (key.isAcceptable())
-                    registerClient(key);
-                // Quando il client è pronto a leggere legge il messaggio
-                else if (key.isReadable())
-                    readMessage(key);
-                // Quando il client è pronto a scrivere scrive il messaggio
-                else if (key.isWritable())
-                    writeMessage(key);
+                    continue;
+                try {
+                    // Quando il client si connette lo registra per la lettura
+                    if (key.isAcceptable())
+                        registerClient(key);
+                    else {
+                        // Quando il client è pronto a leggere legge il messaggio
+                        if (key.isReadable())
+                            readMessage(key);
+                        // Quando il client è pronto a scrivere scrive il messaggio
+                        if (key.isValid() && key.isWritable())
+                            writeMessage(key);
+                    }
+                } catch (IOException e) {
+                    // Un errore su un client chiude solo la sua connessione
+                    System.err.printf("[SERVER] Closing connection after error: %s\n", e.getMessage());
+                    if (key.attachment() instanceof Connection)
+                        ((Connection) key.attachment()).close();
+                }
             }
         }
         System.out.println("[SERVER] Server stopped, goodbye.");
@@ -242,6 +287,9 @@ public class SocketServer implements AutoCloseable {
      */
     @Override
     public void close() throws IOException {
+        monitor.shutdownNow();
+        dispatchPool.shutdown();
+        matchPool.shutdown();
         selector.close();
         channel.close();
     }
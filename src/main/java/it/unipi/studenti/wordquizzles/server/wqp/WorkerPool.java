@@ -0,0 +1,185 @@
+package it.unipi.studenti.wordquizzles.server.wqp;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * WorkerPool è un thread pool con un numero massimo di thread e una coda
+ * limitata. Quando entrambi sono pieni rifiuta il task lanciando una
+ * RejectedExecutionException, che il chiamante trasforma in una risposta di
+ * errore per il client. Tiene il conto dei task rifiutati per il monitoraggio.
+ *
+ * In alternativa può eseguire ogni task su un virtual thread (JDK 21 o
+ * successivi): in questo caso non c'è coda e il limite riguarda il numero di
+ * task in esecuzione contemporaneamente.
+ */
+public class WorkerPool implements Executor {
+
+    // Secondi dopo cui un thread inattivo viene terminato
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    // Nome del pool, usato per i thread e nei log
+    private String name;
+
+    // Esecutore che esegue i task
+    private ExecutorService executor;
+
+    // Coda dei task in attesa di un thread, null con i virtual thread
+    private BlockingQueue<Runnable> queue;
+
+    // Capacità massima della coda, oppure numero massimo di task con i virtual thread
+    private int capacity;
+
+    // Permessi dei task in esecuzione sui virtual thread, null con i thread di piattaforma
+    private Semaphore permits;
+
+    // Numero di task completati sui virtual thread
+    private LongAdder completed;
+
+    // Numero di task rifiutati
+    private LongAdder rejected;
+
+    /**
+     * Crea il pool su thread di piattaforma.
+     *
+     * @param name          Nome del pool.
+     * @param coreThreads   Numero di thread mantenuti prima di accodare i task.
+     * @param maxThreads    Numero massimo di thread, usati solo a coda piena.
+     * @param queueCapacity Numero massimo di task in coda.
+     */
+    public WorkerPool(String name, int coreThreads, int maxThreads, int queueCapacity) {
+        this.name = name;
+        capacity = queueCapacity;
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        rejected = new LongAdder();
+        // Numera i thread per riconoscerli nei dump
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor threadPool = new ThreadPoolExecutor(coreThreads, maxThreads, KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, queue, task -> new Thread(task, name + "-" + threadNumber.incrementAndGet()),
+                new ThreadPoolExecutor.AbortPolicy());
+        // Come il pool dinamico, a riposo non mantiene thread attivi
+        threadPool.allowCoreThreadTimeOut(true);
+        executor = threadPool;
+    }
+
+    /**
+     * Crea il pool su virtual thread.
+     *
+     * @param name     Nome del pool.
+     * @param executor Esecutore che crea un virtual thread per ogni task.
+     * @param maxTasks Numero massimo di task in esecuzione.
+     */
+    private WorkerPool(String name, ExecutorService executor, int maxTasks) {
+        this.name = name;
+        this.executor = executor;
+        capacity = maxTasks;
+        queue = null;
+        permits = new Semaphore(maxTasks);
+        completed = new LongAdder();
+        rejected = new LongAdder();
+    }
+
+    /**
+     * Crea un pool che esegue ogni task su un virtual thread. L'esecutore viene
+     * cercato tramite reflection, così che il codice compili anche per Java 8.
+     *
+     * @param name     Nome del pool.
+     * @param maxTasks Numero massimo di task in esecuzione.
+     * @return Pool su virtual thread, oppure null se la JVM non li supporta.
+     */
+    public static WorkerPool virtual(String name, int maxTasks) {
+        try {
+            ExecutorService executor = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            return new WorkerPool(name, executor, maxTasks);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Esegue il task se c'è un thread o un posto in coda disponibile.
+     *
+     * @param task Task da eseguire.
+     * @throws RejectedExecutionException Se il pool è saturo o chiuso.
+     */
+    @Override
+    public void execute(Runnable task) {
+        try {
+            if (permits == null)
+                executor.execute(task);
+            else
+                executeVirtual(task);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw e;
+        }
+    }
+
+    /**
+     * Esegue il task su un virtual thread se non è stato raggiunto il limite.
+     *
+     * @param task Task da eseguire.
+     * @throws RejectedExecutionException Se il pool è saturo o chiuso.
+     */
+    private void executeVirtual(Runnable task) {
+        if (!permits.tryAcquire())
+            throw new RejectedExecutionException(name + " is saturated");
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    completed.increment();
+                    permits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * @return Numero di task in attesa o, con i virtual thread, in esecuzione.
+     */
+    private int pending() {
+        return (permits == null) ? queue.size() : capacity - permits.availablePermits();
+    }
+
+    /**
+     * @return Flag che indica se il pool ha superato i tre quarti della capacità.
+     */
+    public boolean isSaturated() {
+        return pending() * 4 >= capacity * 3;
+    }
+
+    /**
+     * @return Stringa che descrive lo stato corrente del pool.
+     */
+    public String status() {
+        if (permits != null)
+            return String.format("%s: %d/%d virtual tasks running, %d completed, %d rejected", name, pending(),
+                    capacity, completed.sum(), rejected.sum());
+        ThreadPoolExecutor threadPool = (ThreadPoolExecutor) executor;
+        return String.format("%s: %d/%d threads active, %d/%d queued, %d completed, %d rejected", name,
+                threadPool.getActiveCount(), threadPool.getMaximumPoolSize(), pending(), capacity,
+                threadPool.getCompletedTaskCount(), rejected.sum());
+    }
+
+    /**
+     * Termina il pool dopo aver eseguito i task accodati.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -9,12 +9,22 @@ import java.net.SocketTimeoutException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import it.unipi.studenti.wordquizzles.server.challenge.ChallengeServer;
+import it.unipi.studenti.wordquizzles.server.challenge.Matchmaker;
 import it.unipi.studenti.wordquizzles.server.services.AccountService;
+import it.unipi.studenti.wordquizzles.server.services.HistoryService;
+import it.unipi.studenti.wordquizzles.server.tournament.Tournament;
+import it.unipi.studenti.wordquizzles.server.tournament.TournamentService;
 import it.unipi.studenti.wordquizzles.shared.Configuration;
 import it.unipi.studenti.wordquizzles.shared.StaticUtilities;
+import it.unipi.studenti.wordquizzles.shared.wqp.Statistics;
 import it.unipi.studenti.wordquizzles.shared.wqp.WQPException;
 
 /**
@@ -57,7 +67,10 @@ public class WorkerTask {
      * @throws WQPException Se non è possibile fare il logout con questo account.
      */
     public String doLogout() throws WQPException {
-        return StaticUtilities.logoutUser(key);
+        String username = StaticUtilities.logoutUser(key);
+        // Un utente uscito non può più essere accoppiato
+        Matchmaker.forget(key);
+        return username;
     }
 
     /**
@@ -96,63 +109,247 @@ public class WorkerTask {
     }
 
     /**
-     * Esegue una richiesta di sfida dall'utente corrente allo username dato.
+     * Sceglie se nelle prossime sfide l'utente riceverà una parola alla volta
+     * oppure tutte le parole all'inizio.
      * 
-     * @param friendUsername Nome dell'utente da sfidare.
-     * @return Se l'utente ha accettato la sfida, la chiave che lo identifica. Altrimenti null.
-     * @throws WQPException Se non è possibile sfidare l'utente.
+     * @param prefetch Flag che indica se ricevere tutte le parole all'inizio.
+     * @throws WQPException Se l'utente non è connesso.
      */
-    public SelectionKey doChallengeRequest(String friendUsername) throws WQPException {
-        // Chiave dell'amico da sfidare
-        SelectionKey friendKey = accountService.getSelectionKey(friendUsername);
-        // Invita l'utente amico
-        boolean accepted = inviteUser(friendKey);
-        // Se l'invito è stato accettato restituisce la chiave
-        if (accepted)
-            return friendKey;
-        // Altrimenti restituisce null
-        return null;
+    public void doPrefetch(boolean prefetch) throws WQPException {
+        accountService.getUsername(key);
+        ((Connection) key.attachment()).setPrefetch(prefetch);
     }
 
     /**
-     * Invita l'utente dalla chiave passata da parte dell'utente corrente.
+     * @param username Username dell'utente, null per l'utente corrente.
+     * @return Statistiche di gioco dell'utente.
+     * @throws WQPException Se l'utente corrente non è connesso o l'utente richiesto non esiste.
+     */
+    public Statistics doStats(String username) throws WQPException {
+        // Solo un utente connesso può leggere le statistiche
+        String current = accountService.getUsername(key);
+        return accountService.getStatistics((username != null) ? username : current);
+    }
+
+    /**
+     * @param count  Numero massimo di partite.
+     * @param offset Numero di partite recenti da saltare.
+     * @return Partite dell'utente corrente in formato JSON, dalla più recente.
+     * @throws WQPException Se l'utente non è connesso o lo storico non è disponibile.
+     */
+    public List<String> doHistory(int count, int offset) throws WQPException {
+        String username = accountService.getUsername(key);
+        try {
+            return HistoryService.getInstance().getHistory(username, count, offset);
+        } catch (IOException e) {
+            throw new WQPException("History not available");
+        }
+    }
+
+    /**
+     * Esegue una lettura composta su uno stato coerente degli account.
      * 
-     * @param friendKey Amico da sfidare
-     * @return Flag che indica se l'invito è stato accettato.
-     * @throws WQPException Se non è possibile inviare l'invito.
+     * @param snapshot Lettura da eseguire.
+     * @return Risultato della lettura.
+     * @throws WQPException Se la lettura non è andata a buon fine.
      */
-    private boolean inviteUser(SelectionKey friendKey) throws WQPException {
-        // Username dell'utente corrente
+    public <T> T doSnapshot(AccountService.Snapshot<T> snapshot) throws WQPException {
+        return accountService.snapshot(snapshot);
+    }
+
+    /**
+     * Mette l'utente corrente nella coda delle partite automatiche, nella fascia
+     * del suo punteggio, oppure lo toglie dalla coda.
+     * 
+     * @param cancel Flag che indica se togliere l'utente dalla coda.
+     * @throws WQPException Se l'utente non è connesso, è già impegnato o non è in coda.
+     */
+    public void doMatchmake(boolean cancel) throws WQPException {
+        String username = accountService.getUsername(key);
+        Connection connection = (Connection) key.attachment();
+        if (cancel)
+            Matchmaker.getInstance().cancel(connection);
+        else
+            Matchmaker.getInstance().enqueue(connection, username, accountService.getPoints(key));
+    }
+
+    /**
+     * Iscrive l'utente corrente come spettatore della partita in corso di un
+     * altro utente. Gli eventi della partita arrivano come messaggi SPECTATE
+     * senza richiesta, fino all'evento END.
+     * 
+     * @param username Username del giocatore da guardare.
+     * @throws WQPException Se l'utente non è connesso o il giocatore non sta giocando.
+     */
+    public void doSpectate(String username) throws WQPException {
+        if (accountService.getUsername(key).equals(username))
+            throw new WQPException("You can't spectate yourself");
+        ChallengeServer.spectate(username, (Connection) key.attachment());
+    }
+
+    /**
+     * Crea un torneo di cui l'utente corrente è il primo iscritto.
+     * 
+     * @param name   Nome del torneo.
+     * @param format Formato del torneo.
+     * @param rounds Numero di turni di un torneo svizzero, 0 per sceglierlo in base agli iscritti.
+     * @throws WQPException Se l'utente non è connesso o il torneo non può essere creato.
+     */
+    public void doCreateTournament(String name, Tournament.Format format, int rounds) throws WQPException {
+        String username = accountService.getUsername(key);
+        tournamentService().create(name, username, format, rounds);
+    }
+
+    /**
+     * @param name Nome del torneo a cui iscrivere l'utente corrente.
+     * @return Numero di iscritti.
+     * @throws WQPException Se l'utente non è connesso o il torneo non accetta l'iscrizione.
+     */
+    public int doJoinTournament(String name) throws WQPException {
         String username = accountService.getUsername(key);
-        // Username dell'utente da sfidare
-        String friendUsername = accountService.getUsername(friendKey);
-        // Controlla che gli username non siano uguali
-        if (username.equals(friendUsername))
-            throw new WQPException("You can't invite yourself");
-        // Indirizzo dell'utente da sfidare
-        SocketAddress friendAddress;
+        return tournamentService().join(name, username);
+    }
+
+    /**
+     * @param name Nome del torneo da avviare.
+     * @throws WQPException Se l'utente non è connesso o non può avviare il torneo.
+     */
+    public void doStartTournament(String name) throws WQPException {
+        String username = accountService.getUsername(key);
+        tournamentService().start(name, username);
+    }
+
+    /**
+     * @param name Nome del torneo.
+     * @return Stato del torneo.
+     * @throws WQPException Se l'utente non è connesso o il torneo non esiste.
+     */
+    public Tournament doTournamentInfo(String name) throws WQPException {
+        accountService.getUsername(key);
+        return tournamentService().get(name);
+    }
+
+    /**
+     * @return Nomi dei tornei.
+     * @throws WQPException Se l'utente non è connesso.
+     */
+    public List<String> doTournamentList() throws WQPException {
+        accountService.getUsername(key);
+        return tournamentService().getNames();
+    }
+
+    /**
+     * @return Servizio dei tornei.
+     * @throws WQPException Se i tornei non sono disponibili.
+     */
+    private TournamentService tournamentService() throws WQPException {
         try {
-            friendAddress = ((SocketChannel) friendKey.channel()).getRemoteAddress();
+            return TournamentService.getInstance();
         } catch (IOException e) {
-            throw new WQPException("Unable to retrieve friend address");
+            throw new WQPException("Tournaments not available");
         }
+    }
+
+    /**
+     * Esegue una richiesta di sfida dall'utente corrente agli username dati.
+     * Gli inviti partono insieme; la partita si gioca con chi ha accettato.
+     * 
+     * @param friendUsernames Nomi degli utenti da sfidare.
+     * @return Chiavi degli utenti che hanno accettato la sfida, vuota se nessuno ha accettato.
+     * @throws WQPException Se non è possibile sfidare gli utenti.
+     */
+    public List<SelectionKey> doChallengeRequest(List<String> friendUsernames) throws WQPException {
+        if (friendUsernames.size() >= Configuration.ROOM_MAX_PLAYERS)
+            throw new WQPException("Too many players");
+        // Chiavi degli amici da sfidare, senza ripetizioni
+        Set<SelectionKey> friendKeys = new LinkedHashSet<>();
+        for (String friendUsername : friendUsernames) {
+            SelectionKey friendKey = accountService.getSelectionKey(friendUsername);
+            if (friendKey == key)
+                throw new WQPException("You can't invite yourself");
+            friendKeys.add(friendKey);
+        }
+        // Prenota le connessioni per evitare inviti o sfide sovrapposte
+        Connection connection = (Connection) key.attachment();
+        if (!connection.reserve())
+            throw new WQPException("You are already in a challenge");
+        List<SelectionKey> reserved = new ArrayList<>(friendKeys.size());
+        for (SelectionKey friendKey : friendKeys) {
+            if (((Connection) friendKey.attachment()).reserve())
+                reserved.add(friendKey);
+        }
+        if (reserved.isEmpty()) {
+            connection.release();
+            throw new WQPException((friendKeys.size() == 1) ? "User is already in a challenge" : "Users are already in a challenge");
+        }
+        // Invita gli utenti amici
+        List<SelectionKey> accepted = new ArrayList<>(reserved.size());
+        try {
+            accepted = inviteUsers(reserved);
+        } finally {
+            // Libera le connessioni di chi non ha accettato, e la propria se nessuno ha accettato
+            for (SelectionKey friendKey : reserved) {
+                if (!accepted.contains(friendKey))
+                    ((Connection) friendKey.attachment()).release();
+            }
+            if (accepted.isEmpty())
+                connection.release();
+        }
+        return accepted;
+    }
+
+    /**
+     * Invita gli utenti dalle chiavi passate da parte dell'utente corrente. Gli
+     * inviti partono tutti dallo stesso socket e le risposte vengono attese
+     * insieme, così che il tempo di attesa non cresca con il numero di invitati.
+     * 
+     * @param friendKeys Amici da sfidare
+     * @return Chiavi degli amici che hanno accettato l'invito.
+     * @throws WQPException Se non è possibile inviare gli inviti.
+     */
+    private List<SelectionKey> inviteUsers(List<SelectionKey> friendKeys) throws WQPException {
+        // Username dell'utente corrente
+        String username = accountService.getUsername(key);
+        // Pacchetto che contiene lo username
+        byte[] data = username.getBytes(StandardCharsets.UTF_8);
+        List<SelectionKey> accepted = new ArrayList<>(friendKeys.size());
         try (DatagramSocket socket = new DatagramSocket()) {
-            // Pacchetto che contiene lo username
-            DatagramPacket packet = new DatagramPacket(username.getBytes(StandardCharsets.UTF_8), username.length(), friendAddress);
-            // Invia lo username sul socket
-            socket.send(packet);
-            // Setta il timeout per la ricezione
-            socket.setSoTimeout(Configuration.TIMEOUT);
-            // Riceve il pacchetto
-            socket.receive(packet);
-            System.out.println("[WORKER] Invitation accepted");
-            return true;
+            // Amici invitati, per indirizzo da cui arriverà la risposta
+            Map<SocketAddress, SelectionKey> invited = new HashMap<>();
+            for (SelectionKey friendKey : friendKeys) {
+                // Indirizzo dell'utente da sfidare
+                SocketAddress friendAddress;
+                try {
+                    friendAddress = ((SocketChannel) friendKey.channel()).getRemoteAddress();
+                } catch (IOException e) {
+                    throw new WQPException("Unable to retrieve friend address");
+                }
+                // Invia lo username sul socket
+                socket.send(new DatagramPacket(data, data.length, friendAddress));
+                invited.put(friendAddress, friendKey);
+            }
+            // Istante oltre il quale gli inviti senza risposta si considerano rifiutati
+            long deadline = System.currentTimeMillis() + Configuration.TIMEOUT;
+            byte[] reply = new byte[data.length];
+            while (!invited.isEmpty()) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0)
+                    break;
+                // Setta il timeout per la ricezione
+                socket.setSoTimeout((int) remaining);
+                DatagramPacket packet = new DatagramPacket(reply, reply.length);
+                socket.receive(packet);
+                SelectionKey friendKey = invited.remove(packet.getSocketAddress());
+                if (friendKey != null)
+                    accepted.add(friendKey);
+            }
         // Se il pacchetto non arriva entro il timeout si considera che l'invito sia stato rifiutato
         } catch (SocketTimeoutException e) {
-            System.out.println("[WORKER] Invitation refused");
-            return false;
+            // Gli inviti ancora senza risposta sono rifiutati
         } catch (IOException e) {
             throw new WQPException("Unable to send invitation");
         }
+        System.out.printf("[WORKER] %d of %d invitations accepted\n", accepted.size(), friendKeys.size());
+        return accepted;
     }
-}
\ No newline at end of file
+}
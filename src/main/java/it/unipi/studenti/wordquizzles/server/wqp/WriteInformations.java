@@ -2,26 +2,56 @@ package it.unipi.studenti.wordquizzles.server.wqp;
 
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
+import java.util.List;
 
 /**
- * WriteInformations contiene il buffer da scrivere all'utente ed eventualmente il riferimento alla chiave dello sfidante da spostare in un thread dedicato.
+ * WriteInformations contiene il buffer da scrivere all'utente ed eventualmente le chiavi degli sfidanti da spostare nella partita.
  */
 public class WriteInformations {
 
     // Buffer contenente le informazioni da scrivere
     private ByteBuffer buffer;
 
-    // Chiave eventuale dello sfidante
-    private SelectionKey friendKey;
+    // Chiavi degli sfidanti che hanno accettato, null se il buffer non avvia una partita
+    private List<SelectionKey> friendKeys;
+
+    // Flag che indica se il buffer chiude una richiesta conteggiata tra quelle in corso
+    private boolean tracked;
+
+    // Flag che indica se il buffer appartiene al BufferPool e va restituito dopo la scrittura
+    private boolean pooled;
+
+    /**
+     * Inizializza l'oggetto passando i parametri
+     * @param buffer     Buffer da scrivere al client.
+     * @param friendKeys Chiavi degli sfidanti, null se il buffer non avvia una partita.
+     */
+    public WriteInformations(ByteBuffer buffer, List<SelectionKey> friendKeys) {
+        this(buffer, friendKeys, true);
+    }
+
+    /**
+     * Inizializza l'oggetto passando i parametri
+     * @param buffer     Buffer da scrivere al client.
+     * @param friendKeys Chiavi degli sfidanti, null se il buffer non avvia una partita.
+     * @param tracked    Flag che indica se il buffer è la risposta ad una richiesta in corso.
+     */
+    public WriteInformations(ByteBuffer buffer, List<SelectionKey> friendKeys, boolean tracked) {
+        this(buffer, friendKeys, tracked, false);
+    }
 
     /**
      * Inizializza l'oggetto passando i parametri
-     * @param buffer    Buffer da scrivere al client.
-     * @param friendKey Chiave dell'amico
+     * @param buffer     Buffer da scrivere al client.
+     * @param friendKeys Chiavi degli sfidanti, null se il buffer non avvia una partita.
+     * @param tracked    Flag che indica se il buffer è la risposta ad una richiesta in corso.
+     * @param pooled     Flag che indica se il buffer va restituito al BufferPool dopo la scrittura.
      */
-    public WriteInformations(ByteBuffer buffer, SelectionKey friendKey) {
+    public WriteInformations(ByteBuffer buffer, List<SelectionKey> friendKeys, boolean tracked, boolean pooled) {
         this.buffer = buffer;
-        this.friendKey = friendKey;
+        this.friendKeys = friendKeys;
+        this.tracked = tracked;
+        this.pooled = pooled;
     }
 
     /**
@@ -32,9 +62,23 @@ public class WriteInformations {
     }
 
     /**
-     * @return Eventuale chiave della connessione dell'amico.
+     * @return Chiavi degli sfidanti che hanno accettato, null se il buffer non avvia una partita.
+     */
+    public List<SelectionKey> getFriendKeys() {
+        return friendKeys;
+    }
+
+    /**
+     * @return Flag che indica se il buffer è la risposta ad una richiesta in corso.
+     */
+    public boolean isTracked() {
+        return tracked;
+    }
+
+    /**
+     * @return Flag che indica se il buffer va restituito al BufferPool dopo la scrittura.
      */
-    public SelectionKey getFriendKey() {
-        return friendKey;
+    public boolean isPooled() {
+        return pooled;
     }
-}
\ No newline at end of file
+}
@@ -23,6 +23,15 @@ public class Configuration {
     // Punti bonus per chi vince la partita
     public static int BONUS_POINTS = 3;
 
+    // Flag che indica se le risposte corrette ricevono punti extra in base alla velocità
+    public static boolean SPEED_SCORING = false;
+
+    // Punti extra massimi per una risposta corretta immediata
+    public static int SPEED_BONUS_POINTS = 2;
+
+    // Tempo di risposta in millisecondi oltre il quale una risposta corretta non riceve punti extra
+    public static long SPEED_BONUS_WINDOW = 10000;
+
     // Numero di tentativi di invio/ricezione da fare prima di lanciare una eccezione
     public static int RETRIES = 3;
 
@@ -38,12 +47,165 @@ public class Configuration {
     // Nome del file in cui sono contenute le informazioni sugli account
     public static String USERS_FILENAME = "users.json";
 
+    // Flag che indica se il file degli account viene scritto indentato (più leggibile ma più lento)
+    public static boolean USERS_PRETTY_PRINT = false;
+
+    // Partizioni in cui sono divisi gli account, ognuna salvata nel proprio file (users-<indice>.json)
+    public static int ACCOUNT_SHARDS = 16;
+
+    // Intervallo massimo in millisecondi tra la modifica di un account e il suo salvataggio su disco
+    public static long PERSIST_INTERVAL = 1000;
+
+    // Modifiche agli account non salvate oltre le quali il salvataggio viene anticipato (perse al più in caso di crash)
+    public static int PERSIST_MAX_PENDING_MUTATIONS = 1000;
+
+    // Identificativi di partite registrate ricordati per ignorare le registrazioni ripetute
+    public static int COMMITTED_MATCHES_REMEMBERED = 10000;
+
+    // Cartella che contiene i segmenti dello storico delle partite
+    public static String HISTORY_DIRECTORY = "history";
+
+    // Dimensione in byte oltre la quale lo storico passa ad un nuovo segmento
+    public static long HISTORY_SEGMENT_BYTES = 16 << 20;
+
+    // Segmenti dello storico consultabili, i più vecchi vengono compressi nell'archivio
+    public static int HISTORY_RETAINED_SEGMENTS = 32;
+
+    // Partite concluse che possono attendere la scrittura nello storico
+    public static int HISTORY_QUEUE_CAPACITY = 10000;
+
+    // Partite restituite da HISTORY se il client non ne specifica il numero
+    public static int HISTORY_PAGE_SIZE = 10;
+
+    // Numero massimo di partite restituite da una richiesta HISTORY
+    public static int HISTORY_MAX_PAGE_SIZE = 50;
+
+    // Nome del file binario in cui sono salvate le statistiche di gioco degli utenti
+    public static String STATS_FILENAME = "stats.bin";
+
+    // Thread che interpretano in parallelo il file degli account all'avvio
+    public static int LOAD_THREADS = Runtime.getRuntime().availableProcessors();
+
+    // Dimensione minima in byte della porzione del file degli account interpretata da un thread
+    public static int LOAD_CHUNK_BYTES = 1 << 20;
+
     // Nome del file in cui sono memorizzate le parole per le sfide
     public static String WORDS_FILENAME = "words.txt";
 
     // Numero di parole inviate per ogni partita
     public static int WORDS_PER_MATCH = 5;
 
+    // Suffisso del file, accanto a quello delle parole, in cui vengono salvate le statistiche delle risposte
+    public static String WORD_STATS_SUFFIX = ".stats";
+
+    // Fasce di difficoltà da cui vengono estratte in parti uguali le parole di una partita
+    public static int DIFFICULTY_BANDS = 3;
+
+    // Intervallo in millisecondi tra due ricalcoli delle fasce (e salvataggi delle statistiche)
+    public static long DIFFICULTY_REBUILD_INTERVAL = 60000;
+
+    // Peso del tempo medio di risposta nella difficoltà di una parola (il resto è la frequenza di errore)
+    public static double DIFFICULTY_LATENCY_WEIGHT = 0.25;
+
+    // Tempo medio di risposta in millisecondi oltre il quale una parola è la più lenta possibile
+    public static long DIFFICULTY_LATENCY_CEILING = 10000;
+
+    // Parole per generazione dell'insieme delle parole viste di recente da un utente (ne vengono ricordate fino al doppio)
+    public static int RECENT_WORDS_WINDOW = 100;
+
+    // Partite dello storico da cui vengono ricostruite le parole recenti di un utente
+    public static int RECENT_WORDS_HISTORY_MATCHES = 20;
+
+    // Numero massimo di richieste in corso per ogni connessione
+    public static int MAX_IN_FLIGHT_REQUESTS = 8;
+
+    // Dimensione massima in byte del messaggio di un frame ricevuto dal server
+    public static int MAX_FRAME_BYTES = 1 << 16;
+
+    // Numero massimo di sottocomandi in una richiesta MULTI
+    public static int MULTI_MAX_COMMANDS = 8;
+
+    // Thread sempre disponibili per l'esecuzione dei comandi (gli inviti ne occupano uno fino al timeout)
+    public static int DISPATCH_CORE_THREADS = 32;
+
+    // Thread massimi per l'esecuzione dei comandi, usati solo a coda piena
+    public static int DISPATCH_MAX_THREADS = 64;
+
+    // Comandi che possono attendere un thread prima di essere rifiutati
+    public static int DISPATCH_QUEUE_CAPACITY = 1024;
+
+    // Thread sempre disponibili per preparare le partite (il reperimento delle traduzioni è bloccante)
+    public static int MATCH_CORE_THREADS = 16;
+
+    // Partite che possono essere preparate contemporaneamente
+    public static int MATCH_MAX_THREADS = 256;
+
+    // Partite che possono attendere un thread prima di essere annullate
+    public static int MATCH_QUEUE_CAPACITY = 16;
+
+    // Thread con un selettore ciascuno su cui vengono giocate tutte le partite
+    public static int MATCH_LOOPS = Runtime.getRuntime().availableProcessors();
+
+    // Numero massimo di giocatori in una partita
+    public static int ROOM_MAX_PLAYERS = 16;
+
+    // Numero massimo di spettatori di una partita
+    public static int SPECTATORS_PER_MATCH = 1000;
+
+    // Frame non ancora scritti oltre i quali uno spettatore perde gli eventi della partita
+    public static int SPECTATOR_MAX_QUEUED_EVENTS = 32;
+
+    // Ampiezza in punti di una fascia della coda di MATCHMAKE
+    public static int MATCHMAKING_BUCKET_POINTS = 10;
+
+    // Numero di fasce della coda di MATCHMAKE (l'ultima raccoglie tutti i punteggi più alti)
+    public static int MATCHMAKING_BUCKETS = 64;
+
+    // Intervallo in millisecondi tra due passate del matchmaker
+    public static long MATCHMAKING_INTERVAL = 20;
+
+    // Attesa in millisecondi dopo cui la ricerca si allarga di una fascia
+    public static long MATCHMAKING_WIDEN_INTERVAL = 1000;
+
+    // Attesa massima in millisecondi di un giocatore in coda
+    public static long MATCHMAKING_TIMEOUT = TIMEOUT;
+
+    // Cartella in cui viene salvato un file per ogni torneo
+    public static String TOURNAMENTS_DIRECTORY = "tournaments";
+
+    // Numero massimo di iscritti ad un torneo
+    public static int TOURNAMENT_MAX_PLAYERS = 1024;
+
+    // Attesa in millisecondi tra la fine di un turno e l'inizio del successivo
+    public static long TOURNAMENT_ROUND_DELAY = 5000;
+
+    // Flag che esegue comandi e partite su virtual thread (JDK 21+, -Dwordquizzles.virtualThreads=true)
+    public static boolean VIRTUAL_THREADS = Boolean.getBoolean("wordquizzles.virtualThreads");
+
+    // Comandi in esecuzione contemporanea su virtual thread prima di essere rifiutati
+    public static int VIRTUAL_DISPATCH_MAX_TASKS = 10000;
+
+    // Intervallo in millisecondi tra due stampe dello stato dei thread pool
+    public static long POOL_MONITOR_INTERVAL = 10000;
+
+    // Dimensione in byte dei buffer in cui vengono scritte le risposte
+    public static int RESPONSE_BUFFER_SIZE = 4096;
+
+    // Numero massimo di buffer di risposta mantenuti nel pool
+    public static int RESPONSE_POOL_SIZE = 1024;
+
+    // Flag che abilita la stampa dei messaggi scambiati dai client
+    public static boolean CLIENT_LOGGING = true;
+
     // URL del servizio remoto
     public static String BASE_URL = "https://api.mymemory.translated.net/get?langpair=it|en&q=";
+
+    // Dizionario offline prodotto da DictionaryCompiler (se manca si usa solo il servizio remoto)
+    public static String DICTIONARY_FILENAME = "words.dict";
+
+    // Affidabilità minima (tra 0 e 1) di una traduzione alternativa del servizio remoto per essere accettata
+    public static double TRANSLATION_MIN_MATCH = 0.7;
+
+    // Caratteri massimi di una risposta, oltre i quali è considerata errata
+    public static int MAX_ANSWER_CHARS = 256;
 }
\ No newline at end of file
@@ -15,19 +15,36 @@ import it.unipi.studenti.wordquizzles.shared.wqp.WQPException;
  */
 public class StaticUtilities {
 
+    // Lunghezza dell'intestazione di un frame WQP (lunghezza del messaggio e identificativo della richiesta)
+    public static final int HEADER_LENGTH = 2 * Integer.BYTES;
+
     /**
-     * Data una stringa restituisce un buffer che contiene la lunghezza e la stringa
-     * stessa.
+     * Data una stringa restituisce un frame che contiene la lunghezza, un
+     * identificativo di richiesta nullo e la stringa stessa. Si usa per i
+     * messaggi inviati dal server senza una richiesta.
      * 
      * @param message Stringa da bufferizzare.
      * @return Buffer che contiene la lunghezza della stringa e la stringa stessa.
      */
     public static ByteBuffer bufferizeString(String message) {
+        return bufferizeString(0, message);
+    }
+
+    /**
+     * Data una stringa restituisce un frame che contiene la lunghezza,
+     * l'identificativo della richiesta e la stringa stessa.
+     * 
+     * @param requestId Identificativo della richiesta a cui si riferisce il messaggio.
+     * @param message   Stringa da bufferizzare.
+     * @return Buffer che contiene l'intestazione e la stringa.
+     */
+    public static ByteBuffer bufferizeString(int requestId, String message) {
         // Array di byte contenente i caratteri
         byte[] messageArray = message.getBytes(StandardCharsets.UTF_8);
         // Buffer contenente il messaggio
-        ByteBuffer buffer = ByteBuffer.allocate(messageArray.length + Integer.BYTES);
+        ByteBuffer buffer = ByteBuffer.allocate(messageArray.length + HEADER_LENGTH);
         buffer.putInt(messageArray.length);
+        buffer.putInt(requestId);
         buffer.put(messageArray);
         buffer.flip();
         return buffer;
@@ -0,0 +1,99 @@
+package it.unipi.studenti.wordquizzles.shared.wqp;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+
+import com.google.gson.JsonSyntaxException;
+
+/**
+ * MatchWords è il contenuto del messaggio WORDS, con cui il server invia
+ * all'inizio della sfida tutte le parole ai client che lo hanno chiesto con
+ * PREFETCH. Gli istanti di inizio e fine sono presi dall'orologio del server,
+ * così che il client possa mostrare il tempo rimasto e passare subito alla
+ * parola successiva mentre le risposte vengono inviate.
+ * Nel messaggio occupano una riga l'inizio, una la fine e una l'array JSON
+ * delle parole.
+ */
+public class MatchWords {
+
+    // Istante di inizio della sfida in millisecondi dall'epoca
+    private long start;
+
+    // Istante di fine della sfida in millisecondi dall'epoca
+    private long deadline;
+
+    // Parole da tradurre, nell'ordine in cui vanno risposte
+    private List<String> words;
+
+    /**
+     * Crea il contenuto del messaggio WORDS.
+     *
+     * @param start    Istante di inizio della sfida in millisecondi dall'epoca.
+     * @param deadline Istante di fine della sfida in millisecondi dall'epoca.
+     * @param words    Parole da tradurre, nell'ordine in cui vanno risposte.
+     */
+    public MatchWords(long start, long deadline, List<String> words) {
+        this.start = start;
+        this.deadline = deadline;
+        this.words = words;
+    }
+
+    /**
+     * Divide i dati di un messaggio WORDS nelle loro componenti.
+     *
+     * @param data Dati del messaggio.
+     * @return Contenuto del messaggio.
+     * @throws JsonSyntaxException Se il messaggio non è ben formato.
+     */
+    public static MatchWords parse(String data) {
+        String[] lines = data.split("\n", 3);
+        if (lines.length < 3)
+            throw new JsonSyntaxException("Malformed word list");
+        try {
+            return new MatchWords(Long.parseLong(lines[0]), Long.parseLong(lines[1]), StringListAdapter.parse(lines[2]));
+        } catch (NumberFormatException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    /**
+     * @return Istante di inizio della sfida in millisecondi dall'epoca.
+     */
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * @return Istante di fine della sfida in millisecondi dall'epoca.
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * @return Parole da tradurre, nell'ordine in cui vanno risposte.
+     */
+    public List<String> getWords() {
+        return words;
+    }
+
+    /**
+     * @return Dati da inserire nel messaggio WORDS.
+     */
+    @Override
+    public String toString() {
+        StringWriter out = new StringWriter();
+        out.write(Long.toString(start));
+        out.write('\n');
+        out.write(Long.toString(deadline));
+        out.write('\n');
+        try {
+            StringListAdapter.INSTANCE.toJson(out, words);
+        } catch (IOException e) {
+            // StringWriter non solleva eccezioni
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,61 @@
+package it.unipi.studenti.wordquizzles.shared.wqp;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * RankingAdapter serializza la classifica (username associato ai punti)
+ * leggendo e scrivendo direttamente i token JSON, senza la riflessione di
+ * Gson.
+ */
+public class RankingAdapter extends TypeAdapter<Map<String, Integer>> {
+
+    // Istanza condivisa (l'adapter non ha stato)
+    public static final RankingAdapter INSTANCE = new RankingAdapter();
+
+    @Override
+    public void write(JsonWriter out, Map<String, Integer> ranking) throws IOException {
+        if (ranking == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        for (Map.Entry<String, Integer> entry : ranking.entrySet())
+            out.name(entry.getKey()).value(entry.getValue());
+        out.endObject();
+    }
+
+    @Override
+    public Map<String, Integer> read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        Map<String, Integer> ranking = new HashMap<>();
+        in.beginObject();
+        while (in.hasNext())
+            ranking.put(in.nextName(), in.nextInt());
+        in.endObject();
+        return ranking;
+    }
+
+    /**
+     * @param json Oggetto JSON che associa gli username ai punti.
+     * @return Classifica deserializzata.
+     * @throws JsonSyntaxException Se il JSON non è una classifica.
+     */
+    public static Map<String, Integer> parse(String json) {
+        try {
+            return INSTANCE.fromJson(json);
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package it.unipi.studenti.wordquizzles.shared.wqp;
+
+import it.unipi.studenti.wordquizzles.shared.StaticUtilities;
+
+/**
+ * Round è il contenuto di una risposta WORD durante una sfida: l'esito della
+ * risposta precedente e, nello stesso frame, la prossima parola da tradurre.
+ * Nel messaggio i due valori occupano una riga ciascuno; dopo l'ultima
+ * risposta la riga della parola è assente e il client attende il report.
+ */
+public class Round {
+
+    // Esito inviato con la prima parola, a cui non corrisponde una risposta
+    public static final String START = "START";
+
+    // Esito di una risposta corretta
+    public static final String CORRECT = "CORRECT";
+
+    // Esito di una risposta sbagliata
+    public static final String WRONG = "WRONG";
+
+    // Esito della risposta precedente
+    private String verdict;
+
+    // Prossima parola da tradurre, null se le parole sono esaurite
+    private String nextWord;
+
+    /**
+     * Crea il contenuto di una risposta WORD.
+     *
+     * @param verdict  Esito della risposta precedente.
+     * @param nextWord Prossima parola da tradurre, null se le parole sono esaurite.
+     */
+    public Round(String verdict, String nextWord) {
+        this.verdict = verdict;
+        this.nextWord = nextWord;
+    }
+
+    /**
+     * Divide i dati di una risposta WORD nelle loro componenti.
+     *
+     * @param data Dati della risposta.
+     * @return Contenuto della risposta.
+     */
+    public static Round parse(String data) {
+        String[] lines = data.split("\n", 2);
+        return new Round(lines[0], (lines.length > 1 && !lines[1].isEmpty()) ? lines[1] : null);
+    }
+
+    /**
+     * @return Esito della risposta precedente.
+     */
+    public String getVerdict() {
+        return verdict;
+    }
+
+    /**
+     * @return Flag che indica se la risposta precedente era corretta.
+     */
+    public boolean isCorrect() {
+        return verdict.equals(CORRECT);
+    }
+
+    /**
+     * @return Prossima parola da tradurre, null se le parole sono esaurite.
+     */
+    public String getNextWord() {
+        return nextWord;
+    }
+
+    /**
+     * @return Dati da inserire nella risposta WORD.
+     */
+    @Override
+    public String toString() {
+        if (nextWord == null)
+            return verdict;
+        return StaticUtilities.concat("\n", verdict, nextWord);
+    }
+}
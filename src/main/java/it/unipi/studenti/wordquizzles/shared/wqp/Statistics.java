@@ -0,0 +1,150 @@
+package it.unipi.studenti.wordquizzles.shared.wqp;
+
+/**
+ * Statistics sono le statistiche di gioco di un utente restituite dal
+ * comando STATS: contatori cumulativi e valori derivati.
+ */
+public class Statistics {
+
+    // Username dell'utente
+    private String username;
+
+    // Partite concluse
+    private int matches;
+
+    // Partite vinte
+    private int wins;
+
+    // Partite pareggiate al primo posto
+    private int draws;
+
+    // Risposte date
+    private int answers;
+
+    // Risposte corrette
+    private int correct;
+
+    // Somma dei tempi di risposta in millisecondi
+    private long answerTime;
+
+    // Vittorie consecutive attuali
+    private int streak;
+
+    // Massimo numero di vittorie consecutive
+    private int bestStreak;
+
+    /**
+     * Crea le statistiche di un utente.
+     * @param username   Username dell'utente.
+     * @param matches    Partite concluse.
+     * @param wins       Partite vinte.
+     * @param draws      Partite pareggiate al primo posto.
+     * @param answers    Risposte date.
+     * @param correct    Risposte corrette.
+     * @param answerTime Somma dei tempi di risposta in millisecondi.
+     * @param streak     Vittorie consecutive attuali.
+     * @param bestStreak Massimo numero di vittorie consecutive.
+     */
+    public Statistics(String username, int matches, int wins, int draws, int answers, int correct, long answerTime,
+            int streak, int bestStreak) {
+        this.username = username;
+        this.matches = matches;
+        this.wins = wins;
+        this.draws = draws;
+        this.answers = answers;
+        this.correct = correct;
+        this.answerTime = answerTime;
+        this.streak = streak;
+        this.bestStreak = bestStreak;
+    }
+
+    /**
+     * @return Username dell'utente.
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * @return Partite concluse.
+     */
+    public int getMatches() {
+        return matches;
+    }
+
+    /**
+     * @return Partite vinte.
+     */
+    public int getWins() {
+        return wins;
+    }
+
+    /**
+     * @return Partite pareggiate al primo posto.
+     */
+    public int getDraws() {
+        return draws;
+    }
+
+    /**
+     * @return Risposte date.
+     */
+    public int getAnswers() {
+        return answers;
+    }
+
+    /**
+     * @return Risposte corrette.
+     */
+    public int getCorrect() {
+        return correct;
+    }
+
+    /**
+     * @return Somma dei tempi di risposta in millisecondi.
+     */
+    public long getAnswerTime() {
+        return answerTime;
+    }
+
+    /**
+     * @return Vittorie consecutive attuali.
+     */
+    public int getStreak() {
+        return streak;
+    }
+
+    /**
+     * @return Massimo numero di vittorie consecutive.
+     */
+    public int getBestStreak() {
+        return bestStreak;
+    }
+
+    /**
+     * @return Frazione di risposte corrette, 0 se non ci sono risposte.
+     */
+    public double getAccuracy() {
+        return (answers == 0) ? 0 : (double) correct / answers;
+    }
+
+    /**
+     * @return Frazione di partite vinte, 0 se non ci sono partite.
+     */
+    public double getWinRate() {
+        return (matches == 0) ? 0 : (double) wins / matches;
+    }
+
+    /**
+     * @return Tempo medio di risposta in millisecondi, 0 se non ci sono risposte.
+     */
+    public double getAverageAnswerTime() {
+        return (answers == 0) ? 0 : (double) answerTime / answers;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d partite, %d vinte, %d pareggiate, precisione %.0f%%, risposta media %.0f ms, serie %d (migliore %d)",
+                username, matches, wins, draws, 100 * getAccuracy(), getAverageAnswerTime(), streak, bestStreak);
+    }
+}
@@ -0,0 +1,108 @@
+package it.unipi.studenti.wordquizzles.shared.wqp;
+
+import java.io.IOException;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * StatisticsAdapter serializza le statistiche di un utente leggendo e
+ * scrivendo direttamente i token JSON. Oltre ai contatori vengono scritti i
+ * valori derivati, che in lettura vengono ignorati e ricalcolati.
+ */
+public class StatisticsAdapter extends TypeAdapter<Statistics> {
+
+    // Istanza condivisa (l'adapter non ha stato)
+    public static final StatisticsAdapter INSTANCE = new StatisticsAdapter();
+
+    @Override
+    public void write(JsonWriter out, Statistics statistics) throws IOException {
+        if (statistics == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("username").value(statistics.getUsername());
+        out.name("matches").value(statistics.getMatches());
+        out.name("wins").value(statistics.getWins());
+        out.name("draws").value(statistics.getDraws());
+        out.name("answers").value(statistics.getAnswers());
+        out.name("correct").value(statistics.getCorrect());
+        out.name("answerTime").value(statistics.getAnswerTime());
+        out.name("streak").value(statistics.getStreak());
+        out.name("bestStreak").value(statistics.getBestStreak());
+        out.name("accuracy").value(statistics.getAccuracy());
+        out.name("winRate").value(statistics.getWinRate());
+        out.name("averageAnswerTime").value(statistics.getAverageAnswerTime());
+        out.endObject();
+    }
+
+    @Override
+    public Statistics read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        String username = null;
+        int matches = 0;
+        int wins = 0;
+        int draws = 0;
+        int answers = 0;
+        int correct = 0;
+        long answerTime = 0;
+        int streak = 0;
+        int bestStreak = 0;
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "username":
+                    username = in.nextString();
+                    break;
+                case "matches":
+                    matches = in.nextInt();
+                    break;
+                case "wins":
+                    wins = in.nextInt();
+                    break;
+                case "draws":
+                    draws = in.nextInt();
+                    break;
+                case "answers":
+                    answers = in.nextInt();
+                    break;
+                case "correct":
+                    correct = in.nextInt();
+                    break;
+                case "answerTime":
+                    answerTime = in.nextLong();
+                    break;
+                case "streak":
+                    streak = in.nextInt();
+                    break;
+                case "bestStreak":
+                    bestStreak = in.nextInt();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return new Statistics(username, matches, wins, draws, answers, correct, answerTime, streak, bestStreak);
+    }
+
+    /**
+     * @param json Oggetto JSON con le statistiche.
+     * @return Statistiche deserializzate.
+     * @throws JsonSyntaxException Se il JSON non contiene statistiche.
+     */
+    public static Statistics parse(String json) {
+        try {
+            return INSTANCE.fromJson(json);
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+}
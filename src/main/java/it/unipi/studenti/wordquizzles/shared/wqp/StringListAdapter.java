@@ -0,0 +1,61 @@
+package it.unipi.studenti.wordquizzles.shared.wqp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * StringListAdapter serializza le liste di stringhe del protocollo (lista
+ * degli amici, risposte di una MULTI) leggendo e scrivendo direttamente i
+ * token JSON, senza la riflessione di Gson.
+ */
+public class StringListAdapter extends TypeAdapter<List<String>> {
+
+    // Istanza condivisa (l'adapter non ha stato)
+    public static final StringListAdapter INSTANCE = new StringListAdapter();
+
+    @Override
+    public void write(JsonWriter out, List<String> list) throws IOException {
+        if (list == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginArray();
+        for (String value : list)
+            out.value(value);
+        out.endArray();
+    }
+
+    @Override
+    public List<String> read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        List<String> list = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext())
+            list.add(in.nextString());
+        in.endArray();
+        return list;
+    }
+
+    /**
+     * @param json Array JSON di stringhe.
+     * @return Lista deserializzata.
+     * @throws JsonSyntaxException Se il JSON non è un array di stringhe.
+     */
+    public static List<String> parse(String json) {
+        try {
+            return INSTANCE.fromJson(json);
+        } catch (IOException | IllegalStateException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package it.unipi.studenti.wordquizzles.shared.wqp;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * WQPRequest è una richiesta WQP letta direttamente dal buffer del frame. Il
+ * costruttore registra soltanto gli offset dei campi separati da spazi
+ * bianchi: il comando viene riconosciuto confrontando i byte e le stringhe
+ * vengono create solo per i campi che il gestore richiede esplicitamente.
+ */
+public class WQPRequest {
+
+    /**
+     * Command è l'insieme dei comandi riconosciuti dal server.
+     */
+    public enum Command {
+        LOGIN, LOGOUT, FRIEND, FRIENDSLIST, RANKING, POINTS, CHALLENGE, MULTI, HISTORY, STATS, PREFETCH, MATCHMAKE, TOURNAMENT, SPECTATE, WORD,
+        // Comando non riconosciuto
+        UNKNOWN;
+
+        // Byte del nome del comando, per il confronto senza allocazioni
+        private final byte[] bytes = name().getBytes(StandardCharsets.US_ASCII);
+
+        // Comandi riconoscibili (UNKNOWN escluso)
+        private static final Command[] KNOWN = Arrays.copyOf(values(), values().length - 1);
+    }
+
+    // Code point minimo codificabile con 1, 2 o 3 byte di continuazione
+    private static final int[] MIN_CODE_POINT = { 0, 0x80, 0x800, 0x10000 };
+
+    // Numero di campi per cui viene riservato spazio inizialmente
+    private static final int INITIAL_FIELDS = 4;
+
+    // Array che contiene il frame
+    private byte[] array;
+
+    // Offset di inizio e fine (esclusa) di ogni campo, a coppie
+    private int[] bounds;
+
+    // Numero di campi trovati
+    private int count;
+
+    /**
+     * Individua i campi del frame senza copiarlo.
+     *
+     * @param buffer Buffer contenente il messaggio, dalla posizione al limite.
+     */
+    public WQPRequest(ByteBuffer buffer) {
+        array = buffer.array();
+        bounds = new int[2 * INITIAL_FIELDS];
+        count = 0;
+        int end = buffer.arrayOffset() + buffer.limit();
+        int i = buffer.arrayOffset() + buffer.position();
+        while (i < end) {
+            // Salta gli spazi bianchi
+            while (i < end && isBlank(array[i]))
+                i++;
+            if (i == end)
+                break;
+            int start = i;
+            while (i < end && !isBlank(array[i]))
+                i++;
+            if (2 * count == bounds.length)
+                bounds = Arrays.copyOf(bounds, 2 * bounds.length);
+            bounds[2 * count] = start;
+            bounds[2 * count + 1] = i;
+            count++;
+        }
+    }
+
+    /**
+     * Come String.trim considera spazi bianchi tutti i caratteri di controllo.
+     * I byte delle sequenze UTF-8 multibyte non sono mai spazi bianchi.
+     *
+     * @param b Byte da verificare.
+     * @return Flag che indica se il byte è uno spazio bianco.
+     */
+    private static boolean isBlank(byte b) {
+        return (b & 0xFF) <= ' ';
+    }
+
+    /**
+     * @return Numero di campi della richiesta, comando compreso.
+     */
+    public int count() {
+        return count;
+    }
+
+    /**
+     * Riconosce il comando del campo passato.
+     *
+     * @param index Indice del campo.
+     * @return Comando contenuto nel campo, oppure UNKNOWN.
+     */
+    public Command command(int index) {
+        if (index >= count)
+            return Command.UNKNOWN;
+        int start = bounds[2 * index];
+        int length = bounds[2 * index + 1] - start;
+        for (Command command : Command.KNOWN) {
+            byte[] bytes = command.bytes;
+            if (bytes.length != length)
+                continue;
+            int i = 0;
+            while (i < length && array[start + i] == bytes[i])
+                i++;
+            if (i == length)
+                return command;
+        }
+        return Command.UNKNOWN;
+    }
+
+    /**
+     * @return Comando della richiesta, oppure UNKNOWN.
+     */
+    public Command command() {
+        return command(0);
+    }
+
+    /**
+     * Restituisce il nome del comando da riportare nella risposta. Per un comando
+     * non riconosciuto restituisce il testo inviato dal client.
+     *
+     * @param index Indice del campo contenente il comando.
+     * @return Nome del comando.
+     */
+    public String commandName(int index) {
+        Command command = command(index);
+        if (command != Command.UNKNOWN)
+            return command.name();
+        return (index < count) ? decode(index) : "";
+    }
+
+    /**
+     * Crea la stringa del campo passato.
+     *
+     * @param index Indice del campo.
+     * @return Contenuto del campo decodificato in UTF-8.
+     * @throws WQPException Se il campo non è presente.
+     */
+    public String field(int index) throws WQPException {
+        if (index >= count)
+            throw new WQPException("Malformed request");
+        return decode(index);
+    }
+
+    /**
+     * @param index Indice di un campo presente.
+     * @return Contenuto del campo decodificato in UTF-8.
+     */
+    private String decode(int index) {
+        int start = bounds[2 * index];
+        return new String(array, start, bounds[2 * index + 1] - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decodifica in un array del chiamante i campi dall'indice passato fino
+     * all'ultimo, separati da uno spazio, senza creare oggetti. Le sequenze
+     * UTF-8 non valide diventano U+FFFD.
+     *
+     * @param index Indice del primo campo.
+     * @param out   Array in cui scrivere i caratteri.
+     * @return Numero di caratteri scritti, -1 se non entrano nell'array.
+     * @throws WQPException Se il campo non è presente.
+     */
+    public int decodeFields(int index, char[] out) throws WQPException {
+        if (index >= count)
+            throw new WQPException("Malformed request");
+        int length = 0;
+        for (int field = index; field < count; field++) {
+            if (field > index) {
+                if (length == out.length)
+                    return -1;
+                out[length++] = ' ';
+            }
+            int i = bounds[2 * field];
+            int end = bounds[2 * field + 1];
+            while (i < end) {
+                int b = array[i++] & 0xFF;
+                // Byte di continuazione attesi e code point parziale
+                int continuation;
+                int codePoint;
+                if (b < 0x80) {
+                    continuation = 0;
+                    codePoint = b;
+                } else if (b >= 0xC2 && b < 0xE0) {
+                    continuation = 1;
+                    codePoint = b & 0x1F;
+                } else if (b >= 0xE0 && b < 0xF0) {
+                    continuation = 2;
+                    codePoint = b & 0x0F;
+                } else if (b >= 0xF0 && b < 0xF5) {
+                    continuation = 3;
+                    codePoint = b & 0x07;
+                } else {
+                    continuation = -1;
+                    codePoint = 0xFFFD;
+                }
+                for (int c = 0; c < continuation; c++) {
+                    if (i == end || (array[i] & 0xC0) != 0x80) {
+                        codePoint = 0xFFFD;
+                        break;
+                    }
+                    codePoint = (codePoint << 6) | (array[i++] & 0x3F);
+                }
+                // Scarta le codifiche troppo lunghe, i surrogati e i valori oltre l'ultimo code point
+                if ((continuation > 0 && codePoint < MIN_CODE_POINT[continuation]) || codePoint > Character.MAX_CODE_POINT
+                        || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE))
+                    codePoint = 0xFFFD;
+                int chars = Character.charCount(codePoint);
+                if (length + chars > out.length)
+                    return -1;
+                length += Character.toChars(codePoint, out, length);
+            }
+        }
+        return length;
+    }
+}
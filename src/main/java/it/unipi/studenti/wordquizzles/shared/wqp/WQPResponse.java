@@ -0,0 +1,71 @@
+package it.unipi.studenti.wordquizzles.shared.wqp;
+
+/**
+ * WQPResponse è una risposta WQP divisa nelle sue componenti: comando che l'ha
+ * originata, esito e dati allegati.
+ */
+public class WQPResponse {
+
+    // Comando che ha originato la risposta
+    private String command;
+
+    // Esito dell'operazione
+    private String outcome;
+
+    // Dati allegati alla risposta
+    private String data;
+
+    /**
+     * Costruisce la risposta a partire dalle sue componenti.
+     *
+     * @param command Comando che ha originato la risposta.
+     * @param outcome Esito dell'operazione.
+     * @param data    Dati allegati alla risposta.
+     */
+    public WQPResponse(String command, String outcome, String data) {
+        this.command = command;
+        this.outcome = outcome;
+        this.data = data;
+    }
+
+    /**
+     * Divide un messaggio ricevuto dal server nelle sue componenti.
+     *
+     * @param message Messaggio ricevuto dal server.
+     * @return Risposta divisa nelle sue componenti.
+     */
+    public static WQPResponse parse(String message) {
+        String[] parts = message.split("\n", 3);
+        String outcome = (parts.length > 1) ? parts[1] : "KO";
+        String data = (parts.length > 2) ? parts[2].trim() : "";
+        return new WQPResponse(parts[0], outcome, data);
+    }
+
+    /**
+     * @return Comando che ha originato la risposta.
+     */
+    public String getCommand() {
+        return command;
+    }
+
+    /**
+     * @return Esito dell'operazione.
+     */
+    public String getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * @return Flag che indica se l'esito è positivo.
+     */
+    public boolean isOk() {
+        return outcome.equals("OK");
+    }
+
+    /**
+     * @return Dati allegati alla risposta.
+     */
+    public String getData() {
+        return data;
+    }
+}